@@ -2,17 +2,76 @@ package au.com.mysites.location;
 
 final class Constant {
 
-    static final int SUCCESS_RESULT = 0;
-    static final int FAILURE_RESULT = 1;
-    private static final String PACKAGE_NAME = "au.com.mysites.location";
-    static final String RECEIVER = PACKAGE_NAME + ".RECEIVER";
-    static final String RESULT_DATA_KEY = PACKAGE_NAME + ".RESULT_DATA_KEY";
-    static final String LOCATION_DATA_EXTRA = PACKAGE_NAME + ".LOCATION_DATA_EXTRA";
-
     // Used to check user's location settings allow location services to create a LocationRequest
     static final int REQUEST_CHECK_SETTINGS = 10;
     static final int PERMISSION_REQUEST_CODE = 20;
 
+    // Address cache, directory is under the app cache directory
+    static final String ADDRESS_CACHE_DIRECTORY = "addresses";
+    static final int ADDRESS_CACHE_MEMORY_ENTRIES = 64;
+    static final long ADDRESS_CACHE_TIME_TO_LIVE_MS = 30L * 24 * 60 * 60 * 1000;
+    static final long ADDRESS_CACHE_MAX_DISK_BYTES = 1024 * 1024;
+
+    // Geocoding engine, number of concurrent lookups and lookups waiting for a thread
+    static final int GEOCODER_THREADS = 3;
+    static final int GEOCODER_QUEUE_SIZE = 32;
+    // time before falling back, lookup time percentile before a second attempt,
+    // and how far away an address found recently can be used as the last fallback
+    static final long GEOCODER_DEADLINE_MS = 3000;
+    static final double GEOCODER_HEDGE_PERCENTILE = 90;
+    static final long GEOCODER_MIN_HEDGE_DELAY_MS = 500;
+    static final double GEOCODER_NEAREST_DISTANCE_M = 250;
+    // distance moved from the last prefetched address before prefetching again
+    static final double PREFETCH_DISTANCE_M = 25;
+
+    // Batch geocoder used to annotate the track, lookups at the same time and per second
+    static final int BATCH_GEOCODER_THREADS = 2;
+    static final double BATCH_GEOCODER_RATE = 2;
+    static final int BATCH_GEOCODER_BURST = 5;
+
+    // Offline place index, in the app files directory, and how far away a place can be used
+    static final String OFFLINE_PLACES_FILE = "places.idx";
+    static final double OFFLINE_MAX_DISTANCE_M = 20000;
+
+    // Track replayed when debugging, in the app external files directory, 1 for real time
+    static final String REPLAY_FILE = "replay.gpx";
+    static final double REPLAY_SPEED = 1;
+
+    // Number of saved places shown nearest the location
+    static final int NEAREST_PLACES = 3;
+
+    // Most bars in the trip charts, the pyramid level is chosen to fit
+    static final int TRIP_CHART_BUCKETS = 40;
+
+    // Track store, directory is under the app files directory
+    static final String TRACK_DIRECTORY = "track";
+    static final int TRACK_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    // Smoothing of tracked fixes, typical change in speed in metres per second squared,
+    // and time between fixes after which the filter starts again
+    static final double SMOOTHING_ACCELERATION = 1;
+    static final long SMOOTHING_MAX_GAP_MS = 60 * 1000;
+
+    // Geofences, grid cell of the index, distance outside a fence before it is left,
+    // and time inside before dwelling is reported
+    static final double GEOFENCE_CELL_DEGREES = 0.01;
+    static final double GEOFENCE_HYSTERESIS_M = 30;
+    static final long GEOFENCE_DWELL_MS = 5 * 60 * 1000;
+
+    // Visits, furthest from the centre of a place, shortest stay, time away before
+    // a visit ends, and number of visits kept
+    static final double VISIT_RADIUS_M = 75;
+    static final long VISIT_MIN_DURATION_MS = 5 * 60 * 1000;
+    static final long VISIT_EXIT_MS = 2 * 60 * 1000;
+    static final int VISIT_HISTORY = 100;
+
+    // Last fix, in the app files directory, shown on startup until a fresh fix arrives
+    static final String LAST_FIX_FILE = "last_fix";
+    static final long FRESH_FIX_INTERVAL_MS = 1000;
+    static final long FRESH_FIX_TIMEOUT_MS = 30 * 1000;
+    // a displayed fix older than this is marked as stale
+    static final long STALE_FIX_AGE_MS = 2 * 60 * 1000;
+
 }
 
 
@@ -5,7 +5,10 @@ package au.com.mysites.location;
  */
 class Debug {
     static final boolean DEBUG_METHOD_ENTRY = false;
-    static final boolean DEBUG_INTENT = false;
+    static final boolean DEBUG_GEOCODER = false;
     static final boolean DEBUG_LOCATION = false;
     static final boolean DEBUG_DATE_TIME = false;
+    static final boolean DEBUG_CACHE = false;
+    // track with a replayed file rather than the fused location provider
+    static final boolean DEBUG_REPLAY = false;
 }
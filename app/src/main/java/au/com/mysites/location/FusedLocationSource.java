@@ -0,0 +1,110 @@
+package au.com.mysites.location;
+
+import android.annotation.SuppressLint;
+import android.location.Location;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import au.com.mysites.location.core.Fix;
+import au.com.mysites.location.core.LocationSource;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+
+import java.util.List;
+
+/**
+ * Location updates from the FusedLocationProviderClient as a location source.
+ * Batches of fixes are delivered on a background thread.
+ */
+class FusedLocationSource implements LocationSource {
+
+    private final static String TAG = FusedLocationSource.class.getSimpleName();
+
+    private final FusedLocationProviderClient mFusedLocationClient;
+
+    // only used on the source thread, grown to the largest batch
+    private Fix[] mFixes = new Fix[0];
+
+    private HandlerThread mThread;
+    private volatile Listener mListener;
+    private long mIntervalMs;
+    private int mBatchSize;
+    private int mPriority;
+
+    /**
+     * @param client fused location client
+     */
+    FusedLocationSource(FusedLocationProviderClient client) {
+        mFusedLocationClient = client;
+    }
+
+    /**
+     * @param priority LocationRequest priority, e.g. PRIORITY_HIGH_ACCURACY
+     * @throws SecurityException if location permission has not been granted
+     */
+    @SuppressLint("MissingPermission")
+    @Override
+    public void start(long intervalMs, int batchSize, int priority, Listener listener) {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "start()");
+
+        mListener = listener;
+        if (mThread != null) {
+            if (intervalMs == mIntervalMs && batchSize == mBatchSize && priority == mPriority) {
+                return;
+            }
+            mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+        } else {
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+        }
+        mIntervalMs = intervalMs;
+        mBatchSize = batchSize;
+        mPriority = priority;
+
+        LocationRequest request = LocationRequest.create()
+                .setPriority(priority)
+                .setInterval(intervalMs)
+                .setFastestInterval(intervalMs / 2)
+                // fixes are held by the device and delivered together
+                .setMaxWaitTime(intervalMs * batchSize);
+        mFusedLocationClient.requestLocationUpdates(request, mLocationCallback, mThread.getLooper());
+        if (Debug.DEBUG_LOCATION) Log.d(TAG, "tracking every " + intervalMs + "ms, batch "
+                + batchSize + ", priority " + priority);
+    }
+
+    /**
+     * Stop updates, a batch already received is still delivered
+     */
+    @Override
+    public void stop() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "stop()");
+
+        if (mThread == null) return;
+        mFusedLocationClient.removeLocationUpdates(mLocationCallback);
+        mThread.quitSafely();
+        mThread = null;
+    }
+
+    /**
+     * Receives batches of locations on the source thread
+     */
+    private final LocationCallback mLocationCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult result) {
+            if (result == null) return;
+            List<Location> locations = result.getLocations();
+            int count = locations.size();
+            if (mFixes.length < count) {
+                Fix[] fixes = new Fix[count];
+                for (int i = 0; i < count; i++) fixes[i] = i < mFixes.length ? mFixes[i] : new Fix();
+                mFixes = fixes;
+            }
+            for (int i = 0; i < count; i++) LocationTracker.toFix(locations.get(i), mFixes[i]);
+            mListener.onFixes(mFixes, count);
+        }
+    };
+}
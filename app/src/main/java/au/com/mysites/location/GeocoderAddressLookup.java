@@ -0,0 +1,72 @@
+package au.com.mysites.location;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.text.TextUtils;
+import android.util.Log;
+
+import au.com.mysites.location.core.AddressLookup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Uses the Android Geocoder to fetch the address for a location
+ */
+class GeocoderAddressLookup implements AddressLookup {
+
+    private final static String TAG = GeocoderAddressLookup.class.getSimpleName();
+
+    private final Context mContext;
+
+    /**
+     * @param context application context used to create the Geocoder
+     */
+    GeocoderAddressLookup(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Invokes Geocoder, joins the lines of the first address found
+     * logs debug information which is normally suppressed
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @return address or null if no address found
+     * @throws IOException network or other I/O problems
+     */
+    @Override
+    public String getAddress(double latitude, double longitude) throws IOException {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "getAddress()");
+
+        // Geocoder is not thread safe, so one for each request
+        Geocoder geocoder = new Geocoder(mContext, Locale.getDefault());
+
+        //Just a single address.
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+
+        // Handle case where no address was found.
+        if (addresses == null || addresses.size() == 0) {
+            if (Debug.DEBUG_GEOCODER) Log.d(TAG, "Address is null");
+            return null;
+        }
+        if (Debug.DEBUG_GEOCODER) Log.d(TAG, "Address_found");
+        Address address = addresses.get(0);
+        ArrayList<String> addressFragments = new ArrayList<>();
+
+        // Fetch the address lines using getAddressLine and join them
+        for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
+            addressFragments.add(address.getAddressLine(i));
+
+            //for debugging only show each address string
+            if (Debug.DEBUG_GEOCODER) Log.d(TAG, "i=" + Integer.toString(i) + " "
+                    + address.getAddressLine(i));
+        }
+        return TextUtils.join(Objects.requireNonNull(System.getProperty("line.separator")),
+                addressFragments);
+    }
+}
@@ -0,0 +1,151 @@
+package au.com.mysites.location;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import au.com.mysites.location.core.Fix;
+import au.com.mysites.location.core.FixPipeline;
+import au.com.mysites.location.core.LocationSource;
+import au.com.mysites.location.core.Metrics;
+
+/**
+ * Continuous location tracking from a location source, the fused location provider
+ * or a replayed track. Fixes are delivered in batches, up to batch size fixes per wakeup,
+ * on the source's background thread where each one goes through the fix pipeline.
+ * Only the latest fix of a batch is posted to the main thread for display.
+ */
+class LocationTracker {
+
+    private final static String TAG = LocationTracker.class.getSimpleName();
+
+    /**
+     * Receives the latest fix of each batch, called on the main thread
+     */
+    interface Listener {
+        /**
+         * @param location latest location after processing by the pipeline
+         */
+        void onLocation(Location location);
+    }
+
+    private final LocationSource mSource;
+    private final FixPipeline mPipeline;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean mTracking;
+
+    /**
+     * @param source   source of the fixes
+     * @param pipeline processing applied to each fix on the source thread
+     * @param listener receives the latest fix of each batch
+     */
+    LocationTracker(LocationSource source, FixPipeline pipeline, Listener listener) {
+        mSource = source;
+        mPipeline = pipeline;
+        mListener = listener;
+    }
+
+    /**
+     * Start tracking, or change the settings if already tracking
+     *
+     * @param intervalMs desired time between fixes
+     * @param batchSize  number of fixes the device may hold before delivering them
+     * @param priority   LocationRequest priority, e.g. PRIORITY_HIGH_ACCURACY
+     * @throws SecurityException if location permission has not been granted
+     */
+    void start(long intervalMs, int batchSize, int priority) {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "start()");
+
+        mSource.start(intervalMs, batchSize, priority, mSourceListener);
+        mTracking = true;
+    }
+
+    /**
+     * Stop tracking, fixes already delivered are still processed
+     */
+    void stop() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "stop()");
+
+        if (!mTracking) return;
+        mSource.stop();
+        mTracking = false;
+    }
+
+    /**
+     * @return true if tracking
+     */
+    boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * Copy an Android location into a fix
+     *
+     * @param location location to copy
+     * @param fix      fix to copy into
+     */
+    static void toFix(Location location, Fix fix) {
+        fix.time = location.getTime();
+        fix.latitude = location.getLatitude();
+        fix.longitude = location.getLongitude();
+        fix.altitude = location.getAltitude();
+        fix.accuracy = location.getAccuracy();
+        fix.speed = location.getSpeed();
+        fix.bearing = location.getBearing();
+        fix.hasAltitude = location.hasAltitude();
+        fix.hasSpeed = location.hasSpeed();
+        fix.hasBearing = location.hasBearing();
+    }
+
+    /**
+     * Copy a fix into a new Android location
+     *
+     * @param fix fix to copy
+     * @return location
+     */
+    static Location toLocation(Fix fix) {
+        Location location = new Location(TAG);
+        location.setTime(fix.time);
+        location.setLatitude(fix.latitude);
+        location.setLongitude(fix.longitude);
+        location.setAccuracy(fix.accuracy);
+        if (fix.hasAltitude) location.setAltitude(fix.altitude);
+        if (fix.hasSpeed) location.setSpeed(fix.speed);
+        if (fix.hasBearing) location.setBearing(fix.bearing);
+        return location;
+    }
+
+    /**
+     * Receives batches of fixes on the source thread
+     */
+    private final LocationSource.Listener mSourceListener = new LocationSource.Listener() {
+        @Override
+        public void onFixes(Fix[] fixes, int count) {
+            Metrics.increment(Metrics.WAKEUPS);
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "batch of " + count);
+
+            Fix latest = null;
+            for (int i = 0; i < count; i++) {
+                Metrics.increment(Metrics.FIXES);
+                long start = Metrics.start();
+                boolean keep = mPipeline.onFix(fixes[i]);
+                Metrics.record(Metrics.FIX_PIPELINE, start);
+                // the pipeline may have adjusted the position
+                if (keep) latest = fixes[i];
+            }
+            if (latest == null) return;
+
+            final Location display = toLocation(latest);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    //ignore fixes processed after tracking was stopped
+                    if (isTracking()) mListener.onLocation(display);
+                }
+            });
+        }
+    };
+}
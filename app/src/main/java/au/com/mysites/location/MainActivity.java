@@ -2,32 +2,95 @@ package au.com.mysites.location;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.SQLException;
+import android.location.Geocoder;
 import android.location.Location;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
-import android.support.v4.os.ResultReceiver;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import au.com.mysites.location.core.AddressCache;
+import au.com.mysites.location.core.AddressLookup;
+import au.com.mysites.location.core.BatchGeocoder;
+import au.com.mysites.location.core.CoordinateFormatter;
+import au.com.mysites.location.core.FallbackAddressLookup;
+import au.com.mysites.location.core.Fix;
+import au.com.mysites.location.core.FixPipeline;
+import au.com.mysites.location.core.FixProcessor;
+import au.com.mysites.location.core.GeocodingEngine;
+import au.com.mysites.location.core.Geofence;
+import au.com.mysites.location.core.GeofenceFile;
+import au.com.mysites.location.core.GeofenceIndex;
+import au.com.mysites.location.core.GeofenceMonitor;
+import au.com.mysites.location.core.Geodesy;
+import au.com.mysites.location.core.Geohash;
+import au.com.mysites.location.core.GridReference;
+import au.com.mysites.location.core.KalmanFilter;
+import au.com.mysites.location.core.LastFixFile;
+import au.com.mysites.location.core.LocationSource;
+import au.com.mysites.location.core.Metrics;
+import au.com.mysites.location.core.NmeaLocationSource;
+import au.com.mysites.location.core.OfflineAddressLookup;
+import au.com.mysites.location.core.OfflinePlaceIndex;
+import au.com.mysites.location.core.ReplayLocationSource;
+import au.com.mysites.location.core.SamplingPolicy;
+import au.com.mysites.location.core.SavedPlaceIndex;
+import au.com.mysites.location.core.StayPointDetector;
+import au.com.mysites.location.core.TokenBucket;
+import au.com.mysites.location.core.TrackAnnotator;
+import au.com.mysites.location.core.TrackExporter;
+import au.com.mysites.location.core.TrackPyramid;
+import au.com.mysites.location.core.TrackSimplifier;
+import au.com.mysites.location.core.TrackStatistics;
+import au.com.mysites.location.core.TrackStore;
+import au.com.mysites.location.core.Visit;
+
 import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static au.com.mysites.location.Constant.PERMISSION_REQUEST_CODE;
 import static com.google.android.gms.location.LocationServices.getFusedLocationProviderClient;
 
@@ -37,7 +100,8 @@ import static com.google.android.gms.location.LocationServices.getFusedLocationP
  * The display format is selected via a preference setting list.
  * 2 buttons :
  * 1. Reload Location - updates the latitude and longitude
- * 2. Get Address - displays the address provider by a geocoder
+ * 2. Get Address - displays the address provider by a geocoder,
+ * addresses are resolved in process by the geocoding engine
  */
 public class MainActivity extends AppCompatActivity {
     //region Fields
@@ -45,17 +109,103 @@ public class MainActivity extends AppCompatActivity {
 
     private FusedLocationProviderClient mFusedLocationClient;
     private Location mLastLocation;
-    private AddressResultReceiver mResultReceiver;
+    private GeocodingEngine mGeocodingEngine;
+    private GeocodingEngine.Request mAddressRequest;
+    // location the address request or the displayed address is for, null if none,
+    // and its cache cell
+    private Location mAddressLocation;
+    private long mAddressCell;
+    // precision of the address cache cells, kept so it is not read for every fix
+    private int mCellPrecision;
+    // address prefetched for a new fix, so Get Address can show it without waiting
+    private boolean mPrefetchEnabled;
+    private GeocodingEngine.Request mPrefetchRequest;
+    // location of the latest prefetch, null if none, and its address once resolved
+    private Location mPrefetchLocation;
+    private String mPrefetchedAddress;
+    private FixPipeline mFixPipeline;
+    // smooths fixes while tracking, first stage of the pipeline when switched on
+    private final KalmanFilter mKalmanFilter =
+            new KalmanFilter(Constant.SMOOTHING_ACCELERATION, Constant.SMOOTHING_MAX_GAP_MS);
+    // trip statistics of the tracked fixes, last stage of the pipeline
+    private final TrackStatistics mTrackStatistics = new TrackStatistics();
+    // drops redundant fixes before the track store, null when off
+    private TrackSimplifier mTrackSimplifier;
+    // chooses the tracking settings from movement and battery when adaptive sampling is on
+    private SamplingPolicy mSamplingPolicy;
+    private boolean mAdaptiveSampling;
+    private boolean mBatteryReceiverRegistered;
+    // reports geofence events while tracking, null until the fence file is loaded
+    private GeofenceMonitor mGeofenceMonitor;
+    // fence file loaded or loading, null if geofences are off
+    private String mGeofenceFile;
+    // finds the places stopped at while tracking
+    private StayPointDetector mStayPointDetector;
+    // visits ended, oldest first, and the visit in progress or null, main thread only
+    private final List<Visit> mVisits = new ArrayList<>();
+    private Visit mCurrentVisit;
+    // address of each place visited, null while it is being looked up
+    private final Map<Integer, String> mPlaceAddresses = new HashMap<>();
+    private String mReceiver;
+    // annotation of the track in progress, null if none
+    private volatile TrackAnnotator mTrackAnnotator;
+    private LocationTracker mLocationTracker;
+
+    // shared by all instances of the activity, so survives a configuration change
+    private static AddressCache sAddressCache;
+    private static OfflinePlaceIndex sOfflinePlaceIndex;
+    private static TrackStore sTrackStore;
+    private static PlaceStore sPlaceStore;
+
+    // saved places, replaced on the place thread as places are saved, read on the main thread
+    private volatile SavedPlaceIndex mSavedPlaces = SavedPlaceIndex.empty();
+    // loads the saved places and writes new ones, one at a time in order, and flushes the
+    // track store
+    private ExecutorService mPlaceExecutor;
+    // places waiting to be written, written together in one transaction
+    private final List<PendingPlace> mPendingPlaces = new ArrayList<>();
+    private final int[] mNearestPlaces = new int[Constant.NEAREST_PLACES];
 
     private Button mButtonLocationUpdate;
     private Button mButtonGetAddress;
+    private TextView mTextViewLatitudeLabel;
+    private TextView mTextViewLongitudeLabel;
+    private TextView mTextViewLatitude;
+    private TextView mTextViewLongitude;
+    private TextView mTextViewAddress;
+    private TextView mTextViewDateTime;
+    private TextView mTextViewNearest;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // last fix and address, shown on startup until a new fix arrives
+    private LastFixFile mLastFixFile;
+    // address displayed for mLastLocation, null if none
+    private String mLastAddress;
+    // true while the displayed location is marked as stale
+    private boolean mShowingStale;
+    // true while waiting for a fresh fix
+    private boolean mFreshFixRequested;
+    private long mFreshFixStartNanos;
+
+    // each text view keeps the characters it is given, so needs its own formatter
+    private final CoordinateFormatter mLatitudeFormatter = new CoordinateFormatter();
+    private final CoordinateFormatter mLongitudeFormatter = new CoordinateFormatter();
+    // grid references are shown whole in the latitude view
+    private final GridReference mGridFormatter = new GridReference();
+    // rows of the formats panel, null unless the panel is showing
+    private PositionFormatsAdapter mFormatsAdapter;
+    // format of latitude and longitude, updated when the preference changes
+    private int mLatLongFormat;
+    // start of the wait for the first fix, 0 once it has been displayed or if metrics are off
+    private long mFirstFixStartNanos;
     //endregion
 
     //region Lifecycle
 
     /**
      * loads layout, toolbar
-     * sets up FusedLocationProviderClient and addressResultReceiver
+     * shows the last fix saved, marked as stale, so something is displayed straight away
+     * sets up FusedLocationProviderClient and geocoding engine
      * sets up listeners for the 2 buttons
      * checks location permissions
      *
@@ -66,12 +216,65 @@ public class MainActivity extends AppCompatActivity {
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onCreate()");
 
         super.onCreate(savedInstanceState);
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        Metrics.setEnabled(pref.getBoolean(getString(R.string.pref_key_metrics),
+                getResources().getBoolean(R.bool.pref_default_metrics)));
+        mPrefetchEnabled = pref.getBoolean(getString(R.string.pref_key_prefetch),
+                getResources().getBoolean(R.bool.pref_default_prefetch));
+        pref.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+        final long start = Metrics.start();
+
         setContentView(R.layout.activity_main);
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
+        mTextViewLatitudeLabel = findViewById(R.id.latitude_label);
+        mTextViewLongitudeLabel = findViewById(R.id.longitude_label);
+        mTextViewLatitude = findViewById(R.id.latitude);
+        mTextViewLongitude = findViewById(R.id.longitude);
+        mTextViewAddress = findViewById(R.id.textViewAddress);
+        mTextViewDateTime = findViewById(R.id.textViewDateTime);
+        mTextViewNearest = findViewById(R.id.textViewNearest);
+        mLatLongFormat = getLatLongFormat();
+        displayCoordinateLabels();
+        mLastFixFile = new LastFixFile(new File(getFilesDir(), Constant.LAST_FIX_FILE));
+        displaySavedFix();
+        if (start != 0) {
+            //time until the first frame, with the saved fix if there is one, is drawn
+            final ViewTreeObserver observer = getWindow().getDecorView().getViewTreeObserver();
+            observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    observer.removeOnPreDrawListener(this);
+                    Metrics.record(Metrics.FIRST_PIXEL, start);
+                    return true;
+                }
+            });
+        }
+
         mFusedLocationClient = getFusedLocationProviderClient(this);
-        mResultReceiver = new AddressResultReceiver(new Handler());
+        mFixPipeline = new FixPipeline();
+        mFixPipeline.add(mStoreStage);
+        mFixPipeline.add(mTrackStatistics);
+        mLocationTracker = new LocationTracker(createLocationSource(), mFixPipeline, mTrackingListener);
+        mSamplingPolicy = new SamplingPolicy(mSamplingListener);
+        mStayPointDetector = new StayPointDetector(Constant.VISIT_RADIUS_M, Constant.VISIT_MIN_DURATION_MS,
+                Constant.VISIT_EXIT_MS, mVisitListener);
+        mGeocodingEngine = new GeocodingEngine(new GeocoderAddressLookup(getApplicationContext()),
+                getAddressCache(this), getCachePrecision(), Constant.GEOCODER_THREADS,
+                Constant.GEOCODER_QUEUE_SIZE, new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        mMainHandler.post(command);
+                    }
+                });
+        mGeocodingEngine.setDeadline(Constant.GEOCODER_DEADLINE_MS);
+        mGeocodingEngine.setHedging(Constant.GEOCODER_HEDGE_PERCENTILE,
+                Constant.GEOCODER_MIN_HEDGE_DELAY_MS);
+        mGeocodingEngine.setNearestDistance(Constant.GEOCODER_NEAREST_DISTANCE_M);
+        configureGeocodingEngine();
+        mPlaceExecutor = Executors.newSingleThreadExecutor();
+        loadSavedPlaces();
 
         mButtonLocationUpdate = findViewById(R.id.ButtonLocationUpdate);
         mButtonLocationUpdate.setOnClickListener(new View.OnClickListener() {
@@ -106,8 +309,12 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onResume()");
 
-        //display location in case format changed
+        //display location, format may have changed while in settings
         if (mLastLocation != null) displayLocation(mLastLocation);
+        //cell size or address source may have changed
+        configureGeocodingEngine();
+        //tracking may have been switched on or off
+        updateTracking();
     }
 
 
@@ -115,6 +322,41 @@ public class MainActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onPause()");
+
+        //app may be killed while in the background, the store is written off the main
+        //thread as writing the whole segment may take a while
+        final TrackStore store = sTrackStore;
+        if (store != null) {
+            mPlaceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    store.flush();
+                }
+            });
+        }
+        saveLastFix();
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onDestroy()");
+
+        PreferenceManager.getDefaultSharedPreferences(getApplicationContext())
+                .unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        mLocationTracker.stop();
+        flushTrackSimplifier();
+        setBatteryReceiver(false);
+        TrackAnnotator annotator = mTrackAnnotator;
+        if (annotator != null) annotator.cancel();
+        cancelFreshFix();
+        cancelAddressRequest();
+        cancelPrefetch();
+        //lookups already started finish and are cached
+        mGeocodingEngine.shutdown();
+        //places waiting are still written
+        mPlaceExecutor.shutdown();
     }
 
 
@@ -135,6 +377,19 @@ public class MainActivity extends AppCompatActivity {
         /* Return true so that the visualizer_menu is displayed in the Toolbar */
         return true;
     }
+
+
+    /**
+     * Only show the metrics item when metrics are being recorded
+     *
+     * @param menu menu
+     * @return boolean
+     */
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_metrics).setVisible(Metrics.isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
     //endregion
 
     //region Methods
@@ -147,6 +402,7 @@ public class MainActivity extends AppCompatActivity {
     private void checkPermissions() {
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "checkPermissions()");
 
+        mFirstFixStartNanos = Metrics.start();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                     != PackageManager.PERMISSION_GRANTED &&
@@ -157,6 +413,8 @@ public class MainActivity extends AppCompatActivity {
                         Manifest.permission.ACCESS_FINE_LOCATION,
                         Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.INTERNET
                 }, PERMISSION_REQUEST_CODE);
+                //location is fetched when the permission is granted
+                return;
             }
             //have the permissions
             getAndDisplayMyLocation();
@@ -168,7 +426,8 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Get format to display coordinates from Preferences
+     * Get format to display coordinates from Preferences,
+     * only called when the preference changes, see mPreferenceListener
      * @return format of coordinates
      */
     private int getLatLongFormat() {
@@ -182,51 +441,204 @@ public class MainActivity extends AppCompatActivity {
         String defaultRate = getString(R.string.pref_default_format);
         format = pref.getString(key, defaultRate);
 
-        if (format.equals(getString(R.string.pref_values_degrees))) return Location.FORMAT_DEGREES;
-        if (format.equals(getString(R.string.pref_values_minutes))) return Location.FORMAT_MINUTES;
-        if (format.equals(getString(R.string.pref_values_seconds))) return Location.FORMAT_SECONDS;
+        if (format.equals(getString(R.string.pref_values_degrees))) return CoordinateFormatter.FORMAT_DEGREES;
+        if (format.equals(getString(R.string.pref_values_minutes))) return CoordinateFormatter.FORMAT_MINUTES;
+        if (format.equals(getString(R.string.pref_values_seconds))) return CoordinateFormatter.FORMAT_SECONDS;
+        if (format.equals(getString(R.string.pref_values_utm))) return GridReference.FORMAT_UTM;
+        if (format.equals(getString(R.string.pref_values_mgrs))) return GridReference.FORMAT_MGRS;
+        if (format.equals(getString(R.string.pref_values_plus_code))) return GridReference.FORMAT_PLUS_CODE;
         //return default
-        return Location.FORMAT_DEGREES;
+        return CoordinateFormatter.FORMAT_DEGREES;
+    }
+
+
+    /**
+     * Get precision of the address cache cells from Preferences
+     *
+     * @return number of geohash characters used as the cache key
+     */
+    private int getCachePrecision() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "getCachePrecision()");
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        String precision = pref.getString(getString(R.string.pref_key_cache_precision),
+                getString(R.string.pref_default_cache_precision));
+        try {
+            return Integer.parseInt(precision);
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(getString(R.string.pref_default_cache_precision));
+        }
+    }
+
+
+    /**
+     * Get the address cache, creating it on first use
+     *
+     * @param context context used to find the cache directory
+     * @return address cache
+     */
+    static synchronized AddressCache getAddressCache(Context context) {
+        if (sAddressCache == null) {
+            File directory = new File(context.getCacheDir(), Constant.ADDRESS_CACHE_DIRECTORY);
+            sAddressCache = new AddressCache(directory, Constant.ADDRESS_CACHE_MEMORY_ENTRIES,
+                    Constant.ADDRESS_CACHE_TIME_TO_LIVE_MS, Constant.ADDRESS_CACHE_MAX_DISK_BYTES);
+        }
+        return sAddressCache;
+    }
+
+
+    /**
+     * Get the offline place index, mapping it on first use
+     *
+     * @param context context used to find the files directory
+     * @return place index or null if there is no usable dataset
+     */
+    static synchronized OfflinePlaceIndex getOfflinePlaceIndex(Context context) {
+        if (sOfflinePlaceIndex == null) {
+            File file = new File(context.getFilesDir(), Constant.OFFLINE_PLACES_FILE);
+            if (!file.exists()) return null;
+            try {
+                sOfflinePlaceIndex = OfflinePlaceIndex.open(file);
+            } catch (IOException e) {
+                if (Debug.DEBUG_GEOCODER) Log.e(TAG, "Offline places not available", e);
+            }
+        }
+        return sOfflinePlaceIndex;
+    }
+
+
+    /**
+     * Get the track store, opening it on first use
+     *
+     * @param context context used to find the files directory
+     * @return track store or null if it can not be opened
+     */
+    static synchronized TrackStore getTrackStore(Context context) {
+        if (sTrackStore == null) {
+            File directory = new File(context.getFilesDir(), Constant.TRACK_DIRECTORY);
+            try {
+                sTrackStore = TrackStore.open(directory, Constant.TRACK_SEGMENT_BYTES);
+            } catch (IOException e) {
+                if (Debug.DEBUG_LOCATION) Log.e(TAG, "Track store not available", e);
+            }
+        }
+        return sTrackStore;
+    }
+
+
+    /**
+     * Get the saved places database, the database is opened on first use
+     *
+     * @param context context used to find the database
+     * @return saved places database
+     */
+    static synchronized PlaceStore getPlaceStore(Context context) {
+        if (sPlaceStore == null) sPlaceStore = new PlaceStore(context.getApplicationContext());
+        return sPlaceStore;
+    }
+
+
+    /**
+     * Create the source of addresses selected in Preferences,
+     * the Geocoder, the offline place index, or the Geocoder falling back to the offline index.
+     * Uses the Geocoder if there is no offline dataset.
+     *
+     * @return address lookup
+     */
+    private AddressLookup createAddressLookup() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "createAddressLookup()");
+
+        AddressLookup geocoder = new GeocoderAddressLookup(getApplicationContext());
+        AddressLookup offline = createOfflineLookup();
+        if (offline == null) return geocoder;
+
+        String source = getAddressSource();
+        if (source.equals(getString(R.string.pref_values_address_source_geocoder))) return geocoder;
+        //no Geocoder backend on this device, so offline is the only choice
+        if (source.equals(getString(R.string.pref_values_address_source_offline))
+                || !Geocoder.isPresent()) {
+            return offline;
+        }
+        return new FallbackAddressLookup(geocoder, offline);
+    }
+
+
+    /**
+     * Apply the settings to the geocoding engine. When the Geocoder falls back to the
+     * offline index the engine does the falling back, so a slow Geocoder is cut off at the
+     * deadline rather than only on failure.
+     */
+    private void configureGeocodingEngine() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "configureGeocodingEngine()");
+
+        mCellPrecision = getCachePrecision();
+        mGeocodingEngine.setCellPrecision(mCellPrecision);
+        AddressLookup offline = createOfflineLookup();
+        if (offline != null && Geocoder.isPresent()
+                && getAddressSource().equals(getString(R.string.pref_values_address_source_fallback))) {
+            mGeocodingEngine.setAddressLookup(new GeocoderAddressLookup(getApplicationContext()));
+            mGeocodingEngine.setFallbackLookup(offline);
+        } else {
+            mGeocodingEngine.setAddressLookup(createAddressLookup());
+            mGeocodingEngine.setFallbackLookup(null);
+        }
+    }
+
+
+    /**
+     * @return lookup in the offline place index, null if there is no offline dataset
+     */
+    private AddressLookup createOfflineLookup() {
+        OfflinePlaceIndex index = getOfflinePlaceIndex(this);
+        if (index == null) return null;
+        return new OfflineAddressLookup(index, Constant.OFFLINE_MAX_DISTANCE_M);
+    }
+
+
+    /**
+     * @return address source selected in Preferences
+     */
+    private String getAddressSource() {
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        return pref.getString(getString(R.string.pref_key_address_source),
+                getString(R.string.pref_default_address_source));
     }
 
 
     /**
-     * sets up fused location client, which is an API from Google Play Services
-     * adds listeners for success and failure
+     * Gets the last location known to the fused location client, which is an API from
+     * Google Play Services, this is quick but may be old, so also requests a fresh fix.
      * if success calls displayLocation() which displays longitude and latitude
      */
     @SuppressLint("MissingPermission")
     void getAndDisplayMyLocation() {
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "getAndDisplayMyLocation()");
 
-        //sets up fused location client, which is API from Google Play Services
-        mFusedLocationClient = getFusedLocationProviderClient(this);
+        final long start = Metrics.start();
         try {
             mFusedLocationClient.getLastLocation()
                     .addOnSuccessListener(this, new OnSuccessListener<Location>() {
                         @Override
                         public void onSuccess(Location location) {
+                            Metrics.record(Metrics.LAST_LOCATION, start);
 
-                            // Got last known location. In some rare situations this can be null.
-                            if (location != null) {
-                                mLastLocation = location;
-                                displayLocation(location);
-                            } else {
-                                mLastLocation = null;
-                                Toast.makeText(getApplicationContext()
-                                        ,getString(R.string.location_null), Toast.LENGTH_SHORT)
-                                        .show();
+                            // Got last known location. In some rare situations this can be null,
+                            // if so wait for the fresh fix
+                            if (location != null && !isNewerLocationDisplayed(location)) {
+                                onNewLocation(location);
                             }
                         }
                     })
                     .addOnFailureListener(new OnFailureListener() {
                         @Override
                         public void onFailure(@NonNull Exception e) {
+                            Metrics.record(Metrics.LAST_LOCATION, start);
                             Toast.makeText(getApplicationContext()
                                     ,getString(R.string.Gps_error), Toast.LENGTH_SHORT)
                                     .show();
                         }
                     });
+            requestFreshFix();
         } catch (SecurityException e) {
             Toast.makeText(MainActivity.this, getString(R.string.SecurityException),
                     Toast.LENGTH_LONG).show();
@@ -235,19 +647,480 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Displays latitude and longitude for the supplied location
+     * Request a single new fix, given up after a deadline
+     *
+     * @throws SecurityException if location permission has not been granted
+     */
+    @SuppressLint("MissingPermission")
+    private void requestFreshFix() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "requestFreshFix()");
+
+        if (mFreshFixRequested) return;
+        LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                .setInterval(Constant.FRESH_FIX_INTERVAL_MS)
+                .setNumUpdates(1)
+                .setExpirationDuration(Constant.FRESH_FIX_TIMEOUT_MS);
+        mFusedLocationClient.requestLocationUpdates(request, mFreshFixCallback,
+                Looper.getMainLooper());
+        mFreshFixRequested = true;
+        mFreshFixStartNanos = Metrics.start();
+        mMainHandler.postDelayed(mFreshFixTimeout, Constant.FRESH_FIX_TIMEOUT_MS);
+    }
+
+
+    /**
+     * Stop waiting for a fresh fix
+     */
+    private void cancelFreshFix() {
+        if (!mFreshFixRequested) return;
+        mFusedLocationClient.removeLocationUpdates(mFreshFixCallback);
+        mMainHandler.removeCallbacks(mFreshFixTimeout);
+        mFreshFixRequested = false;
+    }
+
+
+    /**
+     * @return true if the same or a newer location is already displayed
+     */
+    private boolean isNewerLocationDisplayed(Location location) {
+        return mLastLocation != null && mLastLocation.getTime() >= location.getTime();
+    }
+
+
+    /**
+     * A new location has been received, display it
+     *
+     * @param location new location
+     */
+    private void onNewLocation(Location location) {
+        //address requested for the previous location is stale once the fix has moved away
+        if (!isNearAddress(location)) {
+            cancelAddressRequest();
+            mAddressLocation = null;
+            mLastAddress = null;
+        }
+        mLastLocation = location;
+        displayLocation(location);
+        displayNearestPlaces();
+        prefetchAddress(location);
+    }
+
+
+    /**
+     * Display the last fix and address saved, marked as stale, until a new fix arrives
+     */
+    private void displaySavedFix() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "displaySavedFix()");
+
+        Fix fix = new Fix();
+        String address = mLastFixFile.read(fix);
+        if (address == null) return;
+        displayCoordinates(fix.latitude, fix.longitude);
+        displayStale(fix.time);
+        if (!address.isEmpty()) mTextViewAddress.setText(address);
+    }
+
+
+    /**
+     * Save the last fix and its address, so they can be displayed on the next start
+     */
+    private void saveLastFix() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "saveLastFix()");
+
+        if (mLastLocation == null) return;
+        Fix fix = new Fix();
+        LocationTracker.toFix(mLastLocation, fix);
+        try {
+            mLastFixFile.write(fix, mLastAddress);
+        } catch (IOException e) {
+            if (Debug.DEBUG_LOCATION) Log.e(TAG, "last fix not saved", e);
+        }
+    }
+
+
+    /**
+     * Read the saved places into the in memory index on the place thread,
+     * so the nearest places can be shown as soon as a fix arrives
+     */
+    private void loadSavedPlaces() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "loadSavedPlaces()");
+
+        final Context context = getApplicationContext();
+        mPlaceExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mSavedPlaces = getPlaceStore(context).load();
+                } catch (SQLException e) {
+                    if (Debug.DEBUG_LOCATION) Log.e(TAG, "saved places not loaded", e);
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        displayNearestPlaces();
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Save the location displayed, named by its address if it has been looked up.
+     * Places saved while a write is waiting join it.
+     */
+    private void savePlace() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "savePlace()");
+
+        if (mLastLocation == null) {
+            Toast.makeText(this, getString(R.string.location_null), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        double latitude = mLastLocation.getLatitude();
+        double longitude = mLastLocation.getLongitude();
+        String name = mLastAddress != null ? mLastAddress
+                : String.format(Locale.US, "%.5f, %.5f", latitude, longitude);
+        synchronized (mPendingPlaces) {
+            mPendingPlaces.add(new PendingPlace(SavedPlaceIndex.quantize(latitude),
+                    SavedPlaceIndex.quantize(longitude), name));
+            //a write is already waiting
+            if (mPendingPlaces.size() > 1) return;
+        }
+        mPlaceExecutor.execute(mWritePlaces);
+    }
+
+
+    /**
+     * Show the saved places nearest the location displayed, with their distances
+     */
+    private void displayNearestPlaces() {
+        SavedPlaceIndex places = mSavedPlaces;
+        if (mLastLocation == null || places.size() == 0) {
+            mTextViewNearest.setText("");
+            return;
+        }
+        double latitude = mLastLocation.getLatitude();
+        double longitude = mLastLocation.getLongitude();
+        int count = places.nearest(latitude, longitude, mNearestPlaces);
+        StringBuilder text = new StringBuilder(getString(R.string.nearest_places_title));
+        for (int i = 0; i < count; i++) {
+            int place = mNearestPlaces[i];
+            long distance = Math.round(Geodesy.distance(latitude, longitude,
+                    places.getLatitude(place), places.getLongitude(place)));
+            text.append('\n').append(getString(R.string.nearest_place, places.getName(place), distance));
+        }
+        mTextViewNearest.setText(text);
+    }
+
+
+    /**
+     * Create the source of tracked fixes, the fused location provider, an external receiver
+     * sending NMEA over TCP set in Preferences, or when debugging a track replayed from the
+     * app external files directory
+     *
+     * @return location source
+     */
+    private LocationSource createLocationSource() {
+        if (Debug.DEBUG_REPLAY) {
+            File directory = getExternalFilesDir(null);
+            if (directory == null) directory = getFilesDir();
+            return new ReplayLocationSource(new File(directory, Constant.REPLAY_FILE),
+                    Constant.REPLAY_SPEED);
+        }
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        mReceiver = pref.getString(getString(R.string.pref_key_receiver),
+                getString(R.string.pref_default_receiver)).trim();
+        int colon = mReceiver.lastIndexOf(':');
+        if (colon > 0) {
+            try {
+                int port = Integer.parseInt(mReceiver.substring(colon + 1));
+                return new NmeaLocationSource(NmeaLocationSource.socket(mReceiver.substring(0, colon),
+                        port), true);
+            } catch (NumberFormatException e) {
+                if (Debug.DEBUG_LOCATION) Log.d(TAG, "bad receiver " + mReceiver);
+            }
+        }
+        return new FusedLocationSource(mFusedLocationClient);
+    }
+
+
+    /**
+     * Start, change or stop continuous tracking to match the tracking Preferences.
+     * Tracking continues while the activity is paused so a whole shift is logged.
+     */
+    private void updateTracking() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "updateTracking()");
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        updatePipeline();
+        if (!Debug.DEBUG_REPLAY && !pref.getString(getString(R.string.pref_key_receiver),
+                getString(R.string.pref_default_receiver)).trim().equals(mReceiver)) {
+            //the receiver changed, track from the new source
+            mLocationTracker.stop();
+            mLocationTracker = new LocationTracker(createLocationSource(), mFixPipeline, mTrackingListener);
+        }
+        if (!pref.getBoolean(getString(R.string.pref_key_tracking),
+                getResources().getBoolean(R.bool.pref_default_tracking))) {
+            mLocationTracker.stop();
+            flushTrackSimplifier();
+            mStayPointDetector.flush();
+            setBatteryReceiver(false);
+            return;
+        }
+        setBatteryReceiver(mAdaptiveSampling);
+        if (mAdaptiveSampling) {
+            startAdaptiveTracking();
+            return;
+        }
+        long interval = Long.parseLong(pref.getString(getString(R.string.pref_key_tracking_interval),
+                getString(R.string.pref_default_tracking_interval)));
+        int batchSize = Integer.parseInt(pref.getString(getString(R.string.pref_key_tracking_batch),
+                getString(R.string.pref_default_tracking_batch)));
+        int priority = Integer.parseInt(pref.getString(getString(R.string.pref_key_tracking_priority),
+                getString(R.string.pref_default_tracking_priority)));
+        try {
+            mLocationTracker.start(interval, batchSize, priority);
+        } catch (SecurityException e) {
+            Toast.makeText(MainActivity.this, getString(R.string.SecurityException),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
+
+    /**
+     * Store the fix held back by the simplifier, if any, so the stored track reaches
+     * the latest position
+     */
+    private void flushTrackSimplifier() {
+        if (mTrackSimplifier != null) mTrackSimplifier.flush();
+    }
+
+
+    /**
+     * Put the optional stages into the fix pipeline to match Preferences, ahead of the
+     * track store. Smoothing is first so the later stages see less jitter. None of the
+     * stages needs a reset when added back, the filter and policy restart after a gap.
+     * When simplifying, the simplifier takes the place of the store and passes it the
+     * fixes it keeps.
+     */
+    private void updatePipeline() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "updatePipeline()");
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        boolean smoothing = pref.getBoolean(getString(R.string.pref_key_smoothing),
+                getResources().getBoolean(R.bool.pref_default_smoothing));
+        mAdaptiveSampling = pref.getBoolean(getString(R.string.pref_key_adaptive_sampling),
+                getResources().getBoolean(R.bool.pref_default_adaptive_sampling));
+        boolean geofences = pref.getBoolean(getString(R.string.pref_key_geofences),
+                getResources().getBoolean(R.bool.pref_default_geofences));
+        boolean visits = pref.getBoolean(getString(R.string.pref_key_visits),
+                getResources().getBoolean(R.bool.pref_default_visits));
+
+        double tolerance = Double.parseDouble(pref.getString(getString(R.string.pref_key_simplify),
+                getString(R.string.pref_default_simplify)));
+
+        mFixPipeline.remove(mKalmanFilter);
+        mFixPipeline.remove(mSamplingPolicy);
+        mFixPipeline.remove(mStayPointDetector);
+        if (mGeofenceMonitor != null) mFixPipeline.remove(mGeofenceMonitor);
+        if (mTrackSimplifier == null ? tolerance > 0 : mTrackSimplifier.getTolerance() != tolerance) {
+            if (mTrackSimplifier != null) mFixPipeline.remove(mTrackSimplifier);
+            mFixPipeline.remove(mStoreStage);
+            //the fix held by the old simplifier is stored before it goes
+            flushTrackSimplifier();
+            mTrackSimplifier = tolerance > 0
+                    ? new TrackSimplifier(mStoreStage, tolerance, TrackSimplifier.DEFAULT_WINDOW) : null;
+            mFixPipeline.add(0, mTrackSimplifier != null ? mTrackSimplifier : mStoreStage);
+        }
+        if (geofences) {
+            String file = pref.getString(getString(R.string.pref_key_geofence_file),
+                    getString(R.string.pref_default_geofence_file));
+            if (!file.equals(mGeofenceFile)) {
+                mGeofenceMonitor = null;
+                mGeofenceFile = file;
+                loadGeofences(file);
+            }
+        } else {
+            mGeofenceMonitor = null;
+            mGeofenceFile = null;
+        }
+        int index = 0;
+        if (smoothing) mFixPipeline.add(index++, mKalmanFilter);
+        if (mAdaptiveSampling) mFixPipeline.add(index++, mSamplingPolicy);
+        if (visits) {
+            mFixPipeline.add(index++, mStayPointDetector);
+        } else {
+            mStayPointDetector.flush();
+        }
+        if (mGeofenceMonitor != null) mFixPipeline.add(index, mGeofenceMonitor);
+    }
+
+
+    /**
+     * Read the fences and build their index on a background thread,
+     * then add the monitor to the pipeline
+     *
+     * @param name fence file in the app external files directory
+     */
+    private void loadGeofences(final String name) {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "loadGeofences()");
+
+        final Context context = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File directory = context.getExternalFilesDir(null);
+                if (directory == null) directory = context.getFilesDir();
+                GeofenceMonitor monitor = null;
+                String message;
+                try {
+                    List<Geofence> fences = GeofenceFile.read(new File(directory, name));
+                    monitor = new GeofenceMonitor(
+                            new GeofenceIndex(fences, Constant.GEOFENCE_CELL_DEGREES),
+                            Constant.GEOFENCE_HYSTERESIS_M, Constant.GEOFENCE_DWELL_MS,
+                            mGeofenceListener);
+                    message = context.getString(R.string.geofence_loaded, fences.size(), name);
+                } catch (IOException e) {
+                    if (Debug.DEBUG_LOCATION) Log.e(TAG, "geofences not loaded", e);
+                    message = context.getString(R.string.geofence_fail, name);
+                }
+                final GeofenceMonitor loaded = monitor;
+                final String result = message;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+                        //ignore if the setting changed while loading
+                        if (loaded == null || !name.equals(mGeofenceFile)) return;
+                        mGeofenceMonitor = loaded;
+                        updatePipeline();
+                    }
+                });
+            }
+        }, "geofences").start();
+    }
+
+
+    /**
+     * Start tracking, or change the settings, with the settings chosen by the sampling policy
+     */
+    private void startAdaptiveTracking() {
+        int priority;
+        switch (mSamplingPolicy.getPower()) {
+            case SamplingPolicy.POWER_HIGH_ACCURACY:
+                priority = LocationRequest.PRIORITY_HIGH_ACCURACY;
+                break;
+            case SamplingPolicy.POWER_BALANCED:
+                priority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+                break;
+            default:
+                priority = LocationRequest.PRIORITY_LOW_POWER;
+                break;
+        }
+        try {
+            mLocationTracker.start(mSamplingPolicy.getIntervalMs(), mSamplingPolicy.getBatchSize(),
+                    priority);
+        } catch (SecurityException e) {
+            Toast.makeText(MainActivity.this, getString(R.string.SecurityException),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
+
+    /**
+     * Register or unregister for battery changes, which are passed to the sampling policy
+     *
+     * @param register true to register
+     */
+    private void setBatteryReceiver(boolean register) {
+        if (register == mBatteryReceiverRegistered) return;
+        mBatteryReceiverRegistered = register;
+        if (!register) {
+            unregisterReceiver(mBatteryReceiver);
+            return;
+        }
+        //the battery broadcast is sticky, so the current state is returned straight away
+        Intent battery = registerReceiver(mBatteryReceiver,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) mBatteryReceiver.onReceive(this, battery);
+    }
+
+
+    /**
+     * Displays latitude and longitude for the supplied location.
+     * Called for every fix while tracking, so formats into reused char arrays
+     * rather than allocating strings
      *
      * @param location  location containing longitude and latitude
      */
     void displayLocation(Location location) {
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "displayLocation()");
 
-        int format = getLatLongFormat();
-        TextView textView = findViewById(R.id.latitude);
-        textView.setText(Location.convert(location.getLatitude(), format));
+        long start = Metrics.start();
+        displayCoordinates(location.getLatitude(), location.getLongitude());
+        // the last location known to the fused location client may be old
+        long time = location.getTime();
+        if (System.currentTimeMillis() - time > Constant.STALE_FIX_AGE_MS) {
+            displayStale(time);
+        } else if (mShowingStale) {
+            mTextViewDateTime.setText(null);
+            mShowingStale = false;
+        }
+        Metrics.record(Metrics.UI_UPDATE, start);
+
+        if (mFirstFixStartNanos != 0) {
+            Metrics.record(Metrics.PERMISSION_TO_FIRST_FIX, mFirstFixStartNanos);
+            mFirstFixStartNanos = 0;
+        }
+    }
+
+
+    /**
+     * Displays latitude and longitude in the chosen format, or the grid reference
+     * in place of the latitude. Only the rows of the formats panel on screen are converted.
+     */
+    private void displayCoordinates(double latitude, double longitude) {
+        if (mFormatsAdapter != null) mFormatsAdapter.setPosition(latitude, longitude);
+        if (mLatLongFormat >= GridReference.FORMAT_UTM) {
+            int length = mGridFormatter.format(latitude, longitude, mLatLongFormat);
+            mTextViewLatitude.setText(mGridFormatter.getChars(), 0, length);
+            mTextViewLongitude.setText(null);
+            return;
+        }
+        int length = mLatitudeFormatter.format(latitude, mLatLongFormat);
+        mTextViewLatitude.setText(mLatitudeFormatter.getChars(), 0, length);
 
-        textView = findViewById(R.id.longitude);
-        textView.setText(Location.convert(location.getLongitude(), format));
+        length = mLongitudeFormatter.format(longitude, mLatLongFormat);
+        mTextViewLongitude.setText(mLongitudeFormatter.getChars(), 0, length);
+    }
+
+
+    /**
+     * Label the coordinates, a grid reference is labelled with its name
+     */
+    private void displayCoordinateLabels() {
+        if (mLatLongFormat >= GridReference.FORMAT_UTM) {
+            mTextViewLatitudeLabel.setText(getResources().getStringArray(R.array.position_formats)[mLatLongFormat]);
+            mTextViewLongitudeLabel.setText(null);
+        } else {
+            mTextViewLatitudeLabel.setText(R.string.latitude_title);
+            mTextViewLongitudeLabel.setText(R.string.longitude_title);
+        }
+    }
+
+
+    /**
+     * Marks the displayed location as stale, showing how old it is
+     *
+     * @param time time of the fix, milliseconds since the epoch
+     */
+    private void displayStale(long time) {
+        CharSequence age = DateUtils.getRelativeTimeSpanString(time, System.currentTimeMillis(),
+                DateUtils.MINUTE_IN_MILLIS);
+        mTextViewDateTime.setText(getString(R.string.stale_fix, age));
+        mShowingStale = true;
     }
 
 
@@ -264,7 +1137,7 @@ public class MainActivity extends AppCompatActivity {
 
     /*
      * Called when the Display Address Button is pressed
-     * Starts service to convert location to an address
+     * Asks the geocoding engine to convert location to an address
      * and display the address on the UI
      */
     public void getAddress() {
@@ -274,10 +1147,101 @@ public class MainActivity extends AppCompatActivity {
             Toast.makeText(this, getString(R.string.location_null), Toast.LENGTH_SHORT).show();
             return;
         }
-        Intent intent = new Intent(this, ServiceFetchAddress.class);
-        intent.putExtra(Constant.RECEIVER, mResultReceiver);
-        intent.putExtra(Constant.LOCATION_DATA_EXTRA, mLastLocation);
-        startService(intent);
+        cancelAddressRequest();
+        mAddressLocation = mLastLocation;
+        mAddressCell = Geohash.bits(mLastLocation.getLatitude(), mLastLocation.getLongitude(),
+                mCellPrecision);
+        if (mPrefetchedAddress != null && isNearPrefetch(mLastLocation)) {
+            Metrics.increment(Metrics.ADDRESS_PREFETCH_HIT);
+            displayAddress(mPrefetchedAddress);
+            return;
+        }
+        //joins the prefetch if it is still in progress
+        mAddressRequest = mGeocodingEngine.fetchAddress(mLastLocation.getLatitude(),
+                mLastLocation.getLongitude(), mAddressCallback);
+    }
+
+
+    /**
+     * If prefetching is on and the location has moved away from the last prefetch,
+     * look up its address in the background, replacing any prefetch in progress
+     *
+     * @param location new location
+     */
+    private void prefetchAddress(Location location) {
+        if (!mPrefetchEnabled || isNearPrefetch(location)) return;
+        if (Debug.DEBUG_GEOCODER) Log.d(TAG, "prefetchAddress()");
+
+        cancelPrefetch();
+        mPrefetchLocation = location;
+        mPrefetchRequest = mGeocodingEngine.prefetchAddress(location.getLatitude(),
+                location.getLongitude(), mPrefetchCallback);
+    }
+
+
+    /**
+     * @param location location to check
+     * @return true if the location is close enough to the last prefetch to use its address
+     */
+    private boolean isNearPrefetch(Location location) {
+        return mPrefetchLocation != null && Geodesy.distance(location.getLatitude(),
+                location.getLongitude(), mPrefetchLocation.getLatitude(),
+                mPrefetchLocation.getLongitude()) < Constant.PREFETCH_DISTANCE_M;
+    }
+
+
+    /**
+     * @param location new location
+     * @return true if the location is in the same cache cell and close to the location
+     * the address was requested for, so the address still applies
+     */
+    private boolean isNearAddress(Location location) {
+        if (mAddressLocation == null || Geodesy.distance(location.getLatitude(),
+                location.getLongitude(), mAddressLocation.getLatitude(),
+                mAddressLocation.getLongitude()) >= Constant.PREFETCH_DISTANCE_M) {
+            return false;
+        }
+        //compared as bits, so tracking does not allocate on the main thread
+        return Geohash.bits(location.getLatitude(), location.getLongitude(), mCellPrecision)
+                == mAddressCell;
+    }
+
+
+    /**
+     * Cancel the prefetch in progress, if any, and forget the prefetched address
+     */
+    private void cancelPrefetch() {
+        if (mPrefetchRequest != null) {
+            mPrefetchRequest.cancel(true);
+            mPrefetchRequest = null;
+        }
+        mPrefetchLocation = null;
+        mPrefetchedAddress = null;
+    }
+
+
+    /**
+     * Cancel the address request in progress, if any
+     */
+    private void cancelAddressRequest() {
+        if (mAddressRequest != null) {
+            mAddressRequest.cancel(true);
+            mAddressRequest = null;
+        }
+    }
+
+
+    /**
+     * @param address address from the geocoding engine
+     * @param tier    where the address came from
+     * @return address to display, marked if it is not the address of this location
+     */
+    private String formatAddress(String address, int tier) {
+        //the nearest place or a nearby address
+        if (tier == GeocodingEngine.TIER_FALLBACK || tier == GeocodingEngine.TIER_NEAREST) {
+            return getString(R.string.address_approximate, address);
+        }
+        return address;
     }
 
 
@@ -288,10 +1252,371 @@ public class MainActivity extends AppCompatActivity {
      */
     void displayAddress(String address) {
         if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "displayAddressOutput()");
-        TextView textViewAddress = findViewById(R.id.textViewAddress);
-        textViewAddress.setText(address);
+        mLastAddress = address;
+        mTextViewAddress.setText(address);
+    }
+
+    /**
+     * Asks which format to export the recorded track in
+     */
+    private void showExportDialog() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "showExportDialog()");
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_title)
+                .setItems(R.array.export_formats, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        exportTrack(which);
+                    }
+                })
+                .show();
     }
 
+
+    /**
+     * Export the recorded track on a background thread,
+     * to the app's external files directory
+     *
+     * @param format TrackExporter format
+     */
+    private void exportTrack(final int format) {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "exportTrack()");
+
+        //the export reaches the latest fix
+        flushTrackSimplifier();
+
+        SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
+        final boolean gzip = pref.getBoolean(getString(R.string.pref_key_export_gzip),
+                getResources().getBoolean(R.bool.pref_default_export_gzip));
+        final Context context = getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    TrackStore store = getTrackStore(context);
+                    if (store == null) throw new IOException("Track store not available");
+                    TrackExporter exporter = new TrackExporter(format);
+                    File directory = context.getExternalFilesDir(null);
+                    if (directory == null) directory = context.getFilesDir();
+                    File file = new File(directory, "track-" + System.currentTimeMillis()
+                            + exporter.getExtension(gzip));
+                    long count = exporter.export(store, file, gzip);
+                    message = context.getString(R.string.export_done, count, file.getPath());
+                } catch (IOException e) {
+                    if (Debug.DEBUG_LOCATION) Log.e(TAG, "export failed", e);
+                    message = context.getString(R.string.export_fail);
+                }
+                final String result = message;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "export");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    /**
+     * Look up the address of each fix in the recorded track on a background thread and save
+     * them as CSV to the app's external files directory. Fixes in the same cache cell share
+     * one lookup and lookups are rate limited, so a long track does not use up the quota.
+     */
+    private void annotateTrack() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "annotateTrack()");
+
+        if (mTrackAnnotator != null) return;
+        final Context context = getApplicationContext();
+        final BatchGeocoder geocoder = new BatchGeocoder(createAddressLookup(),
+                getAddressCache(context), getCachePrecision(), Constant.BATCH_GEOCODER_THREADS,
+                new TokenBucket(Constant.BATCH_GEOCODER_RATE, Constant.BATCH_GEOCODER_BURST));
+        final TrackAnnotator annotator = new TrackAnnotator(geocoder);
+        mTrackAnnotator = annotator;
+        Toast.makeText(context, getString(R.string.annotate_started), Toast.LENGTH_SHORT).show();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    TrackStore store = getTrackStore(context);
+                    if (store == null) throw new IOException("Track store not available");
+                    File directory = context.getExternalFilesDir(null);
+                    if (directory == null) directory = context.getFilesDir();
+                    File file = new File(directory, "track-" + System.currentTimeMillis() + ".csv");
+                    long count = annotator.annotate(store, file, null);
+                    message = context.getString(R.string.annotate_done, count, file.getPath());
+                } catch (IOException | InterruptedException e) {
+                    if (Debug.DEBUG_GEOCODER) Log.e(TAG, "annotate failed", e);
+                    message = context.getString(R.string.annotate_fail);
+                } finally {
+                    geocoder.shutdown();
+                }
+                final String result = message;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTrackAnnotator = null;
+                        Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "annotate");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    /**
+     * Shows the location in every format, kept up to date while open.
+     * Choosing a format copies it to the clipboard.
+     */
+    private void showFormatsDialog() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "showFormatsDialog()");
+
+        final PositionFormatsAdapter adapter = new PositionFormatsAdapter(this);
+        if (mLastLocation != null) {
+            adapter.setPosition(mLastLocation.getLatitude(), mLastLocation.getLongitude());
+        }
+        mFormatsAdapter = adapter;
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.formats_title)
+                .setAdapter(adapter, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String text = adapter.format(which);
+                        if (text.isEmpty()) return;
+                        ClipboardManager clipboard = (ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
+                        if (clipboard == null) return;
+                        clipboard.setPrimaryClip(ClipData.newPlainText(
+                                getResources().getStringArray(R.array.position_formats)[which], text));
+                        Toast.makeText(MainActivity.this, getString(R.string.formats_copied, text),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setOnDismissListener(new DialogInterface.OnDismissListener() {
+                    @Override
+                    public void onDismiss(DialogInterface dialog) {
+                        if (mFormatsAdapter == adapter) mFormatsAdapter = null;
+                    }
+                })
+                .setNegativeButton(R.string.metrics_close, null)
+                .show();
+    }
+
+
+    /**
+     * Shows the statistics of the trip so far, with charts of speed and altitude
+     * read from the pyramid, with an option to start a new trip
+     */
+    private void showTripDialog() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "showTripDialog()");
+
+        TrackStatistics statistics = mTrackStatistics;
+        long moving = statistics.getMovingTimeMs() / 60000;
+        double bearing = statistics.getBearing();
+        StringBuilder text = new StringBuilder(getString(R.string.trip_summary,
+                statistics.getDistance() / 1000, moving / 60, moving % 60,
+                statistics.getAverageSpeed() * 3.6, statistics.getMaxSpeed() * 3.6,
+                Math.round(statistics.getElevationGain()),
+                Double.isNaN(bearing) ? "-" : String.valueOf(Math.round(bearing))));
+        TrackSimplifier simplifier = mTrackSimplifier;
+        if (simplifier != null) {
+            text.append('\n').append(getString(R.string.trip_simplified, simplifier.getKeptCount(),
+                    simplifier.getFixCount(), simplifier.getMaxDeviation()));
+        }
+        if (statistics.getFixCount() > 0) {
+            TrackPyramid pyramid = statistics.getPyramid();
+            long from = statistics.getStartTime();
+            long to = statistics.getLastTime();
+            int level = pyramid.level(from, to, Constant.TRIP_CHART_BUCKETS);
+            text.append("\n\n").append(getString(R.string.trip_chart_speed))
+                    .append('\n').append(chart(pyramid, level, TrackPyramid.CHANNEL_SPEED, from, to))
+                    .append("\n\n").append(getString(R.string.trip_chart_altitude))
+                    .append('\n').append(chart(pyramid, level, TrackPyramid.CHANNEL_ALTITUDE, from, to))
+                    .append("\n\n").append(getString(R.string.trip_chart_bucket,
+                            pyramid.getWidthMs(level) / 1000));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.trip_title)
+                .setMessage(text)
+                .setNeutralButton(R.string.trip_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mTrackStatistics.reset();
+                    }
+                })
+                .setNegativeButton(R.string.metrics_close, null)
+                .show();
+    }
+
+
+    /**
+     * @return bar chart of the means of the buckets of a channel, scaled from min to max
+     */
+    private static String chart(TrackPyramid pyramid, int level, int channel, long from, long to) {
+        int buckets = Constant.TRIP_CHART_BUCKETS;
+        long[] times = new long[buckets];
+        float[] mins = new float[buckets];
+        float[] maxes = new float[buckets];
+        float[] means = new float[buckets];
+        int count = pyramid.read(level, channel, from, to, times, mins, maxes, means);
+        if (count == 0) return "-";
+        float low = Float.MAX_VALUE;
+        float high = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            low = Math.min(low, means[i]);
+            high = Math.max(high, means[i]);
+        }
+        String bars = "\u2581\u2582\u2583\u2584\u2585\u2586\u2587\u2588";
+        StringBuilder chart = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            int bar = high > low ? (int) ((means[i] - low) / (high - low) * (bars.length() - 1)) : 0;
+            chart.append(bars.charAt(bar));
+        }
+        return chart.toString();
+    }
+
+
+    /**
+     * Shows the visits, newest first, with their addresses
+     */
+    private void showVisitsDialog() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "showVisitsDialog()");
+
+        DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+        StringBuilder text = new StringBuilder();
+        if (mCurrentVisit != null) {
+            text.append(getString(R.string.visits_current, format.format(mCurrentVisit.arrival),
+                    visitAddress(mCurrentVisit)));
+        }
+        for (int i = mVisits.size() - 1; i >= 0; i--) {
+            Visit visit = mVisits.get(i);
+            if (text.length() > 0) text.append("\n\n");
+            text.append(getString(R.string.visits_item, format.format(visit.arrival),
+                    visit.getDurationMs() / 60000, visitAddress(visit)));
+        }
+        if (text.length() == 0) text.append(getString(R.string.visits_none));
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.visits_title)
+                .setMessage(text)
+                .setNeutralButton(R.string.visits_clear, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mVisits.clear();
+                    }
+                })
+                .setNegativeButton(R.string.metrics_close, null)
+                .show();
+    }
+
+
+    /**
+     * @return address of the place of a visit, or its position until the address is known
+     */
+    private String visitAddress(Visit visit) {
+        String address = mPlaceAddresses.get(visit.place);
+        return address != null ? address
+                : String.format(Locale.getDefault(), "%.5f, %.5f", visit.latitude, visit.longitude);
+    }
+
+
+    /**
+     * Look up the address of the place of a visit, once for each place
+     *
+     * @param visit visit at the place
+     */
+    private void lookupVisitAddress(final Visit visit) {
+        if (mPlaceAddresses.containsKey(visit.place)) return;
+        if (Debug.DEBUG_GEOCODER) Log.d(TAG, "lookupVisitAddress() place " + visit.place);
+
+        mPlaceAddresses.put(visit.place, null);
+        mGeocodingEngine.fetchAddress(visit.latitude, visit.longitude, new GeocodingEngine.Callback() {
+            @Override
+            public void onAddressResult(int resultCode, String message, int tier) {
+                if (resultCode == GeocodingEngine.SUCCESS_RESULT) {
+                    mPlaceAddresses.put(visit.place, formatAddress(message, tier));
+                } else {
+                    //try again at the next visit
+                    mPlaceAddresses.remove(visit.place);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Shows the metrics recorded so far, with options to save them to a file or start again
+     */
+    private void showMetricsDialog() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "showMetricsDialog()");
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.metrics_title)
+                .setMessage(Metrics.report())
+                .setPositiveButton(R.string.metrics_save, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        saveMetrics();
+                    }
+                })
+                .setNeutralButton(R.string.metrics_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.reset();
+                    }
+                })
+                .setNegativeButton(R.string.metrics_close, null)
+                .show();
+    }
+
+
+    /**
+     * Save the metrics on a background thread, to the app's external files directory
+     */
+    private void saveMetrics() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "saveMetrics()");
+
+        final Context context = getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    File directory = context.getExternalFilesDir(null);
+                    if (directory == null) directory = context.getFilesDir();
+                    File file = new File(directory, "metrics-" + System.currentTimeMillis() + ".txt");
+                    Metrics.dump(file);
+                    message = context.getString(R.string.metrics_saved, file.getPath());
+                } catch (IOException e) {
+                    if (Debug.DEBUG_METHOD_ENTRY) Log.e(TAG, "metrics not saved", e);
+                    message = context.getString(R.string.metrics_fail);
+                }
+                final String result = message;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, result, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "metrics");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
     /**
      * Used to add code to tidy up before exiting
      */
@@ -325,6 +1650,41 @@ public class MainActivity extends AppCompatActivity {
             return true;
         }
 
+        if (id == R.id.action_save_place) {
+            savePlace();
+            return true;
+        }
+
+        if (id == R.id.action_export) {
+            showExportDialog();
+            return true;
+        }
+
+        if (id == R.id.action_annotate) {
+            annotateTrack();
+            return true;
+        }
+
+        if (id == R.id.action_formats) {
+            showFormatsDialog();
+            return true;
+        }
+
+        if (id == R.id.action_trip) {
+            showTripDialog();
+            return true;
+        }
+
+        if (id == R.id.action_visits) {
+            showVisitsDialog();
+            return true;
+        }
+
+        if (id == R.id.action_metrics) {
+            showMetricsDialog();
+            return true;
+        }
+
         if (id == R.id.quit) {
             //quit application
             shutDown();
@@ -352,6 +1712,7 @@ public class MainActivity extends AppCompatActivity {
                 // If request is cancelled, the result arrays are empty.
                 if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                     // permission was granted
+                    mFirstFixStartNanos = Metrics.start();
                     getAndDisplayMyLocation();
                 } else {
                     // permission denied exit app, tell user
@@ -366,46 +1727,277 @@ public class MainActivity extends AppCompatActivity {
 //region InnerClasses
 
     /**
-     *Handles results from the Geocoder
+     * Keeps the cached coordinate format and whether metrics are recorded up to date,
+     * held in a field as shared preferences only keeps a weak reference to listeners
      */
-    class AddressResultReceiver extends ResultReceiver {
-        @SuppressLint("RestrictedApi")
-        AddressResultReceiver(Handler handler) {
-            super(handler);
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onSharedPreferenceChanged()");
+
+                    if (getString(R.string.pref_key_format).equals(key)) {
+                        mLatLongFormat = getLatLongFormat();
+                        displayCoordinateLabels();
+                        if (mLastLocation != null) displayLocation(mLastLocation);
+                    } else if (getString(R.string.pref_key_metrics).equals(key)) {
+                        Metrics.setEnabled(sharedPreferences.getBoolean(key,
+                                getResources().getBoolean(R.bool.pref_default_metrics)));
+                        invalidateOptionsMenu();
+                    } else if (getString(R.string.pref_key_prefetch).equals(key)) {
+                        mPrefetchEnabled = sharedPreferences.getBoolean(key,
+                                getResources().getBoolean(R.bool.pref_default_prefetch));
+                        if (!mPrefetchEnabled) cancelPrefetch();
+                    }
+                }
+            };
+
+    /**
+     * Applies new settings from the sampling policy, called on the tracker thread
+     */
+    private final SamplingPolicy.Listener mSamplingListener = new SamplingPolicy.Listener() {
+        @Override
+        public void onSamplingChanged(final SamplingPolicy policy) {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "sampling state " + policy.getState()
+                    + ", speed " + policy.getSpeed());
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mAdaptiveSampling && mLocationTracker.isTracking()) startAdaptiveTracking();
+                }
+            });
         }
+    };
 
-        private static final String TAG = "AddressResultReceiver";
+    /**
+     * Shows geofence events, called on the tracker thread
+     */
+    private final GeofenceMonitor.Listener mGeofenceListener = new GeofenceMonitor.Listener() {
+        @Override
+        public void onGeofenceEvent(Geofence fence, int event, Fix fix) {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "geofence " + fence.getId() + " event " + event);
+
+            final String message;
+            switch (event) {
+                case GeofenceMonitor.EVENT_ENTER:
+                    message = getString(R.string.geofence_enter, fence.getId());
+                    break;
+                case GeofenceMonitor.EVENT_EXIT:
+                    message = getString(R.string.geofence_exit, fence.getId());
+                    break;
+                default:
+                    message = getString(R.string.geofence_dwell, fence.getId());
+                    break;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    };
+
+    /**
+     * Keeps the visits and looks up their places, called on the tracker thread
+     */
+    private final StayPointDetector.Listener mVisitListener = new StayPointDetector.Listener() {
+        @Override
+        public void onVisitEvent(final Visit visit, final int event) {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "visit " + visit + " event " + event);
+
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (event == StayPointDetector.EVENT_ARRIVE) {
+                        mCurrentVisit = visit;
+                    } else {
+                        mCurrentVisit = null;
+                        mVisits.add(visit);
+                        if (mVisits.size() > Constant.VISIT_HISTORY) mVisits.remove(0);
+                    }
+                    lookupVisitAddress(visit);
+                }
+            });
+        }
+    };
 
+    /**
+     * A place saved but not yet written
+     */
+    private static final class PendingPlace {
+        final int latitudeE6;
+        final int longitudeE6;
+        final String name;
+
+        PendingPlace(int latitudeE6, int longitudeE6, String name) {
+            this.latitudeE6 = latitudeE6;
+            this.longitudeE6 = longitudeE6;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Writes the places waiting in one transaction and adds them to the index,
+     * run on the place thread
+     */
+    private final Runnable mWritePlaces = new Runnable() {
+        @Override
+        public void run() {
+            PendingPlace[] pending;
+            synchronized (mPendingPlaces) {
+                pending = mPendingPlaces.toArray(new PendingPlace[mPendingPlaces.size()]);
+                mPendingPlaces.clear();
+            }
+            int count = pending.length;
+            int[] latitudes = new int[count];
+            int[] longitudes = new int[count];
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                latitudes[i] = pending[i].latitudeE6;
+                longitudes[i] = pending[i].longitudeE6;
+                names[i] = pending[i].name;
+            }
+            String message;
+            try {
+                long[] ids = getPlaceStore(getApplicationContext()).insert(latitudes, longitudes, names);
+                mSavedPlaces = mSavedPlaces.plus(ids, latitudes, longitudes, names);
+                message = getString(R.string.place_saved, names[count - 1]);
+            } catch (SQLException e) {
+                if (Debug.DEBUG_LOCATION) Log.e(TAG, "places not saved", e);
+                message = getString(R.string.place_fail);
+            }
+            final String result = message;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(getApplicationContext(), result, Toast.LENGTH_SHORT).show();
+                    displayNearestPlaces();
+                }
+            });
+        }
+    };
+
+    /**
+     * Passes the battery level and charging state to the sampling policy
+     */
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            if (level < 0 || scale <= 0) return;
+            boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "battery " + level * 100 / scale + "% "
+                    + (charging ? "charging" : ""));
+            mSamplingPolicy.setBattery(level * 100 / scale, charging);
+        }
+    };
+
+    /**
+     * Appends fixes to the track store, synchronized as the simplifier may pass a fix
+     * from the main thread when it is flushed
+     */
+    private final FixProcessor mStoreStage = new FixProcessor() {
+        @Override
+        public synchronized boolean onFix(Fix fix) {
+            //opened on first use, so on the pipeline thread not the main thread
+            TrackStore store = getTrackStore(getApplicationContext());
+            return store == null || store.onFix(fix);
+        }
+    };
+
+    /**
+     * Displays the latest fix from continuous tracking, called on the main thread
+     */
+    private final LocationTracker.Listener mTrackingListener = new LocationTracker.Listener() {
+        @Override
+        public void onLocation(Location location) {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "onLocation()");
+
+            onNewLocation(location);
+        }
+    };
+
+    /**
+     * Receives the fresh fix requested on startup or reload, called on the main thread
+     */
+    private final LocationCallback mFreshFixCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(LocationResult result) {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "onLocationResult()");
+
+            Metrics.record(Metrics.FRESH_FIX, mFreshFixStartNanos);
+            cancelFreshFix();
+            Location location = result == null ? null : result.getLastLocation();
+            if (location != null && !isNewerLocationDisplayed(location)) onNewLocation(location);
+        }
+    };
+
+    /**
+     * Gives up on the fresh fix after the deadline
+     */
+    private final Runnable mFreshFixTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (Debug.DEBUG_LOCATION) Log.d(TAG, "fresh fix timed out");
+
+            cancelFreshFix();
+            if (mLastLocation == null) {
+                Toast.makeText(getApplicationContext(), getString(R.string.location_null),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Handles results from the geocoding engine, called on the main thread
+     */
+    private final GeocodingEngine.Callback mAddressCallback = new GeocodingEngine.Callback() {
         /**
          *
          * @param resultCode    code returned
-         * @param resultData    results data
+         * @param message       address or error message
+         * @param tier          where the address came from
          */
         @Override
-        protected void onReceiveResult(int resultCode, Bundle resultData) {
-            if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onReceiveResult()");
-            if (resultData == null) {
-                Toast.makeText(getApplicationContext(), getString(R.string.address_fail)
-                        ,Toast.LENGTH_SHORT).show();
-                return;
-            }
+        public void onAddressResult(int resultCode, String message, int tier) {
+            if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "onAddressResult()");
+            mAddressRequest = null;
 
             // Display the address string
-            // or an error message sent from the intent service.
-            String mAddressOutput = resultData.getString(Constant.RESULT_DATA_KEY);
-            if (mAddressOutput == null) {
+            // or an error message sent from the geocoding engine.
+            if (resultCode == GeocodingEngine.SUCCESS_RESULT) {
+                if (Debug.DEBUG_GEOCODER) Log.d(TAG, "address from tier " + tier);
+                displayAddress(formatAddress(message, tier));
+            } else {
+                if (Debug.DEBUG_GEOCODER) Log.d(TAG, message);
                 Toast.makeText(getApplicationContext(), getString(R.string.address_fail)
                         ,Toast.LENGTH_SHORT).show();
-                mAddressOutput = "";
             }
-            if (resultCode == Constant.SUCCESS_RESULT) {
-                displayAddress(mAddressOutput);
+        }
+    };
+
+    /**
+     * Keeps the prefetched address, called on the main thread
+     */
+    private final GeocodingEngine.Callback mPrefetchCallback = new GeocodingEngine.Callback() {
+        @Override
+        public void onAddressResult(int resultCode, String message, int tier) {
+            if (Debug.DEBUG_GEOCODER) Log.d(TAG, "prefetch " + message + ", tier " + tier);
+            mPrefetchRequest = null;
+
+            if (resultCode == GeocodingEngine.SUCCESS_RESULT) {
+                mPrefetchedAddress = formatAddress(message, tier);
             } else {
-                Toast.makeText(getApplicationContext(), getString(R.string.address_fail)
-                        ,Toast.LENGTH_SHORT).show();
+                //try again on the next fix
+                mPrefetchLocation = null;
             }
         }
-    }
+    };
 //endregion
 }
 
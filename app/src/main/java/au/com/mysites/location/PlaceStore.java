@@ -0,0 +1,122 @@
+package au.com.mysites.location;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Arrays;
+
+import au.com.mysites.location.core.SavedPlaceIndex;
+
+/**
+ * Database of the places the user has saved.
+ * Uses write ahead logging, so loading the index on startup does not wait for a save.
+ * Positions are quantized to micro degrees and unique, saving a place at the same
+ * position again renames it.
+ */
+final class PlaceStore extends SQLiteOpenHelper {
+    private static final String TAG = PlaceStore.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "places.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "places";
+    private static final String CREATE_TABLE = "CREATE TABLE " + TABLE + " ("
+            + "_id INTEGER PRIMARY KEY, "
+            + "name TEXT NOT NULL, "
+            + "latitude_e6 INTEGER NOT NULL, "
+            + "longitude_e6 INTEGER NOT NULL)";
+    private static final String CREATE_INDEX = "CREATE UNIQUE INDEX places_position ON "
+            + TABLE + " (latitude_e6, longitude_e6)";
+    private static final String INSERT = "INSERT OR REPLACE INTO " + TABLE
+            + " (name, latitude_e6, longitude_e6) VALUES (?, ?, ?)";
+    private static final String SELECT_ALL = "SELECT _id, latitude_e6, longitude_e6, name FROM "
+            + TABLE;
+
+    PlaceStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE);
+        db.execSQL(CREATE_INDEX);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        //only one version so far
+    }
+
+    /**
+     * Insert places in one transaction, so a batch costs one commit
+     *
+     * @param latitudesE6  latitude of each place in micro degrees
+     * @param longitudesE6 longitude of each place in micro degrees
+     * @param names        name of each place
+     * @return database id of each place
+     */
+    synchronized long[] insert(int[] latitudesE6, int[] longitudesE6, String[] names) {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "insert() " + names.length);
+
+        long[] ids = new long[names.length];
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(INSERT);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                statement.bindString(1, names[i]);
+                statement.bindLong(2, latitudesE6[i]);
+                statement.bindLong(3, longitudesE6[i]);
+                ids[i] = statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Read every place into an index
+     *
+     * @return index of the saved places
+     */
+    SavedPlaceIndex load() {
+        if (Debug.DEBUG_METHOD_ENTRY) Log.d(TAG, "load()");
+
+        Cursor cursor = getReadableDatabase().rawQuery(SELECT_ALL, null);
+        try {
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            int[] latitudes = new int[count];
+            int[] longitudes = new int[count];
+            String[] names = new String[count];
+            int n = 0;
+            while (cursor.moveToNext() && n < count) {
+                ids[n] = cursor.getLong(0);
+                latitudes[n] = cursor.getInt(1);
+                longitudes[n] = cursor.getInt(2);
+                names[n++] = cursor.getString(3);
+            }
+            if (n < count) {
+                ids = Arrays.copyOf(ids, n);
+                latitudes = Arrays.copyOf(latitudes, n);
+                longitudes = Arrays.copyOf(longitudes, n);
+                names = Arrays.copyOf(names, n);
+            }
+            return new SavedPlaceIndex(ids, latitudes, longitudes, names);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package au.com.mysites.location;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import au.com.mysites.location.core.CoordinateFormatter;
+import au.com.mysites.location.core.GridReference;
+
+/**
+ * The position in every format, a row each, for the formats panel.
+ * A row's format is only worked out when the list binds it, so when the position changes
+ * only the rows on screen are converted. Each row view has its own formatter, as a
+ * TextView shows the formatter's chars rather than a copy.
+ */
+class PositionFormatsAdapter extends BaseAdapter {
+
+    private static final int[] FORMATS = {
+            CoordinateFormatter.FORMAT_DEGREES, CoordinateFormatter.FORMAT_MINUTES,
+            CoordinateFormatter.FORMAT_SECONDS, GridReference.FORMAT_UTM,
+            GridReference.FORMAT_MGRS, GridReference.FORMAT_PLUS_CODE};
+
+    private final LayoutInflater mInflater;
+    private final String[] mTitles;
+    private boolean mHasPosition;
+    private double mLatitude;
+    private double mLongitude;
+
+    /**
+     * @param context context for the row views and titles
+     */
+    PositionFormatsAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+        mTitles = context.getResources().getStringArray(R.array.position_formats);
+    }
+
+    /**
+     * Show a new position, converting it for the rows on screen
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     */
+    void setPosition(double latitude, double longitude) {
+        mHasPosition = true;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @param position row
+     * @return the position in the row's format
+     */
+    String format(int position) {
+        if (!mHasPosition) return "";
+        GridReference formatter = new GridReference();
+        formatter.format(mLatitude, mLongitude, FORMATS[position]);
+        return formatter.toString();
+    }
+
+    @Override
+    public int getCount() {
+        return FORMATS.length;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mTitles[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        Row row;
+        if (view == null) {
+            view = mInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+            row = new Row();
+            row.title = view.findViewById(android.R.id.text1);
+            row.value = view.findViewById(android.R.id.text2);
+            view.setTag(row);
+        } else {
+            row = (Row) view.getTag();
+        }
+        row.title.setText(mTitles[position]);
+        if (mHasPosition) {
+            int length = row.formatter.format(mLatitude, mLongitude, FORMATS[position]);
+            row.value.setText(row.formatter.getChars(), 0, length);
+        } else {
+            row.value.setText(R.string.location_null);
+        }
+        return view;
+    }
+
+    /**
+     * Views and formatter of a row
+     */
+    private static class Row {
+        TextView title;
+        TextView value;
+        final GridReference formatter = new GridReference();
+    }
+}
@@ -30,8 +30,10 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             android.support.v7.preference.Preference p = prefScreen.getPreference(i);
             // You don't need to set up preference summaries for checkbox preferences because
             // they are already set up in xml using summaryOff and summary On
-            String value = sharedPreferences.getString(p.getKey(), "");
-            setPreferenceSummary(p, value);
+            if (!(p instanceof android.support.v7.preference.CheckBoxPreference)) {
+                String value = sharedPreferences.getString(p.getKey(), "");
+                setPreferenceSummary(p, value);
+            }
         }
     }
 
@@ -0,0 +1,552 @@
+package au.com.mysites.location.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import au.com.mysites.location.core.AddressCache;
+import au.com.mysites.location.core.CoordinateFormatter;
+import au.com.mysites.location.core.Fix;
+import au.com.mysites.location.core.FixReader;
+import au.com.mysites.location.core.GeodesicKernel;
+import au.com.mysites.location.core.Geodesy;
+import au.com.mysites.location.core.Geohash;
+import au.com.mysites.location.core.GridReference;
+import au.com.mysites.location.core.TrackFileReader;
+
+/**
+ * Converts track files to CSV of time, position in a chosen format and altitude, optionally
+ * with the distance along the track, a fix for each run in the same cell, and the cached
+ * address of each fix, e.g. to reprocess years of fleet logs.
+ * <p>
+ * A file is memory mapped a chunk at a time, and each chunk goes through three steps.
+ * 1. Parse - the fixes are parsed into columns and the distance along the chunk worked
+ * out, on the pool
+ * 2. Link - in file order on the calling thread, the chunk is given the distance to its
+ * start and the fix before it, a few operations for each chunk
+ * 3. Format - the output of the chunk is written into a byte array, on the pool
+ * The calling thread writes the chunks out in file order as they finish, and keeps a
+ * limited number of chunks in each step so memory use does not depend on the file size.
+ * Compressed files can not be mapped, so they are read with TrackFileReader on the
+ * calling thread and only formatted on the pool.
+ */
+final class BulkProcessor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // fixes in a chunk of a compressed file
+    private static final int READ_CHUNK_FIXES = 256 * 1024;
+    // typical bytes of a record and of a line of output, for sizing the arrays
+    private static final int RECORD_BYTES = 40;
+    private static final int LINE_BYTES = 64;
+    private static final long REPORT_INTERVAL_NS = 5000000000L;
+
+    private final ExecutorService mExecutor;
+    // chunks in each step
+    private final int mWindow;
+
+    //region settings
+    private int mFormat = CoordinateFormatter.FORMAT_DEGREES;
+    private boolean mDistance;
+    // geohash precision of the cells runs are removed in, 0 to keep every fix
+    private int mDedupePrecision;
+    private AddressCache mAddresses;
+    private int mAddressPrecision;
+    private int mChunkBytes = 16 * 1024 * 1024;
+    private PrintStream mReport;
+    //endregion
+
+    //region the file in progress, used by the calling thread
+    private int mFileFormat;
+    private int[] mColumns;
+    private boolean mHasPrevious;
+    private double mPreviousLatitude;
+    private double mPreviousLongitude;
+    private double mTotalDistance;
+    private long mStartNanos;
+    private long mLastReportNanos;
+    private long mMappedBytes;
+    private long mFileSize;
+    private String mFileName;
+    //endregion
+
+    //region totals
+    private long mBytes;
+    private long mFixes;
+    private long mWritten;
+    private long mErrors;
+    private double mDistanceTotal;
+    //endregion
+
+    /**
+     * @param threads threads parsing and formatting
+     */
+    BulkProcessor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bulk-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mWindow = threads + 1;
+    }
+
+    /**
+     * @param format CoordinateFormatter or GridReference format of the position
+     */
+    void setFormat(int format) {
+        mFormat = format;
+    }
+
+    /**
+     * @param distance true to add the distance along the track from its first fix
+     */
+    void setDistance(boolean distance) {
+        mDistance = distance;
+    }
+
+    /**
+     * @param precision geohash precision of the cells, a fix in the same cell as the fix
+     *                  before it is left out, 0 to keep every fix
+     */
+    void setDedupe(int precision) {
+        mDedupePrecision = precision;
+    }
+
+    /**
+     * @param addresses cache the address of each fix is looked up in, null for none
+     * @param precision geohash precision the cache is keyed by
+     */
+    void setAddresses(AddressCache addresses, int precision) {
+        mAddresses = addresses;
+        mAddressPrecision = precision;
+    }
+
+    void setChunkBytes(int chunkBytes) {
+        mChunkBytes = chunkBytes;
+    }
+
+    /**
+     * @param report stream progress is written to every few seconds, null for none
+     */
+    void setReport(PrintStream report) {
+        mReport = report;
+    }
+
+    /**
+     * Write the names of the columns
+     *
+     * @param out where the output goes
+     * @throws IOException if it can not be written
+     */
+    void writeHeader(WritableByteChannel out) throws IOException {
+        StringBuilder header = new StringBuilder("time,");
+        header.append(isGrid() ? "position" : "latitude,longitude").append(",altitude");
+        if (mDistance) header.append(",distance");
+        if (mAddresses != null) header.append(",address");
+        write(out, ByteBuffer.wrap(header.append('\n').toString().getBytes(UTF_8)));
+    }
+
+    /**
+     * Convert a file, the distance and runs start again with each file
+     *
+     * @param file .csv, .gpx or .nmea file, optionally with .gz after it
+     * @param out  where the output goes
+     * @throws IOException if the file can not be read or the output written
+     */
+    void process(File file, WritableByteChannel out) throws IOException {
+        mHasPrevious = false;
+        mTotalDistance = 0;
+        mMappedBytes = 0;
+        mFileSize = file.length();
+        mFileName = file.getName();
+        mStartNanos = System.nanoTime();
+        mLastReportNanos = mStartNanos;
+        ArrayDeque<Chunk> parsing = new ArrayDeque<>();
+        ArrayDeque<Chunk> formatting = new ArrayDeque<>();
+        try {
+            if (file.getName().toLowerCase(Locale.US).endsWith(".gz")) {
+                FixReader reader = TrackFileReader.open(file);
+                try {
+                    Fix fix = new Fix();
+                    boolean more = true;
+                    while (more) {
+                        Chunk chunk = new Chunk(null, new FixColumns(READ_CHUNK_FIXES));
+                        while (chunk.fixes.count < READ_CHUNK_FIXES) {
+                            try {
+                                if (!(more = reader.read(fix))) break;
+                            } catch (TrackFileReader.BadRecordException e) {
+                                //one bad line does not stop a run, as for mapped files
+                                chunk.errors++;
+                                continue;
+                            }
+                            if (isValid(fix)) {
+                                chunk.fixes.add(fix);
+                            } else {
+                                chunk.errors++;
+                            }
+                        }
+                        queue(chunk, parsing, formatting, out);
+                    }
+                } finally {
+                    reader.close();
+                }
+                mMappedBytes = mFileSize;
+            } else {
+                mFileFormat = ChunkParser.format(file);
+                MappedChunker chunker = new MappedChunker(file, mChunkBytes, ChunkParser.recordEnd(mFileFormat));
+                try {
+                    mColumns = mFileFormat == ChunkParser.FORMAT_CSV
+                            ? ChunkParser.CsvParser.columns(chunker.start()) : null;
+                    ByteBuffer bytes;
+                    while ((bytes = chunker.next()) != null) {
+                        mMappedBytes = chunker.getPosition();
+                        queue(new Chunk(bytes, null), parsing, formatting, out);
+                    }
+                } finally {
+                    chunker.close();
+                }
+            }
+            while (!parsing.isEmpty()) link(parsing, formatting, out);
+            while (!formatting.isEmpty()) write(formatting.poll(), out);
+        } finally {
+            //stop work on the chunks left after a failure
+            for (Chunk chunk : parsing) chunk.parsed.cancel(false);
+            for (Chunk chunk : formatting) chunk.formatted.cancel(false);
+        }
+        mBytes += mFileSize;
+        mDistanceTotal += mTotalDistance;
+    }
+
+    /**
+     * Start parsing a chunk, linking the oldest if the parse step is full
+     */
+    private void queue(Chunk chunk, ArrayDeque<Chunk> parsing, ArrayDeque<Chunk> formatting,
+                       WritableByteChannel out) throws IOException {
+        chunk.parsed = mExecutor.submit(chunk.parse);
+        parsing.add(chunk);
+        while (parsing.size() > mWindow) link(parsing, formatting, out);
+    }
+
+    /**
+     * Link the oldest parsed chunk to the one before and start formatting it, then write
+     * the formatted chunks that are next in order
+     */
+    private void link(ArrayDeque<Chunk> parsing, ArrayDeque<Chunk> formatting,
+                      WritableByteChannel out) throws IOException {
+        Chunk chunk = parsing.poll();
+        get(chunk.parsed);
+        FixColumns fixes = chunk.fixes;
+        mFixes += fixes.count;
+        mErrors += chunk.errors;
+        chunk.hasPrevious = mHasPrevious;
+        chunk.previousLatitude = mPreviousLatitude;
+        chunk.previousLongitude = mPreviousLongitude;
+        if (fixes.count > 0) {
+            int last = fixes.count - 1;
+            if (mDistance) {
+                if (mHasPrevious) {
+                    mTotalDistance += Geodesy.distance(mPreviousLatitude, mPreviousLongitude,
+                            fixes.latitudes[0], fixes.longitudes[0]);
+                }
+                chunk.distance = mTotalDistance;
+                mTotalDistance += chunk.lengths[last];
+            }
+            mHasPrevious = true;
+            mPreviousLatitude = fixes.latitudes[last];
+            mPreviousLongitude = fixes.longitudes[last];
+        }
+        chunk.formatted = mExecutor.submit(chunk.format);
+        formatting.add(chunk);
+        while (!formatting.isEmpty() && (formatting.size() > mWindow || formatting.peek().formatted.isDone())) {
+            write(formatting.poll(), out);
+        }
+    }
+
+    private void write(Chunk chunk, WritableByteChannel out) throws IOException {
+        get(chunk.formatted);
+        mWritten += chunk.written;
+        write(out, ByteBuffer.wrap(chunk.output.mBytes, 0, chunk.output.mLength));
+        report(false);
+    }
+
+    private static void write(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) out.write(buffer);
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Write the progress through the file, every few seconds unless done
+     *
+     * @param done true for the final report of the file
+     */
+    void report(boolean done) {
+        long now = System.nanoTime();
+        if (mReport == null || (!done && now - mLastReportNanos < REPORT_INTERVAL_NS)) return;
+        mLastReportNanos = now;
+        double seconds = Math.max(now - mStartNanos, 1) / 1e9;
+        mReport.println(String.format(Locale.US, "%s: %,d of %,d MB, %,.1f MB/s, %,d fixes, %,.0f fixes/s",
+                mFileName, mMappedBytes >> 20, mFileSize >> 20, mMappedBytes / seconds / (1 << 20),
+                mFixes, mFixes / seconds));
+    }
+
+    /**
+     * @return true if the position is in range, so it can be formatted
+     */
+    private static boolean isValid(Fix fix) {
+        return fix.latitude >= -90 && fix.latitude <= 90
+                && fix.longitude >= -180 && fix.longitude <= 180;
+    }
+
+    private boolean isGrid() {
+        return mFormat == GridReference.FORMAT_UTM || mFormat == GridReference.FORMAT_MGRS
+                || mFormat == GridReference.FORMAT_PLUS_CODE;
+    }
+
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    //region totals
+
+    /**
+     * @return bytes of the files processed
+     */
+    long getBytes() {
+        return mBytes;
+    }
+
+    long getFixCount() {
+        return mFixes;
+    }
+
+    /**
+     * @return fixes written, fewer than read if runs in a cell are left out
+     */
+    long getWrittenCount() {
+        return mWritten;
+    }
+
+    /**
+     * @return records that could not be parsed, or were not a position
+     */
+    long getErrorCount() {
+        return mErrors;
+    }
+
+    /**
+     * @return total length of the tracks in metres, if the distance is worked out
+     */
+    double getDistance() {
+        return mDistanceTotal;
+    }
+    //endregion
+
+    /**
+     * A chunk of the file as it goes through the steps
+     */
+    private final class Chunk {
+        // mapped bytes, or null if already read into fixes
+        private final ByteBuffer bytes;
+        FixColumns fixes;
+        long errors;
+        // distance along the chunk to each fix
+        double[] lengths;
+
+        // set when linked, the distance along the track to the first fix and the fix before it
+        double distance;
+        boolean hasPrevious;
+        double previousLatitude;
+        double previousLongitude;
+
+        Output output;
+        long written;
+        Future<?> parsed;
+        Future<?> formatted;
+
+        Chunk(ByteBuffer bytes, FixColumns fixes) {
+            this.bytes = bytes;
+            this.fixes = fixes;
+        }
+
+        final Callable<Void> parse = new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (bytes != null) {
+                    ChunkParser parser = ChunkParser.create(mFileFormat, mColumns);
+                    fixes = new FixColumns(bytes.limit() / RECORD_BYTES);
+                    Fix fix = new Fix();
+                    while (parser.next(bytes, fix)) {
+                        if (isValid(fix)) {
+                            fixes.add(fix);
+                        } else {
+                            errors++;
+                        }
+                    }
+                    errors += parser.getErrorCount();
+                }
+                fixes.trim();
+                if (mDistance) {
+                    lengths = new double[fixes.count];
+                    GeodesicKernel.cumulativeLength(fixes.latitudes, fixes.longitudes, lengths);
+                }
+                return null;
+            }
+        };
+
+        final Callable<Void> format = new Callable<Void>() {
+            @Override
+            public Void call() {
+                output = new Output(fixes.count * LINE_BYTES);
+                CoordinateFormatter latitude = new CoordinateFormatter();
+                CoordinateFormatter longitude = new CoordinateFormatter();
+                GridReference grid = new GridReference();
+                boolean grids = isGrid();
+                //bits are not negative, so -1 is no cell
+                long cell = hasPrevious && mDedupePrecision > 0
+                        ? Geohash.bits(previousLatitude, previousLongitude, mDedupePrecision) : -1;
+                long addressCell = -1;
+                byte[] address = null;
+                for (int i = 0; i < fixes.count; i++) {
+                    double lat = fixes.latitudes[i];
+                    double lon = fixes.longitudes[i];
+                    if (mDedupePrecision > 0) {
+                        long next = Geohash.bits(lat, lon, mDedupePrecision);
+                        if (next == cell) continue;
+                        cell = next;
+                    }
+                    written++;
+                    output.putLong(fixes.times[i]);
+                    output.put(',');
+                    if (grids) {
+                        output.put(grid.getChars(), grid.format(lat, lon, mFormat));
+                    } else {
+                        output.put(latitude.getChars(), latitude.format(lat, mFormat));
+                        output.put(',');
+                        output.put(longitude.getChars(), longitude.format(lon, mFormat));
+                    }
+                    output.put(',');
+                    if (fixes.hasAltitudes[i]) output.putTenths(fixes.altitudes[i]);
+                    if (mDistance) {
+                        output.put(',');
+                        output.putTenths(distance + lengths[i]);
+                    }
+                    if (mAddresses != null) {
+                        //fixes in the same cell have the same address
+                        long next = Geohash.bits(lat, lon, mAddressPrecision);
+                        if (next != addressCell) {
+                            addressCell = next;
+                            address = quote(mAddresses.get(Geohash.encode(lat, lon, mAddressPrecision)));
+                        }
+                        output.put(',');
+                        output.put(address);
+                    }
+                    output.put('\n');
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * @return address as a CSV value, quoted if needed
+     */
+    private static byte[] quote(String address) {
+        if (address == null) return new byte[0];
+        if (address.indexOf(',') >= 0 || address.indexOf('"') >= 0 || address.indexOf('\n') >= 0) {
+            address = '"' + address.replace("\"", "\"\"") + '"';
+        }
+        return address.getBytes(UTF_8);
+    }
+
+    /**
+     * Growing array of the output of a chunk, numbers written straight in
+     */
+    private static final class Output {
+        private byte[] mBytes;
+        private int mLength;
+
+        Output(int capacity) {
+            mBytes = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensure(int bytes) {
+            if (mLength + bytes > mBytes.length) {
+                byte[] grown = new byte[Math.max(mBytes.length * 2, mLength + bytes)];
+                System.arraycopy(mBytes, 0, grown, 0, mLength);
+                mBytes = grown;
+            }
+        }
+
+        void put(char c) {
+            ensure(1);
+            mBytes[mLength++] = (byte) c;
+        }
+
+        /**
+         * Put ASCII characters
+         */
+        void put(char[] chars, int length) {
+            ensure(length);
+            for (int i = 0; i < length; i++) mBytes[mLength++] = (byte) chars[i];
+        }
+
+        void put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        void putLong(long value) {
+            ensure(20);
+            if (value < 0) {
+                mBytes[mLength++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) digits++;
+            for (int i = mLength + digits - 1; i >= mLength; i--) {
+                mBytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            mLength += digits;
+        }
+
+        /**
+         * Put a number rounded to one decimal place
+         */
+        void putTenths(double value) {
+            long tenths = Math.round(value * 10);
+            if (tenths < 0) {
+                put('-');
+                tenths = -tenths;
+            }
+            putLong(tenths / 10);
+            put('.');
+            put((char) ('0' + tenths % 10));
+        }
+    }
+}
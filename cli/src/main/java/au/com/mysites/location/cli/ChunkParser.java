@@ -0,0 +1,365 @@
+package au.com.mysites.location.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import au.com.mysites.location.core.Fix;
+import au.com.mysites.location.core.NmeaParser;
+import au.com.mysites.location.core.TrackFileReader;
+
+/**
+ * Parses the fixes of a chunk of a track file where the bytes are, e.g. in a memory mapped
+ * file, the same formats as TrackFileReader. Numbers are parsed from the bytes, so a
+ * record of the usual form allocates nothing. A record that can not be parsed is counted
+ * and skipped, so one bad line does not stop a run over a large file.
+ * <p>
+ * A parser is used for one chunk at a time, by one thread.
+ */
+abstract class ChunkParser {
+
+    static final int FORMAT_GPX = 0;
+    static final int FORMAT_CSV = 1;
+    static final int FORMAT_NMEA = 2;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    // values a double is parsed exactly from, a whole number below 2^53 over a power of ten
+    private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+            1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAX_EXACT = 1L << 53;
+
+    protected long mErrors;
+
+    /**
+     * @param file .gpx, .csv or .nmea file
+     * @return FORMAT_GPX, FORMAT_CSV or FORMAT_NMEA
+     * @throws IOException if the extension is not known
+     */
+    static int format(File file) throws IOException {
+        String name = file.getName().toLowerCase(Locale.US);
+        if (name.endsWith(".gpx")) return FORMAT_GPX;
+        if (name.endsWith(".csv")) return FORMAT_CSV;
+        if (name.endsWith(".nmea")) return FORMAT_NMEA;
+        throw new IOException("Unknown track format " + file.getName());
+    }
+
+    /**
+     * @return bytes that end a record, a chunk is only split after them
+     */
+    static byte[] recordEnd(int format) {
+        return (format == FORMAT_GPX ? "</trkpt>" : "\n").getBytes(ASCII);
+    }
+
+    /**
+     * @param format  FORMAT_GPX, FORMAT_CSV or FORMAT_NMEA
+     * @param columns for CSV, the columns from the header, see columns()
+     * @return parser for a chunk
+     */
+    static ChunkParser create(int format, int[] columns) {
+        switch (format) {
+            case FORMAT_GPX:
+                return new GpxParser();
+            case FORMAT_CSV:
+                return new CsvParser(columns);
+            default:
+                return new NmeaChunkParser();
+        }
+    }
+
+    /**
+     * Parse records from the buffer's position until one gives a fix
+     *
+     * @param buffer chunk of whole records, the position is moved past the records parsed
+     * @param fix    receives the fix
+     * @return true if a fix was found, false at the end of the chunk
+     */
+    abstract boolean next(ByteBuffer buffer, Fix fix);
+
+    /**
+     * @return number of records that could not be parsed
+     */
+    long getErrorCount() {
+        return mErrors;
+    }
+
+    //region parsing bytes
+
+    /**
+     * @return index of the first occurrence of the bytes in the range, -1 if none
+     */
+    static int indexOf(ByteBuffer buffer, byte[] bytes, int from, int to) {
+        byte first = bytes[0];
+        for (int i = from; i <= to - bytes.length; i++) {
+            if (buffer.get(i) != first) continue;
+            int j = 1;
+            while (j < bytes.length && buffer.get(i + j) == bytes[j]) j++;
+            if (j == bytes.length) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a decimal number, without allocating unless it has an exponent or more digits
+     * than a double holds
+     *
+     * @return the number, NaN if it is not a number
+     */
+    static double parseDouble(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) == ' ') from++;
+        while (to > from && buffer.get(to - 1) == ' ') to--;
+        if (from == to) return Double.NaN;
+        int i = from;
+        boolean negative = buffer.get(i) == '-';
+        if (negative || buffer.get(i) == '+') i++;
+        long mantissa = 0;
+        int scale = -1;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (scale >= 0) scale++;
+                if (++digits > 18) break;
+            } else if (b == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == to && digits > 0 && mantissa < MAX_EXACT) {
+            double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(string(buffer, from, to));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Parse a time as milliseconds since the epoch or ISO 8601
+     *
+     * @return milliseconds since the epoch, Long.MIN_VALUE if it is not a time
+     */
+    static long parseTime(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) == ' ') from++;
+        while (to > from && buffer.get(to - 1) == ' ') to--;
+        if (from == to) return Long.MIN_VALUE;
+        int i = from;
+        boolean negative = buffer.get(i) == '-';
+        if (negative) i++;
+        long value = 0;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9' || i - from > 18) break;
+            value = value * 10 + (b - '0');
+        }
+        if (i == to && to > from + (negative ? 1 : 0)) return negative ? -value : value;
+        try {
+            return TrackFileReader.parseTime(string(buffer, from, to));
+        } catch (IllegalArgumentException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static String string(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) bytes[i - from] = buffer.get(i);
+        return new String(bytes, ASCII);
+    }
+    //endregion
+
+    /**
+     * Comma separated values, time, latitude and longitude then optionally altitude,
+     * or the columns named by a header
+     */
+    static final class CsvParser extends ChunkParser {
+        private static final String[] COLUMNS = {"time", "latitude", "longitude", "altitude"};
+        private static final int MAX_COLUMNS = 32;
+
+        private final int[] mColumns;
+        private final int[] mStarts = new int[MAX_COLUMNS];
+        private final int[] mEnds = new int[MAX_COLUMNS];
+
+        CsvParser(int[] columns) {
+            mColumns = columns;
+        }
+
+        /**
+         * Find the columns from the header, if the first line is one
+         *
+         * @param start start of the file
+         * @return column of the time, latitude, longitude and altitude, -1 if there is none
+         * @throws IOException if the header does not name the time and position
+         */
+        static int[] columns(ByteBuffer start) throws IOException {
+            int[] columns = {0, 1, 2, 3};
+            int limit = start.limit();
+            if (limit == 0) return columns;
+            byte first = start.get(0);
+            if (first == '-' || (first >= '0' && first <= '9')) return columns;
+            int end = 0;
+            while (end < limit && start.get(end) != '\n') end++;
+            String[] names = string(start, 0, end).split(",", -1);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                columns[c] = -1;
+                for (int i = 0; i < names.length; i++) {
+                    String name = names[i].trim().toLowerCase(Locale.US);
+                    if (name.equals(COLUMNS[c]) || (c == 1 && name.equals("lat"))
+                            || (c == 2 && name.equals("lon"))) {
+                        columns[c] = i;
+                    }
+                }
+            }
+            if (columns[0] < 0 || columns[1] < 0 || columns[2] < 0) {
+                throw new IOException("Header needs time, latitude and longitude");
+            }
+            return columns;
+        }
+
+        @Override
+        boolean next(ByteBuffer buffer, Fix fix) {
+            int limit = buffer.limit();
+            int position = buffer.position();
+            while (position < limit) {
+                int start = position;
+                int end = start;
+                int fields = 0;
+                mStarts[0] = start;
+                while (end < limit && buffer.get(end) != '\n') {
+                    if (buffer.get(end) == ',' && fields < MAX_COLUMNS - 1) {
+                        mEnds[fields++] = end;
+                        mStarts[fields] = end + 1;
+                    }
+                    end++;
+                }
+                position = end + 1;
+                int lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+                mEnds[fields++] = lineEnd;
+                if (lineEnd == start) continue;
+                //the header, or a comment
+                byte first = buffer.get(start);
+                if (first != '-' && (first < '0' || first > '9')) continue;
+
+                long time = mColumns[0] < fields
+                        ? parseTime(buffer, mStarts[mColumns[0]], mEnds[mColumns[0]]) : Long.MIN_VALUE;
+                double latitude = field(buffer, 1, fields);
+                double longitude = field(buffer, 2, fields);
+                if (time == Long.MIN_VALUE || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    mErrors++;
+                    continue;
+                }
+                double altitude = field(buffer, 3, fields);
+                fix.reset();
+                fix.time = time;
+                fix.latitude = latitude;
+                fix.longitude = longitude;
+                fix.hasAltitude = !Double.isNaN(altitude);
+                fix.altitude = fix.hasAltitude ? altitude : 0;
+                buffer.position(Math.min(position, limit));
+                return true;
+            }
+            buffer.position(limit);
+            return false;
+        }
+
+        private double field(ByteBuffer buffer, int value, int fields) {
+            int column = mColumns[value];
+            return column >= 0 && column < fields
+                    ? parseDouble(buffer, mStarts[column], mEnds[column]) : Double.NaN;
+        }
+    }
+
+    /**
+     * Track points, with their elevation and time
+     */
+    static final class GpxParser extends ChunkParser {
+        private static final byte[] START = "<trkpt".getBytes(ASCII);
+        private static final byte[] END = "</trkpt>".getBytes(ASCII);
+        private static final byte[] LATITUDE = "lat=".getBytes(ASCII);
+        private static final byte[] LONGITUDE = "lon=".getBytes(ASCII);
+        private static final byte[] ELEVATION = "<ele>".getBytes(ASCII);
+        private static final byte[] ELEVATION_END = "</ele>".getBytes(ASCII);
+        private static final byte[] TIME = "<time>".getBytes(ASCII);
+        private static final byte[] TIME_END = "</time>".getBytes(ASCII);
+
+        @Override
+        boolean next(ByteBuffer buffer, Fix fix) {
+            int limit = buffer.limit();
+            while (true) {
+                int start = indexOf(buffer, START, buffer.position(), limit);
+                int end = start < 0 ? -1 : indexOf(buffer, END, start, limit);
+                if (end < 0) {
+                    buffer.position(limit);
+                    return false;
+                }
+                buffer.position(end + END.length);
+                int tagEnd = start;
+                while (tagEnd < end && buffer.get(tagEnd) != '>') tagEnd++;
+                double latitude = attribute(buffer, LATITUDE, start, tagEnd);
+                double longitude = attribute(buffer, LONGITUDE, start, tagEnd);
+                long time = Long.MIN_VALUE;
+                int timeStart = indexOf(buffer, TIME, tagEnd, end);
+                int timeEnd = timeStart < 0 ? -1 : indexOf(buffer, TIME_END, timeStart, end);
+                if (timeEnd >= 0) time = parseTime(buffer, timeStart + TIME.length, timeEnd);
+                if (Double.isNaN(latitude) || Double.isNaN(longitude)
+                        || (timeStart >= 0 && time == Long.MIN_VALUE)) {
+                    mErrors++;
+                    continue;
+                }
+                double altitude = Double.NaN;
+                int elevationStart = indexOf(buffer, ELEVATION, tagEnd, end);
+                int elevationEnd = elevationStart < 0 ? -1 : indexOf(buffer, ELEVATION_END, elevationStart, end);
+                if (elevationEnd >= 0) {
+                    altitude = parseDouble(buffer, elevationStart + ELEVATION.length, elevationEnd);
+                }
+                fix.reset();
+                fix.time = timeStart < 0 ? 0 : time;
+                fix.latitude = latitude;
+                fix.longitude = longitude;
+                fix.hasAltitude = !Double.isNaN(altitude);
+                fix.altitude = fix.hasAltitude ? altitude : 0;
+                return true;
+            }
+        }
+
+        /**
+         * @return value of an attribute of the start tag, NaN if it is missing
+         */
+        private static double attribute(ByteBuffer buffer, byte[] name, int from, int to) {
+            int i = indexOf(buffer, name, from, to);
+            //lat= is not the end of another attribute's name
+            while (i > from && buffer.get(i - 1) > ' ') i = indexOf(buffer, name, i + 1, to);
+            if (i < 0) return Double.NaN;
+            i += name.length;
+            if (i >= to) return Double.NaN;
+            byte quote = buffer.get(i);
+            int end = i + 1;
+            while (end < to && buffer.get(end) != quote) end++;
+            return end < to ? parseDouble(buffer, i + 1, end) : Double.NaN;
+        }
+    }
+
+    /**
+     * NMEA sentences, parsed by the parser used for receivers
+     */
+    static final class NmeaChunkParser extends ChunkParser {
+        private final NmeaParser mParser = new NmeaParser();
+
+        @Override
+        boolean next(ByteBuffer buffer, Fix fix) {
+            if (mParser.next(buffer, fix)) return true;
+            //a sentence cut off at the end of the file
+            buffer.position(buffer.limit());
+            return false;
+        }
+
+        @Override
+        long getErrorCount() {
+            return mParser.getErrorCount();
+        }
+    }
+}
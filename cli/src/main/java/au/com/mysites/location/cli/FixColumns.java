@@ -0,0 +1,55 @@
+package au.com.mysites.location.cli;
+
+import java.util.Arrays;
+
+import au.com.mysites.location.core.Fix;
+
+/**
+ * The fixes of one chunk as primitive arrays, a column for each value
+ */
+final class FixColumns {
+
+    int count;
+    long[] times;
+    double[] latitudes;
+    double[] longitudes;
+    double[] altitudes;
+    boolean[] hasAltitudes;
+
+    /**
+     * @param capacity fixes expected, the arrays grow if there are more
+     */
+    FixColumns(int capacity) {
+        capacity = Math.max(capacity, 16);
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+        hasAltitudes = new boolean[capacity];
+    }
+
+    void add(Fix fix) {
+        if (count == times.length) resize(count * 2);
+        times[count] = fix.time;
+        latitudes[count] = fix.latitude;
+        longitudes[count] = fix.longitude;
+        altitudes[count] = fix.altitude;
+        hasAltitudes[count] = fix.hasAltitude;
+        count++;
+    }
+
+    /**
+     * Make the arrays exactly the number of fixes, for calculations over whole arrays
+     */
+    void trim() {
+        if (count != times.length) resize(count);
+    }
+
+    private void resize(int capacity) {
+        times = Arrays.copyOf(times, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+        hasAltitudes = Arrays.copyOf(hasAltitudes, capacity);
+    }
+}
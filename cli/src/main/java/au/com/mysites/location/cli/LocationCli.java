@@ -0,0 +1,163 @@
+package au.com.mysites.location.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import au.com.mysites.location.core.AddressCache;
+import au.com.mysites.location.core.CoordinateFormatter;
+import au.com.mysites.location.core.GridReference;
+
+/**
+ * Converts track files to CSV on a plain JVM, e.g. to reprocess fleet logs on a server.
+ * Install with ./gradlew :cli:installDist and run cli/build/install/cli/bin/cli, or run with
+ * ./gradlew :cli:run -PcliArgs="--format minutes --distance track.gpx"
+ * <ul>
+ * <li>--format f - degrees, minutes, seconds, utm, mgrs or pluscode, default degrees</li>
+ * <li>--distance - add the distance along the track in metres</li>
+ * <li>--dedupe n - leave out fixes in the same geohash cell of precision n as the fix before</li>
+ * <li>--addresses dir - add the address of each fix from an address cache directory</li>
+ * <li>--precision n - geohash precision the address cache is keyed by, default 7</li>
+ * <li>--threads n - threads parsing and formatting, default the number of processors</li>
+ * <li>--chunk-mb n - size of the chunks files are split into, default 16</li>
+ * <li>--out file - file the CSV is written to, default the standard output</li>
+ * </ul>
+ * The files follow the options, .csv, .gpx or .nmea, optionally with .gz after it.
+ * Progress and a summary of each file are written to the standard error.
+ */
+public final class LocationCli {
+
+    private static final String USAGE = "usage: cli [--format degrees|minutes|seconds|utm|mgrs|pluscode]"
+            + " [--distance] [--dedupe precision] [--addresses dir] [--precision n] [--threads n]"
+            + " [--chunk-mb n] [--out file] file...";
+    private static final int EXIT_USAGE = 2;
+    private static final int ADDRESS_MEMORY_ENTRIES = 64 * 1024;
+
+    private LocationCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int format = CoordinateFormatter.FORMAT_DEGREES;
+        boolean distance = false;
+        int dedupe = 0;
+        File addresses = null;
+        int precision = 7;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkMb = 16;
+        File output = null;
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        format = parseFormat(args[++i]);
+                        break;
+                    case "--distance":
+                        distance = true;
+                        break;
+                    case "--dedupe":
+                        dedupe = parsePrecision(args[++i]);
+                        break;
+                    case "--addresses":
+                        addresses = new File(args[++i]);
+                        break;
+                    case "--precision":
+                        precision = parsePrecision(args[++i]);
+                        break;
+                    case "--threads":
+                        threads = parsePositive(args[++i]);
+                        break;
+                    case "--chunk-mb":
+                        chunkMb = parsePositive(args[++i]);
+                        if (chunkMb > 1024) throw new IllegalArgumentException(args[i]);
+                        break;
+                    case "--out":
+                        output = new File(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) throw new IllegalArgumentException(args[i]);
+                        files.add(new File(args[i]));
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            usage();
+            return;
+        }
+        if (files.isEmpty()) {
+            usage();
+            return;
+        }
+
+        BulkProcessor processor = new BulkProcessor(threads);
+        processor.setFormat(format);
+        processor.setDistance(distance);
+        processor.setDedupe(dedupe);
+        if (addresses != null) {
+            //a copy of the cache, kept whatever the age of the addresses
+            processor.setAddresses(new AddressCache(addresses, ADDRESS_MEMORY_ENTRIES,
+                    Long.MAX_VALUE, Long.MAX_VALUE), precision);
+        }
+        processor.setChunkBytes(chunkMb << 20);
+        processor.setReport(System.err);
+        long start = System.nanoTime();
+        WritableByteChannel out = Channels.newChannel(
+                output != null ? new FileOutputStream(output) : System.out);
+        try {
+            processor.writeHeader(out);
+            for (File file : files) {
+                processor.process(file, out);
+                processor.report(true);
+            }
+        } finally {
+            out.close();
+            processor.shutdown();
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.err.println(String.format(Locale.US,
+                "%,d fixes, %,d written, %,d errors, %,.1f km in %.1f s, %,.1f MB/s",
+                processor.getFixCount(), processor.getWrittenCount(), processor.getErrorCount(),
+                processor.getDistance() / 1000, seconds, processor.getBytes() / seconds / (1 << 20)));
+    }
+
+    private static void usage() {
+        System.err.println(USAGE);
+        System.exit(EXIT_USAGE);
+    }
+
+    static int parseFormat(String name) {
+        switch (name) {
+            case "degrees":
+                return CoordinateFormatter.FORMAT_DEGREES;
+            case "minutes":
+                return CoordinateFormatter.FORMAT_MINUTES;
+            case "seconds":
+                return CoordinateFormatter.FORMAT_SECONDS;
+            case "utm":
+                return GridReference.FORMAT_UTM;
+            case "mgrs":
+                return GridReference.FORMAT_MGRS;
+            case "pluscode":
+                return GridReference.FORMAT_PLUS_CODE;
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static int parsePrecision(String text) {
+        int precision = Integer.parseInt(text);
+        if (precision < 1 || precision > 12) throw new IllegalArgumentException(text);
+        return precision;
+    }
+
+    private static int parsePositive(String text) {
+        int value = Integer.parseInt(text);
+        if (value < 1) throw new IllegalArgumentException(text);
+        return value;
+    }
+}
@@ -0,0 +1,91 @@
+package au.com.mysites.location.cli;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Splits a file into memory mapped chunks that end at the end of a record, so each chunk
+ * can be parsed on its own. The file is read by the operating system as the chunks are
+ * parsed, with no copy into the heap, and a file of any size is mapped a chunk at a time.
+ */
+final class MappedChunker implements Closeable {
+
+    // longest record, a chunk is cut here if no record ends within it
+    static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final FileInputStream mStream;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final int mChunkBytes;
+    private final byte[] mRecordEnd;
+    private long mPosition;
+
+    /**
+     * @param file       file to split
+     * @param chunkBytes size of a chunk, each is up to a record longer
+     * @param recordEnd  bytes ending a record, e.g. a new line
+     * @throws IOException if the file can not be opened
+     */
+    MappedChunker(File file, int chunkBytes, byte[] recordEnd) throws IOException {
+        if (chunkBytes < 1 || chunkBytes > Integer.MAX_VALUE - MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("chunk " + chunkBytes);
+        }
+        mStream = new FileInputStream(file);
+        mChannel = mStream.getChannel();
+        mSize = mChannel.size();
+        mChunkBytes = chunkBytes;
+        mRecordEnd = recordEnd;
+    }
+
+    /**
+     * @return the start of the file, e.g. to read a header
+     * @throws IOException if it can not be mapped
+     */
+    ByteBuffer start() throws IOException {
+        return mChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(mSize, MAX_RECORD_BYTES));
+    }
+
+    /**
+     * Map the next chunk
+     *
+     * @return chunk from position 0 to its limit, null at the end of the file
+     * @throws IOException if it can not be mapped
+     */
+    ByteBuffer next() throws IOException {
+        if (mPosition >= mSize) return null;
+        int window = (int) Math.min(mSize - mPosition, (long) mChunkBytes + MAX_RECORD_BYTES);
+        MappedByteBuffer buffer = mChannel.map(FileChannel.MapMode.READ_ONLY, mPosition, window);
+        int end = window;
+        if (mPosition + window < mSize) {
+            //a record end across the chunk size is found too
+            int from = Math.max(0, mChunkBytes - mRecordEnd.length + 1);
+            int found = ChunkParser.indexOf(buffer, mRecordEnd, from, window);
+            if (found >= 0) end = found + mRecordEnd.length;
+        }
+        buffer.limit(end);
+        mPosition += end;
+        return buffer;
+    }
+
+    /**
+     * @return bytes mapped so far
+     */
+    long getPosition() {
+        return mPosition;
+    }
+
+    long getSize() {
+        return mSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        //chunks already mapped stay valid
+        mStream.close();
+    }
+}
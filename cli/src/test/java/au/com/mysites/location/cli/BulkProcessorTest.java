@@ -0,0 +1,134 @@
+package au.com.mysites.location.cli;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPOutputStream;
+
+import au.com.mysites.location.core.CoordinateFormatter;
+import au.com.mysites.location.core.Geodesy;
+import au.com.mysites.location.core.GridReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for converting track files in chunks
+ */
+public class BulkProcessorTest {
+
+    private static final long START = 1538300261000L;
+    private static final int FIXES = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BulkProcessor mProcessor = new BulkProcessor(3);
+
+    @After
+    public void tearDown() {
+        mProcessor.shutdown();
+    }
+
+    /**
+     * A track heading north east, each pair of fixes in the same place
+     */
+    private File track(String name) throws Exception {
+        File file = folder.newFile(name);
+        OutputStream stream = new FileOutputStream(file);
+        if (name.endsWith(".gz")) stream = new GZIPOutputStream(stream);
+        Writer writer = new OutputStreamWriter(stream, "US-ASCII");
+        writer.write("time,latitude,longitude,altitude\n");
+        for (int i = 0; i < FIXES; i++) {
+            writer.write((START + i * 1000L) + "," + (-33.8688 + (i / 2) * 0.001) + ","
+                    + (151.2093 + (i / 2) * 0.001) + (i % 3 == 0 ? ",25.5" : ",") + "\n");
+        }
+        writer.close();
+        return file;
+    }
+
+    private String process(File... files) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mProcessor.writeHeader(Channels.newChannel(out));
+        for (File file : files) mProcessor.process(file, Channels.newChannel(out));
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void process_writesChunksInOrderWithTheDistanceAcrossThem() throws Exception {
+        File file = track("track.csv");
+        mProcessor.setDistance(true);
+        mProcessor.setChunkBytes(300);
+        String[] lines = process(file).split("\n");
+
+        assertEquals("time,latitude,longitude,altitude,distance", lines[0]);
+        assertEquals(FIXES + 1, lines.length);
+        double distance = 0;
+        for (int i = 0; i < FIXES; i++) {
+            String[] fields = lines[i + 1].split(",", -1);
+            assertEquals(START + i * 1000L, Long.parseLong(fields[0]));
+            assertEquals(-33.8688 + (i / 2) * 0.001, Double.parseDouble(fields[1]), 1e-6);
+            assertEquals(i % 3 == 0 ? "25.5" : "", fields[3]);
+            if (i % 2 == 0 && i > 0) {
+                distance += Geodesy.distance(-33.8688 + (i / 2 - 1) * 0.001, 151.2093 + (i / 2 - 1) * 0.001,
+                        -33.8688 + (i / 2) * 0.001, 151.2093 + (i / 2) * 0.001);
+            }
+            assertEquals(distance, Double.parseDouble(fields[4]), 0.051);
+        }
+        assertEquals(FIXES, mProcessor.getFixCount());
+        assertEquals(distance, mProcessor.getDistance(), 1e-3);
+        assertEquals(0, mProcessor.getErrorCount());
+    }
+
+    @Test
+    public void process_sameOutputWhateverTheChunks() throws Exception {
+        File file = track("track.csv");
+        mProcessor.setFormat(GridReference.FORMAT_MGRS);
+        mProcessor.setDedupe(8);
+        String whole = process(file);
+        mProcessor.setChunkBytes(100);
+        assertEquals(whole, process(file));
+        //each pair of fixes is in the same cell
+        assertEquals(2 * FIXES, mProcessor.getFixCount());
+        assertEquals(FIXES, mProcessor.getWrittenCount());
+        assertTrue(whole, whole.startsWith("time,position,altitude\n" + START + ",56H "));
+
+        //a compressed file is read whole and formatted in chunks
+        mProcessor.setFormat(CoordinateFormatter.FORMAT_MINUTES);
+        String plain = process(file);
+        assertEquals(plain, process(track("track.csv.gz")));
+    }
+
+    @Test
+    public void process_countsBadRecordsOfCompressedFiles() throws Exception {
+        String csv = "time,latitude,longitude\n"
+                + START + ",-33.8688,151.2093\n"
+                + (START + 1000) + ",-33.86x,151.2093\n"
+                + (START + 2000) + ",95.0,151.2093\n"
+                + (START + 3000) + ",-33.8698,151.2103\n";
+        File plain = folder.newFile("bad.csv");
+        File compressed = folder.newFile("bad.csv.gz");
+        OutputStream[] streams = {new FileOutputStream(plain),
+                new GZIPOutputStream(new FileOutputStream(compressed))};
+        for (OutputStream stream : streams) {
+            stream.write(csv.getBytes("US-ASCII"));
+            stream.close();
+        }
+        mProcessor.setFormat(GridReference.FORMAT_UTM);
+
+        String expected = process(plain);
+        assertEquals(2, mProcessor.getErrorCount());
+        assertEquals(expected, process(compressed));
+        assertEquals(4, mProcessor.getErrorCount());
+        assertEquals(4, mProcessor.getWrittenCount());
+    }
+}
@@ -0,0 +1,87 @@
+package au.com.mysites.location.cli;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import au.com.mysites.location.core.Fix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for parsing chunks of track files
+ */
+public class ChunkParserTest {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(Charset.forName("US-ASCII")));
+    }
+
+    @Test
+    public void parseDouble_matchesJava() {
+        String[] numbers = {"0", "-33.8688", "151.2093000", "1e3", "25.", "-0.000001", "12345678901234567.5"};
+        for (String number : numbers) {
+            ByteBuffer buffer = bytes(" " + number + " ");
+            assertEquals(number, Double.parseDouble(number),
+                    ChunkParser.parseDouble(buffer, 1, buffer.limit() - 1), 0);
+        }
+        ByteBuffer buffer = bytes("1.2.3");
+        assertTrue(Double.isNaN(ChunkParser.parseDouble(buffer, 0, buffer.limit())));
+    }
+
+    @Test
+    public void csv_findsColumnsFromTheHeader() throws Exception {
+        ByteBuffer buffer = bytes("speed,lon,lat,time\r\n"
+                + "3,151.2093,-33.8688,2018-09-30T09:37:41Z\r\n"
+                + "3,151.2093,x,1538300262000\r\n"
+                + "3,151.2094,-33.8689,1538300263000\r\n");
+        int[] columns = ChunkParser.CsvParser.columns(buffer);
+        assertArrayEquals(new int[]{3, 2, 1, -1}, columns);
+        ChunkParser parser = ChunkParser.create(ChunkParser.FORMAT_CSV, columns);
+        Fix fix = new Fix();
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(-33.8688, fix.latitude, 0);
+        assertEquals(151.2093, fix.longitude, 0);
+        assertFalse(fix.hasAltitude);
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(1538300263000L, fix.time);
+        assertFalse(parser.next(buffer, fix));
+        assertEquals(1, parser.getErrorCount());
+    }
+
+    @Test
+    public void gpxAndNmea_parseFixes() {
+        ByteBuffer buffer = bytes("<gpx><trk><trkseg>\n"
+                + "<trkpt lat=\"-33.8688\" lon='151.2093'><ele>25.0</ele><time>2018-09-30T09:37:41Z</time></trkpt>\n"
+                + "<trkpt lon=\"151.2094\"></trkpt>\n"
+                + "<trkpt lat=\"-33.8689\" lon=\"151.2094\"></trkpt>\n</trkseg></trk></gpx>\n");
+        ChunkParser parser = ChunkParser.create(ChunkParser.FORMAT_GPX, null);
+        Fix fix = new Fix();
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(-33.8688, fix.latitude, 0);
+        assertEquals(151.2093, fix.longitude, 0);
+        assertEquals(25.0, fix.altitude, 0);
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(151.2094, fix.longitude, 0);
+        assertFalse(fix.hasAltitude);
+        assertFalse(parser.next(buffer, fix));
+        assertEquals(1, parser.getErrorCount());
+
+        buffer = bytes("$GPGGA,093741.00,3352.1280,S,15112.5580,E,1,08,1.2,25.0,M,21.0,M,,*44\n"
+                + "$GPRMC,093741.00,A,3352.1280,S,15112.5580,E,10.0,90.0,300918,,,A*42\n"
+                + "$GPRMC,093743.00,A,3352.1280,S,15112");
+        parser = ChunkParser.create(ChunkParser.FORMAT_NMEA, null);
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(-(33 + 52.128 / 60), fix.latitude, 1e-9);
+        assertEquals(25.0, fix.altitude, 0);
+        assertFalse(parser.next(buffer, fix));
+        assertEquals(buffer.limit(), buffer.position());
+    }
+}
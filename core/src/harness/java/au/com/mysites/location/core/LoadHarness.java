@@ -0,0 +1,257 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes a replayed or generated track through the fix pipeline the app uses while tracking,
+ * smoothing, formatting, the track store and address lookups, then reports the throughput
+ * and the latency of each stage. Run with ./gradlew :core:loadHarness, e.g.
+ * -PharnessArgs="--fixes 5000000" or -PharnessArgs="--speed 10 track.gpx"
+ * <ul>
+ * <li>--fixes n - number of fixes to generate when no track is given, default 2000000</li>
+ * <li>--speed s - replay speed, 1 for real time, default as fast as possible</li>
+ * <li>--batch n - fixes delivered together, default 5</li>
+ * <li>--lookup-ms n - time taken by each simulated address lookup, default 20</li>
+ * </ul>
+ */
+public final class LoadHarness {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+    private static final int CACHE_PRECISION = 7;
+    private static final int REPORT_EVERY = 1000000;
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long fixes = 2000000;
+        double speed = ReplayLocationSource.SPEED_MAX;
+        int batchSize = 5;
+        long lookupMs = 20;
+        File track = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fixes":
+                    fixes = Long.parseLong(args[++i]);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--lookup-ms":
+                    lookupMs = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    track = new File(args[i]);
+                    break;
+            }
+        }
+
+        File directory = createTempDirectory();
+        try {
+            run(track != null ? new ReplayLocationSource(track, speed)
+                            : new ReplayLocationSource(new GeneratedTrack(fixes), speed),
+                    batchSize, lookupMs, directory);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void run(final ReplayLocationSource source, int batchSize, final long lookupMs,
+                            File directory) throws IOException, InterruptedException {
+        Metrics.setEnabled(true);
+        final AtomicLong lookups = new AtomicLong();
+        AddressLookup lookup = new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) throws IOException {
+                lookups.incrementAndGet();
+                try {
+                    Thread.sleep(lookupMs);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return String.format(Locale.US, "%.4f, %.4f", latitude, longitude);
+            }
+        };
+        AddressCache cache = new AddressCache(new File(directory, "addresses"), 1000,
+                24 * 60 * 60 * 1000L, 16 * 1024 * 1024);
+        final GeocodingEngine engine = new GeocodingEngine(lookup, cache, CACHE_PRECISION, 4, 16,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        File trackDirectory = new File(directory, "track");
+        final TrackStore store = TrackStore.open(trackDirectory, 4 * 1024 * 1024);
+
+        final Stage[] stages = {
+                new Stage("smoothing", new KalmanFilter(1, 60000)),
+                new Stage("formatting", new FixProcessor() {
+                    private final CoordinateFormatter mLatitude = new CoordinateFormatter();
+                    private final CoordinateFormatter mLongitude = new CoordinateFormatter();
+
+                    @Override
+                    public boolean onFix(Fix fix) {
+                        mLatitude.format(fix.latitude, CoordinateFormatter.FORMAT_SECONDS);
+                        mLongitude.format(fix.longitude, CoordinateFormatter.FORMAT_SECONDS);
+                        return true;
+                    }
+                }),
+                new Stage("storage", store),
+                new Stage("geocode", new FixProcessor() {
+                    @Override
+                    public boolean onFix(Fix fix) {
+                        //fixes in the same cell join the lookup in progress or hit the cache
+                        engine.fetchAddress(fix.latitude, fix.longitude, null);
+                        return true;
+                    }
+                })};
+        final FixPipeline pipeline = new FixPipeline();
+        for (Stage stage : stages) pipeline.add(stage);
+        final LatencyHistogram fixLatency = new LatencyHistogram("fix");
+        final long startNanos = System.nanoTime();
+
+        source.start(0, batchSize, 0, new LocationSource.Listener() {
+            private long mCount;
+
+            @Override
+            public void onFixes(Fix[] fixes, int count) {
+                for (int i = 0; i < count; i++) {
+                    long start = System.nanoTime();
+                    pipeline.onFix(fixes[i]);
+                    fixLatency.record(System.nanoTime() - start);
+                    if (++mCount % REPORT_EVERY == 0) {
+                        System.out.println(String.format(Locale.US, "%,d fixes, %,.0f fixes/s",
+                                mCount, mCount * 1e9 / (System.nanoTime() - startNanos)));
+                    }
+                }
+            }
+        });
+        source.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        store.flush();
+        engine.shutdown();
+        if (source.getError() != null) throw source.getError();
+
+        long count = source.getFixCount();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.US, "%n%,d fixes in %.2f s, %,.0f fixes/s%n", count,
+                elapsedNanos / 1e9, count * 1e9 / elapsedNanos));
+        report.append(String.format(Locale.US, "%,d address lookups, %,d requests joined, %,d busy%n",
+                lookups.get(), Metrics.getCount(Metrics.ADDRESS_REQUEST_JOINED),
+                Metrics.getCount(Metrics.ADDRESS_REQUEST_BUSY)));
+        report.append(String.format(Locale.US, "%,d bytes stored%n%nlatency ns%n", size(trackDirectory)));
+        appendLatency(report, fixLatency);
+        for (Stage stage : stages) appendLatency(report, stage.mLatency);
+        appendLatency(report, source.getLag());
+        System.out.print(report);
+        store.close();
+    }
+
+    private static void appendLatency(StringBuilder report, LatencyHistogram histogram) {
+        report.append(String.format(Locale.US, "%-12s p50 %,10d  p99 %,10d  p99.9 %,12d  max %,12d%n",
+                histogram.getName(), histogram.getPercentileNanos(50),
+                histogram.getPercentileNanos(99), histogram.getPercentileNanos(99.9),
+                histogram.getMaxNanos()));
+    }
+
+    private static long size(File directory) {
+        long bytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) bytes += file.length();
+        }
+        return bytes;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("harness", "");
+        if (!directory.delete() || !directory.mkdir()) throw new IOException("No temporary directory");
+        return directory;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) delete(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Times one processor of the pipeline
+     */
+    private static final class Stage implements FixProcessor {
+        private final FixProcessor mProcessor;
+        private final LatencyHistogram mLatency;
+
+        Stage(String name, FixProcessor processor) {
+            mProcessor = processor;
+            mLatency = new LatencyHistogram(name);
+        }
+
+        @Override
+        public boolean onFix(Fix fix) {
+            long start = System.nanoTime();
+            boolean keep = mProcessor.onFix(fix);
+            mLatency.record(System.nanoTime() - start);
+            return keep;
+        }
+    }
+
+    /**
+     * A drive around Sydney, a fix a second at changing speeds with GPS noise
+     */
+    private static final class GeneratedTrack implements FixReader {
+        private final Random mRandom = new Random(42);
+        private final long mCount;
+        private long mIndex;
+        private double mLatitude = -33.8688;
+        private double mLongitude = 151.2093;
+        private double mBearing;
+        private double mSpeed = 10;
+
+        GeneratedTrack(long count) {
+            mCount = count;
+        }
+
+        @Override
+        public boolean read(Fix fix) {
+            if (mIndex == mCount) return false;
+            mSpeed = Math.max(0, Math.min(30, mSpeed + mRandom.nextGaussian()));
+            mBearing += mRandom.nextGaussian() * 5;
+            double radians = Math.toRadians(mBearing);
+            mLatitude += mSpeed * Math.cos(radians) / METRES_PER_DEGREE;
+            mLongitude += mSpeed * Math.sin(radians)
+                    / (METRES_PER_DEGREE * Math.cos(Math.toRadians(mLatitude)));
+            //stay in the area, turning back at its edge
+            if (Math.abs(mLatitude + 33.8688) > 0.5 || Math.abs(mLongitude - 151.2093) > 0.5) {
+                mBearing += 180;
+            }
+            fix.time = 1538300261000L + mIndex * 1000;
+            fix.latitude = mLatitude + mRandom.nextGaussian() * 5 / METRES_PER_DEGREE;
+            fix.longitude = mLongitude + mRandom.nextGaussian() * 5 / METRES_PER_DEGREE;
+            fix.accuracy = 5;
+            fix.hasAltitude = true;
+            fix.altitude = 20;
+            fix.hasSpeed = true;
+            fix.speed = (float) mSpeed;
+            fix.hasBearing = false;
+            mIndex++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address cache lookups, cells quantized from each coordinate distribution.
+ * With the app's 64 memory entries a track mostly hits memory, scattered lookups go to disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AddressCacheBenchmark {
+
+    private static final int PRECISION = 7;
+    private static final long TIME_TO_LIVE_MS = 30L * 24 * 60 * 60 * 1000;
+    private static final long MAX_DISK_BYTES = 16 * 1024 * 1024;
+
+    @Param({Coordinates.TRACK, Coordinates.CITIES, Coordinates.GLOBAL})
+    public String distribution;
+
+    @Param({"64", "4096"})
+    public int memoryEntries;
+
+    private File mDirectory;
+    private AddressCache mCache;
+    private String[] mCells;
+    private String[] mMissingCells;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Coordinates coordinates = new Coordinates(distribution);
+        mCells = new String[Coordinates.COUNT];
+        mMissingCells = new String[Coordinates.COUNT];
+        mDirectory = File.createTempFile("addresses", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) throw new IOException("mkdir " + mDirectory);
+        mCache = new AddressCache(mDirectory, memoryEntries, TIME_TO_LIVE_MS, MAX_DISK_BYTES);
+        for (int i = 0; i < Coordinates.COUNT; i++) {
+            mCells[i] = Geohash.encode(coordinates.latitudes[i], coordinates.longitudes[i], PRECISION);
+            // one character longer, so never stored
+            mMissingCells[i] = mCells[i] + "0";
+            mCache.put(mCells[i], "1 Macquarie Street, Sydney NSW 2000, Australia");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mCache.clear();
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public String hit() {
+        return mCache.get(mCells[mIndex++ & Coordinates.MASK]);
+    }
+
+    @Benchmark
+    public String miss() {
+        return mCache.get(mMissingCells[mIndex++ & Coordinates.MASK]);
+    }
+}
@@ -0,0 +1,68 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting a coordinate for display, compared with the DecimalFormat used by Location.convert
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CoordinateFormatterBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int format;
+
+    @Param({Coordinates.TRACK, Coordinates.GLOBAL})
+    public String distribution;
+
+    private final CoordinateFormatter mFormatter = new CoordinateFormatter();
+    private double[] mLatitudes;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mLatitudes = new Coordinates(distribution).latitudes;
+    }
+
+    @Benchmark
+    public int formatter() {
+        return mFormatter.format(mLatitudes[mIndex++ & Coordinates.MASK], format);
+    }
+
+    /**
+     * Same steps as Location.convert, which the formatter replaced
+     */
+    @Benchmark
+    public String decimalFormat() {
+        double coordinate = mLatitudes[mIndex++ & Coordinates.MASK];
+        StringBuilder sb = new StringBuilder();
+        if (coordinate < 0) {
+            sb.append('-');
+            coordinate = -coordinate;
+        }
+        DecimalFormat df = new DecimalFormat("###.#####");
+        if (format == CoordinateFormatter.FORMAT_MINUTES || format == CoordinateFormatter.FORMAT_SECONDS) {
+            int degrees = (int) Math.floor(coordinate);
+            sb.append(degrees).append(':');
+            coordinate = (coordinate - degrees) * 60.0;
+            if (format == CoordinateFormatter.FORMAT_SECONDS) {
+                int minutes = (int) Math.floor(coordinate);
+                sb.append(minutes).append(':');
+                coordinate = (coordinate - minutes) * 60.0;
+            }
+        }
+        sb.append(df.format(coordinate));
+        return sb.toString();
+    }
+}
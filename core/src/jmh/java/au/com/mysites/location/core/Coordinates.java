@@ -0,0 +1,68 @@
+package au.com.mysites.location.core;
+
+import java.util.Random;
+
+/**
+ * Test coordinates for the benchmarks, generated from a fixed seed so runs are comparable.
+ * <ul>
+ * <li>track - a walk with fixes a few metres apart, as recorded while tracking</li>
+ * <li>cities - clustered around a handful of cities, where most users are</li>
+ * <li>global - spread evenly over the earth's surface</li>
+ * </ul>
+ */
+final class Coordinates {
+
+    static final String TRACK = "track";
+    static final String CITIES = "cities";
+    static final String GLOBAL = "global";
+
+    // power of two so an index can be wrapped with a mask
+    static final int COUNT = 4096;
+    static final int MASK = COUNT - 1;
+
+    private static final double[][] CITY_CENTRES = {
+            {-33.8688, 151.2093}, {-37.8136, 144.9631}, {51.5074, -0.1278},
+            {40.7128, -74.0060}, {35.6762, 139.6503}, {1.3521, 103.8198},
+            {-23.5505, -46.6333}, {64.1466, -21.9426}};
+
+    final double[] latitudes = new double[COUNT];
+    final double[] longitudes = new double[COUNT];
+
+    /**
+     * @param distribution TRACK, CITIES or GLOBAL
+     */
+    Coordinates(String distribution) {
+        Random random = new Random(42);
+        switch (distribution) {
+            case TRACK:
+                double latitude = -33.8688;
+                double longitude = 151.2093;
+                double bearing = 0;
+                for (int i = 0; i < COUNT; i++) {
+                    // about 5 m per fix, slowly turning
+                    bearing += random.nextGaussian() * 0.2;
+                    latitude += Math.cos(bearing) * 4.5e-5;
+                    longitude += Math.sin(bearing) * 5.4e-5;
+                    latitudes[i] = latitude;
+                    longitudes[i] = longitude;
+                }
+                break;
+            case CITIES:
+                for (int i = 0; i < COUNT; i++) {
+                    double[] centre = CITY_CENTRES[random.nextInt(CITY_CENTRES.length)];
+                    // standard deviation about 10 km
+                    latitudes[i] = centre[0] + random.nextGaussian() * 0.09;
+                    longitudes[i] = centre[1] + random.nextGaussian() * 0.11;
+                }
+                break;
+            case GLOBAL:
+                for (int i = 0; i < COUNT; i++) {
+                    latitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+                    longitudes[i] = random.nextDouble() * 360 - 180;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("distribution " + distribution);
+        }
+    }
+}
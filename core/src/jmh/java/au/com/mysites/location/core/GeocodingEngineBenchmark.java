@@ -0,0 +1,79 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of an address request through the geocoding engine, from the request to the
+ * result, with the lookup answered in memory so only the engine's own overhead is measured
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GeocodingEngineBenchmark {
+
+    private static final int PRECISION = 7;
+
+    private final GeocodingEngine.Callback mCallback = new GeocodingEngine.Callback() {
+        @Override
+        public void onAddressResult(int resultCode, String message, int tier) {
+        }
+    };
+
+    private Coordinates mCoordinates;
+    private File mDirectory;
+    private GeocodingEngine mEngine;
+    private int mIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mCoordinates = new Coordinates(Coordinates.CITIES);
+        mDirectory = File.createTempFile("addresses", "");
+        if (!mDirectory.delete() || !mDirectory.mkdir()) throw new IOException("mkdir " + mDirectory);
+        AddressCache cache = new AddressCache(mDirectory, Coordinates.COUNT, Long.MAX_VALUE / 2,
+                Long.MAX_VALUE);
+        AddressLookup lookup = new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) {
+                return "1 Macquarie Street, Sydney NSW 2000, Australia";
+            }
+        };
+        mEngine = new GeocodingEngine(lookup, cache, PRECISION, 3, 32, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.shutdown();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            //noinspection ResultOfMethodCallIgnored
+            for (File file : files) file.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public String fetchAddress() throws Exception {
+        int i = mIndex++ & Coordinates.MASK;
+        return mEngine.fetchAddress(mCoordinates.latitudes[i], mCoordinates.longitudes[i], mCallback)
+                .get();
+    }
+}
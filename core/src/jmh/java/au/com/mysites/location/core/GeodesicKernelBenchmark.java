@@ -0,0 +1,61 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Length of a track a point at a time against the kernel over the arrays, in one chunk
+ * and in many chunks on the fork/join pool
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class GeodesicKernelBenchmark {
+
+    @Param({"4096", "1048576"})
+    public int points;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mLengths;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Coordinates coordinates = new Coordinates(Coordinates.TRACK);
+        mLatitudes = new double[points];
+        mLongitudes = new double[points];
+        mLengths = new double[points];
+        for (int i = 0; i < points; i++) {
+            mLatitudes[i] = coordinates.latitudes[i & Coordinates.MASK];
+            mLongitudes[i] = coordinates.longitudes[i & Coordinates.MASK];
+        }
+    }
+
+    @Benchmark
+    public double perPoint() {
+        double length = 0;
+        for (int i = 1; i < points; i++) {
+            length += Geodesy.distance(mLatitudes[i - 1], mLongitudes[i - 1], mLatitudes[i], mLongitudes[i]);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public double pathLength() {
+        return GeodesicKernel.pathLength(mLatitudes, mLongitudes);
+    }
+
+    @Benchmark
+    public double cumulativeLength() {
+        return GeodesicKernel.cumulativeLength(mLatitudes, mLongitudes, mLengths);
+    }
+}
@@ -0,0 +1,66 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance between fixes, and finding the nearest place in the offline place index
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GeodesyBenchmark {
+
+    @Param({Coordinates.TRACK, Coordinates.CITIES, Coordinates.GLOBAL})
+    public String distribution;
+
+    private Coordinates mCoordinates;
+    private File mFile;
+    private OfflinePlaceIndex mIndex;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mCoordinates = new Coordinates(distribution);
+
+        // places spread like the population, independent of the queries
+        Coordinates places = new Coordinates(Coordinates.CITIES);
+        String[] names = new String[Coordinates.COUNT];
+        for (int i = 0; i < names.length; i++) names[i] = "Place " + i;
+        mFile = File.createTempFile("places", ".idx");
+        OfflinePlaceIndexWriter.write(mFile, places.latitudes, places.longitudes, names);
+        mIndex = OfflinePlaceIndex.open(mFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Benchmark
+    public double distance() {
+        int i = mNext++ & Coordinates.MASK;
+        int j = (i + 1) & Coordinates.MASK;
+        return Geodesy.distance(mCoordinates.latitudes[i], mCoordinates.longitudes[i],
+                mCoordinates.latitudes[j], mCoordinates.longitudes[j]);
+    }
+
+    @Benchmark
+    public int nearestPlace() {
+        int i = mNext++ & Coordinates.MASK;
+        return mIndex.nearest(mCoordinates.latitudes[i], mCoordinates.longitudes[i]);
+    }
+}
@@ -0,0 +1,80 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Testing fixes against job site fences spread like the population,
+ * the time per fix should not grow with the number of fences
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GeofenceBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int fences;
+
+    private Coordinates mCoordinates;
+    private List<Geofence> mFences;
+    private GeofenceMonitor mMonitor;
+    private final Fix mFix = new Fix();
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCoordinates = new Coordinates(Coordinates.CITIES);
+        Random random = new Random(7);
+        List<Geofence> list = new ArrayList<>(fences);
+        for (int i = 0; i < fences; i++) {
+            // sites a few km from the fixes, which are clustered in cities
+            int j = random.nextInt(Coordinates.COUNT);
+            double latitude = mCoordinates.latitudes[j] + random.nextGaussian() * 0.05;
+            double longitude = mCoordinates.longitudes[j] + random.nextGaussian() * 0.05;
+            list.add(Geofence.circle("site " + i, latitude, longitude, 100 + random.nextInt(200)));
+        }
+        mFences = list;
+        mMonitor = new GeofenceMonitor(new GeofenceIndex(list, 0.01), 30, 60000,
+                new GeofenceMonitor.Listener() {
+                    @Override
+                    public void onGeofenceEvent(Geofence fence, int event, Fix fix) {
+                    }
+                });
+    }
+
+    @Benchmark
+    public boolean onFix() {
+        int i = mNext++ & Coordinates.MASK;
+        mFix.time += 1000;
+        mFix.latitude = mCoordinates.latitudes[i];
+        mFix.longitude = mCoordinates.longitudes[i];
+        return mMonitor.onFix(mFix);
+    }
+
+    /**
+     * Testing every fence, for comparison
+     */
+    @Benchmark
+    public int linearScan() {
+        int i = mNext++ & Coordinates.MASK;
+        double latitude = mCoordinates.latitudes[i];
+        double longitude = mCoordinates.longitudes[i];
+        int inside = 0;
+        for (int f = 0; f < mFences.size(); f++) {
+            if (mFences.get(f).contains(latitude, longitude, 0)) inside++;
+        }
+        return inside;
+    }
+}
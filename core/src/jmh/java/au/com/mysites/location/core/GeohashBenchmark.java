@@ -0,0 +1,42 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quantizing a location into an address cache cell
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GeohashBenchmark {
+
+    // range of the cache precision preference, and the maximum
+    @Param({"5", "7", "8", "12"})
+    public int precision;
+
+    @Param({Coordinates.TRACK, Coordinates.CITIES, Coordinates.GLOBAL})
+    public String distribution;
+
+    private Coordinates mCoordinates;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mCoordinates = new Coordinates(distribution);
+    }
+
+    @Benchmark
+    public String encode() {
+        int i = mIndex++ & Coordinates.MASK;
+        return Geohash.encode(mCoordinates.latitudes[i], mCoordinates.longitudes[i], precision);
+    }
+}
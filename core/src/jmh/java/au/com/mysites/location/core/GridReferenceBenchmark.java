@@ -0,0 +1,39 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a position to each grid reference, the cost of one row of the formats panel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GridReferenceBenchmark {
+
+    @Param({"3", "4", "5"})
+    public int format;
+
+    private final GridReference mFormatter = new GridReference();
+    private Coordinates mCoordinates;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        mCoordinates = new Coordinates(Coordinates.TRACK);
+    }
+
+    @Benchmark
+    public int formatter() {
+        int i = mIndex++ & Coordinates.MASK;
+        return mFormatter.format(mCoordinates.latitudes[i], mCoordinates.longitudes[i], format);
+    }
+}
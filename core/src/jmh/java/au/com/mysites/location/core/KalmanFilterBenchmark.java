@@ -0,0 +1,51 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smoothing a replayed track, one fix per second with 10 m of noise
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class KalmanFilterBenchmark {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final Coordinates mCoordinates = new Coordinates(Coordinates.TRACK);
+    private final Fix mFix = new Fix();
+    private KalmanFilter mFilter;
+    private long mTime;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < Coordinates.COUNT; i++) {
+            mCoordinates.latitudes[i] += random.nextGaussian() * 10 / METRES_PER_DEGREE;
+            mCoordinates.longitudes[i] += random.nextGaussian() * 10 / METRES_PER_DEGREE;
+        }
+        mFilter = new KalmanFilter(1, 60000);
+    }
+
+    @Benchmark
+    public Fix filter() {
+        int i = (int) (mTime / 1000) & Coordinates.MASK;
+        mTime += 1000;
+        mFix.time = mTime;
+        mFix.latitude = mCoordinates.latitudes[i];
+        mFix.longitude = mCoordinates.longitudes[i];
+        mFix.accuracy = 10;
+        mFilter.onFix(mFix);
+        return mFix;
+    }
+}
@@ -0,0 +1,75 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the sentences of a receiver's epochs, each a GGA, GSA, two GSV and an RMC
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class NmeaParserBenchmark {
+
+    private static final int EPOCHS = 1000;
+
+    private final NmeaParser mParser = new NmeaParser();
+    private final Fix mFix = new Fix();
+    private ByteBuffer mBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Coordinates coordinates = new Coordinates(Coordinates.TRACK);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < EPOCHS; i++) {
+            String time = String.format(Locale.US, "%02d%02d%02d.%02d",
+                    i / 36000 % 24, i / 600 % 60, i / 10 % 60, i % 10 * 10);
+            String position = position(coordinates.latitudes[i & Coordinates.MASK], 'N', 'S')
+                    + "," + position(coordinates.longitudes[i & Coordinates.MASK], 'E', 'W');
+            sentence(text, "GNGGA," + time + "," + position + ",1,09,0.9,25.4,M,21.0,M,,");
+            sentence(text, "GNGSA,A,3,04,05,09,12,17,20,24,25,29,,,,1.6,0.9,1.3");
+            sentence(text, "GPGSV,2,1,08,04,40,120,45,05,35,060,42,09,70,300,48,12,15,200,30");
+            sentence(text, "GLGSV,1,1,03,65,30,100,40,66,50,150,44,67,10,250,20");
+            sentence(text, "GNRMC," + time + ",A," + position + ",12.5,271.3,300918,,,A");
+        }
+        byte[] bytes = text.toString().getBytes(Charset.forName("US-ASCII"));
+        mBuffer = ByteBuffer.allocateDirect(bytes.length);
+        mBuffer.put(bytes).flip();
+    }
+
+    private static String position(double degrees, char positive, char negative) {
+        double abs = Math.abs(degrees);
+        int whole = (int) abs;
+        return String.format(Locale.US, "%d%07.4f,%c", whole, (abs - whole) * 60,
+                degrees < 0 ? negative : positive);
+    }
+
+    private static void sentence(StringBuilder text, String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) checksum ^= body.charAt(i);
+        text.append('$').append(body).append(String.format(Locale.US, "*%02X\r\n", checksum));
+    }
+
+    /**
+     * @return time of the fix of the next epoch
+     */
+    @Benchmark
+    public long epoch() {
+        if (!mParser.next(mBuffer, mFix)) {
+            mBuffer.rewind();
+            mParser.next(mBuffer, mFix);
+        }
+        return mFix.time;
+    }
+}
@@ -0,0 +1,67 @@
+package au.com.mysites.location.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest saved places to each point of a replayed track, and building the index on startup
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SavedPlaceIndexBenchmark {
+
+    @Param({"1000", "100000"})
+    public int places;
+
+    private final Coordinates mCoordinates = new Coordinates(Coordinates.TRACK);
+    private final int[] mNearest = new int[5];
+    private long[] mIds;
+    private int[] mLatitudes;
+    private int[] mLongitudes;
+    private String[] mNames;
+    private SavedPlaceIndex mIndex;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        mIds = new long[places];
+        mLatitudes = new int[places];
+        mLongitudes = new int[places];
+        mNames = new String[places];
+        for (int i = 0; i < places; i++) {
+            //around the points of the track
+            int point = random.nextInt(Coordinates.COUNT);
+            mIds[i] = i;
+            mLatitudes[i] = SavedPlaceIndex.quantize(mCoordinates.latitudes[point]
+                    + random.nextGaussian() * 0.05);
+            mLongitudes[i] = SavedPlaceIndex.quantize(mCoordinates.longitudes[point]
+                    + random.nextGaussian() * 0.05);
+            mNames[i] = "Place " + i;
+        }
+        mIndex = new SavedPlaceIndex(mIds, mLatitudes, mLongitudes, mNames);
+    }
+
+    @Benchmark
+    public int nearest() {
+        int i = mNext++ & Coordinates.MASK;
+        return mIndex.nearest(mCoordinates.latitudes[i], mCoordinates.longitudes[i], mNearest);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SavedPlaceIndex build() {
+        return new SavedPlaceIndex(mIds, mLatitudes, mLongitudes, mNames);
+    }
+}
@@ -0,0 +1,252 @@
+package au.com.mysites.location.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two tier cache of addresses keyed by a geohash cell.
+ * 1. Memory - least recently used map holding a limited number of addresses
+ * 2. Disk - one small file per cell, expires after a time to live
+ * and the oldest files are removed when the total size is over the limit
+ * Both tiers are checked before going to the Geocoder.
+ */
+public class AddressCache {
+
+    private static final String FILE_SUFFIX = ".addr";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mTimeToLiveMs;
+    private final long mMaxDiskBytes;
+    private final LinkedHashMap<String, CachedAddress> mMemory;
+
+    //total size of files in the disk tier, -1 until the directory has been scanned
+    private long mDiskBytes = -1;
+
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mMisses;
+
+    /**
+     * @param directory     directory for the disk tier, created if needed
+     * @param memoryEntries maximum number of addresses held in memory
+     * @param timeToLiveMs  time an address stays valid
+     * @param maxDiskBytes  maximum total size of the disk tier
+     */
+    public AddressCache(File directory, final int memoryEntries, long timeToLiveMs, long maxDiskBytes) {
+        mDirectory = directory;
+        mTimeToLiveMs = timeToLiveMs;
+        mMaxDiskBytes = maxDiskBytes;
+        //access ordered so the eldest entry is the least recently used
+        mMemory = new LinkedHashMap<String, CachedAddress>(memoryEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAddress> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Look up the address for a cell, memory first then disk
+     *
+     * @param cell geohash of the cell
+     * @return address or null if not cached or expired
+     */
+    public synchronized String get(String cell) {
+        long now = now();
+        CachedAddress entry = mMemory.get(cell);
+        if (entry != null) {
+            if (now - entry.storedAt < mTimeToLiveMs) {
+                mMemoryHits++;
+                Metrics.increment(Metrics.CACHE_MEMORY_HIT);
+                return entry.address;
+            }
+            mMemory.remove(cell);
+        }
+        entry = readFromDisk(cell, now);
+        if (entry != null) {
+            mDiskHits++;
+            Metrics.increment(Metrics.CACHE_DISK_HIT);
+            //promote so the next request for this cell is served from memory
+            mMemory.put(cell, entry);
+            return entry.address;
+        }
+        mMisses++;
+        Metrics.increment(Metrics.CACHE_MISS);
+        return null;
+    }
+
+    /**
+     * Store the address for a cell in both tiers
+     *
+     * @param cell    geohash of the cell
+     * @param address address to store
+     */
+    public synchronized void put(String cell, String address) {
+        CachedAddress entry = new CachedAddress(address, now());
+        mMemory.put(cell, entry);
+        writeToDisk(cell, entry);
+    }
+
+    /**
+     * Remove all cached addresses
+     */
+    public synchronized void clear() {
+        mMemory.clear();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        mDiskBytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return mMemoryHits + mDiskHits;
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * @return current time, overridden in tests
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private File fileFor(String cell) {
+        return new File(mDirectory, cell + FILE_SUFFIX);
+    }
+
+    private CachedAddress readFromDisk(String cell, long now) {
+        File file = fileFor(cell);
+        if (!file.exists()) return null;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long storedAt = in.readLong();
+            String address = in.readUTF();
+            if (now - storedAt < mTimeToLiveMs) return new CachedAddress(address, storedAt);
+        } catch (IOException e) {
+            //corrupt or partly written file, treat as a miss and remove below
+        } finally {
+            closeQuietly(in);
+        }
+        deleteFile(file);
+        return null;
+    }
+
+    private void writeToDisk(String cell, CachedAddress entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) return;
+
+        File file = fileFor(cell);
+        File temp = new File(mDirectory, cell + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeLong(entry.storedAt);
+            out.writeUTF(entry.address);
+            out.close();
+            out = null;
+
+            long previous = file.length();
+            //rename so a reader never sees a partly written file
+            if (!temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                return;
+            }
+            if (mDiskBytes >= 0) mDiskBytes += file.length() - previous;
+        } catch (IOException e) {
+            closeQuietly(out);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Remove the oldest files until the disk tier is back to three quarters of its limit
+     */
+    private void trimDisk() {
+        if (mDiskBytes < 0) mDiskBytes = directorySize();
+        if (mDiskBytes <= mMaxDiskBytes) return;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        long target = mMaxDiskBytes * 3 / 4;
+        for (File file : files) {
+            if (mDiskBytes <= target) break;
+            long length = file.length();
+            if (file.delete()) mDiskBytes -= length;
+        }
+    }
+
+    private long directorySize() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) size += file.length();
+        }
+        return size;
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && mDiskBytes >= 0) mDiskBytes -= length;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //nothing more can be done
+        }
+    }
+
+    /**
+     * Cached address and the time it was stored
+     */
+    private static final class CachedAddress {
+        final String address;
+        final long storedAt;
+
+        CachedAddress(String address, long storedAt) {
+            this.address = address;
+            this.storedAt = storedAt;
+        }
+    }
+}
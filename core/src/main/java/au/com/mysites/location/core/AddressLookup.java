@@ -0,0 +1,20 @@
+package au.com.mysites.location.core;
+
+import java.io.IOException;
+
+/**
+ * Source of the address for a latitude and longitude, e.g. the Android Geocoder
+ */
+public interface AddressLookup {
+
+    /**
+     * Get the address for a location, called on a worker thread and may block
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @return address lines joined by line separators, or null if no address found
+     * @throws IOException              network or other I/O problems
+     * @throws IllegalArgumentException invalid latitude or longitude
+     */
+    String getAddress(double latitude, double longitude) throws IOException;
+}
@@ -0,0 +1,303 @@
+package au.com.mysites.location.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reverse geocodes many coordinates at once, e.g. a recorded track.
+ * Coordinates are grouped by cache cell so each cell is looked up once, cells already in the
+ * address cache are answered without a lookup, and the remaining lookups are spread over a
+ * fixed number of worker threads and limited to a steady rate by a token bucket.
+ * Results are delivered a cell at a time as each lookup completes.
+ */
+public final class BatchGeocoder {
+
+    /**
+     * Address of one cell and the coordinates that fall in it
+     */
+    public static final class Result {
+        // geohash of the cell, null for coordinates that are not valid
+        public final String cell;
+        // positions of the coordinates in the batch
+        public final int[] indexes;
+        // address, null if not found or the lookup failed
+        public final String address;
+        // true if answered from the address cache
+        public final boolean cached;
+        // error message if the lookup failed, see GeocodingEngine ERROR_ constants
+        public final String error;
+
+        Result(String cell, int[] indexes, String address, boolean cached, String error) {
+            this.cell = cell;
+            this.indexes = indexes;
+            this.address = address;
+            this.cached = cached;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Receives results, called on the worker threads so must be thread safe
+     */
+    public interface Listener {
+        /**
+         * @param result address of one cell
+         */
+        void onResult(Result result);
+
+        /**
+         * Called once after the last result, or after cancelling
+         *
+         * @param batch batch that has finished
+         */
+        void onComplete(Batch batch);
+    }
+
+    private final AddressLookup mLookup;
+    private final AddressCache mCache;
+    private final int mCellPrecision;
+    private final TokenBucket mRateLimit;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param lookup        source of addresses, e.g. the Geocoder
+     * @param cache         address cache checked before, and filled by, each lookup
+     * @param cellPrecision geohash precision of the cells
+     * @param threads       maximum number of lookups at the same time
+     * @param rateLimit     limits the rate of lookups, cache hits are not limited
+     */
+    public BatchGeocoder(AddressLookup lookup, AddressCache cache, int cellPrecision, int threads,
+                         TokenBucket rateLimit) {
+        mLookup = lookup;
+        mCache = cache;
+        mCellPrecision = cellPrecision;
+        mRateLimit = rateLimit;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new GeocodingEngine.WorkerThreadFactory("batch-geocoder"));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start geocoding a batch of coordinates
+     *
+     * @param latitudes  latitudes in degrees
+     * @param longitudes longitudes in degrees
+     * @param count      number of coordinates to geocode, from the start of the arrays
+     * @param listener   receives the results
+     * @return batch, which can be waited for or cancelled
+     */
+    public Batch geocode(double[] latitudes, double[] longitudes, int count, Listener listener) {
+        //first seen order, so a track is looked up from its start
+        Map<String, IndexList> cells = new LinkedHashMap<>();
+        IndexList invalid = new IndexList();
+        String previousCell = null;
+        IndexList previous = null;
+        for (int i = 0; i < count; i++) {
+            String cell;
+            try {
+                cell = Geohash.encode(latitudes[i], longitudes[i], mCellPrecision);
+            } catch (IllegalArgumentException e) {
+                invalid.add(i);
+                continue;
+            }
+            //consecutive points of a track are usually in the same cell
+            if (!cell.equals(previousCell)) {
+                previous = cells.get(cell);
+                if (previous == null) {
+                    previous = new IndexList();
+                    cells.put(cell, previous);
+                }
+                previousCell = cell;
+            }
+            previous.add(i);
+        }
+
+        Batch batch = new Batch(listener, cells.size() + (invalid.size > 0 ? 1 : 0));
+        if (invalid.size > 0) {
+            batch.submit(null, invalid.toArray(), 0, 0);
+        }
+        for (Map.Entry<String, IndexList> entry : cells.entrySet()) {
+            int[] indexes = entry.getValue().toArray();
+            //the first coordinate in the cell is the one looked up
+            batch.submit(entry.getKey(), indexes, latitudes[indexes[0]], longitudes[indexes[0]]);
+        }
+        batch.started();
+        return batch;
+    }
+
+    /**
+     * Stop the worker threads once the batches in progress are done
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * One call to geocode
+     */
+    public final class Batch {
+        private final Listener mListener;
+        private final int mCellCount;
+        private final AtomicInteger mCompleted = new AtomicInteger();
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final List<CellTask> mTasks;
+        private volatile boolean mCancelled;
+
+        private Batch(Listener listener, int cellCount) {
+            mListener = listener;
+            mCellCount = cellCount;
+            mTasks = new ArrayList<>(cellCount);
+        }
+
+        /**
+         * @return number of distinct cells, each with one result
+         */
+        public int getCellCount() {
+            return mCellCount;
+        }
+
+        /**
+         * @return number of cells finished
+         */
+        public int getCompletedCount() {
+            return mCompleted.get();
+        }
+
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Stop looking up addresses, results already delivered are kept
+         */
+        public void cancel() {
+            mCancelled = true;
+            synchronized (mTasks) {
+                for (CellTask task : mTasks) task.cancel(true);
+            }
+        }
+
+        /**
+         * Wait for all the results
+         *
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public void await() throws InterruptedException {
+            mDone.await();
+        }
+
+        private void submit(String cell, int[] indexes, double latitude, double longitude) {
+            CellTask task = new CellTask(this, cell, indexes, latitude, longitude);
+            synchronized (mTasks) {
+                mTasks.add(task);
+            }
+            mExecutor.execute(task);
+        }
+
+        /**
+         * Handles a batch with no coordinates
+         */
+        private void started() {
+            if (mCellCount == 0) finish();
+        }
+
+        private void deliver(Result result) {
+            if (!mCancelled) mListener.onResult(result);
+        }
+
+        private void taskDone() {
+            if (mCompleted.incrementAndGet() == mCellCount) finish();
+        }
+
+        private void finish() {
+            mListener.onComplete(this);
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Looks up the address of one cell, done() is called even if cancelled before it starts
+     */
+    private final class CellTask extends FutureTask<Void> {
+        private final Batch mBatch;
+
+        CellTask(final Batch batch, final String cell, final int[] indexes,
+                 final double latitude, final double longitude) {
+            super(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    if (cell == null) {
+                        batch.deliver(new Result(null, indexes, null, false,
+                                GeocodingEngine.ERROR_INVALID_LAT_LONG));
+                        return null;
+                    }
+                    String address = mCache.get(cell);
+                    if (address != null) {
+                        batch.deliver(new Result(cell, indexes, address, true, null));
+                        return null;
+                    }
+                    mRateLimit.acquire();
+                    if (batch.isCancelled()) return null;
+                    String error = null;
+                    long start = Metrics.start();
+                    try {
+                        address = mLookup.getAddress(latitude, longitude);
+                        if (address != null) {
+                            mCache.put(cell, address);
+                        } else {
+                            error = GeocodingEngine.ERROR_ADDRESS_NULL;
+                        }
+                    } catch (IOException e) {
+                        Metrics.increment(Metrics.GEOCODER_FAILURE);
+                        error = GeocodingEngine.ERROR_SERVICE_NOT_AVAILABLE;
+                    } catch (IllegalArgumentException e) {
+                        error = GeocodingEngine.ERROR_INVALID_LAT_LONG;
+                    } finally {
+                        Metrics.record(Metrics.GEOCODER, start);
+                    }
+                    batch.deliver(new Result(cell, indexes, address, false, error));
+                    return null;
+                }
+            });
+            mBatch = batch;
+        }
+
+        @Override
+        protected void done() {
+            mBatch.taskDone();
+        }
+    }
+
+    /**
+     * Growable list of coordinate positions
+     */
+    private static final class IndexList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
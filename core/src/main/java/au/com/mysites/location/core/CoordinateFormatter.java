@@ -0,0 +1,124 @@
+package au.com.mysites.location.core;
+
+/**
+ * Formats a latitude or longitude into a reusable char array, without allocating.
+ * Output is the same as Location.convert, degrees, degrees and minutes, or
+ * degrees minutes and seconds with up to 5 decimal places, e.g. -33:52:7.68
+ * <p>
+ * The characters are reused by the next call to format, so use one formatter
+ * for each value being displayed.
+ */
+public final class CoordinateFormatter implements CharSequence {
+
+    // same values as Location.FORMAT_DEGREES, FORMAT_MINUTES and FORMAT_SECONDS
+    public static final int FORMAT_DEGREES = 0;
+    public static final int FORMAT_MINUTES = 1;
+    public static final int FORMAT_SECONDS = 2;
+
+    private static final int DECIMALS = 5;
+    private static final long DECIMAL_SCALE = 100000;
+
+    private final char[] mChars = new char[32];
+    private int mLength;
+
+    /**
+     * Format a coordinate
+     *
+     * @param coordinate latitude or longitude in degrees
+     * @param format     FORMAT_DEGREES, FORMAT_MINUTES or FORMAT_SECONDS
+     * @return number of characters, see getChars()
+     */
+    public int format(double coordinate, int format) {
+        if (coordinate < -180.0 || coordinate > 180.0 || Double.isNaN(coordinate)) {
+            throw new IllegalArgumentException("coordinate=" + coordinate);
+        }
+        if (format != FORMAT_DEGREES && format != FORMAT_MINUTES && format != FORMAT_SECONDS) {
+            throw new IllegalArgumentException("outputType=" + format);
+        }
+        mLength = 0;
+        if (coordinate < 0) {
+            mChars[mLength++] = '-';
+            coordinate = -coordinate;
+        }
+        if (format == FORMAT_MINUTES || format == FORMAT_SECONDS) {
+            int degrees = (int) Math.floor(coordinate);
+            putInteger(degrees);
+            mChars[mLength++] = ':';
+            coordinate -= degrees;
+            coordinate *= 60.0;
+            if (format == FORMAT_SECONDS) {
+                int minutes = (int) Math.floor(coordinate);
+                putInteger(minutes);
+                mChars[mLength++] = ':';
+                coordinate -= minutes;
+                coordinate *= 60.0;
+            }
+        }
+        putDecimal(coordinate);
+        return mLength;
+    }
+
+    /**
+     * @return characters of the last formatted coordinate, valid up to length()
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index " + index);
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(mChars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    /**
+     * Write a non negative value rounded half even to 5 decimal places,
+     * trailing zeros and a whole number's decimal point are left off
+     */
+    private void putDecimal(double value) {
+        long scaled = (long) Math.rint(value * DECIMAL_SCALE);
+        putInteger(scaled / DECIMAL_SCALE);
+        long fraction = scaled % DECIMAL_SCALE;
+        if (fraction == 0) return;
+
+        int digits = DECIMALS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        mChars[mLength++] = '.';
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mChars[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        mLength += digits;
+    }
+
+    /**
+     * Write a non negative whole number
+     */
+    private void putInteger(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mChars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+    }
+}
@@ -0,0 +1,32 @@
+package au.com.mysites.location.core;
+
+import java.io.IOException;
+
+/**
+ * Tries the primary lookup and if it fails or finds no address uses the fallback,
+ * e.g. the Geocoder backed by the offline place index
+ */
+public final class FallbackAddressLookup implements AddressLookup {
+
+    private final AddressLookup mPrimary;
+    private final AddressLookup mFallback;
+
+    public FallbackAddressLookup(AddressLookup primary, AddressLookup fallback) {
+        mPrimary = primary;
+        mFallback = fallback;
+    }
+
+    @Override
+    public String getAddress(double latitude, double longitude) throws IOException {
+        try {
+            String address = mPrimary.getAddress(latitude, longitude);
+            if (address != null) return address;
+        } catch (IOException ioException) {
+            // no network or service, the fallback may still have an answer
+            String address = mFallback.getAddress(latitude, longitude);
+            if (address != null) return address;
+            throw ioException;
+        }
+        return mFallback.getAddress(latitude, longitude);
+    }
+}
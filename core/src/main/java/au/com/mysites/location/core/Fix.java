@@ -0,0 +1,62 @@
+package au.com.mysites.location.core;
+
+/**
+ * A location fix, independent of Android so it can be processed and stored anywhere.
+ * Fixes are mutable and reused, so processing a stream of fixes does not allocate.
+ */
+public final class Fix {
+    // time of the fix, milliseconds since the epoch
+    public long time;
+    public double latitude;
+    public double longitude;
+    // metres above the WGS 84 ellipsoid
+    public double altitude;
+    // horizontal accuracy in metres
+    public float accuracy;
+    // metres per second
+    public float speed;
+    // degrees east of true north
+    public float bearing;
+    public boolean hasAltitude;
+    public boolean hasSpeed;
+    public boolean hasBearing;
+
+    /**
+     * Copy another fix into this one
+     *
+     * @param other fix to copy
+     */
+    public void set(Fix other) {
+        time = other.time;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        altitude = other.altitude;
+        accuracy = other.accuracy;
+        speed = other.speed;
+        bearing = other.bearing;
+        hasAltitude = other.hasAltitude;
+        hasSpeed = other.hasSpeed;
+        hasBearing = other.hasBearing;
+    }
+
+    /**
+     * Clear the fix so it can be reused
+     */
+    public void reset() {
+        time = 0;
+        latitude = 0;
+        longitude = 0;
+        altitude = 0;
+        accuracy = 0;
+        speed = 0;
+        bearing = 0;
+        hasAltitude = false;
+        hasSpeed = false;
+        hasBearing = false;
+    }
+
+    @Override
+    public String toString() {
+        return "Fix[" + time + " " + latitude + "," + longitude + " acc=" + accuracy + "]";
+    }
+}
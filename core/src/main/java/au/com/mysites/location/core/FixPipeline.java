@@ -0,0 +1,66 @@
+package au.com.mysites.location.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs each fix through a list of processors in order, stopping if a processor drops it.
+ * Processors can be added or removed while fixes are being processed,
+ * the array is replaced rather than changed so processing a fix does not allocate or lock.
+ */
+public final class FixPipeline implements FixProcessor {
+
+    private volatile FixProcessor[] mProcessors = new FixProcessor[0];
+
+    /**
+     * @param processor processor to add at the end of the pipeline
+     */
+    public synchronized void add(FixProcessor processor) {
+        add(mProcessors.length, processor);
+    }
+
+    /**
+     * @param index     position, 0 is the first stage
+     * @param processor processor to add at the given position
+     */
+    public synchronized void add(int index, FixProcessor processor) {
+        List<FixProcessor> processors = new ArrayList<>(Arrays.asList(mProcessors));
+        processors.add(index, processor);
+        mProcessors = processors.toArray(new FixProcessor[processors.size()]);
+    }
+
+    /**
+     * @param processor processor to remove
+     */
+    public synchronized void remove(FixProcessor processor) {
+        List<FixProcessor> processors = new ArrayList<>(Arrays.asList(mProcessors));
+        if (processors.remove(processor)) {
+            mProcessors = processors.toArray(new FixProcessor[processors.size()]);
+        }
+    }
+
+    /**
+     * @param processor processor to look for
+     * @return true if the processor is in the pipeline
+     */
+    public boolean contains(FixProcessor processor) {
+        for (FixProcessor p : mProcessors) {
+            if (p == processor) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param fix fix to process
+     * @return true if every processor passed the fix on
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        FixProcessor[] processors = mProcessors;
+        for (int i = 0; i < processors.length; i++) {
+            if (!processors[i].onFix(fix)) return false;
+        }
+        return true;
+    }
+}
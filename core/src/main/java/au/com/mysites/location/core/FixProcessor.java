@@ -0,0 +1,16 @@
+package au.com.mysites.location.core;
+
+/**
+ * A stage of the fix pipeline, e.g. filtering, smoothing or storing fixes.
+ * Called on the pipeline thread, so a processor needs no locking of its own state.
+ */
+public interface FixProcessor {
+
+    /**
+     * Process a fix, the processor may change the fix before it goes to the next stage
+     *
+     * @param fix fix to process, reused by the caller so copy anything that must be kept
+     * @return true to pass the fix on, false to drop it
+     */
+    boolean onFix(Fix fix);
+}
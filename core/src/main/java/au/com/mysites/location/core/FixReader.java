@@ -0,0 +1,17 @@
+package au.com.mysites.location.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads fixes one at a time, e.g. from a recorded track file
+ */
+public interface FixReader extends Closeable {
+
+    /**
+     * @param fix receives the next fix
+     * @return false at the end of the fixes
+     * @throws IOException if the fixes can not be read
+     */
+    boolean read(Fix fix) throws IOException;
+}
@@ -0,0 +1,737 @@
+package au.com.mysites.location.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves addresses on a bounded pool of worker threads.
+ * Checks the address cache first, requests for a cell already being looked up
+ * share the one lookup, and a request can be cancelled once it is stale.
+ * <p>
+ * A lookup slower than a percentile of recent lookups is hedged with a second attempt.
+ * A lookup that fails, or is still unanswered at the deadline, falls back in order to
+ * 1. the fallback lookup, e.g. the offline place index
+ * 2. the nearest address found recently
+ * 3. the error
+ * and the tier that answered is reported with the result.
+ * <p>
+ * Prefetches run one at a time on a low priority lane without hedging or a deadline,
+ * to fill the cache before the address is wanted. A request for a cell being prefetched
+ * joins the prefetch, which then gets the deadline, and a foreground attempt if it is
+ * still waiting for the lane.
+ * <p>
+ * Results are returned as a future and to a callback run on the callback executor,
+ * normally the main thread.
+ */
+public class GeocodingEngine {
+
+    // Result codes passed to the callback
+    public static final int SUCCESS_RESULT = 0;
+    public static final int FAILURE_RESULT = 1;
+
+    // Error messages, as returned by the Geocoder service
+    public static final String ERROR_SERVICE_NOT_AVAILABLE = "Service_not_available";
+    public static final String ERROR_INVALID_LAT_LONG = "Invalid_lat_long_used";
+    public static final String ERROR_ADDRESS_NULL = "Address is null";
+    public static final String ERROR_BUSY = "Service_busy";
+    public static final String ERROR_TIMEOUT = "Deadline_exceeded";
+
+    // Tiers, where the result came from
+    public static final int TIER_NONE = 0;
+    public static final int TIER_CACHE = 1;
+    public static final int TIER_LOOKUP = 2;
+    public static final int TIER_HEDGE = 3;
+    public static final int TIER_FALLBACK = 4;
+    public static final int TIER_NEAREST = 5;
+
+    // lookups timed before the hedge delay is taken from their percentile
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    // lookups in each window of times, so the hedge delay follows the network
+    private static final int HEDGE_WINDOW = 100;
+    private static final int KNOWN_ADDRESSES = 32;
+    // prefetches waiting for the lane, stale prefetches are cancelled so few wait
+    private static final int PREFETCH_QUEUE_SIZE = 4;
+
+    /**
+     * Receives the result of a request, called on the callback executor
+     */
+    public interface Callback {
+        /**
+         * @param resultCode SUCCESS_RESULT or FAILURE_RESULT
+         * @param message    address if successful otherwise an error message
+         * @param tier       where the address came from, TIER_NONE on failure
+         */
+        void onAddressResult(int resultCode, String message, int tier);
+    }
+
+    private volatile AddressLookup mLookup;
+    private volatile AddressLookup mFallbackLookup;
+    private final AddressCache mCache;
+    private final Executor mCallbackExecutor;
+    private final ThreadPoolExecutor mExecutor;
+    private final ThreadPoolExecutor mPrefetchExecutor;
+    // runs the hedge and deadline timers
+    private final ScheduledThreadPoolExecutor mTimer;
+    // times of recent lookups that found an address, for the hedge delay, the window being
+    // filled and the last full one, guarded by mLatencyLock
+    private final Object mLatencyLock = new Object();
+    private LatencyHistogram mLookupLatency = new LatencyHistogram("lookup");
+    private LatencyHistogram mPreviousLookupLatency = new LatencyHistogram("lookup");
+    private final KnownAddresses mKnownAddresses = new KnownAddresses(KNOWN_ADDRESSES);
+
+    // lookups in progress by cell, guarded by this
+    private final Map<String, Lookup> mInFlight = new HashMap<>();
+    private volatile int mCellPrecision;
+    private volatile long mDeadlineMs;
+    private volatile double mHedgePercentile;
+    private volatile long mMinHedgeDelayMs;
+    private volatile double mNearestDistanceM;
+
+    /**
+     * @param lookup           source of addresses, e.g. the Geocoder
+     * @param cache            address cache checked before the lookup
+     * @param cellPrecision    geohash precision of the cache and in flight cells
+     * @param threads          maximum number of concurrent lookups
+     * @param queueSize        maximum number of lookups waiting for a thread
+     * @param callbackExecutor executor callbacks are run on
+     */
+    public GeocodingEngine(AddressLookup lookup, AddressCache cache, int cellPrecision,
+                    int threads, int queueSize, Executor callbackExecutor) {
+        mLookup = lookup;
+        mCache = cache;
+        mCellPrecision = cellPrecision;
+        mCallbackExecutor = callbackExecutor;
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory("geocoder"));
+        mExecutor.allowCoreThreadTimeOut(true);
+        mPrefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE),
+                new WorkerThreadFactory("geocoder-prefetch", Thread.MIN_PRIORITY));
+        mPrefetchExecutor.allowCoreThreadTimeOut(true);
+        mTimer = new ScheduledThreadPoolExecutor(1, new WorkerThreadFactory("geocoder-timer"));
+        mTimer.setKeepAliveTime(30, TimeUnit.SECONDS);
+        mTimer.allowCoreThreadTimeOut(true);
+        mTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @param lookup source of addresses used for new lookups
+     */
+    public void setAddressLookup(AddressLookup lookup) {
+        mLookup = lookup;
+    }
+
+    /**
+     * @param lookup quick source of addresses used when the lookup fails or
+     *               misses the deadline, null for none
+     */
+    public void setFallbackLookup(AddressLookup lookup) {
+        mFallbackLookup = lookup;
+    }
+
+    /**
+     * @param cellPrecision geohash precision used for new requests
+     */
+    public void setCellPrecision(int cellPrecision) {
+        mCellPrecision = cellPrecision;
+    }
+
+    /**
+     * @param deadlineMs time from a lookup starting until it falls back, 0 for no deadline
+     */
+    public void setDeadline(long deadlineMs) {
+        mDeadlineMs = deadlineMs;
+    }
+
+    /**
+     * Start a second attempt when a lookup is slower than most, the first answer is used
+     *
+     * @param percentile      percentile of recent lookup times to wait, the last 100 or so,
+     *                        0 for no hedging
+     * @param minHedgeDelayMs shortest wait, used until enough lookups have been timed
+     */
+    public void setHedging(double percentile, long minHedgeDelayMs) {
+        mHedgePercentile = percentile;
+        mMinHedgeDelayMs = minHedgeDelayMs;
+    }
+
+    /**
+     * @param maxDistanceM furthest a recently found address is used as a fallback,
+     *                     0 to not use recent addresses
+     */
+    public void setNearestDistance(double maxDistanceM) {
+        mNearestDistanceM = maxDistanceM;
+    }
+
+    /**
+     * Fetch the address for a location
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param callback  receives the result, may be null if only the future is used
+     * @return request, cancel it when the location is stale
+     */
+    public Request fetchAddress(double latitude, double longitude, Callback callback) {
+        return fetch(latitude, longitude, callback, false);
+    }
+
+    /**
+     * Fetch the address for a location on the low priority lane, before it is wanted
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param callback  receives the result, may be null to only fill the cache
+     * @return request, cancel it when the location is stale
+     */
+    public Request prefetchAddress(double latitude, double longitude, Callback callback) {
+        Metrics.increment(Metrics.ADDRESS_PREFETCH);
+        return fetch(latitude, longitude, callback, true);
+    }
+
+    private Request fetch(double latitude, double longitude, Callback callback, boolean prefetch) {
+        Request request = new Request(callback);
+        String cell;
+        try {
+            cell = Geohash.encode(latitude, longitude, mCellPrecision);
+        } catch (IllegalArgumentException e) {
+            request.fail(ERROR_INVALID_LAT_LONG);
+            return request;
+        }
+
+        synchronized (this) {
+            Lookup lookup = mInFlight.get(cell);
+            if (lookup == null) {
+                lookup = new Lookup(cell, latitude, longitude, prefetch);
+                try {
+                    lookup.start();
+                } catch (RejectedExecutionException e) {
+                    Metrics.increment(Metrics.ADDRESS_REQUEST_BUSY);
+                    request.fail(ERROR_BUSY);
+                    return request;
+                }
+                mInFlight.put(cell, lookup);
+            } else {
+                Metrics.increment(Metrics.ADDRESS_REQUEST_JOINED);
+                if (!prefetch) lookup.promote();
+            }
+            //join the lookup already in progress for this cell
+            lookup.waiters.add(request);
+            request.mLookup = lookup;
+        }
+        return request;
+    }
+
+    /**
+     * Stop the worker threads once the queued lookups are done
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        mPrefetchExecutor.shutdown();
+        mTimer.shutdown();
+    }
+
+    /**
+     * @return number of lookups in progress or queued
+     */
+    public synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    /**
+     * @return time to wait before hedging, 0 for no hedging
+     */
+    private long getHedgeDelayMs() {
+        double percentile = mHedgePercentile;
+        if (percentile <= 0) return 0;
+        long delayMs = mMinHedgeDelayMs;
+        synchronized (mLatencyLock) {
+            //the window being filled once it has enough times, otherwise the last full one
+            LatencyHistogram latency = mLookupLatency.getCount() >= MIN_HEDGE_SAMPLES
+                    ? mLookupLatency : mPreviousLookupLatency;
+            if (latency.getCount() >= MIN_HEDGE_SAMPLES) {
+                long percentileMs = TimeUnit.NANOSECONDS.toMillis(
+                        latency.getPercentileNanos(percentile));
+                delayMs = Math.max(delayMs, percentileMs);
+            }
+        }
+        return delayMs;
+    }
+
+    /**
+     * Record the time of a lookup that found an address, starting a new window when full
+     */
+    private void recordLookup(long nanos) {
+        synchronized (mLatencyLock) {
+            mLookupLatency.record(nanos);
+            if (mLookupLatency.getCount() < HEDGE_WINDOW) return;
+            LatencyHistogram full = mLookupLatency;
+            mLookupLatency = mPreviousLookupLatency;
+            mLookupLatency.reset();
+            mPreviousLookupLatency = full;
+        }
+    }
+
+    /**
+     * Called once when a lookup has an answer, deliver it to the requests waiting for it
+     */
+    private void complete(Lookup lookup) {
+        List<Request> waiters;
+        synchronized (this) {
+            if (mInFlight.get(lookup.cell) == lookup) mInFlight.remove(lookup.cell);
+            waiters = new ArrayList<>(lookup.waiters);
+        }
+        int resultCode = lookup.mAddress != null ? SUCCESS_RESULT : FAILURE_RESULT;
+        String message = lookup.mAddress != null ? lookup.mAddress : lookup.mError;
+        for (Request request : waiters) request.deliver(resultCode, message, lookup.mTier);
+    }
+
+    /**
+     * Cancel a request, the lookup is cancelled when no other request is waiting for it
+     */
+    private synchronized void cancel(Request request) {
+        Lookup lookup = request.mLookup;
+        if (lookup == null) return;
+        lookup.waiters.remove(request);
+        if (lookup.waiters.isEmpty()) {
+            lookup.cancel();
+            if (mInFlight.get(lookup.cell) == lookup) mInFlight.remove(lookup.cell);
+        }
+    }
+
+    /**
+     * Lookup of the address for one cell. Runs an attempt, maybe a hedged second attempt
+     * and the fallbacks, and finishes once with the first answer.
+     */
+    private final class Lookup {
+        final String cell;
+        final double latitude;
+        final double longitude;
+        // requests waiting for this lookup, guarded by the engine
+        final List<Request> waiters = new ArrayList<>(1);
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        // the answer, written before mDone is counted down
+        private String mAddress;
+        private String mError;
+        private int mTier;
+
+        // guarded by this
+        private boolean mPrefetch;
+        // true once an attempt has started looking up, not counting a hedge
+        private boolean mStarted;
+        private boolean mFinished;
+        private boolean mCancelled;
+        private int mRunning;
+        private String mAttemptError;
+        private final List<Future<?>> mAttempts = new ArrayList<>(2);
+        private final List<Future<?>> mTimers = new ArrayList<>(2);
+
+        Lookup(String cell, double latitude, double longitude, boolean prefetch) {
+            this.cell = cell;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            mPrefetch = prefetch;
+        }
+
+        /**
+         * Submit the first attempt and start the timers, a prefetch has no timers
+         *
+         * @throws RejectedExecutionException if the queue is full
+         */
+        synchronized void start() {
+            ThreadPoolExecutor executor = mPrefetch ? mPrefetchExecutor : mExecutor;
+            mAttempts.add(executor.submit(new Attempt(this, false)));
+            mRunning = 1;
+            if (!mPrefetch) startTimers();
+        }
+
+        /**
+         * A request is waiting for this prefetch, treat it as a foreground lookup
+         */
+        synchronized void promote() {
+            if (!mPrefetch || mFinished) return;
+            mPrefetch = false;
+            if (!mStarted) {
+                //still waiting for the prefetch lane, the first attempt to start is used
+                try {
+                    mAttempts.add(mExecutor.submit(new Attempt(this, false)));
+                    mRunning++;
+                } catch (RejectedExecutionException e) {
+                    //busy, keep waiting for the prefetch lane
+                }
+            }
+            startTimers();
+        }
+
+        /**
+         * Called by an attempt before it looks up
+         *
+         * @return false if the attempt is not needed
+         */
+        boolean begin(boolean hedge) {
+            String error;
+            synchronized (this) {
+                if (mFinished) return false;
+                if (hedge) return true;
+                if (!mStarted) {
+                    mStarted = true;
+                    return true;
+                }
+                mRunning--;
+                //the attempt that started has already failed, nothing else will fall back
+                if (mRunning > 0 || mAttemptError == null) return false;
+                error = mAttemptError;
+            }
+            fallBack(error);
+            return false;
+        }
+
+        private void startTimers() {
+            long hedgeDelayMs = getHedgeDelayMs();
+            if (hedgeDelayMs > 0) {
+                mTimers.add(mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        hedge();
+                    }
+                }, hedgeDelayMs, TimeUnit.MILLISECONDS));
+            }
+            long deadlineMs = mDeadlineMs;
+            if (deadlineMs > 0) {
+                mTimers.add(mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinished()) return;
+                        Metrics.increment(Metrics.ADDRESS_DEADLINE);
+                        fallBack(ERROR_TIMEOUT);
+                    }
+                }, deadlineMs, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        /**
+         * Start a second attempt if still waiting for the first
+         */
+        private synchronized void hedge() {
+            if (mFinished) return;
+            try {
+                mAttempts.add(mExecutor.submit(new Attempt(this, true)));
+                mRunning++;
+                Metrics.increment(Metrics.ADDRESS_HEDGED);
+            } catch (RejectedExecutionException e) {
+                //busy, keep waiting for the first attempt
+            }
+        }
+
+        /**
+         * An attempt did not find an address, fall back once no attempt is left
+         */
+        void attemptFailed(String error) {
+            synchronized (this) {
+                mRunning--;
+                mAttemptError = error;
+                if (mFinished || mRunning > 0) return;
+            }
+            fallBack(error);
+        }
+
+        /**
+         * Try the fallback lookup then the nearest recent address, otherwise fail
+         */
+        void fallBack(String error) {
+            AddressLookup fallback = mFallbackLookup;
+            if (fallback != null) {
+                try {
+                    String address = fallback.getAddress(latitude, longitude);
+                    if (address != null) {
+                        finish(address, null, TIER_FALLBACK);
+                        return;
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    //try the next tier
+                }
+            }
+            double nearestDistanceM = mNearestDistanceM;
+            if (nearestDistanceM > 0) {
+                String address = mKnownAddresses.nearest(latitude, longitude, nearestDistanceM);
+                if (address != null) {
+                    finish(address, null, TIER_NEAREST);
+                    return;
+                }
+            }
+            synchronized (this) {
+                //why the lookup failed is more useful than the deadline
+                if (mAttemptError != null) error = mAttemptError;
+            }
+            finish(null, error, TIER_NONE);
+        }
+
+        /**
+         * Record the first answer, attempts still running finish and fill the cache
+         */
+        void finish(String address, String error, int tier) {
+            synchronized (this) {
+                if (mFinished) return;
+                mFinished = true;
+                mAddress = address;
+                mError = error;
+                mTier = tier;
+                for (Future<?> timer : mTimers) timer.cancel(false);
+                //attempts already looking up finish and fill the cache
+                for (Future<?> attempt : mAttempts) attempt.cancel(false);
+            }
+            mDone.countDown();
+            complete(this);
+        }
+
+        /**
+         * No request is waiting, stop the attempts and timers
+         */
+        void cancel() {
+            synchronized (this) {
+                if (mFinished) return;
+                mFinished = true;
+                mCancelled = true;
+                for (Future<?> timer : mTimers) timer.cancel(false);
+                for (Future<?> attempt : mAttempts) attempt.cancel(true);
+            }
+            mDone.countDown();
+        }
+
+        synchronized boolean isFinished() {
+            return mFinished;
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * @param timeoutNanos time to wait, negative to wait until finished
+         * @return the address
+         */
+        String get(long timeoutNanos) throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (timeoutNanos < 0) {
+                mDone.await();
+            } else if (!mDone.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException();
+            }
+            if (isCancelled()) throw new CancellationException();
+            if (mAddress == null) throw new ExecutionException(new IOException(mError));
+            return mAddress;
+        }
+    }
+
+    /**
+     * One call of the address lookup for a cell, the first attempt checks the cache first
+     */
+    private final class Attempt implements Runnable {
+        private final Lookup mOwner;
+        private final boolean mHedge;
+
+        Attempt(Lookup owner, boolean hedge) {
+            mOwner = owner;
+            mHedge = hedge;
+        }
+
+        @Override
+        public void run() {
+            Lookup lookup = mOwner;
+            if (!lookup.begin(mHedge)) return;
+            if (!mHedge) {
+                String address = mCache.get(lookup.cell);
+                if (address != null) {
+                    mKnownAddresses.add(lookup.latitude, lookup.longitude, address);
+                    lookup.finish(address, null, TIER_CACHE);
+                    return;
+                }
+            }
+
+            String address = null;
+            String error = null;
+            long startNanos = System.nanoTime();
+            long start = Metrics.start();
+            try {
+                address = mLookup.getAddress(lookup.latitude, lookup.longitude);
+                if (address == null) error = ERROR_ADDRESS_NULL;
+            } catch (IOException e) {
+                Metrics.increment(Metrics.GEOCODER_FAILURE);
+                error = ERROR_SERVICE_NOT_AVAILABLE;
+            } catch (IllegalArgumentException e) {
+                Metrics.increment(Metrics.GEOCODER_FAILURE);
+                error = ERROR_INVALID_LAT_LONG;
+            } finally {
+                Metrics.record(Metrics.GEOCODER, start);
+            }
+            if (address == null) {
+                lookup.attemptFailed(error);
+                return;
+            }
+            recordLookup(System.nanoTime() - startNanos);
+            mCache.put(lookup.cell, address);
+            mKnownAddresses.add(lookup.latitude, lookup.longitude, address);
+            lookup.finish(address, null, mHedge ? TIER_HEDGE : TIER_LOOKUP);
+        }
+    }
+
+    /**
+     * Request for an address, a future of the address which is also
+     * delivered to the callback unless the request is cancelled first
+     */
+    public final class Request implements Future<String> {
+        private final Callback mCallback;
+        // for the time from the request to the result reaching the callback
+        private final long mStartNanos = Metrics.start();
+        private volatile Lookup mLookup;
+        private volatile boolean mCancelled;
+        private String mError;
+
+        private Request(Callback callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * Fail the request without a lookup
+         */
+        private void fail(String message) {
+            mError = message;
+            deliver(FAILURE_RESULT, message, TIER_NONE);
+        }
+
+        private void deliver(final int resultCode, final String message, final int tier) {
+            if (mCallback == null) return;
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // checked on the callback thread so a stale result is never seen
+                    if (mCancelled) return;
+                    Metrics.record(Metrics.ADDRESS_REQUEST, mStartNanos);
+                    mCallback.onAddressResult(resultCode, message, tier);
+                }
+            });
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mCancelled || isDone()) return false;
+            mCancelled = true;
+            GeocodingEngine.this.cancel(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mCancelled || mLookup == null || mLookup.isFinished();
+        }
+
+        @Override
+        public String get() throws InterruptedException, ExecutionException {
+            if (mCancelled) throw new CancellationException();
+            if (mLookup == null) throw new ExecutionException(new IOException(mError));
+            try {
+                return mLookup.get(-1);
+            } catch (TimeoutException e) {
+                //not possible without a timeout
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (mCancelled) throw new CancellationException();
+            if (mLookup == null) throw new ExecutionException(new IOException(mError));
+            return mLookup.get(unit.toNanos(timeout));
+        }
+    }
+
+    /**
+     * Addresses found recently, a ring overwriting the oldest
+     */
+    private static final class KnownAddresses {
+        private final double[] mLatitudes;
+        private final double[] mLongitudes;
+        private final String[] mAddresses;
+        private int mNext;
+        private int mSize;
+
+        KnownAddresses(int capacity) {
+            mLatitudes = new double[capacity];
+            mLongitudes = new double[capacity];
+            mAddresses = new String[capacity];
+        }
+
+        synchronized void add(double latitude, double longitude, String address) {
+            mLatitudes[mNext] = latitude;
+            mLongitudes[mNext] = longitude;
+            mAddresses[mNext] = address;
+            mNext = (mNext + 1) % mAddresses.length;
+            if (mSize < mAddresses.length) mSize++;
+        }
+
+        /**
+         * @return address of the nearest location within the distance, null if none
+         */
+        synchronized String nearest(double latitude, double longitude, double maxDistanceM) {
+            String nearest = null;
+            double nearestDistance = maxDistanceM;
+            for (int i = 0; i < mSize; i++) {
+                double distance = Geodesy.distance(latitude, longitude,
+                        mLatitudes[i], mLongitudes[i]);
+                if (distance <= nearestDistance) {
+                    nearest = mAddresses[i];
+                    nearestDistance = distance;
+                }
+            }
+            return nearest;
+        }
+    }
+
+    /**
+     * Creates named daemon threads at background priority
+     */
+    static final class WorkerThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        WorkerThreadFactory(String name) {
+            this(name, Thread.NORM_PRIORITY - 1);
+        }
+
+        WorkerThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(mPriority);
+            return thread;
+        }
+    }
+}
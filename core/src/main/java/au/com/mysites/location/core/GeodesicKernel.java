@@ -0,0 +1,535 @@
+package au.com.mysites.location.core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Geodesic calculations over whole arrays of coordinates, for reports over long tracks
+ * and many sites without a Fix or Location per point.
+ * Coordinates are parallel arrays of latitudes and longitudes, in degrees as doubles or
+ * micro degrees as ints, the same as the place indexes. Results go into arrays supplied by
+ * the caller so nothing is allocated per point.
+ * <p>
+ * Each loop is a straight run over the arrays with the trigonometry of a fixed point worked
+ * out once, so the JIT can unroll it and keep everything in registers. Arrays of more than
+ * one chunk are split into chunks and worked on by a shared fork/join pool; the results are
+ * the same as working through them in order, apart from the rounding of path lengths.
+ * Distances are on the sphere of Geodesy, except vincenty which is on the WGS 84 ellipsoid.
+ */
+public final class GeodesicKernel {
+
+    // points worked on by one task, big enough that a task costs little compared with its work
+    static final int CHUNK = 16384;
+
+    private static final double RADIANS = Math.PI / 180;
+    private static final double RADIANS_PER_MICRO_DEGREE = RADIANS / OfflinePlaceIndex.MICRO_DEGREES;
+    private static final double DIAMETER = 2 * Geodesy.EARTH_RADIUS_M;
+
+    //region WGS 84 for Vincenty
+    private static final double A = Geodesy.WGS84_SEMI_MAJOR_AXIS_M;
+    private static final double F = Geodesy.WGS84_FLATTENING;
+    private static final double B = A * (1 - F);
+    private static final int VINCENTY_ITERATIONS = 200;
+    // about 0.006 mm
+    private static final double VINCENTY_TOLERANCE = 1e-12;
+    //endregion
+
+    private GeodesicKernel() {
+    }
+
+    //region distance
+
+    /**
+     * Haversine distance between pairs of points
+     *
+     * @param latitudes1  latitudes of the first points in degrees
+     * @param longitudes1 longitudes of the first points in degrees
+     * @param latitudes2  latitudes of the second points in degrees
+     * @param longitudes2 longitudes of the second points in degrees
+     * @param distances   set to the distance of each pair in metres
+     */
+    public static void haversine(final double[] latitudes1, final double[] longitudes1,
+                                 final double[] latitudes2, final double[] longitudes2,
+                                 final double[] distances) {
+        check(distances.length, latitudes1, longitudes1, latitudes2, longitudes2);
+        forEachChunk(distances.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi1 = latitudes1[i] * RADIANS;
+                    double phi2 = latitudes2[i] * RADIANS;
+                    double sinPhi = Math.sin((phi2 - phi1) / 2);
+                    double sinLambda = Math.sin((longitudes2[i] - longitudes1[i]) * (RADIANS / 2));
+                    double a = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+                    distances[i] = DIAMETER * Math.asin(Math.min(1, Math.sqrt(a)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Haversine distance from a point to each of many
+     *
+     * @param latitude   latitude of the point in degrees
+     * @param longitude  longitude of the point in degrees
+     * @param latitudes  latitudes in degrees
+     * @param longitudes longitudes in degrees
+     * @param distances  set to the distance to each in metres
+     */
+    public static void haversine(double latitude, final double longitude,
+                                 final double[] latitudes, final double[] longitudes,
+                                 final double[] distances) {
+        check(distances.length, latitudes, longitudes);
+        final double phi0 = latitude * RADIANS;
+        final double cosPhi0 = Math.cos(phi0);
+        forEachChunk(distances.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi = latitudes[i] * RADIANS;
+                    double sinPhi = Math.sin((phi - phi0) / 2);
+                    double sinLambda = Math.sin((longitudes[i] - longitude) * (RADIANS / 2));
+                    double a = sinPhi * sinPhi + cosPhi0 * Math.cos(phi) * sinLambda * sinLambda;
+                    distances[i] = DIAMETER * Math.asin(Math.min(1, Math.sqrt(a)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Haversine distance from a point to each of many
+     *
+     * @param latitude   latitude of the point in degrees
+     * @param longitude  longitude of the point in degrees
+     * @param latitudes  latitudes in micro degrees
+     * @param longitudes longitudes in micro degrees
+     * @param distances  set to the distance to each in metres
+     */
+    public static void haversine(double latitude, double longitude,
+                                 final int[] latitudes, final int[] longitudes,
+                                 final double[] distances) {
+        check(distances.length, latitudes.length);
+        check(distances.length, longitudes.length);
+        final double phi0 = latitude * RADIANS;
+        final double cosPhi0 = Math.cos(phi0);
+        final double lambda0 = longitude * RADIANS;
+        forEachChunk(distances.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi = latitudes[i] * RADIANS_PER_MICRO_DEGREE;
+                    double sinPhi = Math.sin((phi - phi0) / 2);
+                    double sinLambda = Math.sin((longitudes[i] * RADIANS_PER_MICRO_DEGREE - lambda0) / 2);
+                    double a = sinPhi * sinPhi + cosPhi0 * Math.cos(phi) * sinLambda * sinLambda;
+                    distances[i] = DIAMETER * Math.asin(Math.min(1, Math.sqrt(a)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Distance between pairs of points on the WGS 84 ellipsoid by Vincenty's inverse formula,
+     * accurate to well under a millimetre
+     *
+     * @param latitudes1  latitudes of the first points in degrees
+     * @param longitudes1 longitudes of the first points in degrees
+     * @param latitudes2  latitudes of the second points in degrees
+     * @param longitudes2 longitudes of the second points in degrees
+     * @param distances   set to the distance of each pair in metres, NaN for nearly
+     *                    antipodal points where the formula does not converge
+     */
+    public static void vincenty(final double[] latitudes1, final double[] longitudes1,
+                                final double[] latitudes2, final double[] longitudes2,
+                                final double[] distances) {
+        check(distances.length, latitudes1, longitudes1, latitudes2, longitudes2);
+        forEachChunk(distances.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    distances[i] = vincenty(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Vincenty's inverse formula for one pair, see vincenty for arrays
+     *
+     * @return distance in metres, NaN if it does not converge
+     */
+    public static double vincenty(double latitude1, double longitude1,
+                                  double latitude2, double longitude2) {
+        double l = (longitude2 - longitude1) * RADIANS;
+        //reduced latitudes
+        double tanU1 = (1 - F) * Math.tan(latitude1 * RADIANS);
+        double cosU1 = 1 / Math.sqrt(1 + tanU1 * tanU1);
+        double sinU1 = tanU1 * cosU1;
+        double tanU2 = (1 - F) * Math.tan(latitude2 * RADIANS);
+        double cosU2 = 1 / Math.sqrt(1 + tanU2 * tanU2);
+        double sinU2 = tanU2 * cosU2;
+
+        double lambda = l;
+        double sinSigma;
+        double cosSigma;
+        double sigma;
+        double cosSquaredAlpha;
+        double cos2SigmaM;
+        int iteration = 0;
+        while (true) {
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            double x = cosU2 * sinLambda;
+            double y = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+            sinSigma = Math.sqrt(x * x + y * y);
+            //the same point
+            if (sinSigma == 0) return 0;
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSquaredAlpha = 1 - sinAlpha * sinAlpha;
+            //on the equator
+            cos2SigmaM = cosSquaredAlpha == 0 ? 0 : cosSigma - 2 * sinU1 * sinU2 / cosSquaredAlpha;
+            double c = F / 16 * cosSquaredAlpha * (4 + F * (4 - 3 * cosSquaredAlpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * F * sinAlpha * (sigma + c * sinSigma
+                    * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - previous) <= VINCENTY_TOLERANCE) break;
+            if (++iteration == VINCENTY_ITERATIONS) return Double.NaN;
+        }
+        double uSquared = cosSquaredAlpha * (A * A - B * B) / (B * B);
+        double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+        double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+        double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - b / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return B * a * (sigma - deltaSigma);
+    }
+    //endregion
+
+    //region bearing and destination
+
+    /**
+     * Initial bearing of the great circle between pairs of points
+     *
+     * @param latitudes1  latitudes of the first points in degrees
+     * @param longitudes1 longitudes of the first points in degrees
+     * @param latitudes2  latitudes of the second points in degrees
+     * @param longitudes2 longitudes of the second points in degrees
+     * @param bearings    set to degrees east of true north from the first point, 0 to 360
+     */
+    public static void bearings(final double[] latitudes1, final double[] longitudes1,
+                                final double[] latitudes2, final double[] longitudes2,
+                                final double[] bearings) {
+        check(bearings.length, latitudes1, longitudes1, latitudes2, longitudes2);
+        forEachChunk(bearings.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi1 = latitudes1[i] * RADIANS;
+                    double phi2 = latitudes2[i] * RADIANS;
+                    double deltaLambda = (longitudes2[i] - longitudes1[i]) * RADIANS;
+                    double cosPhi2 = Math.cos(phi2);
+                    double y = Math.sin(deltaLambda) * cosPhi2;
+                    double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(deltaLambda);
+                    double bearing = Math.atan2(y, x) / RADIANS;
+                    bearings[i] = bearing < 0 ? bearing + 360 : bearing;
+                }
+            }
+        });
+    }
+
+    /**
+     * Point reached along the great circle from each start point, e.g. to draw range rings
+     *
+     * @param latitudes     latitudes of the start points in degrees
+     * @param longitudes    longitudes of the start points in degrees
+     * @param bearings      initial bearings in degrees east of true north
+     * @param distances     distances to travel in metres
+     * @param outLatitudes  set to the latitudes reached, may be latitudes
+     * @param outLongitudes set to the longitudes reached, -180 to 180, may be longitudes
+     */
+    public static void destinations(final double[] latitudes, final double[] longitudes,
+                                    final double[] bearings, final double[] distances,
+                                    final double[] outLatitudes, final double[] outLongitudes) {
+        check(outLatitudes.length, latitudes, longitudes, bearings, distances, outLongitudes);
+        forEachChunk(outLatitudes.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi1 = latitudes[i] * RADIANS;
+                    double theta = bearings[i] * RADIANS;
+                    double delta = distances[i] / Geodesy.EARTH_RADIUS_M;
+                    double sinPhi1 = Math.sin(phi1);
+                    double cosPhi1 = Math.cos(phi1);
+                    double sinDelta = Math.sin(delta);
+                    double cosDelta = Math.cos(delta);
+                    double sinPhi2 = sinPhi1 * cosDelta + cosPhi1 * sinDelta * Math.cos(theta);
+                    double deltaLambda = Math.atan2(Math.sin(theta) * sinDelta * cosPhi1,
+                            cosDelta - sinPhi1 * sinPhi2);
+                    double longitude = longitudes[i] + deltaLambda / RADIANS;
+                    outLatitudes[i] = Math.asin(sinPhi2) / RADIANS;
+                    outLongitudes[i] = (longitude + 540) % 360 - 180;
+                }
+            }
+        });
+    }
+    //endregion
+
+    //region path length
+
+    /**
+     * Length of the path along the points, e.g. a track
+     *
+     * @param latitudes  latitudes in degrees
+     * @param longitudes longitudes in degrees
+     * @return haversine length in metres
+     */
+    public static double pathLength(double[] latitudes, double[] longitudes) {
+        check(latitudes.length, longitudes);
+        double[] sums = segmentSums(latitudes, longitudes, null);
+        double length = 0;
+        for (double sum : sums) length += sum;
+        return length;
+    }
+
+    /**
+     * Length of the path along the points up to each point, e.g. for distance markers
+     *
+     * @param latitudes  latitudes in degrees
+     * @param longitudes longitudes in degrees
+     * @param lengths    set to the haversine length in metres from the first point to each
+     * @return total length in metres
+     */
+    public static double cumulativeLength(double[] latitudes, double[] longitudes, final double[] lengths) {
+        check(lengths.length, latitudes, longitudes);
+        //the lengths within each chunk, then each chunk moved along by the chunks before it
+        final double[] offsets = segmentSums(latitudes, longitudes, lengths);
+        double length = 0;
+        for (int chunk = 0; chunk < offsets.length; chunk++) {
+            double sum = offsets[chunk];
+            offsets[chunk] = length;
+            length += sum;
+        }
+        if (offsets.length > 1) {
+            forEachChunk(lengths.length, new Body() {
+                @Override
+                public void run(int from, int to) {
+                    double offset = offsets[from / CHUNK];
+                    for (int i = from; i < to; i++) lengths[i] += offset;
+                }
+            });
+        }
+        return length;
+    }
+
+    /**
+     * Sum the segments ending in each chunk
+     *
+     * @param lengths if not null, set to the running sum within each chunk
+     * @return sum of each chunk
+     */
+    private static double[] segmentSums(final double[] latitudes, final double[] longitudes,
+                                        final double[] lengths) {
+        final double[] sums = new double[chunks(latitudes.length)];
+        forEachChunk(latitudes.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                //the segment into the first point of a chunk is part of the chunk
+                int start = Math.max(from - 1, 0);
+                double phi1 = latitudes[start] * RADIANS;
+                double cosPhi1 = Math.cos(phi1);
+                double sum = 0;
+                for (int i = from; i < to; i++) {
+                    double phi2 = latitudes[i] * RADIANS;
+                    double cosPhi2 = Math.cos(phi2);
+                    double sinPhi = Math.sin((phi2 - phi1) / 2);
+                    double sinLambda = Math.sin((longitudes[i] - longitudes[start]) * (RADIANS / 2));
+                    double a = sinPhi * sinPhi + cosPhi1 * cosPhi2 * sinLambda * sinLambda;
+                    sum += DIAMETER * Math.asin(Math.min(1, Math.sqrt(a)));
+                    if (lengths != null) lengths[i] = sum;
+                    start = i;
+                    phi1 = phi2;
+                    cosPhi1 = cosPhi2;
+                }
+                sums[from / CHUNK] = sum;
+            }
+        });
+        return sums;
+    }
+    //endregion
+
+    //region nearest
+
+    /**
+     * Find the nearest of many sites to a point
+     *
+     * @param latitude   latitude of the point in degrees
+     * @param longitude  longitude of the point in degrees
+     * @param latitudes  latitudes of the sites in micro degrees
+     * @param longitudes longitudes of the sites in micro degrees
+     * @return index of the nearest site, the first if several are as near, -1 if there are none
+     */
+    public static int nearest(double latitude, double longitude, final int[] latitudes, final int[] longitudes) {
+        check(latitudes.length, longitudes.length);
+        final double phi0 = latitude * RADIANS;
+        final double cosPhi0 = Math.cos(phi0);
+        final double lambda0 = longitude * RADIANS;
+        int chunks = chunks(latitudes.length);
+        final int[] indexes = new int[chunks];
+        final double[] nearest = new double[chunks];
+        forEachChunk(latitudes.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                int index = -1;
+                //the haversine of the angle, as it increases with the distance
+                double min = Double.POSITIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double phi = latitudes[i] * RADIANS_PER_MICRO_DEGREE;
+                    double sinPhi = Math.sin((phi - phi0) / 2);
+                    double sinLambda = Math.sin((longitudes[i] * RADIANS_PER_MICRO_DEGREE - lambda0) / 2);
+                    double a = sinPhi * sinPhi + cosPhi0 * Math.cos(phi) * sinLambda * sinLambda;
+                    if (a < min) {
+                        min = a;
+                        index = i;
+                    }
+                }
+                indexes[from / CHUNK] = index;
+                nearest[from / CHUNK] = min;
+            }
+        });
+        int index = -1;
+        double min = Double.POSITIVE_INFINITY;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (nearest[chunk] < min) {
+                min = nearest[chunk];
+                index = indexes[chunk];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Find the nearest site to each of many points, e.g. to check which depot each fix of
+     * a day's tracks was closest to
+     *
+     * @param latitudes      latitudes of the points in degrees
+     * @param longitudes     longitudes of the points in degrees
+     * @param siteLatitudes  latitudes of the sites in degrees
+     * @param siteLongitudes longitudes of the sites in degrees
+     * @param nearest        set to the index of the site nearest to each point, -1 if none
+     * @param distances      if not null, set to the distance to the nearest site in metres
+     */
+    public static void nearest(final double[] latitudes, final double[] longitudes,
+                               double[] siteLatitudes, double[] siteLongitudes,
+                               final int[] nearest, final double[] distances) {
+        check(nearest.length, latitudes, longitudes);
+        if (distances != null) check(nearest.length, distances);
+        check(siteLatitudes.length, siteLongitudes);
+        //the sites in radians with their cosines, worked out once for all the points
+        final int sites = siteLatitudes.length;
+        final double[] sitePhis = new double[sites];
+        final double[] siteCosPhis = new double[sites];
+        final double[] siteLambdas = new double[sites];
+        for (int j = 0; j < sites; j++) {
+            sitePhis[j] = siteLatitudes[j] * RADIANS;
+            siteCosPhis[j] = Math.cos(sitePhis[j]);
+            siteLambdas[j] = siteLongitudes[j] * RADIANS;
+        }
+        forEachChunk(nearest.length, new Body() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double phi = latitudes[i] * RADIANS;
+                    double cosPhi = Math.cos(phi);
+                    double lambda = longitudes[i] * RADIANS;
+                    int index = -1;
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int j = 0; j < sites; j++) {
+                        double sinPhi = Math.sin((sitePhis[j] - phi) / 2);
+                        double sinLambda = Math.sin((siteLambdas[j] - lambda) / 2);
+                        double a = sinPhi * sinPhi + cosPhi * siteCosPhis[j] * sinLambda * sinLambda;
+                        if (a < min) {
+                            min = a;
+                            index = j;
+                        }
+                    }
+                    nearest[i] = index;
+                    if (distances != null) {
+                        distances[i] = index < 0 ? Double.NaN : DIAMETER * Math.asin(Math.min(1, Math.sqrt(min)));
+                    }
+                }
+            }
+        });
+    }
+    //endregion
+
+    //region fork/join
+
+    /**
+     * Work on a range of the arrays
+     */
+    private interface Body {
+        /**
+         * @param from first index, a multiple of CHUNK
+         * @param to   index after the last, at most CHUNK after from
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits a range in halves on chunk boundaries until it is one chunk
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Body mBody;
+        private final int mFrom;
+        private final int mTo;
+
+        Split(Body body, int from, int to) {
+            mBody = body;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= CHUNK) {
+                mBody.run(mFrom, mTo);
+            } else {
+                int middle = mFrom + (chunks(mTo - mFrom) + 1) / 2 * CHUNK;
+                invokeAll(new Split(mBody, mFrom, middle), new Split(mBody, middle, mTo));
+            }
+        }
+    }
+
+    /**
+     * The pool is only started by the first array of more than one chunk
+     */
+    private static final class Pool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    private static int chunks(int length) {
+        return (length + CHUNK - 1) / CHUNK;
+    }
+
+    /**
+     * Run the body over every chunk of a length, in the pool if there is more than one
+     */
+    private static void forEachChunk(int length, Body body) {
+        if (length > CHUNK) {
+            Pool.POOL.invoke(new Split(body, 0, length));
+        } else if (length > 0) {
+            body.run(0, length);
+        }
+    }
+
+    private static void check(int length, double[]... arrays) {
+        for (double[] array : arrays) check(length, array.length);
+    }
+
+    private static void check(int length, int other) {
+        if (other != length) throw new IllegalArgumentException("length " + other + " not " + length);
+    }
+    //endregion
+}
@@ -0,0 +1,56 @@
+package au.com.mysites.location.core;
+
+/**
+ * Distance calculations on a spherical earth
+ */
+public final class Geodesy {
+
+    // mean radius of the earth in metres
+    public static final double EARTH_RADIUS_M = 6371008.8;
+    // WGS 84 ellipsoid, for the ellipsoidal calculations
+    public static final double WGS84_SEMI_MAJOR_AXIS_M = 6378137;
+    public static final double WGS84_FLATTENING = 1 / 298.257223563;
+
+    private Geodesy() {
+    }
+
+    /**
+     * Great circle distance using the haversine formula
+     *
+     * @param latitude1  latitude of first point in degrees
+     * @param longitude1 longitude of first point in degrees
+     * @param latitude2  latitude of second point in degrees
+     * @param longitude2 longitude of second point in degrees
+     * @return distance in metres
+     */
+    public static double distance(double latitude1, double longitude1,
+                           double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfDeltaPhi * sinHalfDeltaPhi
+                + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Initial bearing of the great circle from the first point to the second
+     *
+     * @param latitude1  latitude of first point in degrees
+     * @param longitude1 longitude of first point in degrees
+     * @param latitude2  latitude of second point in degrees
+     * @param longitude2 longitude of second point in degrees
+     * @return degrees east of true north, 0 to 360
+     */
+    public static double bearing(double latitude1, double longitude1,
+                                 double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        double y = Math.sin(deltaLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+        double bearing = Math.toDegrees(Math.atan2(y, x));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+}
@@ -0,0 +1,181 @@
+package au.com.mysites.location.core;
+
+/**
+ * A circle or polygon around a place, e.g. a job site.
+ * Distances near a fence are worked out on a flat earth around the point,
+ * which is accurate for fences up to a few kilometres across.
+ * Fences crossing the 180th meridian are not supported.
+ */
+public final class Geofence {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final String mId;
+    // circle centre and radius, radius 0 for a polygon
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mRadiusM;
+    // polygon vertices, null for a circle
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    // bounding box
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+
+    private Geofence(String id, double latitude, double longitude, double radiusM,
+                     double[] latitudes, double[] longitudes) {
+        mId = id;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mRadiusM = radiusM;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        if (latitudes == null) {
+            double latitudeDegrees = radiusM / METRES_PER_DEGREE;
+            double longitudeDegrees = latitudeDegrees / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+            mMinLatitude = latitude - latitudeDegrees;
+            mMaxLatitude = latitude + latitudeDegrees;
+            mMinLongitude = longitude - longitudeDegrees;
+            mMaxLongitude = longitude + longitudeDegrees;
+        } else {
+            double minLatitude = latitudes[0];
+            double maxLatitude = latitudes[0];
+            double minLongitude = longitudes[0];
+            double maxLongitude = longitudes[0];
+            for (int i = 1; i < latitudes.length; i++) {
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                maxLatitude = Math.max(maxLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitudes[i]);
+                maxLongitude = Math.max(maxLongitude, longitudes[i]);
+            }
+            mMinLatitude = minLatitude;
+            mMaxLatitude = maxLatitude;
+            mMinLongitude = minLongitude;
+            mMaxLongitude = maxLongitude;
+        }
+    }
+
+    /**
+     * @param id        name of the fence
+     * @param latitude  latitude of the centre in degrees
+     * @param longitude longitude of the centre in degrees
+     * @param radiusM   radius in metres
+     * @return circular fence
+     * @throws IllegalArgumentException if the centre or radius is not valid
+     */
+    public static Geofence circle(String id, double latitude, double longitude, double radiusM) {
+        checkPosition(latitude, longitude);
+        if (!(radiusM > 0)) throw new IllegalArgumentException("radius " + radiusM);
+        return new Geofence(id, latitude, longitude, radiusM, null, null);
+    }
+
+    /**
+     * @param id         name of the fence
+     * @param latitudes  latitudes of the vertices in degrees, in order around the polygon
+     * @param longitudes longitudes of the vertices in degrees
+     * @return polygon fence
+     * @throws IllegalArgumentException if there are fewer than 3 vertices or one is not valid
+     */
+    public static Geofence polygon(String id, double[] latitudes, double[] longitudes) {
+        if (latitudes.length < 3 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("polygon needs 3 or more vertices");
+        }
+        for (int i = 0; i < latitudes.length; i++) checkPosition(latitudes[i], longitudes[i]);
+        return new Geofence(id, 0, 0, 0, latitudes.clone(), longitudes.clone());
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public boolean isCircle() {
+        return mLatitudes == null;
+    }
+
+    double getMinLatitude() {
+        return mMinLatitude;
+    }
+
+    double getMaxLatitude() {
+        return mMaxLatitude;
+    }
+
+    double getMinLongitude() {
+        return mMinLongitude;
+    }
+
+    double getMaxLongitude() {
+        return mMaxLongitude;
+    }
+
+    /**
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param marginM   distance the fence is grown by, negative to shrink it
+     * @return true if the point is inside the fence grown by the margin
+     */
+    public boolean contains(double latitude, double longitude, double marginM) {
+        if (mLatitudes == null) {
+            return Geodesy.distance(latitude, longitude, mLatitude, mLongitude) <= mRadiusM + marginM;
+        }
+        boolean inside = containsPoint(latitude, longitude);
+        if (marginM > 0 && !inside) return distanceToEdge(latitude, longitude) <= marginM;
+        if (marginM < 0 && inside) return distanceToEdge(latitude, longitude) >= -marginM;
+        return inside;
+    }
+
+    /**
+     * Even odd rule, casting a ray east from the point
+     */
+    private boolean containsPoint(double latitude, double longitude) {
+        boolean inside = false;
+        int n = mLatitudes.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double latitudeI = mLatitudes[i];
+            double latitudeJ = mLatitudes[j];
+            if ((latitudeI > latitude) != (latitudeJ > latitude)) {
+                double crossing = mLongitudes[i] + (latitude - latitudeI)
+                        * (mLongitudes[j] - mLongitudes[i]) / (latitudeJ - latitudeI);
+                if (longitude < crossing) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return distance in metres from the point to the nearest edge of the polygon
+     */
+    private double distanceToEdge(double latitude, double longitude) {
+        double metresPerDegreeLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        double nearest = Double.MAX_VALUE;
+        int n = mLatitudes.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            //edge from vertex j to i with the point at the origin
+            double x1 = (mLongitudes[j] - longitude) * metresPerDegreeLongitude;
+            double y1 = (mLatitudes[j] - latitude) * METRES_PER_DEGREE;
+            double x2 = (mLongitudes[i] - longitude) * metresPerDegreeLongitude;
+            double y2 = (mLatitudes[i] - latitude) * METRES_PER_DEGREE;
+            double dx = x2 - x1;
+            double dy = y2 - y1;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / lengthSquared));
+            double x = x1 + t * dx;
+            double y = y1 + t * dy;
+            nearest = Math.min(nearest, x * x + y * y);
+        }
+        return Math.sqrt(nearest);
+    }
+
+    private static void checkPosition(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("position " + latitude + "," + longitude);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Geofence[" + mId + "]";
+    }
+}
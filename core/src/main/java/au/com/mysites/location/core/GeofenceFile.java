@@ -0,0 +1,94 @@
+package au.com.mysites.location.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads geofences from a text file, one fence per line
+ * <pre>
+ * # comment
+ * depot,circle,-33.8688,151.2093,100
+ * site 12,polygon,-33.8601 151.2001,-33.8702 151.2003,-33.8699 151.2105
+ * </pre>
+ * A circle is a centre latitude and longitude and a radius in metres,
+ * a polygon is three or more latitude longitude pairs.
+ */
+public final class GeofenceFile {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private GeofenceFile() {
+    }
+
+    /**
+     * @param file file to read
+     * @return fences in the file
+     * @throws IOException if the file can not be read or a line is not valid
+     */
+    public static List<Geofence> read(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+        try {
+            return read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param reader text to read, not closed
+     * @return fences in the text
+     * @throws IOException if the text can not be read or a line is not valid
+     */
+    public static List<Geofence> read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Geofence> fences = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                fences.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return fences;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line is not a valid fence
+     */
+    private static Geofence parse(String line) {
+        String[] fields = line.split(",");
+        if (fields.length < 3) throw new IllegalArgumentException("not a fence");
+        String id = fields[0].trim();
+        String type = fields[1].trim();
+        if (type.equals("circle")) {
+            if (fields.length != 5) throw new IllegalArgumentException("circle needs centre and radius");
+            return Geofence.circle(id, Double.parseDouble(fields[2]),
+                    Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+        }
+        if (type.equals("polygon")) {
+            int n = fields.length - 2;
+            double[] latitudes = new double[n];
+            double[] longitudes = new double[n];
+            for (int i = 0; i < n; i++) {
+                String[] vertex = fields[i + 2].trim().split("\\s+");
+                if (vertex.length != 2) throw new IllegalArgumentException("vertex " + fields[i + 2]);
+                latitudes[i] = Double.parseDouble(vertex[0]);
+                longitudes[i] = Double.parseDouble(vertex[1]);
+            }
+            return Geofence.polygon(id, latitudes, longitudes);
+        }
+        throw new IllegalArgumentException("type " + type);
+    }
+}
@@ -0,0 +1,180 @@
+package au.com.mysites.location.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the fences, so a point is only tested against the fences in its cell.
+ * Each fence is listed in every cell its bounding box covers. The cells are held in an
+ * open addressing table of primitive arrays, so finding the candidates does not allocate.
+ * Fences covering too many cells are always candidates rather than filling the table.
+ */
+public final class GeofenceIndex {
+
+    // smallest cell, about 500 m
+    public static final double MIN_CELL_DEGREES = 0.005;
+
+    // a fence covering more cells than this is tested for every point
+    private static final int MAX_CELLS_PER_FENCE = 4096;
+    private static final long EMPTY = -1;
+
+    private final Geofence[] mFences;
+    private final double mCellDegrees;
+    private final int mRows;
+    private final int mColumns;
+    // table of cell key to the range of its fences in mCandidates
+    private final long[] mKeys;
+    private final int[] mStarts;
+    private final int[] mEnds;
+    private final int[] mCandidates;
+    // fences in no cell, tested for every point
+    private final int[] mLarge;
+    private final int mMaxCandidates;
+
+    /**
+     * @param fences      fences to index
+     * @param cellDegrees size of a cell, about the size of a typical fence works well
+     * @throws IllegalArgumentException if the cell is smaller than MIN_CELL_DEGREES
+     */
+    public GeofenceIndex(List<Geofence> fences, double cellDegrees) {
+        //the cell key fits in 32 bits unsigned, about 2.6e9 cells at the smallest size
+        if (!(cellDegrees >= MIN_CELL_DEGREES)) throw new IllegalArgumentException("cell " + cellDegrees);
+        mFences = fences.toArray(new Geofence[fences.size()]);
+        mCellDegrees = cellDegrees;
+        mRows = (int) Math.ceil(180 / cellDegrees) + 1;
+        mColumns = (int) Math.ceil(360 / cellDegrees) + 1;
+
+        //cell key and fence index packed into one long so sorting groups them by cell, a
+        //key with its top bit set makes the entry negative, which only changes where its
+        //cell sorts, as the keys are compared after an unsigned shift
+        long[] entries = new long[16];
+        int entryCount = 0;
+        int[] large = new int[4];
+        int largeCount = 0;
+        for (int f = 0; f < mFences.length; f++) {
+            Geofence fence = mFences[f];
+            int row0 = row(fence.getMinLatitude());
+            int row1 = row(fence.getMaxLatitude());
+            int column0 = column(fence.getMinLongitude());
+            int column1 = column(fence.getMaxLongitude());
+            long cells = (long) (row1 - row0 + 1) * (column1 - column0 + 1);
+            if (cells > MAX_CELLS_PER_FENCE) {
+                if (largeCount == large.length) large = Arrays.copyOf(large, largeCount * 2);
+                large[largeCount++] = f;
+                continue;
+            }
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    if (entryCount == entries.length) entries = Arrays.copyOf(entries, entryCount * 2);
+                    entries[entryCount++] = key(row, column) << 32 | f;
+                }
+            }
+        }
+        Arrays.sort(entries, 0, entryCount);
+        mLarge = Arrays.copyOf(large, largeCount);
+
+        int cellCount = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (i == 0 || entries[i] >>> 32 != entries[i - 1] >>> 32) cellCount++;
+        }
+        int tableSize = Integer.highestOneBit(Math.max(2, cellCount * 2 - 1)) << 1;
+        mKeys = new long[tableSize];
+        Arrays.fill(mKeys, EMPTY);
+        mStarts = new int[tableSize];
+        mEnds = new int[tableSize];
+        mCandidates = new int[entryCount];
+        int maxCell = 0;
+        for (int i = 0; i < entryCount; ) {
+            long key = entries[i] >>> 32;
+            int start = i;
+            for (; i < entryCount && entries[i] >>> 32 == key; i++) {
+                mCandidates[i] = (int) entries[i];
+            }
+            int slot = slot(key);
+            mKeys[slot] = key;
+            mStarts[slot] = start;
+            mEnds[slot] = i;
+            maxCell = Math.max(maxCell, i - start);
+        }
+        mMaxCandidates = maxCell + mLarge.length;
+    }
+
+    /**
+     * @return number of fences
+     */
+    public int size() {
+        return mFences.length;
+    }
+
+    /**
+     * @param index index of the fence, in the order given
+     * @return the fence
+     */
+    public Geofence get(int index) {
+        return mFences[index];
+    }
+
+    /**
+     * @return size of the array needed by candidates
+     */
+    public int getMaxCandidates() {
+        return mMaxCandidates;
+    }
+
+    /**
+     * Find the fences that may contain a point
+     *
+     * @param latitude   latitude in degrees
+     * @param longitude  longitude in degrees
+     * @param candidates receives the indexes of the fences, getMaxCandidates long
+     * @return number of candidates
+     */
+    public int candidates(double latitude, double longitude, int[] candidates) {
+        int count = 0;
+        long key = key(row(latitude), column(longitude));
+        int slot = find(key);
+        if (slot >= 0) {
+            for (int i = mStarts[slot]; i < mEnds[slot]; i++) candidates[count++] = mCandidates[i];
+        }
+        for (int fence : mLarge) candidates[count++] = fence;
+        return count;
+    }
+
+    private int row(double latitude) {
+        return Math.max(0, Math.min(mRows - 1, (int) Math.floor((latitude + 90) / mCellDegrees)));
+    }
+
+    private int column(double longitude) {
+        return Math.max(0, Math.min(mColumns - 1, (int) Math.floor((longitude + 180) / mCellDegrees)));
+    }
+
+    private long key(int row, int column) {
+        return (long) row * mColumns + column;
+    }
+
+    /**
+     * @return slot holding the key, -1 if the cell has no fences
+     */
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (mKeys[slot] == key) return slot;
+            if (mKeys[slot] == EMPTY) return -1;
+        }
+    }
+
+    /**
+     * @return empty slot for a new key
+     */
+    private int slot(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+}
@@ -0,0 +1,112 @@
+package au.com.mysites.location.core;
+
+/**
+ * Watches fixes as a stage of the fix pipeline and reports entering, leaving
+ * and dwelling in geofences. Each fix is tested only against the fences in its cell
+ * of the index and the fences it is already inside, so the time per fix stays about
+ * the same however many fences there are.
+ * <p>
+ * A fence is entered when a fix is inside it, and left when a fix is further than the
+ * hysteresis distance outside it, so a fix jittering across the edge is not reported.
+ * Dwell is reported once when inside a fence for the dwell time.
+ */
+public final class GeofenceMonitor implements FixProcessor {
+
+    public static final int EVENT_ENTER = 0;
+    public static final int EVENT_EXIT = 1;
+    public static final int EVENT_DWELL = 2;
+
+    /**
+     * Receives geofence events, called on the pipeline thread
+     */
+    public interface Listener {
+        /**
+         * @param fence fence the event is for
+         * @param event EVENT_ENTER, EVENT_EXIT or EVENT_DWELL
+         * @param fix   fix causing the event, reused so copy anything that must be kept
+         */
+        void onGeofenceEvent(Geofence fence, int event, Fix fix);
+    }
+
+    private final GeofenceIndex mIndex;
+    private final double mHysteresisM;
+    private final long mDwellMs;
+    private final Listener mListener;
+
+    private final int[] mCandidates;
+    // fences the fixes are inside, the first mInsideCount entries
+    private final int[] mInside;
+    private int mInsideCount;
+    private final boolean[] mIsInside;
+    private final boolean[] mDwelt;
+    private final long[] mEnterTime;
+
+    /**
+     * @param index       fences to watch
+     * @param hysteresisM distance outside a fence before it is left
+     * @param dwellMs     time inside a fence before dwell is reported
+     * @param listener    receives events
+     */
+    public GeofenceMonitor(GeofenceIndex index, double hysteresisM, long dwellMs, Listener listener) {
+        mIndex = index;
+        mHysteresisM = hysteresisM;
+        mDwellMs = dwellMs;
+        mListener = listener;
+        mCandidates = new int[index.getMaxCandidates()];
+        mInside = new int[index.size()];
+        mIsInside = new boolean[index.size()];
+        mDwelt = new boolean[index.size()];
+        mEnterTime = new long[index.size()];
+    }
+
+    /**
+     * Test a fix against the fences, the fix is always passed on
+     *
+     * @param fix fix to test
+     * @return true
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        double latitude = fix.latitude;
+        double longitude = fix.longitude;
+
+        //leaving or dwelling in the fences already inside
+        for (int i = 0; i < mInsideCount; ) {
+            int f = mInside[i];
+            Geofence fence = mIndex.get(f);
+            if (!fence.contains(latitude, longitude, mHysteresisM)) {
+                mInside[i] = mInside[--mInsideCount];
+                mIsInside[f] = false;
+                mListener.onGeofenceEvent(fence, EVENT_EXIT, fix);
+                continue;
+            }
+            if (!mDwelt[f] && fix.time - mEnterTime[f] >= mDwellMs) {
+                mDwelt[f] = true;
+                mListener.onGeofenceEvent(fence, EVENT_DWELL, fix);
+            }
+            i++;
+        }
+
+        //entering fences in this cell
+        int count = mIndex.candidates(latitude, longitude, mCandidates);
+        for (int i = 0; i < count; i++) {
+            int f = mCandidates[i];
+            if (mIsInside[f]) continue;
+            Geofence fence = mIndex.get(f);
+            if (!fence.contains(latitude, longitude, 0)) continue;
+            mInside[mInsideCount++] = f;
+            mIsInside[f] = true;
+            mDwelt[f] = false;
+            mEnterTime[f] = fix.time;
+            mListener.onGeofenceEvent(fence, EVENT_ENTER, fix);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of fences the last fix was inside
+     */
+    public int getInsideCount() {
+        return mInsideCount;
+    }
+}
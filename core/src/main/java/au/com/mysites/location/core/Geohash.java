@@ -0,0 +1,81 @@
+package au.com.mysites.location.core;
+
+/**
+ * Quantizes a latitude and longitude into a geohash cell.
+ * Each extra character of precision divides the cell by 32,
+ * e.g. precision 6 is about 1.2km x 0.6km, precision 7 about 150m x 150m
+ */
+public final class Geohash {
+
+    public static final int MIN_PRECISION = 1;
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Encode a coordinate as a geohash
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param precision number of characters in the geohash
+     * @return geohash of the cell containing the coordinate
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        long value = bits(latitude, longitude, precision);
+        char[] hash = new char[precision];
+        //every 5 bits gives one character
+        for (int length = precision - 1; length >= 0; length--) {
+            hash[length] = BASE32[(int) (value & 31)];
+            value >>>= 5;
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Encode a coordinate as the bits of its geohash, to compare cells without allocating
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param precision number of characters in the geohash
+     * @return 5 bits for each character, the first in the highest bits
+     */
+    public static long bits(double latitude, double longitude, int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision " + precision);
+        }
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("Latitude = " + latitude
+                    + ", Longitude = " + longitude);
+        }
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        long value = 0;
+
+        //interleave longitude and latitude bits, starting with longitude
+        for (int bit = 0; bit < precision * 5; bit++) {
+            if (bit % 2 == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLon = mid;
+                } else {
+                    value = value << 1;
+                    maxLon = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLat = mid;
+                } else {
+                    value = value << 1;
+                    maxLat = mid;
+                }
+            }
+        }
+        return value;
+    }
+}
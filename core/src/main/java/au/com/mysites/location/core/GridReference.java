@@ -0,0 +1,246 @@
+package au.com.mysites.location.core;
+
+/**
+ * Formats a position as a grid reference into a reusable char array, without allocating.
+ * <ul>
+ * <li>UTM, zone, latitude band, easting and northing to the metre, e.g. 56H 334900 6252288</li>
+ * <li>MGRS, zone, band, 100 km square and 1 m easting and northing, e.g. 56H LH 34900 52288</li>
+ * <li>Plus Code, an 11 digit Open Location Code of about 3 m, e.g. 4RRH46V8+74M</li>
+ * </ul>
+ * The degree formats of CoordinateFormatter are also accepted, giving latitude and longitude
+ * separated by a comma, so one formatter can show a position in any format.
+ * UTM uses the Kruger series on the WGS 84 ellipsoid, accurate to well under a millimetre
+ * within a zone, with the ellipsoid constants worked out once. UTM and MGRS do not cover
+ * the poles, above 84N and below 80S they format as an empty string.
+ * <p>
+ * The characters are reused by the next call to format, so use one formatter
+ * for each value being displayed.
+ */
+public final class GridReference implements CharSequence {
+
+    // following the CoordinateFormatter formats
+    public static final int FORMAT_UTM = 3;
+    public static final int FORMAT_MGRS = 4;
+    public static final int FORMAT_PLUS_CODE = 5;
+
+    //region WGS 84 and the Kruger series
+    private static final double FLATTENING = Geodesy.WGS84_FLATTENING;
+    private static final double N = FLATTENING / (2 - FLATTENING);
+    private static final double ECCENTRICITY = Math.sqrt(FLATTENING * (2 - FLATTENING));
+    private static final double SCALE = 0.9996;
+    // rectifying radius times the scale on the central meridian
+    private static final double SCALED_RADIUS = SCALE * Geodesy.WGS84_SEMI_MAJOR_AXIS_M / (1 + N)
+            * (1 + N * N / 4 + N * N * N * N / 64);
+    private static final double[] ALPHA = {
+            N / 2 - 2 * N * N / 3 + 5 * N * N * N / 16 + 41 * N * N * N * N / 180,
+            13 * N * N / 48 - 3 * N * N * N / 5 + 557 * N * N * N * N / 1440,
+            61 * N * N * N / 240 - 103 * N * N * N * N / 140,
+            49561 * N * N * N * N / 161280};
+    private static final double FALSE_EASTING = 500000;
+    private static final double FALSE_NORTHING_SOUTH = 10000000;
+    //endregion
+
+    private static final String BANDS = "CDEFGHJKLMNPQRSTUVWX";
+    // MGRS 100 km square letters, columns by zone mod 3 and rows offset in even zones
+    private static final String[] COLUMNS = {"STUVWXYZ", "ABCDEFGH", "JKLMNPQR"};
+    private static final String ROWS = "ABCDEFGHJKLMNPQRSTUV";
+
+    private static final String PLUS_CODE_DIGITS = "23456789CFGHJMPQRVWX";
+    // pairs of digits then grid digits, in units of the last grid digit
+    private static final int PLUS_CODE_PAIRS = 5;
+    private static final long PLUS_CODE_LATITUDE_UNITS = 8000L * 5;
+    private static final long PLUS_CODE_LONGITUDE_UNITS = 8000L * 4;
+
+    private final char[] mChars = new char[40];
+    private int mLength;
+    private final CoordinateFormatter mCoordinate = new CoordinateFormatter();
+
+    // result of utm()
+    private int mZone;
+    private double mEasting;
+    private double mNorthing;
+
+    /**
+     * Format a position
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param format    FORMAT_UTM, FORMAT_MGRS, FORMAT_PLUS_CODE or a CoordinateFormatter format
+     * @return number of characters, see getChars()
+     */
+    public int format(double latitude, double longitude, int format) {
+        if (!(latitude >= -90 && latitude <= 90) || !(longitude >= -180 && longitude <= 180)) {
+            throw new IllegalArgumentException("position=" + latitude + "," + longitude);
+        }
+        mLength = 0;
+        switch (format) {
+            case FORMAT_UTM:
+                if (utm(latitude, longitude)) {
+                    putZone(latitude);
+                    mChars[mLength++] = ' ';
+                    putInteger((long) Math.floor(mEasting), 1);
+                    mChars[mLength++] = ' ';
+                    putInteger((long) Math.floor(mNorthing), 1);
+                }
+                break;
+            case FORMAT_MGRS:
+                if (utm(latitude, longitude)) mgrs(latitude);
+                break;
+            case FORMAT_PLUS_CODE:
+                plusCode(latitude, longitude);
+                break;
+            default:
+                put(mCoordinate, mCoordinate.format(latitude, format));
+                mChars[mLength++] = ',';
+                mChars[mLength++] = ' ';
+                put(mCoordinate, mCoordinate.format(longitude, format));
+        }
+        return mLength;
+    }
+
+    /**
+     * Work out the UTM zone, easting and northing
+     *
+     * @return false if outside UTM
+     */
+    private boolean utm(double latitude, double longitude) {
+        if (latitude < -80 || latitude > 84) return false;
+        int zone = Math.min(60, (int) Math.floor((longitude + 180) / 6) + 1);
+        //south west Norway and Svalbard
+        if (latitude >= 56 && latitude < 64 && longitude >= 3 && longitude < 12) zone = 32;
+        if (latitude >= 72 && longitude >= 0 && longitude < 42) {
+            zone = longitude < 9 ? 31 : longitude < 21 ? 33 : longitude < 33 ? 35 : 37;
+        }
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude - (zone * 6 - 183));
+        double sinPhi = Math.sin(phi);
+        double t = Math.sinh(atanh(sinPhi) - ECCENTRICITY * atanh(ECCENTRICITY * sinPhi));
+        double xi = Math.atan2(t, Math.cos(lambda));
+        double eta = atanh(Math.sin(lambda) / Math.sqrt(1 + t * t));
+        //the multiples of the angles from the first by the addition formulas
+        double sin2 = Math.sin(2 * xi);
+        double cos2 = Math.cos(2 * xi);
+        double sinh2 = Math.sinh(2 * eta);
+        double cosh2 = Math.sqrt(1 + sinh2 * sinh2);
+        double sin = sin2;
+        double cos = cos2;
+        double sinh = sinh2;
+        double cosh = cosh2;
+        double x = eta;
+        double y = xi;
+        for (int j = 0; j < ALPHA.length; j++) {
+            x += ALPHA[j] * cos * sinh;
+            y += ALPHA[j] * sin * cosh;
+            double nextSin = sin * cos2 + cos * sin2;
+            cos = cos * cos2 - sin * sin2;
+            sin = nextSin;
+            double nextSinh = sinh * cosh2 + cosh * sinh2;
+            cosh = cosh * cosh2 + sinh * sinh2;
+            sinh = nextSinh;
+        }
+        mZone = zone;
+        mEasting = FALSE_EASTING + SCALED_RADIUS * x;
+        mNorthing = SCALED_RADIUS * y + (latitude < 0 ? FALSE_NORTHING_SOUTH : 0);
+        return true;
+    }
+
+    private static double atanh(double x) {
+        return 0.5 * Math.log((1 + x) / (1 - x));
+    }
+
+    private void putZone(double latitude) {
+        putInteger(mZone, 1);
+        //band X is 12 degrees
+        mChars[mLength++] = BANDS.charAt(Math.min(BANDS.length() - 1, (int) Math.floor((latitude + 80) / 8)));
+    }
+
+    private void mgrs(double latitude) {
+        //truncated, so the reference is the square the position is in
+        long easting = (long) Math.floor(mEasting);
+        long northing = (long) Math.floor(mNorthing);
+        int row = (int) (northing / 100000 % ROWS.length());
+        if (mZone % 2 == 0) row = (row + 5) % ROWS.length();
+        putZone(latitude);
+        mChars[mLength++] = ' ';
+        mChars[mLength++] = COLUMNS[mZone % 3].charAt((int) (easting / 100000) - 1);
+        mChars[mLength++] = ROWS.charAt(row);
+        mChars[mLength++] = ' ';
+        putInteger(easting % 100000, 5);
+        mChars[mLength++] = ' ';
+        putInteger(northing % 100000, 5);
+    }
+
+    /**
+     * Open Location Code of 10 digits in pairs and one grid digit
+     */
+    private void plusCode(double latitude, double longitude) {
+        long latitudeUnits = (long) Math.floor((latitude + 90) * PLUS_CODE_LATITUDE_UNITS);
+        long longitudeUnits = (long) Math.floor((longitude + 180) * PLUS_CODE_LONGITUDE_UNITS);
+        //the north pole is in the last cell, 180 east is 180 west
+        latitudeUnits = Math.min(latitudeUnits, 180 * PLUS_CODE_LATITUDE_UNITS - 1);
+        longitudeUnits %= 360 * PLUS_CODE_LONGITUDE_UNITS;
+        int base = PLUS_CODE_DIGITS.length();
+
+        //the grid digit, then the pairs from the last back to the first
+        int grid = 2 * PLUS_CODE_PAIRS + 1;
+        mChars[grid] = PLUS_CODE_DIGITS.charAt((int) (latitudeUnits % 5 * 4 + longitudeUnits % 4));
+        latitudeUnits /= 5;
+        longitudeUnits /= 4;
+        for (int pair = PLUS_CODE_PAIRS - 1; pair >= 0; pair--) {
+            //the separator comes after the fourth pair
+            int index = 2 * pair + (pair >= 4 ? 1 : 0);
+            mChars[index] = PLUS_CODE_DIGITS.charAt((int) (latitudeUnits % base));
+            mChars[index + 1] = PLUS_CODE_DIGITS.charAt((int) (longitudeUnits % base));
+            latitudeUnits /= base;
+            longitudeUnits /= base;
+        }
+        mChars[8] = '+';
+        mLength = grid + 1;
+    }
+
+    private void put(CharSequence chars, int length) {
+        for (int i = 0; i < length; i++) mChars[mLength++] = chars.charAt(i);
+    }
+
+    /**
+     * Write a non negative whole number with at least a number of digits
+     */
+    private void putInteger(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        digits = Math.max(digits, minDigits);
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mChars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+    }
+
+    /**
+     * @return characters of the last formatted position, valid up to length()
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index " + index);
+        return mChars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(mChars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+}
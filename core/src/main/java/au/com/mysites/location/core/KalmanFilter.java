@@ -0,0 +1,182 @@
+package au.com.mysites.location.core;
+
+/**
+ * Smooths fixes with a constant velocity Kalman filter, weighting each fix by its accuracy.
+ * Positions are filtered in metres north and east of an origin near the fixes,
+ * the two axes share one covariance as they have the same noise.
+ * State is held in primitive fields so filtering a fix does not allocate.
+ * <p>
+ * Fixes older than the last one, e.g. from an earlier batch delivered late, are dropped,
+ * and the filter restarts after a gap longer than the maximum gap.
+ */
+public final class KalmanFilter implements FixProcessor {
+
+    // used when a fix has no accuracy
+    private static final double DEFAULT_ACCURACY_M = 10;
+    // uncertainty of the velocity of the first fix, (10 m/s) squared
+    private static final double INITIAL_VELOCITY_VARIANCE = 100;
+    // move the origin once the position is this far from it, keeps the flat earth accurate
+    private static final double MAX_ORIGIN_DISTANCE_M = 10000;
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final double mAccelerationVariance;
+    private final long mMaxGapMs;
+
+    private boolean mInitialised;
+    private long mLastTime;
+    // origin and metres per degree of longitude at the origin
+    private double mOriginLatitude;
+    private double mOriginLongitude;
+    private double mMetresPerDegreeLongitude;
+    // position in metres north and east of the origin, velocity in metres per second
+    private double mNorth;
+    private double mEast;
+    private double mVelocityNorth;
+    private double mVelocityEast;
+    // covariance of position and velocity, the same for both axes
+    private double mP00;
+    private double mP01;
+    private double mP11;
+
+    private long mDropped;
+
+    /**
+     * @param acceleration typical change in speed in metres per second squared,
+     *                     larger follows turns more closely but smooths less
+     * @param maxGapMs     time between fixes after which the filter restarts
+     */
+    public KalmanFilter(double acceleration, long maxGapMs) {
+        mAccelerationVariance = acceleration * acceleration;
+        mMaxGapMs = maxGapMs;
+    }
+
+    /**
+     * Filter a fix, its position and accuracy are replaced by the estimate
+     *
+     * @param fix fix to filter
+     * @return false if the fix is older than the last one
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        double accuracy = fix.accuracy > 0 ? fix.accuracy : DEFAULT_ACCURACY_M;
+        double variance = accuracy * accuracy;
+
+        if (mInitialised && fix.time < mLastTime) {
+            mDropped++;
+            return false;
+        }
+        if (!mInitialised || fix.time - mLastTime > mMaxGapMs) {
+            start(fix, variance);
+            return true;
+        }
+
+        double dt = (fix.time - mLastTime) / 1000.0;
+        mLastTime = fix.time;
+        predict(dt);
+        double north = (fix.latitude - mOriginLatitude) * METRES_PER_DEGREE;
+        double east = longitudeDifference(fix.longitude, mOriginLongitude) * mMetresPerDegreeLongitude;
+        update(north, east, variance);
+        if (Math.abs(mNorth) > MAX_ORIGIN_DISTANCE_M || Math.abs(mEast) > MAX_ORIGIN_DISTANCE_M) {
+            moveOrigin();
+        }
+
+        fix.latitude = mOriginLatitude + mNorth / METRES_PER_DEGREE;
+        fix.longitude = wrapLongitude(mOriginLongitude + mEast / mMetresPerDegreeLongitude);
+        fix.accuracy = (float) Math.sqrt(mP00);
+        return true;
+    }
+
+    /**
+     * Forget the state, the next fix starts the filter again
+     */
+    public void reset() {
+        mInitialised = false;
+    }
+
+    /**
+     * @return number of fixes dropped for being out of order
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return estimated speed in metres per second
+     */
+    public double getSpeed() {
+        return Math.sqrt(mVelocityNorth * mVelocityNorth + mVelocityEast * mVelocityEast);
+    }
+
+    private void start(Fix fix, double variance) {
+        mInitialised = true;
+        mLastTime = fix.time;
+        setOrigin(fix.latitude, fix.longitude);
+        mNorth = 0;
+        mEast = 0;
+        mVelocityNorth = 0;
+        mVelocityEast = 0;
+        mP00 = variance;
+        mP01 = 0;
+        mP11 = INITIAL_VELOCITY_VARIANCE;
+    }
+
+    /**
+     * Move the state forward in time, the covariance grows by random acceleration
+     */
+    private void predict(double dt) {
+        mNorth += mVelocityNorth * dt;
+        mEast += mVelocityEast * dt;
+        double dt2 = dt * dt;
+        mP00 += dt * (2 * mP01 + dt * mP11) + mAccelerationVariance * dt2 * dt2 / 4;
+        mP01 += dt * mP11 + mAccelerationVariance * dt2 * dt / 2;
+        mP11 += mAccelerationVariance * dt2;
+    }
+
+    /**
+     * Correct the state with a measured position
+     */
+    private void update(double north, double east, double variance) {
+        double s = mP00 + variance;
+        double k0 = mP00 / s;
+        double k1 = mP01 / s;
+        double innovationNorth = north - mNorth;
+        double innovationEast = east - mEast;
+        mNorth += k0 * innovationNorth;
+        mEast += k0 * innovationEast;
+        mVelocityNorth += k1 * innovationNorth;
+        mVelocityEast += k1 * innovationEast;
+        mP11 -= k1 * mP01;
+        mP01 -= k0 * mP01;
+        mP00 -= k0 * mP00;
+    }
+
+    private void setOrigin(double latitude, double longitude) {
+        mOriginLatitude = latitude;
+        mOriginLongitude = longitude;
+        // at the poles use a small value rather than zero so positions stay finite
+        mMetresPerDegreeLongitude = Math.max(1, METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+    }
+
+    private void moveOrigin() {
+        setOrigin(mOriginLatitude + mNorth / METRES_PER_DEGREE,
+                wrapLongitude(mOriginLongitude + mEast / mMetresPerDegreeLongitude));
+        mNorth = 0;
+        mEast = 0;
+    }
+
+    /**
+     * @return a - b in degrees, the short way round
+     */
+    private static double longitudeDifference(double a, double b) {
+        double difference = a - b;
+        if (difference > 180) difference -= 360;
+        else if (difference < -180) difference += 360;
+        return difference;
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+}
@@ -0,0 +1,101 @@
+package au.com.mysites.location.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The last fix and its address saved in one small file, so they can be
+ * shown as soon as the app starts, before a new fix arrives.
+ * <p>
+ * Format, big endian: magic, version, flags, time ms, latitude and longitude
+ * as degrees * 1e7, accuracy, then the address as modified UTF-8 if there is one.
+ * The file is written to a temporary file then renamed, so it is never partly written.
+ */
+public final class LastFixFile {
+
+    static final int MAGIC = 0x4C4C4658;
+    static final int VERSION = 1;
+
+    private static final int FLAG_ADDRESS = 1;
+    private static final double E7 = 1e7;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mFile;
+
+    /**
+     * @param file file to read and write, its directory is created if needed
+     */
+    public LastFixFile(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Save a fix and the address found for it
+     *
+     * @param fix     fix to save, the time, latitude, longitude and accuracy are saved
+     * @param address address of the fix, null if not known
+     * @throws IOException if the file can not be written
+     */
+    public synchronized void write(Fix fix, String address) throws IOException {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(address != null ? FLAG_ADDRESS : 0);
+            out.writeLong(fix.time);
+            out.writeInt((int) Math.round(fix.latitude * E7));
+            out.writeInt((int) Math.round(fix.longitude * E7));
+            out.writeFloat(fix.accuracy);
+            if (address != null) out.writeUTF(address);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Can not rename " + temp);
+        }
+    }
+
+    /**
+     * Read the saved fix
+     *
+     * @param fix fix to read into, fields that are not saved are reset
+     * @return saved address, an empty string if there is no address,
+     * null if there is no saved fix or the file can not be read
+     */
+    public synchronized String read(Fix fix) {
+        if (!mFile.exists()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) return null;
+            int flags = in.readByte();
+            fix.reset();
+            fix.time = in.readLong();
+            fix.latitude = in.readInt() / E7;
+            fix.longitude = in.readInt() / E7;
+            fix.accuracy = in.readFloat();
+            return (flags & FLAG_ADDRESS) != 0 ? in.readUTF() : "";
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //nothing more can be done
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package au.com.mysites.location.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies with fixed power of two buckets.
+ * Bucket 0 holds latencies under 1 microsecond, bucket n holds latencies from
+ * 2^(n-1) up to 2^n microseconds and the last bucket everything longer.
+ * Recording does not allocate or lock, so it can be used on any thread.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 32;
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * @param name name used in reports
+     */
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos latency in nanoseconds, negative values are ignored
+     */
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        mCounts.incrementAndGet(bucket(nanos));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) max = mMaxNanos.get();
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * @return mean latency in nanoseconds, 0 if nothing recorded
+     */
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * @param bucket bucket number, 0 to BUCKETS - 1
+     * @return number of latencies recorded in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return mCounts.get(bucket);
+    }
+
+    /**
+     * Estimate a percentile from the buckets
+     *
+     * @param percentile percentile, 0 to 100
+     * @return upper bound of the bucket holding the percentile, in nanoseconds,
+     * no more than the maximum recorded, 0 if nothing recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        if (rank < 1) rank = 1;
+        long max = mMaxNanos.get();
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(upperBoundNanos(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Clear all recorded latencies, latencies recorded at the same time may be partly cleared
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) mCounts.set(i, 0);
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /**
+     * Append a one line summary, times in milliseconds
+     */
+    public void appendTo(StringBuilder sb) {
+        sb.append(mName)
+                .append(" n=").append(getCount());
+        appendMillis(sb, " mean=", getMeanNanos());
+        appendMillis(sb, " p50=", getPercentileNanos(50));
+        appendMillis(sb, " p90=", getPercentileNanos(90));
+        appendMillis(sb, " p99=", getPercentileNanos(99));
+        appendMillis(sb, " max=", getMaxNanos());
+        sb.append('\n');
+    }
+
+    static int bucket(long nanos) {
+        long micros = nanos / NANOS_PER_MICRO;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    static long upperBoundNanos(int bucket) {
+        return (1L << bucket) * NANOS_PER_MICRO;
+    }
+
+    private static void appendMillis(StringBuilder sb, String label, long nanos) {
+        //milliseconds with 3 decimal places
+        long micros = nanos / NANOS_PER_MICRO;
+        sb.append(label).append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) sb.append('0');
+        if (fraction < 10) sb.append('0');
+        sb.append(fraction).append("ms");
+    }
+}
@@ -0,0 +1,34 @@
+package au.com.mysites.location.core;
+
+/**
+ * Source of location fixes, e.g. the fused location provider on a device
+ * or a recorded track replayed off the device
+ */
+public interface LocationSource {
+
+    /**
+     * Receives fixes from a source, called on one thread at a time chosen by the source
+     */
+    interface Listener {
+        /**
+         * @param fixes fixes in time order, reused by the source once this returns
+         * @param count number of fixes in the array
+         */
+        void onFixes(Fix[] fixes, int count);
+    }
+
+    /**
+     * Start delivering fixes, or change the settings if already started
+     *
+     * @param intervalMs desired time between fixes
+     * @param batchSize  number of fixes that may be held back and delivered together
+     * @param priority   LocationRequest priority, ignored by sources that do not have one
+     * @param listener   receives the fixes
+     */
+    void start(long intervalMs, int batchSize, int priority, Listener listener);
+
+    /**
+     * Stop delivering fixes
+     */
+    void stop();
+}
@@ -0,0 +1,152 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters for the hot paths, switched on and off at run time.
+ * When off, timing costs one volatile read, when on, System.nanoTime and a few atomic
+ * increments, nothing is locked or allocated. Use as:
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.record(Metrics.GEOCODER, start);
+ * </pre>
+ */
+public final class Metrics {
+
+    // latencies
+    public static final int PERMISSION_TO_FIRST_FIX = 0;
+    public static final int LAST_LOCATION = 1;
+    public static final int GEOCODER = 2;
+    public static final int ADDRESS_REQUEST = 3;
+    public static final int FIX_PIPELINE = 4;
+    public static final int UI_UPDATE = 5;
+    public static final int FIRST_PIXEL = 6;
+    public static final int FRESH_FIX = 7;
+    private static final String[] TIMER_NAMES = {
+            "permission_to_first_fix", "last_location", "geocoder", "address_request",
+            "fix_pipeline", "ui_update", "first_pixel", "fresh_fix"};
+
+    // counters
+    public static final int CACHE_MEMORY_HIT = 0;
+    public static final int CACHE_DISK_HIT = 1;
+    public static final int CACHE_MISS = 2;
+    public static final int GEOCODER_FAILURE = 3;
+    public static final int ADDRESS_REQUEST_JOINED = 4;
+    public static final int ADDRESS_REQUEST_BUSY = 5;
+    public static final int FIXES = 6;
+    public static final int ADDRESS_HEDGED = 7;
+    public static final int ADDRESS_DEADLINE = 8;
+    public static final int ADDRESS_PREFETCH = 9;
+    public static final int ADDRESS_PREFETCH_HIT = 10;
+    public static final int WAKEUPS = 11;
+    public static final int SAMPLING_SWITCHES = 12;
+    private static final String[] COUNTER_NAMES = {
+            "cache_memory_hit", "cache_disk_hit", "cache_miss", "geocoder_failure",
+            "address_request_joined", "address_request_busy", "fixes",
+            "address_hedged", "address_deadline", "address_prefetch", "address_prefetch_hit",
+            "wakeups", "sampling_switches"};
+
+    private static final LatencyHistogram[] sTimers = new LatencyHistogram[TIMER_NAMES.length];
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_NAMES.length);
+    private static volatile boolean sEnabled;
+
+    static {
+        for (int i = 0; i < sTimers.length; i++) sTimers[i] = new LatencyHistogram(TIMER_NAMES[i]);
+    }
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return start time to pass to record, 0 if metrics are off
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since start
+     *
+     * @param timer      latency to record, e.g. GEOCODER
+     * @param startNanos value returned by start(), nothing is recorded if 0
+     */
+    public static void record(int timer, long startNanos) {
+        if (startNanos == 0 || !sEnabled) return;
+        sTimers[timer].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param counter counter to increment, e.g. CACHE_MISS
+     */
+    public static void increment(int counter) {
+        if (sEnabled) sCounters.incrementAndGet(counter);
+    }
+
+    public static LatencyHistogram getTimer(int timer) {
+        return sTimers[timer];
+    }
+
+    public static long getCount(int counter) {
+        return sCounters.get(counter);
+    }
+
+    /**
+     * Clear all latencies and counters
+     */
+    public static void reset() {
+        for (LatencyHistogram timer : sTimers) timer.reset();
+        for (int i = 0; i < COUNTER_NAMES.length; i++) sCounters.set(i, 0);
+    }
+
+    /**
+     * @return all latencies then all counters, one per line
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram timer : sTimers) timer.appendTo(sb);
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            sb.append(COUNTER_NAMES[i]).append(' ').append(sCounters.get(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the report with the bucket counts of each latency, so the
+     * histograms can be compared between runs
+     *
+     * @param file file to write, replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    public static void dump(File file) throws IOException {
+        StringBuilder sb = new StringBuilder(report());
+        sb.append("\nbuckets, upper bound in microseconds");
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            sb.append(',').append(LatencyHistogram.upperBoundNanos(i) / 1000);
+        }
+        sb.append(",more\n");
+        for (LatencyHistogram timer : sTimers) {
+            sb.append(timer.getName());
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) sb.append(',').append(timer.getBucketCount(i));
+            sb.append('\n');
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
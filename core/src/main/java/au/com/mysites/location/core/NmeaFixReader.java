@@ -0,0 +1,69 @@
+package au.com.mysites.location.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads fixes from a channel of NMEA sentences, e.g. a log file or a receiver's socket.
+ * The bytes are read into one reused buffer and parsed where they are.
+ */
+public final class NmeaFixReader implements FixReader {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final ReadableByteChannel mChannel;
+    private final NmeaParser mParser = new NmeaParser();
+    private final ByteBuffer mBuffer;
+    private boolean mEnd;
+
+    /**
+     * @param channel channel of NMEA sentences
+     */
+    public NmeaFixReader(ReadableByteChannel channel) {
+        this(channel, BUFFER_BYTES);
+    }
+
+    /**
+     * @param channel     channel of NMEA sentences
+     * @param bufferBytes size of the buffer, small for a live receiver so fixes are not held
+     */
+    public NmeaFixReader(ReadableByteChannel channel, int bufferBytes) {
+        mChannel = channel;
+        mBuffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, 2 * NmeaParser.MAX_SENTENCE));
+        mBuffer.flip();
+    }
+
+    /**
+     * @param fix receives the next fix
+     * @return false at the end of the channel
+     * @throws IOException if the channel can not be read
+     */
+    @Override
+    public boolean read(Fix fix) throws IOException {
+        while (true) {
+            if (mParser.next(mBuffer, fix)) return true;
+            if (mEnd) return false;
+            mBuffer.compact();
+            int read = mChannel.read(mBuffer);
+            if (read < 0) {
+                //end the last sentence in case the line end is missing
+                mEnd = true;
+                mBuffer.put((byte) '\n');
+            }
+            mBuffer.flip();
+        }
+    }
+
+    /**
+     * @return parser, for the satellites and dilutions of precision of the latest fix
+     */
+    public NmeaParser getParser() {
+        return mParser;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,243 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Fixes from an external GNSS receiver sending NMEA sentences, e.g. over TCP.
+ * Fixes are delivered on a reader thread as they arrive. A fix less than the interval after
+ * the previous one is skipped, as receivers send 5 to 10 a second, and fixes are delivered
+ * in batches of the batch size. A connection that fails or ends is opened again after a
+ * delay if the source reconnects.
+ */
+public final class NmeaLocationSource implements LocationSource {
+
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long RECONNECT_DELAY_MS = 5000;
+    // small, so a fix is parsed as soon as its sentence arrives
+    private static final int BUFFER_BYTES = 1024;
+
+    /**
+     * Opens the stream of sentences
+     */
+    public interface Connection {
+        /**
+         * @return channel of NMEA sentences
+         * @throws IOException if it can not be opened
+         */
+        ReadableByteChannel open() throws IOException;
+    }
+
+    private final Connection mConnection;
+    private final boolean mReconnect;
+
+    private volatile long mIntervalMs;
+    private volatile int mBatchSize = 1;
+    private volatile Listener mListener;
+    // the reader of the current start, and its thread
+    private Reader mReader;
+    private Thread mThread;
+    private volatile IOException mError;
+    private volatile long mFixes;
+    private volatile long mErrors;
+
+    /**
+     * @param connection opens the stream of sentences
+     * @param reconnect  true to open it again when it fails or ends
+     */
+    public NmeaLocationSource(Connection connection, boolean reconnect) {
+        mConnection = connection;
+        mReconnect = reconnect;
+    }
+
+    /**
+     * @param host name or address of the receiver
+     * @param port TCP port the receiver sends sentences on
+     * @return connection to the receiver
+     */
+    public static Connection socket(final String host, final int port) {
+        return new Connection() {
+            @Override
+            public ReadableByteChannel open() throws IOException {
+                return SocketChannel.open(new InetSocketAddress(host, port));
+            }
+        };
+    }
+
+    /**
+     * @param file log of sentences
+     * @return connection reading the file
+     */
+    public static Connection file(final File file) {
+        return new Connection() {
+            @Override
+            public ReadableByteChannel open() throws IOException {
+                return new FileInputStream(file).getChannel();
+            }
+        };
+    }
+
+    /**
+     * @param in stream of sentences, e.g. from a Bluetooth socket or a stand in for a receiver
+     * @return connection reading the stream, it can only be opened once
+     */
+    public static Connection stream(final InputStream in) {
+        return new Connection() {
+            @Override
+            public ReadableByteChannel open() {
+                return Channels.newChannel(in);
+            }
+        };
+    }
+
+    /**
+     * Start reading the receiver, or change the settings if already started
+     *
+     * @param intervalMs desired time between fixes, 0 for every fix
+     * @param batchSize  number of fixes delivered together
+     * @param priority   ignored
+     * @param listener   receives the fixes on the reader thread
+     */
+    @Override
+    public synchronized void start(long intervalMs, int batchSize, int priority, Listener listener) {
+        mIntervalMs = intervalMs;
+        mBatchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+        mListener = listener;
+        if (mThread != null) return;
+        mReader = new Reader();
+        mThread = new Thread(mReader, "nmea");
+        mThread.start();
+    }
+
+    /**
+     * Stop reading, closing the connection
+     */
+    @Override
+    public synchronized void stop() {
+        if (mThread == null) return;
+        //a reader still finishing can not affect one started after this
+        mReader.stop();
+        mThread.interrupt();
+        mReader = null;
+        mThread = null;
+    }
+
+    /**
+     * Wait for the connection to end without reconnecting, or the source to be stopped
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) thread.join();
+    }
+
+    /**
+     * @return latest error reading the receiver, null if none
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * @return number of fixes delivered
+     */
+    public long getFixCount() {
+        return mFixes;
+    }
+
+    /**
+     * @return number of sentences skipped for a bad checksum or length
+     */
+    public long getErrorCount() {
+        return mErrors;
+    }
+
+    /**
+     * Reads the receiver from one start until stopped, with its own connection and
+     * stopped flag so it can finish after a stop without touching a later reader
+     */
+    private final class Reader implements Runnable {
+        private volatile ReadableByteChannel mChannel;
+        private volatile boolean mStopped;
+
+        @Override
+        public void run() {
+            Fix[] batch = new Fix[MAX_BATCH_SIZE];
+            for (int i = 0; i < batch.length; i++) batch[i] = new Fix();
+            try {
+                do {
+                    try {
+                        mChannel = mConnection.open();
+                        if (mStopped) break;
+                        read(new NmeaFixReader(mChannel, BUFFER_BYTES), batch);
+                    } catch (IOException e) {
+                        if (mStopped) break;
+                        mError = e;
+                    } finally {
+                        closeChannel();
+                    }
+                    if (mReconnect && !mStopped) Thread.sleep(RECONNECT_DELAY_MS);
+                } while (mReconnect && !mStopped);
+            } catch (InterruptedException e) {
+                //stopped
+            } finally {
+                synchronized (NmeaLocationSource.this) {
+                    if (mThread == Thread.currentThread()) {
+                        mReader = null;
+                        mThread = null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stop reading and close the connection, called with the source locked
+         */
+        void stop() {
+            mStopped = true;
+            closeChannel();
+        }
+
+        private void read(NmeaFixReader reader, Fix[] batch) throws IOException {
+            long previousTime = Long.MIN_VALUE;
+            int count = 0;
+            long errors = mErrors;
+            while (!mStopped) {
+                Fix fix = batch[count];
+                if (!reader.read(fix)) break;
+                mErrors = errors + reader.getParser().getErrorCount();
+                if (previousTime != Long.MIN_VALUE && fix.time - previousTime < mIntervalMs) continue;
+                previousTime = fix.time;
+                if (++count < mBatchSize) continue;
+                deliver(batch, count);
+                count = 0;
+            }
+            if (count > 0 && !mStopped) deliver(batch, count);
+        }
+
+        private void deliver(Fix[] batch, int count) {
+            mListener.onFixes(batch, count);
+            mFixes += count;
+        }
+
+        private void closeChannel() {
+            ReadableByteChannel channel = mChannel;
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //closed anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package au.com.mysites.location.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses NMEA 0183 sentences from an external GNSS receiver straight out of a byte buffer.
+ * Fields are found by their offsets in the buffer and numbers are parsed from the bytes,
+ * so parsing allocates nothing.
+ * <ul>
+ * <li>RMC - a valid RMC completes a fix, with its date, time, position, speed and course</li>
+ * <li>GGA - adds the altitude to the RMC at the same time, and the HDOP</li>
+ * <li>GSA - fix mode and dilutions of precision</li>
+ * <li>GSV - satellites in view, added up over the constellations</li>
+ * </ul>
+ * Any talker is accepted, e.g. GP, GL or GN. Sentences with a bad or missing checksum are
+ * counted and skipped, as is anything else between sentences.
+ * The accuracy of a fix is estimated from the latest HDOP.
+ */
+public final class NmeaParser {
+
+    public static final int SENTENCE_NONE = 0;
+    public static final int SENTENCE_RMC = 1;
+    public static final int SENTENCE_GGA = 2;
+    public static final int SENTENCE_GSA = 3;
+    public static final int SENTENCE_GSV = 4;
+    public static final int SENTENCE_OTHER = 5;
+
+    // longer than the 82 characters allowed, as some receivers go over
+    static final int MAX_SENTENCE = 128;
+    private static final int MAX_FIELDS = 40;
+    private static final double KNOTS = 1852.0 / 3600;
+    // metres of error for each unit of HDOP, a typical receiver
+    private static final double HDOP_METRES = 5;
+    private static final double[] POWERS_OF_TEN = new double[19];
+    // constellations with their own GSV sentences, by the second letter of the talker
+    private static final String TALKERS = "PLABDQ";
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    // sentence being parsed, field i is from mFields[i] up to the byte before mFields[i + 1]
+    private ByteBuffer mBuffer;
+    private final int[] mFields = new int[MAX_FIELDS + 1];
+    private int mFieldCount;
+
+    // latest GGA
+    private int mGgaTime = -1;
+    private double mAltitude = Double.NaN;
+    private int mQuality;
+    private int mSatellitesUsed;
+    // latest of GGA and GSA
+    private double mHdop = Double.NaN;
+    // latest GSA
+    private int mFixMode;
+    private double mPdop = Double.NaN;
+    private double mVdop = Double.NaN;
+    // latest GSV for each constellation
+    private final int[] mSatellitesInView = new int[TALKERS.length() + 1];
+
+    private long mSentences;
+    private long mErrors;
+
+    /**
+     * Parse sentences from the buffer until one completes a fix. The position is moved past
+     * the sentences parsed, or to the start of a sentence that is not complete yet, so the
+     * caller can compact the buffer, read more and call again.
+     *
+     * @param buffer bytes from the receiver between its position and limit
+     * @param fix    receives the fix
+     * @return true if a fix was found, false if more bytes are needed
+     */
+    public boolean next(ByteBuffer buffer, Fix fix) {
+        while (true) {
+            int limit = buffer.limit();
+            int start = buffer.position();
+            while (start < limit && buffer.get(start) != '$') start++;
+            int end = start + 1;
+            while (end < limit && end - start < MAX_SENTENCE) {
+                byte b = buffer.get(end);
+                if (b == '\r' || b == '\n' || b == '$') break;
+                end++;
+            }
+            if (end >= limit && end - start < MAX_SENTENCE) {
+                //wait for the rest of the sentence
+                buffer.position(Math.min(start, limit));
+                return false;
+            }
+            int next = end;
+            while (next < limit && (buffer.get(next) == '\r' || buffer.get(next) == '\n')) next++;
+            buffer.position(next);
+            if (end - start >= MAX_SENTENCE || buffer.get(end) == '$') {
+                //too long, or cut off by the next sentence
+                mErrors++;
+                continue;
+            }
+            if (parse(buffer, start, end) == SENTENCE_RMC && rmc(fix)) return true;
+        }
+    }
+
+    /**
+     * Parse one sentence
+     *
+     * @param buffer buffer holding the sentence
+     * @param start  index of the $
+     * @param end    index after the last byte of the checksum
+     * @return type of sentence, SENTENCE_NONE if it is not valid
+     */
+    public int parse(ByteBuffer buffer, int start, int end) {
+        mBuffer = buffer;
+        if (!split(start, end)) {
+            mErrors++;
+            return SENTENCE_NONE;
+        }
+        mSentences++;
+        int address = mFields[0];
+        if (mFields[1] - 1 - address != 5 || buffer.get(address) == 'P') return SENTENCE_OTHER;
+        byte a = buffer.get(address + 2);
+        byte b = buffer.get(address + 3);
+        byte c = buffer.get(address + 4);
+        if (a == 'R' && b == 'M' && c == 'C') return SENTENCE_RMC;
+        if (a == 'G' && b == 'G' && c == 'A') {
+            gga();
+            return SENTENCE_GGA;
+        }
+        if (a == 'G' && b == 'S' && c == 'A') {
+            gsa();
+            return SENTENCE_GSA;
+        }
+        if (a == 'G' && b == 'S' && c == 'V') {
+            gsv(buffer.get(address + 1));
+            return SENTENCE_GSV;
+        }
+        return SENTENCE_OTHER;
+    }
+
+    /**
+     * Check the checksum and find the fields
+     *
+     * @return false if the checksum is missing or wrong
+     */
+    private boolean split(int start, int end) {
+        int star = end - 3;
+        if (star <= start || mBuffer.get(star) != '*') return false;
+        int expected = (hex(mBuffer.get(star + 1)) << 4) | hex(mBuffer.get(star + 2));
+        if (expected < 0) return false;
+        int checksum = 0;
+        mFieldCount = 0;
+        mFields[0] = start + 1;
+        for (int i = start + 1; i < star; i++) {
+            byte b = mBuffer.get(i);
+            checksum ^= b;
+            if (b == ',' && mFieldCount < MAX_FIELDS - 1) mFields[++mFieldCount] = i + 1;
+        }
+        mFields[++mFieldCount] = star + 1;
+        return checksum == expected;
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        return -0x100;
+    }
+
+    /**
+     * Fill in the fix from the RMC just parsed
+     *
+     * @return true if the RMC has a valid fix
+     */
+    private boolean rmc(Fix fix) {
+        if (mFieldCount < 10 || !is(2, 'A') || is(12, 'N')) return false;
+        int time = time(1);
+        long days = date(9);
+        double latitude = coordinate(3, 2, 4, 'S');
+        double longitude = coordinate(5, 3, 6, 'W');
+        if (time < 0 || days == Long.MIN_VALUE || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return false;
+        }
+        fix.time = days * 86400000L + time;
+        fix.latitude = latitude;
+        fix.longitude = longitude;
+        double speed = decimal(7);
+        fix.hasSpeed = !Double.isNaN(speed);
+        fix.speed = fix.hasSpeed ? (float) (speed * KNOTS) : 0;
+        double bearing = decimal(8);
+        fix.hasBearing = !Double.isNaN(bearing);
+        fix.bearing = fix.hasBearing ? (float) bearing : 0;
+        fix.hasAltitude = time == mGgaTime && !Double.isNaN(mAltitude);
+        fix.altitude = fix.hasAltitude ? mAltitude : 0;
+        fix.accuracy = Double.isNaN(mHdop) ? 0 : (float) (mHdop * HDOP_METRES);
+        return true;
+    }
+
+    private void gga() {
+        mGgaTime = time(1);
+        mQuality = (int) integer(6, 0);
+        mSatellitesUsed = (int) integer(7, 0);
+        double hdop = decimal(8);
+        if (!Double.isNaN(hdop)) mHdop = hdop;
+        mAltitude = mQuality > 0 ? decimal(9) : Double.NaN;
+    }
+
+    private void gsa() {
+        mFixMode = (int) integer(2, 0);
+        mPdop = decimal(15);
+        double hdop = decimal(16);
+        if (!Double.isNaN(hdop)) mHdop = hdop;
+        mVdop = decimal(17);
+    }
+
+    private void gsv(byte talker) {
+        int constellation = TALKERS.indexOf(talker);
+        if (constellation < 0) constellation = TALKERS.length();
+        mSatellitesInView[constellation] = (int) integer(3, 0);
+    }
+
+    //region fields
+
+    private boolean is(int field, char value) {
+        return field < mFieldCount && mFields[field + 1] - 1 - mFields[field] == 1
+                && mBuffer.get(mFields[field]) == value;
+    }
+
+    /**
+     * @return the unsigned integer in the field, or the default if empty or not a number
+     */
+    private long integer(int field, long empty) {
+        if (field >= mFieldCount) return empty;
+        int end = mFields[field + 1] - 1;
+        if (end == mFields[field]) return empty;
+        long value = 0;
+        for (int i = mFields[field]; i < end; i++) {
+            int digit = mBuffer.get(i) - '0';
+            if (digit < 0 || digit > 9) return empty;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the decimal number in the field, NaN if empty or not a number
+     */
+    private double decimal(int field) {
+        if (field >= mFieldCount) return Double.NaN;
+        return decimal(mFields[field], mFields[field + 1] - 1);
+    }
+
+    private double decimal(int start, int end) {
+        if (start >= end) return Double.NaN;
+        boolean negative = mBuffer.get(start) == '-';
+        if (negative) start++;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            byte b = mBuffer.get(i);
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || ++digits > 18) return Double.NaN;
+            mantissa = mantissa * 10 + digit;
+            if (decimals >= 0) decimals++;
+        }
+        if (digits == 0) return Double.NaN;
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return time of day hhmmss.sss in milliseconds, -1 if not valid
+     */
+    private int time(int field) {
+        if (field >= mFieldCount) return -1;
+        int start = mFields[field];
+        int end = mFields[field + 1] - 1;
+        if (end - start < 6) return -1;
+        int hours = digits(start, 2);
+        int minutes = digits(start + 2, 2);
+        double seconds = decimal(start + 4, end);
+        if (hours < 0 || minutes < 0 || Double.isNaN(seconds)) return -1;
+        return (hours * 60 + minutes) * 60000 + (int) Math.round(seconds * 1000);
+    }
+
+    /**
+     * @return days since 1970 of the date ddmmyy, Long.MIN_VALUE if not valid
+     */
+    private long date(int field) {
+        int start = mFields[field];
+        if (mFields[field + 1] - 1 - start != 6) return Long.MIN_VALUE;
+        int day = digits(start, 2);
+        int month = digits(start + 2, 2);
+        int year = digits(start + 4, 2);
+        if (day < 1 || month < 1 || month > 12 || year < 0) return Long.MIN_VALUE;
+        //two digit years, as GPS receivers have been around since the eighties
+        return TrackFileReader.daysFromCivil(year < 80 ? 2000 + year : 1900 + year, month, day);
+    }
+
+    /**
+     * @param field      field holding degrees and minutes, e.g. ddmm.mmmm
+     * @param degrees    number of degree digits
+     * @param hemisphere field holding the hemisphere
+     * @param negative   hemisphere that is negative
+     * @return degrees, NaN if not valid
+     */
+    private double coordinate(int field, int degrees, int hemisphere, char negative) {
+        int start = mFields[field];
+        int end = mFields[field + 1] - 1;
+        if (end - start <= degrees) return Double.NaN;
+        int whole = digits(start, degrees);
+        double minutes = decimal(start + degrees, end);
+        if (whole < 0 || Double.isNaN(minutes)) return Double.NaN;
+        double coordinate = whole + minutes / 60;
+        return is(hemisphere, negative) ? -coordinate : coordinate;
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = mBuffer.get(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    //endregion
+
+    /**
+     * @return GGA fix quality, 0 no fix, 1 GPS, 2 DGPS, 4 RTK fixed, 5 RTK float
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * @return GSA fix mode, 1 no fix, 2 2D, 3 3D, 0 if no GSA yet
+     */
+    public int getFixMode() {
+        return mFixMode;
+    }
+
+    public int getSatellitesUsed() {
+        return mSatellitesUsed;
+    }
+
+    /**
+     * @return satellites in view over all the constellations reported
+     */
+    public int getSatellitesInView() {
+        int count = 0;
+        for (int satellites : mSatellitesInView) count += satellites;
+        return count;
+    }
+
+    public double getHdop() {
+        return mHdop;
+    }
+
+    public double getPdop() {
+        return mPdop;
+    }
+
+    public double getVdop() {
+        return mVdop;
+    }
+
+    /**
+     * @return number of sentences with a good checksum
+     */
+    public long getSentenceCount() {
+        return mSentences;
+    }
+
+    /**
+     * @return number of sentences skipped for a bad checksum or length
+     */
+    public long getErrorCount() {
+        return mErrors;
+    }
+}
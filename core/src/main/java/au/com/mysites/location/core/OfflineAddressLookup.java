@@ -0,0 +1,35 @@
+package au.com.mysites.location.core;
+
+/**
+ * Answers address lookups from the offline place index with the nearest named place,
+ * works without a network connection
+ */
+public final class OfflineAddressLookup implements AddressLookup {
+
+    private final OfflinePlaceIndex mIndex;
+    private final double mMaxDistanceM;
+
+    /**
+     * @param index        memory mapped place index
+     * @param maxDistanceM places further away than this are not used
+     */
+    public OfflineAddressLookup(OfflinePlaceIndex index, double maxDistanceM) {
+        mIndex = index;
+        mMaxDistanceM = maxDistanceM;
+    }
+
+    @Override
+    public String getAddress(double latitude, double longitude) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("Latitude = " + latitude
+                    + ", Longitude = " + longitude);
+        }
+        int place = mIndex.nearest(latitude, longitude);
+        if (place < 0) return null;
+        if (Geodesy.distance(latitude, longitude, mIndex.getLatitude(place),
+                mIndex.getLongitude(place)) > mMaxDistanceM) {
+            return null;
+        }
+        return mIndex.getName(place);
+    }
+}
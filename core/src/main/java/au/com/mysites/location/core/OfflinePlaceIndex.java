@@ -0,0 +1,159 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read only index of named places, memory mapped from a file written by
+ * OfflinePlaceIndexWriter.
+ * Places are stored as an implicit k-d tree, the middle record of each range
+ * splits it alternately by latitude and longitude, so a nearest place query
+ * walks the mapped file directly and allocates nothing.
+ * <p>
+ * File layout, big endian:
+ * header - magic, version, number of places, offset of the name table
+ * records - latitude and longitude in micro degrees, offset of the name
+ * name table - for each name, length as an unsigned short then UTF-8 bytes
+ */
+public final class OfflinePlaceIndex {
+
+    static final int MAGIC = 0x4C504958;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 12;
+    static final double MICRO_DEGREES = 1e6;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer mBuffer;
+    private final int mCount;
+    private final int mNameTable;
+
+    // state of the query in progress, guarded by this
+    private int mQueryLatitude;
+    private int mQueryLongitude;
+    private double mLongitudeScale;
+    private double mBestDistance;
+    private int mBest;
+
+    private OfflinePlaceIndex(MappedByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a place index");
+        }
+        mCount = buffer.getInt(8);
+        mNameTable = buffer.getInt(12);
+        if (mCount < 0 || mNameTable < HEADER_BYTES + (long) mCount * RECORD_BYTES
+                || mNameTable > buffer.capacity()) {
+            throw new IOException("Corrupt place index");
+        }
+    }
+
+    /**
+     * Memory map a place index
+     *
+     * @param file index file
+     * @return index
+     * @throws IOException if the file can not be read or is not a place index
+     */
+    public static OfflinePlaceIndex open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            //the mapping stays valid after the channel is closed
+            return new OfflinePlaceIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return number of places in the index
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Find the nearest place, does not allocate
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @return index of the nearest place or -1 if the index is empty
+     */
+    public synchronized int nearest(double latitude, double longitude) {
+        mQueryLatitude = (int) Math.round(latitude * MICRO_DEGREES);
+        mQueryLongitude = (int) Math.round(longitude * MICRO_DEGREES);
+        //a degree of longitude shrinks towards the poles
+        mLongitudeScale = Math.cos(Math.toRadians(latitude));
+        mBestDistance = Double.MAX_VALUE;
+        mBest = -1;
+        search(0, mCount, 0);
+        return mBest;
+    }
+
+    /**
+     * Search the implicit tree for the range of records, the middle record splits the range
+     */
+    private void search(int low, int high, int depth) {
+        if (low >= high) return;
+        int middle = (low + high) >>> 1;
+        int offset = HEADER_BYTES + middle * RECORD_BYTES;
+        double deltaLatitude = mBuffer.getInt(offset) - mQueryLatitude;
+        double deltaLongitude = (mBuffer.getInt(offset + 4) - mQueryLongitude) * mLongitudeScale;
+        double distance = deltaLatitude * deltaLatitude + deltaLongitude * deltaLongitude;
+        if (distance < mBestDistance) {
+            mBestDistance = distance;
+            mBest = middle;
+        }
+
+        // even depths split by latitude, odd by longitude
+        double split = (depth & 1) == 0 ? deltaLatitude : deltaLongitude;
+        if (split > 0) {
+            //query is before the split, search that side first
+            search(low, middle, depth + 1);
+            if (split * split < mBestDistance) search(middle + 1, high, depth + 1);
+        } else {
+            search(middle + 1, high, depth + 1);
+            if (split * split < mBestDistance) search(low, middle, depth + 1);
+        }
+    }
+
+    /**
+     * @param place index of a place
+     * @return latitude in degrees
+     */
+    public double getLatitude(int place) {
+        return mBuffer.getInt(HEADER_BYTES + place * RECORD_BYTES) / MICRO_DEGREES;
+    }
+
+    /**
+     * @param place index of a place
+     * @return longitude in degrees
+     */
+    public double getLongitude(int place) {
+        return mBuffer.getInt(HEADER_BYTES + place * RECORD_BYTES + 4) / MICRO_DEGREES;
+    }
+
+    /**
+     * @param place index of a place
+     * @return name of the place
+     */
+    public String getName(int place) {
+        int offset = mNameTable + mBuffer.getInt(HEADER_BYTES + place * RECORD_BYTES + 8);
+        int length = mBuffer.getShort(offset) & 0xffff;
+        ByteBuffer name = mBuffer.duplicate();
+        name.position(offset + 2);
+        name.limit(offset + 2 + length);
+        return UTF_8.decode(name).toString();
+    }
+}
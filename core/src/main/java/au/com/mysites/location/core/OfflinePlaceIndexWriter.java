@@ -0,0 +1,124 @@
+package au.com.mysites.location.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a place index read by OfflinePlaceIndex, used to prepare the bundled
+ * or downloaded dataset of places
+ */
+public final class OfflinePlaceIndexWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private OfflinePlaceIndexWriter() {
+    }
+
+    /**
+     * Write the places as an implicit k-d tree
+     *
+     * @param file       index file to write
+     * @param latitudes  latitude of each place in degrees
+     * @param longitudes longitude of each place in degrees
+     * @param names      name of each place, e.g. "Parramatta, New South Wales, Australia"
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, double[] latitudes, double[] longitudes, String[] names)
+            throws IOException {
+        int count = names.length;
+        if (latitudes.length != count || longitudes.length != count) {
+            throw new IllegalArgumentException("Arrays differ in length");
+        }
+        int[][] coordinates = new int[2][count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            coordinates[0][i] = (int) Math.round(latitudes[i] * OfflinePlaceIndex.MICRO_DEGREES);
+            coordinates[1][i] = (int) Math.round(longitudes[i] * OfflinePlaceIndex.MICRO_DEGREES);
+            order[i] = i;
+        }
+        layout(coordinates, order, 0, count, 0);
+
+        // names are written in record order, so the offsets are known up front
+        byte[][] encoded = new byte[count][];
+        int[] nameOffsets = new int[count];
+        int nameBytes = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] name = names[order[i]].getBytes(UTF_8);
+            if (name.length > 0xffff) throw new IllegalArgumentException("Name too long");
+            encoded[i] = name;
+            nameOffsets[i] = nameBytes;
+            nameBytes += 2 + name.length;
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(OfflinePlaceIndex.MAGIC);
+            out.writeInt(OfflinePlaceIndex.VERSION);
+            out.writeInt(count);
+            out.writeInt(OfflinePlaceIndex.HEADER_BYTES + count * OfflinePlaceIndex.RECORD_BYTES);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(coordinates[0][order[i]]);
+                out.writeInt(coordinates[1][order[i]]);
+                out.writeInt(nameOffsets[i]);
+            }
+            for (byte[] name : encoded) {
+                out.writeShort(name.length);
+                out.write(name);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Order the range so its middle element is the median of the axis for this depth,
+     * smaller values before it and larger after it, then lay out each half the same way
+     *
+     * @param coordinates latitudes and longitudes in micro degrees
+     * @param order       indexes into coordinates, rearranged in place
+     * @param low         start of range, inclusive
+     * @param high        end of range, exclusive
+     * @param depth       depth in the tree, even splits by latitude, odd by longitude
+     */
+    static void layout(int[][] coordinates, int[] order, int low, int high, int depth) {
+        if (high - low < 2) return;
+        int middle = (low + high) >>> 1;
+        select(coordinates[depth & 1], order, low, high - 1, middle);
+        layout(coordinates, order, low, middle, depth + 1);
+        layout(coordinates, order, middle + 1, high, depth + 1);
+    }
+
+    /**
+     * Quickselect so order[k] holds the k-th smallest key in the range
+     */
+    private static void select(int[] keys, int[] order, int left, int right, int k) {
+        while (right > left) {
+            int pivot = keys[order[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) i++;
+                while (keys[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
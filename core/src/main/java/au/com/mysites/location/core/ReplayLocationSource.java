@@ -0,0 +1,202 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a recorded track as a location source, so everything downstream of the source
+ * can be driven off the device and at rates a device never reaches.
+ * Fixes are delivered on a replay thread, at the times they were recorded scaled by the
+ * speed, or as fast as the listener takes them. A fix less than the interval after the
+ * previous one is skipped and fixes are delivered in batches of the batch size, as the
+ * fused provider would. The lag of each batch behind its due time is recorded, so a
+ * listener that can not keep up with a real time replay shows up.
+ */
+public final class ReplayLocationSource implements LocationSource {
+
+    // speed to replay as fast as the listener takes the fixes
+    public static final double SPEED_MAX = 0;
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final File mFile;
+    private FixReader mReader;
+    private final double mSpeed;
+    private final LatencyHistogram mLag = new LatencyHistogram("replay lag");
+
+    private volatile long mIntervalMs;
+    private volatile int mBatchSize = 1;
+    private volatile Listener mListener;
+    // the replay of the current start, and its thread
+    private Replay mReplay;
+    private Thread mThread;
+    private volatile IOException mError;
+    // added to by the batch a stopped replay finishes, as well as the next replay
+    private final AtomicLong mFixes = new AtomicLong();
+
+    /**
+     * @param file  track to replay, read again each time the source is started
+     * @param speed 1 for real time, more to speed up, SPEED_MAX for as fast as possible
+     */
+    public ReplayLocationSource(File file, double speed) {
+        mFile = file;
+        mSpeed = speed;
+    }
+
+    /**
+     * @param reader fixes to replay, read once so the source can only be started once
+     * @param speed  1 for real time, more to speed up, SPEED_MAX for as fast as possible
+     */
+    public ReplayLocationSource(FixReader reader, double speed) {
+        mFile = null;
+        mReader = reader;
+        mSpeed = speed;
+    }
+
+    /**
+     * Start the replay, or change the settings if it is running
+     *
+     * @param intervalMs desired time between fixes, 0 for every fix
+     * @param batchSize  number of fixes delivered together
+     * @param priority   ignored
+     * @param listener   receives the fixes on the replay thread
+     */
+    @Override
+    public synchronized void start(long intervalMs, int batchSize, int priority, Listener listener) {
+        mIntervalMs = intervalMs;
+        mBatchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, batchSize));
+        mListener = listener;
+        if (mThread != null) return;
+        mReplay = new Replay();
+        mThread = new Thread(mReplay, "replay");
+        mThread.start();
+    }
+
+    /**
+     * Stop the replay, a batch being delivered is finished
+     */
+    @Override
+    public synchronized void stop() {
+        if (mThread == null) return;
+        //a replay still finishing its batch can not affect one started after this
+        mReplay.stop();
+        mThread.interrupt();
+        mReplay = null;
+        mThread = null;
+    }
+
+    /**
+     * Wait for the replay to reach the end of the track or be stopped
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+        }
+        if (thread != null) thread.join();
+    }
+
+    /**
+     * @return error that ended the replay, null if none
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * @return number of fixes delivered
+     */
+    public long getFixCount() {
+        return mFixes.get();
+    }
+
+    /**
+     * @return time from when each batch was due until the listener returned
+     */
+    public LatencyHistogram getLag() {
+        return mLag;
+    }
+
+    /**
+     * Replays the track from one start until stopped, with its own stopped flag so it
+     * can finish after a stop without being restarted by a later start
+     */
+    private final class Replay implements Runnable {
+        private volatile boolean mStopped;
+
+        @Override
+        public void run() {
+            Fix[] batch = new Fix[MAX_BATCH_SIZE];
+            for (int i = 0; i < batch.length; i++) batch[i] = new Fix();
+            FixReader reader = mReader;
+            try {
+                if (reader == null) reader = TrackFileReader.open(mFile);
+                replay(reader, batch);
+            } catch (IOException e) {
+                mError = e;
+            } catch (InterruptedException e) {
+                //stopped
+            } finally {
+                try {
+                    if (reader != null) reader.close();
+                } catch (IOException e) {
+                    //nothing more to read
+                }
+                synchronized (ReplayLocationSource.this) {
+                    if (mThread == Thread.currentThread()) {
+                        mReplay = null;
+                        mThread = null;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stop after the batch being delivered, called with the source locked
+         */
+        void stop() {
+            mStopped = true;
+        }
+
+        private void replay(FixReader reader, Fix[] batch) throws IOException, InterruptedException {
+            long startNanos = System.nanoTime();
+            long firstTime = 0;
+            long previousTime = Long.MIN_VALUE;
+            long dueNanos = startNanos;
+            int count = 0;
+            while (!mStopped) {
+                Fix fix = batch[count];
+                if (!reader.read(fix)) break;
+                if (previousTime == Long.MIN_VALUE) {
+                    firstTime = fix.time;
+                } else if (fix.time - previousTime < mIntervalMs) {
+                    continue;
+                }
+                previousTime = fix.time;
+                count++;
+                if (count < mBatchSize) continue;
+
+                if (mSpeed > 0) {
+                    //the batch is due when its last fix is
+                    dueNanos = startNanos + (long) ((fix.time - firstTime) * 1e6 / mSpeed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                } else {
+                    dueNanos = System.nanoTime();
+                }
+                deliver(batch, count, dueNanos);
+                count = 0;
+            }
+            if (count > 0 && !mStopped) deliver(batch, count, System.nanoTime());
+        }
+
+        private void deliver(Fix[] batch, int count, long dueNanos) {
+            mListener.onFixes(batch, count);
+            mFixes.addAndGet(count);
+            mLag.record(System.nanoTime() - dueNanos);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package au.com.mysites.location.core;
+
+/**
+ * Chooses how often to sample location from the observed movement and the battery.
+ * Watches fixes as a stage of the fix pipeline and moves between three states
+ * <ul>
+ * <li>stationary - no further than the stationary radius for the stationary time,
+ * sampled rarely at low power with large batches</li>
+ * <li>walking - moving slowly, sampled every few seconds at balanced power</li>
+ * <li>driving - moving fast, sampled every second at high accuracy</li>
+ * </ul>
+ * Thresholds differ for going up and down, and a state is held for a minimum time
+ * before sampling is reduced, so the settings do not thrash. Sampling is increased
+ * straight away so fast movement is not missed. When the battery is low and not charging
+ * fixes are less frequent and at lower power.
+ */
+public final class SamplingPolicy implements FixProcessor {
+
+    public static final int STATE_STATIONARY = 0;
+    public static final int STATE_WALKING = 1;
+    public static final int STATE_DRIVING = 2;
+
+    // power levels, mapped by the caller to location request priorities
+    public static final int POWER_HIGH_ACCURACY = 0;
+    public static final int POWER_BALANCED = 1;
+    public static final int POWER_LOW = 2;
+
+    // settings for each state
+    private static final long[] INTERVALS_MS = {60000, 5000, 1000};
+    private static final int[] POWERS = {POWER_LOW, POWER_BALANCED, POWER_HIGH_ACCURACY};
+    private static final int[] BATCH_SIZES = {5, 4, 5};
+    // applied when the battery is low
+    private static final int LOW_BATTERY_INTERVAL_FACTOR = 3;
+    private static final int LOW_BATTERY_BATCH_FACTOR = 2;
+
+    // speeds in metres per second, up when above the first, down when below the second
+    private static final double DRIVING_UP_SPEED = 6;
+    private static final double DRIVING_DOWN_SPEED = 4;
+    private static final double WALKING_UP_SPEED = 1;
+    // weight of a new speed in the smoothed speed
+    private static final double SPEED_SMOOTHING = 0.3;
+    private static final double STATIONARY_RADIUS_M = 25;
+    private static final long STATIONARY_TIME_MS = 2 * 60 * 1000;
+    // minimum time in a state before sampling is reduced
+    private static final long MIN_HOLD_MS = 30 * 1000;
+    // battery percentage to go into and out of low battery
+    private static final int LOW_BATTERY_ENTER = 15;
+    private static final int LOW_BATTERY_EXIT = 20;
+
+    /**
+     * Receives new settings, called on the pipeline thread
+     */
+    public interface Listener {
+        /**
+         * @param policy policy with the new settings
+         */
+        void onSamplingChanged(SamplingPolicy policy);
+    }
+
+    private final Listener mListener;
+
+    // battery, set from the thread receiving battery broadcasts
+    private volatile int mBatteryLevel = 100;
+    private volatile boolean mCharging;
+
+    // only used on the pipeline thread, apart from the settings
+    private int mState = STATE_WALKING;
+    private long mStateTime = -1;
+    private boolean mLowBattery;
+    private volatile long mIntervalMs;
+    private volatile int mPower;
+    private volatile int mBatchSize;
+    private double mSpeed;
+    private boolean mHasPrevious;
+    private long mPreviousTime;
+    private double mPreviousLatitude;
+    private double mPreviousLongitude;
+    private boolean mHasAnchor;
+    private double mAnchorLatitude;
+    private double mAnchorLongitude;
+    private long mAnchorTime;
+
+    private volatile long mFixes;
+    private volatile long mSwitches;
+
+    /**
+     * @param listener receives new settings, may be null
+     */
+    public SamplingPolicy(Listener listener) {
+        mListener = listener;
+        updateSettings();
+    }
+
+    /**
+     * Update the battery state, takes effect with the next fix
+     *
+     * @param levelPercent battery level, 0 to 100
+     * @param charging     true if charging or full on the charger
+     */
+    public void setBattery(int levelPercent, boolean charging) {
+        mBatteryLevel = levelPercent;
+        mCharging = charging;
+    }
+
+    /**
+     * Watch a fix, the fix is always passed on
+     *
+     * @param fix fix to watch
+     * @return true
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        mFixes++;
+        updateSpeed(fix);
+        boolean stationary = updateAnchor(fix);
+        if (mStateTime < 0) mStateTime = fix.time;
+
+        int state = nextState(stationary);
+        if (state > mState || (state < mState && fix.time - mStateTime >= MIN_HOLD_MS)) {
+            mState = state;
+            mStateTime = fix.time;
+        }
+        mLowBattery = !mCharging
+                && mBatteryLevel <= (mLowBattery ? LOW_BATTERY_EXIT : LOW_BATTERY_ENTER);
+
+        if (updateSettings()) {
+            mSwitches++;
+            Metrics.increment(Metrics.SAMPLING_SWITCHES);
+            if (mListener != null) mListener.onSamplingChanged(this);
+        }
+        return true;
+    }
+
+    /**
+     * @return STATE_STATIONARY, STATE_WALKING or STATE_DRIVING
+     */
+    public int getState() {
+        return mState;
+    }
+
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * @return POWER_HIGH_ACCURACY, POWER_BALANCED or POWER_LOW
+     */
+    public int getPower() {
+        return mPower;
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * @return smoothed speed in metres per second
+     */
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    public long getFixCount() {
+        return mFixes;
+    }
+
+    /**
+     * @return number of times the settings changed
+     */
+    public long getSwitchCount() {
+        return mSwitches;
+    }
+
+    /**
+     * Smooth the reported speed, or the speed from the previous fix if none is reported
+     */
+    private void updateSpeed(Fix fix) {
+        double speed = -1;
+        if (fix.hasSpeed) {
+            speed = fix.speed;
+        } else if (mHasPrevious && fix.time > mPreviousTime) {
+            speed = Geodesy.distance(mPreviousLatitude, mPreviousLongitude, fix.latitude,
+                    fix.longitude) * 1000 / (fix.time - mPreviousTime);
+        }
+        if (speed >= 0) mSpeed = mHasPrevious ? mSpeed + SPEED_SMOOTHING * (speed - mSpeed) : speed;
+        mHasPrevious = true;
+        mPreviousTime = fix.time;
+        mPreviousLatitude = fix.latitude;
+        mPreviousLongitude = fix.longitude;
+    }
+
+    /**
+     * Move the anchor when the fix is outside the stationary radius
+     *
+     * @return true if within the radius of the anchor for the stationary time
+     */
+    private boolean updateAnchor(Fix fix) {
+        double radius = Math.max(STATIONARY_RADIUS_M, fix.accuracy);
+        if (!mHasAnchor || Geodesy.distance(mAnchorLatitude, mAnchorLongitude,
+                fix.latitude, fix.longitude) > radius) {
+            mAnchorLatitude = fix.latitude;
+            mAnchorLongitude = fix.longitude;
+            mAnchorTime = fix.time;
+            mHasAnchor = true;
+            return false;
+        }
+        return fix.time - mAnchorTime >= STATIONARY_TIME_MS;
+    }
+
+    private int nextState(boolean stationary) {
+        switch (mState) {
+            case STATE_STATIONARY:
+                if (mSpeed > DRIVING_UP_SPEED) return STATE_DRIVING;
+                //the anchor moves when leaving the radius
+                if (mSpeed > WALKING_UP_SPEED || !stationary) return STATE_WALKING;
+                return STATE_STATIONARY;
+            case STATE_WALKING:
+                if (mSpeed > DRIVING_UP_SPEED) return STATE_DRIVING;
+                if (stationary) return STATE_STATIONARY;
+                return STATE_WALKING;
+            default:
+                if (stationary) return STATE_STATIONARY;
+                if (mSpeed < DRIVING_DOWN_SPEED) return STATE_WALKING;
+                return STATE_DRIVING;
+        }
+    }
+
+    /**
+     * @return true if the settings changed
+     */
+    private boolean updateSettings() {
+        long intervalMs = INTERVALS_MS[mState];
+        int power = POWERS[mState];
+        int batchSize = BATCH_SIZES[mState];
+        if (mLowBattery) {
+            intervalMs *= LOW_BATTERY_INTERVAL_FACTOR;
+            power = Math.min(POWER_LOW, power + 1);
+            batchSize *= LOW_BATTERY_BATCH_FACTOR;
+        }
+        if (intervalMs == mIntervalMs && power == mPower && batchSize == mBatchSize) return false;
+        mIntervalMs = intervalMs;
+        mPower = power;
+        mBatchSize = batchSize;
+        return true;
+    }
+}
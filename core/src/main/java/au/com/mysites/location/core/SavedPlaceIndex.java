@@ -0,0 +1,263 @@
+package au.com.mysites.location.core;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * In memory index of the places the user has saved, for k nearest queries.
+ * Places are quantized to micro degrees, the same as the saved places database,
+ * and laid out as an implicit k-d tree like OfflinePlaceIndex, so a query takes
+ * logarithmic time and allocates nothing once the result arrays are big enough.
+ * The index is immutable, saving places makes a new index.
+ */
+public final class SavedPlaceIndex {
+
+    private static final SavedPlaceIndex EMPTY =
+            new SavedPlaceIndex(new long[0], new int[0], new int[0], new String[0]);
+
+    // in tree order
+    private final long[] mIds;
+    private final int[] mLatitudes;
+    private final int[] mLongitudes;
+    private final String[] mNames;
+
+    // state of the query in progress, guarded by this
+    private int mQueryLatitude;
+    private int mQueryLongitude;
+    private double mLongitudeScale;
+    // max heap of the nearest places found so far, by squared distance
+    private int[] mHeap = new int[0];
+    private double[] mHeapDistances = new double[0];
+    private int mHeapSize;
+    private int mK;
+
+    /**
+     * @param ids          database id of each place
+     * @param latitudesE6  latitude of each place in micro degrees
+     * @param longitudesE6 longitude of each place in micro degrees
+     * @param names        name of each place
+     */
+    public SavedPlaceIndex(long[] ids, int[] latitudesE6, int[] longitudesE6, String[] names) {
+        int count = ids.length;
+        if (latitudesE6.length != count || longitudesE6.length != count || names.length != count) {
+            throw new IllegalArgumentException("Arrays differ in length");
+        }
+        int[][] coordinates = {latitudesE6, longitudesE6};
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = i;
+        OfflinePlaceIndexWriter.layout(coordinates, order, 0, count, 0);
+
+        mIds = new long[count];
+        mLatitudes = new int[count];
+        mLongitudes = new int[count];
+        mNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            mIds[i] = ids[order[i]];
+            mLatitudes[i] = latitudesE6[order[i]];
+            mLongitudes[i] = longitudesE6[order[i]];
+            mNames[i] = names[order[i]];
+        }
+    }
+
+    /**
+     * @return index with no places
+     */
+    public static SavedPlaceIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param degrees latitude or longitude in degrees
+     * @return the same in micro degrees, as stored
+     */
+    public static int quantize(double degrees) {
+        return (int) Math.round(degrees * OfflinePlaceIndex.MICRO_DEGREES);
+    }
+
+    /**
+     * Make a new index with more places. A new place at the same quantized position as
+     * an existing one replaces it, as in the database.
+     *
+     * @param ids          database id of each new place
+     * @param latitudesE6  latitude of each new place in micro degrees
+     * @param longitudesE6 longitude of each new place in micro degrees
+     * @param names        name of each new place
+     * @return the new index
+     */
+    public SavedPlaceIndex plus(long[] ids, int[] latitudesE6, int[] longitudesE6, String[] names) {
+        Set<Long> added = new HashSet<>();
+        for (int i = 0; i < ids.length; i++) added.add(position(latitudesE6[i], longitudesE6[i]));
+
+        int count = mIds.length + ids.length;
+        long[] allIds = new long[count];
+        int[] allLatitudes = new int[count];
+        int[] allLongitudes = new int[count];
+        String[] allNames = new String[count];
+        int n = 0;
+        for (int i = 0; i < mIds.length; i++) {
+            if (added.contains(position(mLatitudes[i], mLongitudes[i]))) continue;
+            allIds[n] = mIds[i];
+            allLatitudes[n] = mLatitudes[i];
+            allLongitudes[n] = mLongitudes[i];
+            allNames[n++] = mNames[i];
+        }
+        System.arraycopy(ids, 0, allIds, n, ids.length);
+        System.arraycopy(latitudesE6, 0, allLatitudes, n, ids.length);
+        System.arraycopy(longitudesE6, 0, allLongitudes, n, ids.length);
+        System.arraycopy(names, 0, allNames, n, ids.length);
+        n += ids.length;
+        if (n < count) {
+            allIds = Arrays.copyOf(allIds, n);
+            allLatitudes = Arrays.copyOf(allLatitudes, n);
+            allLongitudes = Arrays.copyOf(allLongitudes, n);
+            allNames = Arrays.copyOf(allNames, n);
+        }
+        return new SavedPlaceIndex(allIds, allLatitudes, allLongitudes, allNames);
+    }
+
+    /**
+     * @return number of places
+     */
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * Find the nearest places
+     *
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     * @param places    receives the indexes of the nearest places, nearest first,
+     *                  its length is the number of places wanted
+     * @return number of places found, fewer than wanted if the index is smaller
+     */
+    public synchronized int nearest(double latitude, double longitude, int[] places) {
+        mK = Math.min(places.length, mIds.length);
+        if (mK == 0) return 0;
+        if (mHeap.length < mK) {
+            mHeap = new int[mK];
+            mHeapDistances = new double[mK];
+        }
+        mQueryLatitude = quantize(latitude);
+        mQueryLongitude = quantize(longitude);
+        //a degree of longitude shrinks towards the poles
+        mLongitudeScale = Math.cos(Math.toRadians(latitude));
+        mHeapSize = 0;
+        search(0, mIds.length, 0);
+
+        //taking the farthest off the heap fills the result from the back
+        int count = mHeapSize;
+        for (int i = count - 1; i >= 0; i--) {
+            places[i] = mHeap[0];
+            remove();
+        }
+        return count;
+    }
+
+    /**
+     * Search the implicit tree for the range of places, the middle place splits the range
+     */
+    private void search(int low, int high, int depth) {
+        if (low >= high) return;
+        int middle = (low + high) >>> 1;
+        double deltaLatitude = mLatitudes[middle] - mQueryLatitude;
+        double deltaLongitude = (mLongitudes[middle] - mQueryLongitude) * mLongitudeScale;
+        offer(middle, deltaLatitude * deltaLatitude + deltaLongitude * deltaLongitude);
+
+        // even depths split by latitude, odd by longitude
+        double split = (depth & 1) == 0 ? deltaLatitude : deltaLongitude;
+        if (split > 0) {
+            //query is before the split, search that side first
+            search(low, middle, depth + 1);
+            if (split * split < worst()) search(middle + 1, high, depth + 1);
+        } else {
+            search(middle + 1, high, depth + 1);
+            if (split * split < worst()) search(low, middle, depth + 1);
+        }
+    }
+
+    /**
+     * @return squared distance a place must beat to be one of the nearest
+     */
+    private double worst() {
+        return mHeapSize < mK ? Double.MAX_VALUE : mHeapDistances[0];
+    }
+
+    private void offer(int place, double distance) {
+        if (mHeapSize < mK) {
+            //sift up from the end
+            int i = mHeapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mHeapDistances[parent] >= distance) break;
+                mHeap[i] = mHeap[parent];
+                mHeapDistances[i] = mHeapDistances[parent];
+                i = parent;
+            }
+            mHeap[i] = place;
+            mHeapDistances[i] = distance;
+        } else if (distance < mHeapDistances[0]) {
+            siftDown(place, distance);
+        }
+    }
+
+    private void remove() {
+        mHeapSize--;
+        if (mHeapSize > 0) siftDown(mHeap[mHeapSize], mHeapDistances[mHeapSize]);
+    }
+
+    /**
+     * Put the place at the top of the heap and move it down to its position
+     */
+    private void siftDown(int place, double distance) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mHeapSize) break;
+            if (child + 1 < mHeapSize && mHeapDistances[child + 1] > mHeapDistances[child]) child++;
+            if (mHeapDistances[child] <= distance) break;
+            mHeap[i] = mHeap[child];
+            mHeapDistances[i] = mHeapDistances[child];
+            i = child;
+        }
+        mHeap[i] = place;
+        mHeapDistances[i] = distance;
+    }
+
+    private static long position(int latitudeE6, int longitudeE6) {
+        return (long) latitudeE6 << 32 | (longitudeE6 & 0xffffffffL);
+    }
+
+    /**
+     * @param place index of a place
+     * @return database id
+     */
+    public long getId(int place) {
+        return mIds[place];
+    }
+
+    /**
+     * @param place index of a place
+     * @return latitude in degrees
+     */
+    public double getLatitude(int place) {
+        return mLatitudes[place] / OfflinePlaceIndex.MICRO_DEGREES;
+    }
+
+    /**
+     * @param place index of a place
+     * @return longitude in degrees
+     */
+    public double getLongitude(int place) {
+        return mLongitudes[place] / OfflinePlaceIndex.MICRO_DEGREES;
+    }
+
+    /**
+     * @param place index of a place
+     * @return name of the place
+     */
+    public String getName(int place) {
+        return mNames[place];
+    }
+}
@@ -0,0 +1,288 @@
+package au.com.mysites.location.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the places the fixes stop at as a stage of the fix pipeline, reporting a visit
+ * when it has lasted the minimum time and again when it ends.
+ * <p>
+ * The fixes since the last move are a cluster with a running centroid, so each fix is
+ * one distance test. While the fixes stay within the radius of the centroid the cluster
+ * grows, and once it has lasted the minimum time it is a visit. A fix outside the radius
+ * of a cluster that is not yet a visit starts a new cluster, while a visit only ends once
+ * the fixes have been outside it for the exit time, so a single stray fix does not split
+ * it. The fixes outside a visit are gathered as the next cluster, so a stop close after
+ * leaving keeps its arrival time.
+ * <p>
+ * When a visit is found it is matched with the places of earlier visits, held in a grid
+ * of cells the size of the radius, so returning to a place gives the same place number
+ * and the place needs looking up, e.g. its address, only once.
+ */
+public final class StayPointDetector implements FixProcessor {
+
+    public static final int EVENT_ARRIVE = 0;
+    public static final int EVENT_DEPART = 1;
+
+    /**
+     * Receives visits, called on the pipeline thread or the thread calling flush
+     */
+    public interface Listener {
+        /**
+         * @param visit visit the event is for
+         * @param event EVENT_ARRIVE when the visit has lasted the minimum time, or
+         *              EVENT_DEPART when it has ended
+         */
+        void onVisitEvent(Visit visit, int event);
+    }
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final double mRadius;
+    private final long mMinDurationMs;
+    private final long mExitMs;
+    private final Listener mListener;
+
+    // fixes since the last move, a visit once mPlace is set
+    private Cluster mCluster = new Cluster();
+    // fixes outside the visit, the start of the next cluster
+    private Cluster mLeaving = new Cluster();
+    private long mOutsideSince = NONE;
+    private int mPlace = -1;
+
+    //region places
+    private final double mCellDegrees;
+    // first place in each cell, and the next place in the same cell
+    private final Map<Long, Integer> mCells = new HashMap<>();
+    private int[] mNextInCell = new int[16];
+    private double[] mPlaceLatitudes = new double[16];
+    private double[] mPlaceLongitudes = new double[16];
+    private int mPlaceCount;
+    //endregion
+
+    /**
+     * @param radiusM       furthest a fix may be from the centroid and still be at the place,
+     *                      fixes less accurate than this are ignored
+     * @param minDurationMs shortest stay that is a visit
+     * @param exitMs        time the fixes must be outside a visit before it ends
+     * @param listener      receives visits
+     */
+    public StayPointDetector(double radiusM, long minDurationMs, long exitMs, Listener listener) {
+        if (!(radiusM > 0)) throw new IllegalArgumentException("radius " + radiusM);
+        mRadius = radiusM;
+        mMinDurationMs = minDurationMs;
+        mExitMs = exitMs;
+        mListener = listener;
+        mCellDegrees = radiusM / METRES_PER_DEGREE;
+    }
+
+    /**
+     * Add a fix to the current cluster or start a new one, the fix is always passed on
+     *
+     * @param fix fix to add
+     * @return true
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        Visit departed = null;
+        Visit arrived = null;
+        synchronized (this) {
+            if (fix.accuracy > mRadius) return true;
+            if (mCluster.count == 0) {
+                mCluster.start(fix);
+            } else if (mCluster.contains(fix, mRadius)) {
+                mCluster.add(fix);
+                mOutsideSince = NONE;
+                mLeaving.count = 0;
+            } else if (mPlace < 0) {
+                mCluster.start(fix);
+            } else {
+                //leaving the visit, or a stray fix
+                if (mOutsideSince == NONE) mOutsideSince = fix.time;
+                if (mLeaving.count > 0 && mLeaving.contains(fix, mRadius)) {
+                    mLeaving.add(fix);
+                } else {
+                    mLeaving.start(fix);
+                }
+                if (fix.time - mOutsideSince >= mExitMs) {
+                    departed = depart();
+                    Cluster cluster = mCluster;
+                    mCluster = mLeaving;
+                    mLeaving = cluster;
+                    mLeaving.count = 0;
+                }
+            }
+            if (mPlace < 0 && mCluster.last - mCluster.arrival >= mMinDurationMs) {
+                mPlace = place(mCluster.latitude(), mCluster.longitude());
+                arrived = visit();
+            }
+        }
+        //outside the lock, so a listener taking its own locks can not deadlock with flush
+        if (departed != null) mListener.onVisitEvent(departed, EVENT_DEPART);
+        if (arrived != null) mListener.onVisitEvent(arrived, EVENT_ARRIVE);
+        return true;
+    }
+
+    /**
+     * End the visit in progress, if any, e.g. when tracking stops, and start again
+     */
+    public void flush() {
+        Visit departed = null;
+        synchronized (this) {
+            if (mPlace >= 0) departed = depart();
+            mCluster.count = 0;
+            mLeaving.count = 0;
+        }
+        if (departed != null) mListener.onVisitEvent(departed, EVENT_DEPART);
+    }
+
+    /**
+     * End the visit
+     *
+     * @return the visit, to pass to the listener once the lock is released
+     */
+    private Visit depart() {
+        Visit visit = visit();
+        mPlace = -1;
+        mOutsideSince = NONE;
+        return visit;
+    }
+
+    private Visit visit() {
+        return new Visit(mPlace, mCluster.arrival, mCluster.last,
+                mCluster.latitude(), mCluster.longitude(), mCluster.count);
+    }
+
+    /**
+     * @return true if at a place
+     */
+    public synchronized boolean isVisiting() {
+        return mPlace >= 0;
+    }
+
+    //region places
+
+    /**
+     * Find the nearest place within the radius, or add a new place
+     *
+     * @return the place number
+     */
+    private int place(double latitude, double longitude) {
+        int row = row(latitude);
+        int column = column(longitude);
+        //cells are narrower than the radius away from the equator
+        int columns = (int) Math.ceil(1 / Math.max(0.01, Math.cos(Math.toRadians(latitude))));
+        int nearest = -1;
+        double nearestDistance = mRadius;
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = column - columns; c <= column + columns; c++) {
+                Integer first = mCells.get(key(r, c));
+                for (int p = first == null ? -1 : first; p >= 0; p = mNextInCell[p]) {
+                    double distance = Geodesy.distance(latitude, longitude,
+                            mPlaceLatitudes[p], mPlaceLongitudes[p]);
+                    if (distance <= nearestDistance) {
+                        nearest = p;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+        if (nearest >= 0) return nearest;
+
+        int place = mPlaceCount++;
+        if (place == mPlaceLatitudes.length) {
+            mNextInCell = Arrays.copyOf(mNextInCell, place * 2);
+            mPlaceLatitudes = Arrays.copyOf(mPlaceLatitudes, place * 2);
+            mPlaceLongitudes = Arrays.copyOf(mPlaceLongitudes, place * 2);
+        }
+        mPlaceLatitudes[place] = latitude;
+        mPlaceLongitudes[place] = longitude;
+        Integer first = mCells.put(key(row, column), place);
+        mNextInCell[place] = first == null ? -1 : first;
+        return place;
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor((latitude + 90) / mCellDegrees);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor((longitude + 180) / mCellDegrees);
+    }
+
+    private static long key(int row, int column) {
+        return (long) row << 32 | (column & 0xffffffffL);
+    }
+
+    /**
+     * @return number of different places visited
+     */
+    public synchronized int getPlaceCount() {
+        return mPlaceCount;
+    }
+    //endregion
+
+    /**
+     * Fixes close together with their centroid, kept as the sum of their offsets in metres
+     * from the first fix
+     */
+    private static final class Cluster {
+        int count;
+        long arrival;
+        long last;
+        double anchorLatitude;
+        double anchorLongitude;
+        double metresPerDegreeEast;
+        double sumEast;
+        double sumNorth;
+
+        void start(Fix fix) {
+            count = 1;
+            arrival = fix.time;
+            last = fix.time;
+            anchorLatitude = fix.latitude;
+            anchorLongitude = fix.longitude;
+            metresPerDegreeEast = METRES_PER_DEGREE * Math.cos(Math.toRadians(fix.latitude));
+            sumEast = 0;
+            sumNorth = 0;
+        }
+
+        void add(Fix fix) {
+            count++;
+            last = Math.max(last, fix.time);
+            sumEast += east(fix);
+            sumNorth += north(fix);
+        }
+
+        boolean contains(Fix fix, double radius) {
+            double east = east(fix) - sumEast / count;
+            double north = north(fix) - sumNorth / count;
+            return east * east + north * north <= radius * radius;
+        }
+
+        private double east(Fix fix) {
+            double degrees = fix.longitude - anchorLongitude;
+            //across the antimeridian
+            if (degrees > 180) degrees -= 360;
+            if (degrees < -180) degrees += 360;
+            return degrees * metresPerDegreeEast;
+        }
+
+        private double north(Fix fix) {
+            return (fix.latitude - anchorLatitude) * METRES_PER_DEGREE;
+        }
+
+        double latitude() {
+            return anchorLatitude + sumNorth / count / METRES_PER_DEGREE;
+        }
+
+        double longitude() {
+            double longitude = anchorLongitude + sumEast / count / metresPerDegreeEast;
+            if (longitude > 180) longitude -= 360;
+            if (longitude < -180) longitude += 360;
+            return longitude;
+        }
+    }
+}
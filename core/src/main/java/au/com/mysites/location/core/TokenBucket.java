@@ -0,0 +1,81 @@
+package au.com.mysites.location.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, allows bursts up to the capacity then permits at a steady rate.
+ * Callers that find the bucket empty reserve a future token and wait for it, so waiting
+ * callers are spaced out evenly rather than all retrying together.
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double mPermitsPerNano;
+    private final double mCapacity;
+
+    // tokens available, negative when tokens have been reserved ahead, guarded by this
+    private double mTokens;
+    private long mLastNanos;
+
+    /**
+     * @param permitsPerSecond steady rate
+     * @param capacity         largest burst, the bucket starts full
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("rate " + permitsPerSecond + " capacity " + capacity);
+        }
+        mPermitsPerNano = permitsPerSecond / NANOS_PER_SECOND;
+        mCapacity = capacity;
+        mTokens = capacity;
+        mLastNanos = now();
+    }
+
+    /**
+     * Take a token, waiting until one is available
+     *
+     * @throws InterruptedException if interrupted while waiting, the token is still used
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    /**
+     * Take a token only if one is available now
+     *
+     * @return true if a token was taken
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (mTokens < 1) return false;
+        mTokens--;
+        return true;
+    }
+
+    /**
+     * Take a token, now or in the future
+     *
+     * @return nanoseconds until the token can be used, 0 if now
+     */
+    synchronized long reserve() {
+        refill();
+        mTokens--;
+        if (mTokens >= 0) return 0;
+        return (long) Math.ceil(-mTokens / mPermitsPerNano);
+    }
+
+    private void refill() {
+        long now = now();
+        mTokens = Math.min(mCapacity, mTokens + (now - mLastNanos) * mPermitsPerNano);
+        mLastNanos = now;
+    }
+
+    /**
+     * @return current time in nanoseconds, overridden by tests
+     */
+    long now() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,126 @@
+package au.com.mysites.location.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Writes the recorded track as CSV with the address of each fix,
+ * the addresses are found with the batch geocoder so each cell is looked up once
+ */
+public final class TrackAnnotator {
+
+    private final BatchGeocoder mGeocoder;
+    private volatile BatchGeocoder.Batch mBatch;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param geocoder batch geocoder used to find the addresses
+     */
+    public TrackAnnotator(BatchGeocoder geocoder) {
+        mGeocoder = geocoder;
+    }
+
+    /**
+     * Annotate the track, blocks until all the addresses have been looked up
+     *
+     * @param store    track store to read
+     * @param file     CSV file to write, time, latitude, longitude, address
+     * @param listener also receives each result as it arrives, may be null
+     * @return number of fixes with an address
+     * @throws IOException          if the store can not be read or the file written
+     * @throws InterruptedException if interrupted or cancelled while waiting for addresses
+     */
+    public long annotate(TrackStore store, File file, final BatchGeocoder.Listener listener)
+            throws IOException, InterruptedException {
+        long[] times = new long[1024];
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        int count = 0;
+        Fix fix = new Fix();
+        TrackStore.Cursor cursor = store.cursor();
+        while (cursor.next(fix)) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                latitudes = Arrays.copyOf(latitudes, count * 2);
+                longitudes = Arrays.copyOf(longitudes, count * 2);
+            }
+            times[count] = fix.time;
+            latitudes[count] = fix.latitude;
+            longitudes[count] = fix.longitude;
+            count++;
+        }
+
+        final String[] addresses = new String[count];
+        mBatch = mGeocoder.geocode(latitudes, longitudes, count, new BatchGeocoder.Listener() {
+            @Override
+            public void onResult(BatchGeocoder.Result result) {
+                if (result.address != null) {
+                    //each result is for different fixes, so no locking needed
+                    for (int index : result.indexes) addresses[index] = result.address;
+                }
+                if (listener != null) listener.onResult(result);
+            }
+
+            @Override
+            public void onComplete(BatchGeocoder.Batch batch) {
+                if (listener != null) listener.onComplete(batch);
+            }
+        });
+        if (mCancelled) mBatch.cancel();
+        mBatch.await();
+        if (mBatch.isCancelled()) throw new InterruptedException("cancelled");
+
+        //the latch in await makes the addresses written by the worker threads visible
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long annotated = 0;
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            out.write("time,latitude,longitude,address\n");
+            for (int i = 0; i < count; i++) {
+                out.write(format.format(new Date(times[i])));
+                out.write(',');
+                out.write(String.format(Locale.US, "%.7f,%.7f,", latitudes[i], longitudes[i]));
+                if (addresses[i] != null) {
+                    writeQuoted(out, addresses[i]);
+                    annotated++;
+                }
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return annotated;
+    }
+
+    /**
+     * Stop looking up addresses, annotate throws InterruptedException
+     */
+    public void cancel() {
+        mCancelled = true;
+        BatchGeocoder.Batch batch = mBatch;
+        if (batch != null) batch.cancel();
+    }
+
+    /**
+     * Write a CSV field in quotes, with quotes doubled and line breaks replaced
+     */
+    private static void writeQuoted(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c == '\n' || c == '\r' ? ' ' : c);
+        }
+        out.write('"');
+    }
+}
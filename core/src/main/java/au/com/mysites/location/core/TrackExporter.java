@@ -0,0 +1,329 @@
+package au.com.mysites.location.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports stored fixes as GPX, KML or GeoJSON.
+ * Fixes are read from the track store with a cursor and written through a fixed size buffer
+ * to a channel, numbers and times are written straight into the buffer, so memory use
+ * does not depend on the number of fixes. KML and GeoJSON list the times separately from the
+ * coordinates, so for those the store is read twice.
+ */
+public final class TrackExporter {
+
+    public static final int FORMAT_GPX = 0;
+    public static final int FORMAT_KML = 1;
+    public static final int FORMAT_GEOJSON = 2;
+
+    private static final String[] EXTENSIONS = {".gpx", ".kml", ".geojson"};
+    private static final int BUFFER_BYTES = 64 * 1024;
+    // longest single item written between checks for space in the buffer
+    private static final int MAX_ITEM_BYTES = 256;
+
+    private final int mFormat;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final Fix mFix = new Fix();
+
+    private long mFromTime = Long.MIN_VALUE;
+    private long mToTime = Long.MAX_VALUE;
+    private double mMinLatitude = -90;
+    private double mMaxLatitude = 90;
+    private double mMinLongitude = -180;
+    private double mMaxLongitude = 180;
+
+    private WritableByteChannel mChannel;
+
+    /**
+     * @param format FORMAT_GPX, FORMAT_KML or FORMAT_GEOJSON
+     */
+    public TrackExporter(int format) {
+        if (format < FORMAT_GPX || format > FORMAT_GEOJSON) {
+            throw new IllegalArgumentException("format " + format);
+        }
+        mFormat = format;
+    }
+
+    /**
+     * Only export fixes in a time range
+     *
+     * @param fromTime earliest time, milliseconds since the epoch, inclusive
+     * @param toTime   latest time, milliseconds since the epoch, exclusive
+     */
+    public void setTimeRange(long fromTime, long toTime) {
+        mFromTime = fromTime;
+        mToTime = toTime;
+    }
+
+    /**
+     * Only export fixes inside a bounding box
+     */
+    public void setBounds(double minLatitude, double minLongitude,
+                   double maxLatitude, double maxLongitude) {
+        mMinLatitude = minLatitude;
+        mMinLongitude = minLongitude;
+        mMaxLatitude = maxLatitude;
+        mMaxLongitude = maxLongitude;
+    }
+
+    /**
+     * @param gzip true if the file is compressed
+     * @return file name extension for the format
+     */
+    public String getExtension(boolean gzip) {
+        return EXTENSIONS[mFormat] + (gzip ? ".gz" : "");
+    }
+
+    /**
+     * Export to a file
+     *
+     * @param store track store to export
+     * @param file  file to write
+     * @param gzip  true to compress the file
+     * @return number of fixes exported
+     * @throws IOException if the store can not be read or the file written
+     */
+    public long export(TrackStore store, File file, boolean gzip) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (gzip) out = new GZIPOutputStream(out, BUFFER_BYTES);
+            WritableByteChannel channel = Channels.newChannel(out);
+            return export(store, channel);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Export to a channel, the channel is not closed
+     *
+     * @param store   track store to export
+     * @param channel channel to write to
+     * @return number of fixes exported
+     * @throws IOException if the store can not be read or the channel written
+     */
+    public long export(TrackStore store, WritableByteChannel channel) throws IOException {
+        mChannel = channel;
+        mBuffer.clear();
+        long count;
+        switch (mFormat) {
+            case FORMAT_GPX:
+                count = writeGpx(store);
+                break;
+            case FORMAT_KML:
+                count = writeKml(store);
+                break;
+            default:
+                count = writeGeoJson(store);
+                break;
+        }
+        drain();
+        mChannel = null;
+        return count;
+    }
+
+    private long writeGpx(TrackStore store) throws IOException {
+        put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<gpx version=\"1.1\" creator=\"Location\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n"
+                + "<trk><trkseg>\n");
+        long count = 0;
+        TrackStore.Cursor cursor = store.cursor();
+        while (nextFix(cursor)) {
+            reserve();
+            put("<trkpt lat=\"");
+            putLatLong(mFix.latitude);
+            put("\" lon=\"");
+            putLatLong(mFix.longitude);
+            put("\">");
+            if (mFix.hasAltitude) {
+                put("<ele>");
+                putDecimal(mFix.altitude, 1);
+                put("</ele>");
+            }
+            put("<time>");
+            putTime(mFix.time);
+            put("</time></trkpt>\n");
+            count++;
+        }
+        put("</trkseg></trk>\n</gpx>\n");
+        return count;
+    }
+
+    private long writeKml(TrackStore store) throws IOException {
+        put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n"
+                + "<Document><Placemark><name>Track</name><gx:Track>\n");
+        // gx:Track lists all the times then all the coordinates
+        long count = 0;
+        TrackStore.Cursor cursor = store.cursor();
+        while (nextFix(cursor)) {
+            reserve();
+            put("<when>");
+            putTime(mFix.time);
+            put("</when>\n");
+            count++;
+        }
+        // fixes appended since the first pass are left out
+        cursor = store.cursor();
+        for (long i = 0; i < count && nextFix(cursor); i++) {
+            reserve();
+            put("<gx:coord>");
+            putLatLong(mFix.longitude);
+            put(" ");
+            putLatLong(mFix.latitude);
+            put(" ");
+            putDecimal(mFix.altitude, 1);
+            put("</gx:coord>\n");
+        }
+        put("</gx:Track></Placemark></Document>\n</kml>\n");
+        return count;
+    }
+
+    private long writeGeoJson(TrackStore store) throws IOException {
+        put("{\"type\":\"Feature\",\"geometry\":{\"type\":\"LineString\",\"coordinates\":[\n");
+        long count = 0;
+        TrackStore.Cursor cursor = store.cursor();
+        while (nextFix(cursor)) {
+            reserve();
+            if (count > 0) put(",\n");
+            put("[");
+            putLatLong(mFix.longitude);
+            put(",");
+            putLatLong(mFix.latitude);
+            if (mFix.hasAltitude) {
+                put(",");
+                putDecimal(mFix.altitude, 1);
+            }
+            put("]");
+            count++;
+        }
+        // times as a property in the same order as the coordinates
+        put("]},\n\"properties\":{\"coordTimes\":[\n");
+        // fixes appended since the first pass are left out
+        cursor = store.cursor();
+        for (long i = 0; i < count && nextFix(cursor); i++) {
+            reserve();
+            if (i > 0) put(",\n");
+            put("\"");
+            putTime(mFix.time);
+            put("\"");
+        }
+        put("]}}\n");
+        return count;
+    }
+
+    /**
+     * Read the next fix that passes the filters
+     */
+    private boolean nextFix(TrackStore.Cursor cursor) throws IOException {
+        while (cursor.next(mFix)) {
+            if (mFix.time >= mFromTime && mFix.time < mToTime
+                    && mFix.latitude >= mMinLatitude && mFix.latitude <= mMaxLatitude
+                    && mFix.longitude >= mMinLongitude && mFix.longitude <= mMaxLongitude) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make sure there is room in the buffer for the next item
+     */
+    private void reserve() throws IOException {
+        if (mBuffer.remaining() < MAX_ITEM_BYTES) drain();
+    }
+
+    private void drain() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) mChannel.write(mBuffer);
+        mBuffer.clear();
+    }
+
+    /**
+     * Write ASCII text, the markup only
+     */
+    private void put(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (!mBuffer.hasRemaining()) drain();
+            mBuffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void putLatLong(double degrees) {
+        putDecimal(degrees, 7);
+    }
+
+    /**
+     * Write a number with a fixed number of decimal places, without allocating
+     */
+    private void putDecimal(double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(value * scale);
+        if (scaled < 0) {
+            mBuffer.put((byte) '-');
+            scaled = -scaled;
+        }
+        putDigits(scaled / scale, 1);
+        if (decimals > 0) {
+            mBuffer.put((byte) '.');
+            putDigits(scaled % scale, decimals);
+        }
+    }
+
+    /**
+     * Write a non negative number with at least the given number of digits
+     */
+    private void putDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        for (int i = digits; i < minDigits; i++) mBuffer.put((byte) '0');
+        int end = mBuffer.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            mBuffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        mBuffer.position(end);
+    }
+
+    /**
+     * Write the time as ISO 8601 in UTC, e.g. 2018-09-30T20:37:41Z
+     */
+    private void putTime(long timeMs) {
+        long seconds = timeMs / 1000;
+        if (timeMs % 1000 < 0) seconds--;
+        long days = seconds / 86400;
+        if (seconds % 86400 < 0) days--;
+        int secondOfDay = (int) (seconds - days * 86400L);
+
+        // civil date from days since 1970-01-01, proleptic Gregorian calendar
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        putDigits(year, 4);
+        mBuffer.put((byte) '-');
+        putDigits(month, 2);
+        mBuffer.put((byte) '-');
+        putDigits(day, 2);
+        mBuffer.put((byte) 'T');
+        putDigits(secondOfDay / 3600, 2);
+        mBuffer.put((byte) ':');
+        putDigits(secondOfDay / 60 % 60, 2);
+        mBuffer.put((byte) ':');
+        putDigits(secondOfDay % 60, 2);
+        mBuffer.put((byte) 'Z');
+    }
+}
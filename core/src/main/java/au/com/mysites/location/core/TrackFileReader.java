@@ -0,0 +1,288 @@
+package au.com.mysites.location.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads recorded tracks as fixes, for replaying them.
+ * <ul>
+ * <li>GPX - track points with their elevation and time, as exported</li>
+ * <li>CSV - time, latitude and longitude, then optionally altitude, accuracy, speed and
+ * bearing. A header row names the columns, so the annotated track can be read too.
+ * Times are ISO 8601 or milliseconds since the epoch</li>
+ * <li>NMEA - read by NmeaFixReader</li>
+ * </ul>
+ * Files ending in .gz are decompressed.
+ */
+public final class TrackFileReader {
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    /**
+     * A record that could not be parsed, it has been read so reading can carry on
+     */
+    public static final class BadRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BadRecordException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private TrackFileReader() {
+    }
+
+    /**
+     * Open a track file, the format is chosen by the file extension
+     *
+     * @param file .gpx, .csv or .nmea file, optionally with .gz after it
+     * @return reader of the fixes in the file
+     * @throws IOException if the file can not be opened or the extension is not known
+     */
+    public static FixReader open(File file) throws IOException {
+        String name = file.getName().toLowerCase(Locale.US);
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) name = name.substring(0, name.length() - 3);
+        int format;
+        if (name.endsWith(".gpx")) {
+            format = 0;
+        } else if (name.endsWith(".csv")) {
+            format = 1;
+        } else if (name.endsWith(".nmea")) {
+            format = 2;
+        } else {
+            throw new IOException("Unknown track format " + file.getName());
+        }
+
+        InputStream in = new FileInputStream(file);
+        try {
+            if (gzip) in = new GZIPInputStream(in, BUFFER_CHARS);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        if (format == 2) return new NmeaFixReader(Channels.newChannel(in));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_CHARS);
+        return format == 0 ? new GpxReader(reader) : new CsvReader(reader);
+    }
+
+    /**
+     * Parse an ISO 8601 time, e.g. 2018-09-30T20:37:41Z or 2018-09-30T20:37:41.250+10:00,
+     * without a time zone it is taken as UTC
+     *
+     * @param text time
+     * @return milliseconds since the epoch
+     * @throws IllegalArgumentException if it is not a time
+     */
+    public static long parseTime(String text) {
+        try {
+            int year = Integer.parseInt(text.substring(0, 4));
+            int month = Integer.parseInt(text.substring(5, 7));
+            int day = Integer.parseInt(text.substring(8, 10));
+            int hours = Integer.parseInt(text.substring(11, 13));
+            int minutes = Integer.parseInt(text.substring(14, 16));
+            int seconds = Integer.parseInt(text.substring(17, 19));
+            int i = 19;
+            int millis = 0;
+            if (i < text.length() && text.charAt(i) == '.') {
+                //milliseconds from the first 3 digits of the fraction
+                int scale = 100;
+                for (i++; i < text.length() && Character.isDigit(text.charAt(i)); i++) {
+                    millis += (text.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            long offsetMinutes = 0;
+            if (i < text.length() && (text.charAt(i) == '+' || text.charAt(i) == '-')) {
+                offsetMinutes = Integer.parseInt(text.substring(i + 1, i + 3)) * 60
+                        + Integer.parseInt(text.substring(i + 4, i + 6));
+                if (text.charAt(i) == '-') offsetMinutes = -offsetMinutes;
+            }
+            return ((daysFromCivil(year, month, day) * 86400L + hours * 3600 + minutes * 60 + seconds)
+                    - offsetMinutes * 60) * 1000 + millis;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Not a time " + text);
+        }
+    }
+
+    /**
+     * @return days since 1970-01-01, proleptic Gregorian calendar
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Track points, an element may span lines
+     */
+    static final class GpxReader implements FixReader {
+        private final BufferedReader mReader;
+        private final StringBuilder mText = new StringBuilder();
+
+        GpxReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public boolean read(Fix fix) throws IOException {
+            while (true) {
+                int start = mText.indexOf("<trkpt");
+                int end = start < 0 ? -1 : mText.indexOf("</trkpt>", start);
+                if (end >= 0) {
+                    String point = mText.substring(start, end);
+                    mText.delete(0, end + 8);
+                    parse(point, fix);
+                    return true;
+                }
+                //keep only a track point that has started
+                if (start < 0) {
+                    mText.setLength(0);
+                } else if (start > 0) {
+                    mText.delete(0, start);
+                }
+                String line = mReader.readLine();
+                if (line == null) return false;
+                mText.append(line).append('\n');
+            }
+        }
+
+        private static void parse(String point, Fix fix) throws IOException {
+            String latitude = attribute(point, "lat");
+            String longitude = attribute(point, "lon");
+            if (latitude == null || longitude == null) {
+                throw new BadRecordException("Track point without position", null);
+            }
+            String elevation = element(point, "ele");
+            String time = element(point, "time");
+            try {
+                fix.latitude = Double.parseDouble(latitude);
+                fix.longitude = Double.parseDouble(longitude);
+                fix.hasAltitude = elevation != null;
+                fix.altitude = elevation != null ? Double.parseDouble(elevation) : 0;
+                fix.time = time != null ? parseTime(time) : 0;
+            } catch (IllegalArgumentException e) {
+                throw new BadRecordException("Bad track point " + point, e);
+            }
+            fix.accuracy = 0;
+            fix.hasSpeed = false;
+            fix.speed = 0;
+            fix.hasBearing = false;
+            fix.bearing = 0;
+        }
+
+        private static String attribute(String point, String name) {
+            int tagEnd = point.indexOf('>');
+            int i = point.indexOf(name + '=');
+            while (i > 0 && !Character.isWhitespace(point.charAt(i - 1))) {
+                i = point.indexOf(name + '=', i + 1);
+            }
+            if (i < 0 || (tagEnd >= 0 && i > tagEnd)) return null;
+            i += name.length() + 1;
+            char quote = point.charAt(i);
+            int end = point.indexOf(quote, i + 1);
+            return end < 0 ? null : point.substring(i + 1, end);
+        }
+
+        private static String element(String point, String name) {
+            int i = point.indexOf('<' + name + '>');
+            if (i < 0) return null;
+            i += name.length() + 2;
+            int end = point.indexOf("</" + name + '>', i);
+            return end < 0 ? null : point.substring(i, end).trim();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Comma separated values, columns found by the header if there is one
+     */
+    static final class CsvReader implements FixReader {
+        private static final String[] COLUMNS =
+                {"time", "latitude", "longitude", "altitude", "accuracy", "speed", "bearing"};
+
+        private final BufferedReader mReader;
+        // column of each value, -1 if not present
+        private final int[] mColumns = {0, 1, 2, -1, -1, -1, -1};
+        private boolean mStarted;
+
+        CsvReader(BufferedReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public boolean read(Fix fix) throws IOException {
+            String line;
+            do {
+                line = mReader.readLine();
+                if (line == null) return false;
+            } while (line.trim().isEmpty());
+            String[] values = line.split(",", -1);
+            if (!mStarted) {
+                mStarted = true;
+                char first = line.charAt(0);
+                if (first != '-' && !Character.isDigit(first)) {
+                    header(values);
+                    return read(fix);
+                }
+            }
+            try {
+                String time = values[mColumns[0]].trim();
+                fix.time = time.indexOf('T') > 0 ? parseTime(time) : Long.parseLong(time);
+                fix.latitude = Double.parseDouble(values[mColumns[1]]);
+                fix.longitude = Double.parseDouble(values[mColumns[2]]);
+                fix.hasAltitude = has(values, 3);
+                fix.altitude = fix.hasAltitude ? Double.parseDouble(values[mColumns[3]]) : 0;
+                fix.accuracy = has(values, 4) ? Float.parseFloat(values[mColumns[4]]) : 0;
+                fix.hasSpeed = has(values, 5);
+                fix.speed = fix.hasSpeed ? Float.parseFloat(values[mColumns[5]]) : 0;
+                fix.hasBearing = has(values, 6);
+                fix.bearing = fix.hasBearing ? Float.parseFloat(values[mColumns[6]]) : 0;
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new BadRecordException("Bad line " + line, e);
+            }
+            return true;
+        }
+
+        private void header(String[] names) throws IOException {
+            for (int c = 0; c < COLUMNS.length; c++) {
+                mColumns[c] = -1;
+                for (int i = 0; i < names.length; i++) {
+                    String name = names[i].trim().toLowerCase(Locale.US);
+                    if (name.equals(COLUMNS[c]) || (c == 1 && name.equals("lat"))
+                            || (c == 2 && name.equals("lon"))) {
+                        mColumns[c] = i;
+                    }
+                }
+            }
+            if (mColumns[0] < 0 || mColumns[1] < 0 || mColumns[2] < 0) {
+                throw new IOException("Header needs time, latitude and longitude");
+            }
+        }
+
+        private boolean has(String[] values, int value) {
+            int column = mColumns[value];
+            return column >= 0 && column < values.length && !values[column].trim().isEmpty();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package au.com.mysites.location.core;
+
+/**
+ * Level of detail pyramid over a track, so a chart of hours or days reads a few hundred
+ * buckets rather than every fix. Each level holds the min, max and mean of speed and
+ * altitude in buckets of a fixed time width, from seconds up to hours. A fix updates the
+ * newest bucket of every level, and each level keeps its latest buckets in a ring of
+ * primitive arrays so adding does not allocate. Buckets with no fixes are not stored.
+ */
+public final class TrackPyramid {
+
+    public static final int CHANNEL_SPEED = 0;
+    public static final int CHANNEL_ALTITUDE = 1;
+    private static final int CHANNELS = 2;
+
+    // bucket width of each level, finest first
+    private static final long[] WIDTHS_MS = {
+            10 * 1000L, 60 * 1000L, 10 * 60 * 1000L, 60 * 60 * 1000L, 6 * 60 * 60 * 1000L};
+    // buckets kept for each level, so the coarsest covers about 90 days
+    public static final int DEFAULT_CAPACITY = 360;
+
+    private final int mCapacity;
+    // [level][slot], the start time of each bucket
+    private final long[][] mStarts;
+    // [level][channel * capacity + slot]
+    private final int[][] mCounts;
+    private final float[][] mMins;
+    private final float[][] mMaxes;
+    private final double[][] mSums;
+    // slot of the newest bucket and number of buckets of each level
+    private final int[] mNewest;
+    private final int[] mSizes;
+
+    public TrackPyramid() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity buckets kept for each level
+     */
+    public TrackPyramid(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity " + capacity);
+        int levels = WIDTHS_MS.length;
+        mCapacity = capacity;
+        mStarts = new long[levels][capacity];
+        mCounts = new int[levels][CHANNELS * capacity];
+        mMins = new float[levels][CHANNELS * capacity];
+        mMaxes = new float[levels][CHANNELS * capacity];
+        mSums = new double[levels][CHANNELS * capacity];
+        mNewest = new int[levels];
+        mSizes = new int[levels];
+    }
+
+    /**
+     * Add the values of a fix to every level. A fix older than the newest bucket of a level
+     * is not added to that level.
+     *
+     * @param time     time of the fix, milliseconds since the epoch
+     * @param speed    metres per second, NaN if not known
+     * @param altitude metres, NaN if not known
+     */
+    public synchronized void add(long time, float speed, float altitude) {
+        for (int level = 0; level < WIDTHS_MS.length; level++) {
+            //times are after 1970 so the remainder is not negative
+            long start = time - time % WIDTHS_MS[level];
+            int slot = mNewest[level];
+            if (mSizes[level] == 0 || start > mStarts[level][slot]) {
+                slot = mSizes[level] == 0 ? 0 : (slot + 1) % mCapacity;
+                mNewest[level] = slot;
+                if (mSizes[level] < mCapacity) mSizes[level]++;
+                mStarts[level][slot] = start;
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    mCounts[level][channel * mCapacity + slot] = 0;
+                }
+            } else if (start < mStarts[level][slot]) {
+                continue;
+            }
+            add(level, CHANNEL_SPEED, slot, speed);
+            add(level, CHANNEL_ALTITUDE, slot, altitude);
+        }
+    }
+
+    private void add(int level, int channel, int slot, float value) {
+        if (Float.isNaN(value)) return;
+        int i = channel * mCapacity + slot;
+        if (mCounts[level][i]++ == 0) {
+            mMins[level][i] = value;
+            mMaxes[level][i] = value;
+            mSums[level][i] = value;
+            return;
+        }
+        if (value < mMins[level][i]) mMins[level][i] = value;
+        if (value > mMaxes[level][i]) mMaxes[level][i] = value;
+        mSums[level][i] += value;
+    }
+
+    /**
+     * Remove all the buckets
+     */
+    public synchronized void clear() {
+        for (int level = 0; level < WIDTHS_MS.length; level++) {
+            mNewest[level] = 0;
+            mSizes[level] = 0;
+        }
+    }
+
+    /**
+     * @return number of levels
+     */
+    public int getLevelCount() {
+        return WIDTHS_MS.length;
+    }
+
+    /**
+     * @param level level, 0 is the finest
+     * @return width of the buckets of the level in milliseconds
+     */
+    public long getWidthMs(int level) {
+        return WIDTHS_MS[level];
+    }
+
+    /**
+     * @param level level, 0 is the finest
+     * @return number of buckets held by the level
+     */
+    public synchronized int getBucketCount(int level) {
+        return mSizes[level];
+    }
+
+    /**
+     * Choose the finest level that covers a time range in at most a number of buckets
+     * and still holds the start of the range
+     *
+     * @param from       start of the range, milliseconds since the epoch
+     * @param to         end of the range
+     * @param maxBuckets most buckets wanted, e.g. the width of a chart
+     * @return level, the coarsest if none is small enough
+     */
+    public synchronized int level(long from, long to, int maxBuckets) {
+        int last = WIDTHS_MS.length - 1;
+        for (int level = 0; level < last; level++) {
+            long width = WIDTHS_MS[level];
+            if ((to - to % width - (from - from % width)) / width + 1 > maxBuckets) continue;
+            //the ring has wrapped past the start of the range
+            if (mSizes[level] == mCapacity && mStarts[level][oldest(level)] > from) continue;
+            return level;
+        }
+        return last;
+    }
+
+    /**
+     * Copy the buckets of a level in a time range, oldest first
+     *
+     * @param level   level to read
+     * @param channel CHANNEL_SPEED or CHANNEL_ALTITUDE
+     * @param from    start of the range, milliseconds since the epoch
+     * @param to      end of the range
+     * @param times   receives the start time of each bucket
+     * @param mins    receives the minimum of each bucket
+     * @param maxes   receives the maximum of each bucket
+     * @param means   receives the mean of each bucket
+     * @return number of buckets copied, at most the length of the arrays. Buckets without
+     * a value of the channel are left out.
+     */
+    public synchronized int read(int level, int channel, long from, long to,
+                                 long[] times, float[] mins, float[] maxes, float[] means) {
+        long width = WIDTHS_MS[level];
+        int count = 0;
+        int slot = oldest(level);
+        for (int n = 0; n < mSizes[level] && count < times.length; n++, slot = (slot + 1) % mCapacity) {
+            long start = mStarts[level][slot];
+            if (start + width <= from) continue;
+            if (start > to) break;
+            int i = channel * mCapacity + slot;
+            int values = mCounts[level][i];
+            if (values == 0) continue;
+            times[count] = start;
+            mins[count] = mMins[level][i];
+            maxes[count] = mMaxes[level][i];
+            means[count] = (float) (mSums[level][i] / values);
+            count++;
+        }
+        return count;
+    }
+
+    private int oldest(int level) {
+        return (mNewest[level] - mSizes[level] + 1 + mCapacity) % mCapacity;
+    }
+}
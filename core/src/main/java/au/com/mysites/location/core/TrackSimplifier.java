@@ -0,0 +1,171 @@
+package au.com.mysites.location.core;
+
+/**
+ * Streaming simplification of the track ahead of the stage that stores it, an opening
+ * window variant of Douglas-Peucker. The fixes since the last kept fix are held in a
+ * window, and while every one of them is within the tolerance of the line from the last
+ * kept fix to the newest, none needs to be kept. When the newest fix breaks the tolerance
+ * the one before it is kept, so every dropped fix is within the tolerance of the stored
+ * track. The window is bounded, and a fix is also kept at least every max interval so
+ * the stored times stay useful. Runs of fixes along a straight road reduce to their ends.
+ * <p>
+ * Kept fixes are passed to the downstream stage, while every fix is passed on through
+ * the pipeline so later stages, e.g. trip statistics, still see them all.
+ */
+public final class TrackSimplifier implements FixProcessor {
+
+    public static final int DEFAULT_WINDOW = 64;
+    // a fix is kept at least this often
+    private static final long MAX_INTERVAL_MS = 5 * 60 * 1000;
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final FixProcessor mDownstream;
+    private final double mTolerance;
+    // fixes since the last kept fix, in metres east and north of it
+    private final Fix[] mWindow;
+    private final double[] mEast;
+    private final double[] mNorth;
+    private int mCount;
+    private final Fix mOut = new Fix();
+
+    private boolean mHasAnchor;
+    private long mAnchorTime;
+    private double mAnchorLatitude;
+    private double mAnchorLongitude;
+    private double mMetresPerDegreeEast;
+    // largest distance of a window fix from the line to the newest fix
+    private double mCandidateDeviation;
+
+    private long mFixes;
+    private long mKept;
+    private double mMaxDeviation;
+
+    /**
+     * @param downstream  receives the kept fixes, e.g. the track store
+     * @param toleranceM  furthest a dropped fix may be from the stored track, in metres
+     * @param window      most fixes held before one is kept
+     */
+    public TrackSimplifier(FixProcessor downstream, double toleranceM, int window) {
+        if (!(toleranceM >= 0)) throw new IllegalArgumentException("tolerance " + toleranceM);
+        if (window < 1) throw new IllegalArgumentException("window " + window);
+        mDownstream = downstream;
+        mTolerance = toleranceM;
+        mWindow = new Fix[window];
+        for (int i = 0; i < window; i++) mWindow[i] = new Fix();
+        mEast = new double[window];
+        mNorth = new double[window];
+    }
+
+    /**
+     * Add a fix to the window, passing on the fix before it if it must be kept
+     *
+     * @param fix fix to simplify
+     * @return true, the fix is always passed on
+     */
+    @Override
+    public synchronized boolean onFix(Fix fix) {
+        mFixes++;
+        if (!mHasAnchor) {
+            keep(fix, 0);
+            return true;
+        }
+        double east = east(fix);
+        double north = north(fix);
+        double deviation = deviation(east, north);
+        if (mCount > 0 && (deviation > mTolerance || mCount == mWindow.length
+                || fix.time - mAnchorTime > MAX_INTERVAL_MS)) {
+            keep(mWindow[mCount - 1], mCandidateDeviation);
+            east = east(fix);
+            north = north(fix);
+            deviation = 0;
+        }
+        mWindow[mCount].set(fix);
+        mEast[mCount] = east;
+        mNorth[mCount] = north;
+        mCount++;
+        mCandidateDeviation = deviation;
+        return true;
+    }
+
+    /**
+     * Keep the newest fix in the window, e.g. when tracking stops, so the stored track
+     * reaches the latest position. Call from the thread that owns the downstream stage
+     * or when no fixes are arriving.
+     */
+    public synchronized void flush() {
+        if (mCount > 0) keep(mWindow[mCount - 1], mCandidateDeviation);
+    }
+
+    private void keep(Fix fix, double deviation) {
+        mKept++;
+        mMaxDeviation = Math.max(mMaxDeviation, deviation);
+        mHasAnchor = true;
+        mAnchorTime = fix.time;
+        mAnchorLatitude = fix.latitude;
+        mAnchorLongitude = fix.longitude;
+        mMetresPerDegreeEast = METRES_PER_DEGREE * Math.cos(Math.toRadians(fix.latitude));
+        mCount = 0;
+        mOut.set(fix);
+        mDownstream.onFix(mOut);
+    }
+
+    //region geometry
+
+    private double east(Fix fix) {
+        double degrees = fix.longitude - mAnchorLongitude;
+        //across the antimeridian
+        if (degrees > 180) degrees -= 360;
+        if (degrees < -180) degrees += 360;
+        return degrees * mMetresPerDegreeEast;
+    }
+
+    private double north(Fix fix) {
+        return (fix.latitude - mAnchorLatitude) * METRES_PER_DEGREE;
+    }
+
+    /**
+     * @return largest distance of a window fix from the line from the anchor to the point
+     */
+    private double deviation(double east, double north) {
+        double lengthSquared = east * east + north * north;
+        double max = 0;
+        for (int i = 0; i < mCount; i++) {
+            double e = mEast[i];
+            double n = mNorth[i];
+            //nearest point on the segment, so turning back is a deviation
+            double t = lengthSquared == 0 ? 0 : (e * east + n * north) / lengthSquared;
+            if (t < 0) t = 0;
+            if (t > 1) t = 1;
+            e -= t * east;
+            n -= t * north;
+            max = Math.max(max, e * e + n * n);
+        }
+        return Math.sqrt(max);
+    }
+    //endregion
+
+    /**
+     * @return number of fixes simplified
+     */
+    public synchronized long getFixCount() {
+        return mFixes;
+    }
+
+    /**
+     * @return number of fixes passed downstream
+     */
+    public synchronized long getKeptCount() {
+        return mKept;
+    }
+
+    /**
+     * @return furthest a dropped fix is from the stored track, in metres
+     */
+    public synchronized double getMaxDeviation() {
+        return mMaxDeviation;
+    }
+
+    public double getTolerance() {
+        return mTolerance;
+    }
+}
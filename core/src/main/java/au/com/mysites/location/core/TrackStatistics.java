@@ -0,0 +1,173 @@
+package au.com.mysites.location.core;
+
+/**
+ * Live statistics of the trip, updated by each fix as a stage of the fix pipeline.
+ * Every statistic is a running total, so a fix costs the same however long the trip is.
+ * Distance and moving time only count while moving, so jitter while stopped is not
+ * counted, and a gap in the fixes, e.g. a tunnel or the phone switched off, is left out.
+ * Elevation gain ignores changes smaller than a threshold as GPS altitude is noisy.
+ * The fixes also go into a pyramid of buckets for charting the trip.
+ */
+public final class TrackStatistics implements FixProcessor {
+
+    // slower than this, in metres per second, is stopped
+    private static final double MOVING_SPEED = 0.5;
+    // a longer time between fixes is a gap
+    private static final long MAX_GAP_MS = 5 * 60 * 1000;
+    // fixes less accurate than this are only used for the pyramid
+    private static final float MAX_ACCURACY_M = 50;
+    // smallest climb counted
+    private static final double ELEVATION_THRESHOLD_M = 10;
+
+    private final TrackPyramid mPyramid;
+
+    private long mFixes;
+    private long mStartTime;
+    private long mLastTime;
+    private double mDistance;
+    private long mMovingMs;
+    private double mMaxSpeed;
+    private double mElevationGain;
+    private double mBearing = Double.NaN;
+    private boolean mHasPrevious;
+    private long mPreviousTime;
+    private double mPreviousLatitude;
+    private double mPreviousLongitude;
+    // lowest altitude since the last counted climb
+    private boolean mHasElevationBase;
+    private double mElevationBase;
+
+    public TrackStatistics() {
+        this(new TrackPyramid());
+    }
+
+    /**
+     * @param pyramid pyramid the fixes are added to
+     */
+    public TrackStatistics(TrackPyramid pyramid) {
+        mPyramid = pyramid;
+    }
+
+    /**
+     * Add a fix to the statistics, the fix is always passed on
+     *
+     * @param fix fix to add
+     * @return true
+     */
+    @Override
+    public synchronized boolean onFix(Fix fix) {
+        if (mFixes++ == 0) mStartTime = fix.time;
+        mLastTime = Math.max(mLastTime, fix.time);
+        float speed = fix.hasSpeed ? fix.speed : Float.NaN;
+        if (fix.accuracy <= MAX_ACCURACY_M) {
+            if (mHasPrevious && fix.time > mPreviousTime) {
+                long elapsed = fix.time - mPreviousTime;
+                double distance = Geodesy.distance(mPreviousLatitude, mPreviousLongitude,
+                        fix.latitude, fix.longitude);
+                if (!fix.hasSpeed) speed = (float) (distance * 1000 / elapsed);
+                if (speed >= MOVING_SPEED && elapsed <= MAX_GAP_MS) {
+                    mDistance += distance;
+                    mMovingMs += elapsed;
+                    if (speed > mMaxSpeed) mMaxSpeed = speed;
+                    mBearing = fix.hasBearing ? fix.bearing : Geodesy.bearing(mPreviousLatitude,
+                            mPreviousLongitude, fix.latitude, fix.longitude);
+                }
+            }
+            mHasPrevious = true;
+            mPreviousTime = fix.time;
+            mPreviousLatitude = fix.latitude;
+            mPreviousLongitude = fix.longitude;
+        }
+        if (fix.hasAltitude) updateElevation(fix.altitude);
+        mPyramid.add(fix.time, speed, fix.hasAltitude ? (float) fix.altitude : Float.NaN);
+        return true;
+    }
+
+    private void updateElevation(double altitude) {
+        if (!mHasElevationBase || altitude < mElevationBase) {
+            mHasElevationBase = true;
+            mElevationBase = altitude;
+        } else if (altitude - mElevationBase >= ELEVATION_THRESHOLD_M) {
+            mElevationGain += altitude - mElevationBase;
+            mElevationBase = altitude;
+        }
+    }
+
+    /**
+     * Start a new trip, clearing the statistics and the pyramid
+     */
+    public synchronized void reset() {
+        mFixes = 0;
+        mStartTime = 0;
+        mLastTime = 0;
+        mDistance = 0;
+        mMovingMs = 0;
+        mMaxSpeed = 0;
+        mElevationGain = 0;
+        mBearing = Double.NaN;
+        mHasPrevious = false;
+        mHasElevationBase = false;
+        mPyramid.clear();
+    }
+
+    public TrackPyramid getPyramid() {
+        return mPyramid;
+    }
+
+    public synchronized long getFixCount() {
+        return mFixes;
+    }
+
+    /**
+     * @return time of the first fix of the trip, 0 if none
+     */
+    public synchronized long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * @return time of the latest fix of the trip, 0 if none
+     */
+    public synchronized long getLastTime() {
+        return mLastTime;
+    }
+
+    /**
+     * @return metres travelled while moving
+     */
+    public synchronized double getDistance() {
+        return mDistance;
+    }
+
+    public synchronized long getMovingTimeMs() {
+        return mMovingMs;
+    }
+
+    /**
+     * @return average speed while moving in metres per second, 0 if not moved
+     */
+    public synchronized double getAverageSpeed() {
+        return mMovingMs == 0 ? 0 : mDistance * 1000 / mMovingMs;
+    }
+
+    /**
+     * @return metres per second
+     */
+    public synchronized double getMaxSpeed() {
+        return mMaxSpeed;
+    }
+
+    /**
+     * @return metres climbed
+     */
+    public synchronized double getElevationGain() {
+        return mElevationGain;
+    }
+
+    /**
+     * @return latest direction of travel in degrees east of true north, NaN if not moved
+     */
+    public synchronized double getBearing() {
+        return mBearing;
+    }
+}
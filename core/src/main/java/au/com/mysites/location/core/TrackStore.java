@@ -0,0 +1,461 @@
+package au.com.mysites.location.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Append only store of fixes in a directory of fixed size, memory mapped segment files.
+ * <p>
+ * Each fix is stored as fixed point integers, time in milliseconds, latitude and longitude
+ * in 1e-7 degrees, altitude and accuracy in decimetres. Each value is the zigzag encoded
+ * difference from the previous fix written as a varint, so a fix is usually around 10 bytes.
+ * The first fix of a segment is relative to zero, so every segment can be read on its own.
+ * <p>
+ * Segment layout, header - magic, version, segment number, unused - then records of
+ * a length byte, the encoded values and a CRC-8 of the values.
+ * The length byte also has a flag for fixes with an altitude, zero marks the end of the data.
+ * The length byte is written last, so a reader or a restart after a crash only ever sees
+ * complete records. A new segment is prepared in the background as a temporary file
+ * and renamed into place, so a crash during rollover leaves no partial segment.
+ * <p>
+ * Appending is done by one thread, the pipeline thread. Cursors can read on any thread.
+ */
+public final class TrackStore implements FixProcessor, Closeable {
+
+    static final int MAGIC = 0x4C545253;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final double E7 = 1e7;
+    static final double DECIMETRES = 10;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int LENGTH_MASK = 0x3f;
+    private static final int HAS_ALTITUDE = 0x40;
+    // 5 values of up to 10 bytes, fits in the length bits
+    private static final int MAX_PAYLOAD = 50;
+    private static final byte[] CRC8 = new byte[256];
+
+    static {
+        // CRC-8, polynomial x^8 + x^2 + x + 1
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC8[i] = (byte) crc;
+        }
+    }
+
+    private final File mDirectory;
+    private final int mSegmentBytes;
+    private final ExecutorService mPreparer;
+
+    // writer state, only used by the appending thread
+    private final byte[] mPayload = new byte[MAX_PAYLOAD];
+    private final long[] mPrevious = new long[5];
+    private volatile MappedByteBuffer mSegment;
+    private int mSegmentNumber;
+    private int mPosition;
+    private Future<File> mNextSegment;
+    private long mAppended;
+    private long mWriteErrors;
+
+    private TrackStore(File directory, int segmentBytes) {
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mPreparer = Executors.newSingleThreadExecutor(
+                new GeocodingEngine.WorkerThreadFactory("track-store"));
+    }
+
+    /**
+     * Open the store, continuing after the last complete fix
+     *
+     * @param directory    directory of segment files, created if needed
+     * @param segmentBytes size of each segment file
+     * @return store
+     * @throws IOException if the directory or the last segment can not be opened
+     */
+    public static TrackStore open(File directory, int segmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory);
+        }
+        TrackStore store = new TrackStore(directory, segmentBytes);
+        // temporary files are segments that were never renamed into place
+        File[] temps = directory.listFiles(suffixFilter(TEMP_SUFFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+        int[] segments = store.segmentNumbers();
+        if (segments.length == 0) {
+            store.mapSegment(store.createSegment(0), 0);
+        } else {
+            int last = segments[segments.length - 1];
+            store.mapSegment(store.segmentFile(last), last);
+            store.recover();
+        }
+        return store;
+    }
+
+    /**
+     * Append a fix
+     *
+     * @param fix fix to append
+     * @throws IOException if a new segment can not be created
+     */
+    public void append(Fix fix) throws IOException {
+        long time = fix.time;
+        long latitude = Math.round(fix.latitude * E7);
+        long longitude = Math.round(fix.longitude * E7);
+        long altitude = fix.hasAltitude ? Math.round(fix.altitude * DECIMETRES) : mPrevious[3];
+        long accuracy = Math.round(fix.accuracy * DECIMETRES);
+
+        int length = encode(time, latitude, longitude, altitude, accuracy);
+        if (mPosition + length + 2 > mSegmentBytes) {
+            rollover();
+            length = encode(time, latitude, longitude, altitude, accuracy);
+        }
+
+        // values and checksum first, the length byte publishes the record
+        int position = mPosition;
+        byte crc = 0;
+        for (int i = 0; i < length; i++) {
+            mSegment.put(position + 1 + i, mPayload[i]);
+            crc = CRC8[(crc ^ mPayload[i]) & 0xff];
+        }
+        mSegment.put(position + 1 + length, crc);
+        mSegment.put(position, (byte) (length | (fix.hasAltitude ? HAS_ALTITUDE : 0)));
+        mPosition = position + length + 2;
+
+        mPrevious[0] = time;
+        mPrevious[1] = latitude;
+        mPrevious[2] = longitude;
+        mPrevious[3] = altitude;
+        mPrevious[4] = accuracy;
+        mAppended++;
+
+        // get the next segment ready well before it is needed
+        if (mNextSegment == null && mPosition > mSegmentBytes / 2) prepareNextSegment();
+    }
+
+    /**
+     * Append the fix, as a stage of the fix pipeline
+     *
+     * @param fix fix to store
+     * @return true, the fix is always passed on
+     */
+    @Override
+    public boolean onFix(Fix fix) {
+        try {
+            append(fix);
+        } catch (IOException e) {
+            mWriteErrors++;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of fixes appended since the store was opened
+     */
+    public long getAppendedCount() {
+        return mAppended;
+    }
+
+    /**
+     * @return number of fixes that could not be stored
+     */
+    public long getWriteErrorCount() {
+        return mWriteErrors;
+    }
+
+    /**
+     * Write the current segment to the storage device
+     */
+    public void flush() {
+        mSegment.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        mPreparer.shutdown();
+    }
+
+    /**
+     * @return cursor positioned before the first stored fix
+     */
+    public Cursor cursor() {
+        return new Cursor(segmentNumbers());
+    }
+
+    /**
+     * Encode the values as zigzag varint differences from the previous fix
+     *
+     * @return number of bytes in mPayload
+     */
+    private int encode(long time, long latitude, long longitude, long altitude, long accuracy) {
+        int length = writeVarint(mPayload, 0, zigzag(time - mPrevious[0]));
+        length = writeVarint(mPayload, length, zigzag(latitude - mPrevious[1]));
+        length = writeVarint(mPayload, length, zigzag(longitude - mPrevious[2]));
+        length = writeVarint(mPayload, length, zigzag(altitude - mPrevious[3]));
+        return writeVarint(mPayload, length, zigzag(accuracy - mPrevious[4]));
+    }
+
+    /**
+     * Finish the current segment and continue in the next one
+     */
+    private void rollover() throws IOException {
+        mSegment.force();
+        int number = mSegmentNumber + 1;
+        if (mNextSegment == null) prepareNextSegment();
+        File temp;
+        try {
+            temp = mNextSegment.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            mNextSegment = null;
+        }
+        File segment = segmentFile(number);
+        if (!temp.renameTo(segment)) throw new IOException("Can not create " + segment);
+        mapSegment(segment, number);
+        Arrays.fill(mPrevious, 0);
+    }
+
+    private void prepareNextSegment() {
+        final int number = mSegmentNumber + 1;
+        mNextSegment = mPreparer.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                File temp = new File(mDirectory, segmentName(number) + TEMP_SUFFIX);
+                writeSegmentFile(temp, number);
+                return temp;
+            }
+        });
+    }
+
+    private File createSegment(int number) throws IOException {
+        File temp = new File(mDirectory, segmentName(number) + TEMP_SUFFIX);
+        writeSegmentFile(temp, number);
+        File segment = segmentFile(number);
+        if (!temp.renameTo(segment)) throw new IOException("Can not create " + segment);
+        return segment;
+    }
+
+    /**
+     * Create a zero filled segment file with its header written and synced
+     */
+    private void writeSegmentFile(File file, int number) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(mSegmentBytes);
+            randomAccessFile.writeInt(MAGIC);
+            randomAccessFile.writeInt(VERSION);
+            randomAccessFile.writeInt(number);
+            randomAccessFile.getFD().sync();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void mapSegment(File file, int number) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            mSegment = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    mSegmentBytes);
+        } finally {
+            randomAccessFile.close();
+        }
+        mSegment.order(ByteOrder.BIG_ENDIAN);
+        if (mSegment.getInt(0) != MAGIC || mSegment.getInt(4) != VERSION) {
+            throw new IOException("Not a track segment " + file);
+        }
+        mSegmentNumber = number;
+        mPosition = HEADER_BYTES;
+    }
+
+    /**
+     * Find the end of the last complete fix in the current segment,
+     * restore the values it was encoded against, and clear anything after it
+     */
+    private void recover() {
+        Cursor cursor = new Cursor(new int[0]);
+        cursor.mSegment = mSegment;
+        cursor.mPosition = HEADER_BYTES;
+        Fix fix = new Fix();
+        while (cursor.readRecord(fix)) {
+            // nothing to do, reading restores the previous values
+        }
+        System.arraycopy(cursor.mPrevious, 0, mPrevious, 0, mPrevious.length);
+        mPosition = cursor.mPosition;
+        // a record torn by a crash would otherwise be found after the next fix, its
+        // length byte is written last so is 0 and the rest of it is cleared regardless
+        int end = Math.min(mSegmentBytes, mPosition + MAX_PAYLOAD + 2);
+        for (int i = mPosition; i < end; i++) mSegment.put(i, (byte) 0);
+    }
+
+    private int[] segmentNumbers() {
+        String[] names = mDirectory.list(suffixFilter(SEGMENT_SUFFIX));
+        if (names == null) return new int[0];
+        int[] numbers = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                numbers[count] = Integer.parseInt(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    private File segmentFile(int number) {
+        return new File(mDirectory, segmentName(number) + SEGMENT_SUFFIX);
+    }
+
+    private static String segmentName(int number) {
+        return String.format(Locale.US, "%08d", number);
+    }
+
+    private static FilenameFilter suffixFilter(final String suffix) {
+        return new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix);
+            }
+        };
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return position after the varint
+     */
+    static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads the stored fixes in order, from the oldest segment to the newest.
+     * Fixes appended while reading are seen, up to the end of the segment being read.
+     */
+    public final class Cursor {
+        private final int[] mSegments;
+        private final long[] mPrevious = new long[5];
+        private int mNextSegment;
+        private MappedByteBuffer mSegment;
+        private int mPosition;
+
+        private Cursor(int[] segments) {
+            mSegments = segments;
+        }
+
+        /**
+         * Read the next fix
+         *
+         * @param fix fix to read into
+         * @return false if there are no more fixes
+         * @throws IOException if a segment can not be read
+         */
+        public boolean next(Fix fix) throws IOException {
+            while (true) {
+                if (mSegment != null && readRecord(fix)) return true;
+                if (mNextSegment >= mSegments.length) return false;
+                openSegment(mSegments[mNextSegment++]);
+            }
+        }
+
+        private void openSegment(int number) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(segmentFile(number), "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                mSegment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                randomAccessFile.close();
+            }
+            mSegment.order(ByteOrder.BIG_ENDIAN);
+            if (mSegment.capacity() < HEADER_BYTES || mSegment.getInt(0) != MAGIC) {
+                throw new IOException("Not a track segment " + number);
+            }
+            mPosition = HEADER_BYTES;
+            Arrays.fill(mPrevious, 0);
+        }
+
+        /**
+         * Decode the record at the current position
+         *
+         * @return false at the end of the data or at a damaged record
+         */
+        private boolean readRecord(Fix fix) {
+            int limit = mSegment.capacity();
+            if (mPosition >= limit) return false;
+            int header = mSegment.get(mPosition) & 0xff;
+            int length = header & LENGTH_MASK;
+            if (length == 0 || mPosition + length + 2 > limit) return false;
+
+            byte crc = 0;
+            for (int i = 0; i < length; i++) {
+                crc = CRC8[(crc ^ mSegment.get(mPosition + 1 + i)) & 0xff];
+            }
+            if (crc != mSegment.get(mPosition + 1 + length)) return false;
+
+            int end = mPosition + 1 + length;
+            int position = mPosition + 1;
+            for (int i = 0; i < mPrevious.length; i++) {
+                long value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    if (position >= end) return false;
+                    b = mSegment.get(position++);
+                    value |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                mPrevious[i] += unzigzag(value);
+            }
+            mPosition = end + 1;
+
+            fix.reset();
+            fix.time = mPrevious[0];
+            fix.latitude = mPrevious[1] / E7;
+            fix.longitude = mPrevious[2] / E7;
+            fix.hasAltitude = (header & HAS_ALTITUDE) != 0;
+            fix.altitude = fix.hasAltitude ? mPrevious[3] / DECIMETRES : 0;
+            fix.accuracy = (float) (mPrevious[4] / DECIMETRES);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package au.com.mysites.location.core;
+
+/**
+ * A stay at one place, found by the StayPointDetector
+ */
+public final class Visit {
+    // place the visit was at, visits at the same place have the same number
+    public final int place;
+    // time of the first fix at the place, milliseconds since the epoch
+    public final long arrival;
+    // time of the last fix at the place, the latest so far if the visit has not ended
+    public final long departure;
+    // centroid of the fixes at the place, in degrees
+    public final double latitude;
+    public final double longitude;
+    public final int fixCount;
+
+    Visit(int place, long arrival, long departure, double latitude, double longitude, int fixCount) {
+        this.place = place;
+        this.arrival = arrival;
+        this.departure = departure;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.fixCount = fixCount;
+    }
+
+    /**
+     * @return length of the visit in milliseconds
+     */
+    public long getDurationMs() {
+        return departure - arrival;
+    }
+
+    @Override
+    public String toString() {
+        return "Visit[" + place + " " + arrival + "-" + departure + " " + latitude + "," + longitude + "]";
+    }
+}
@@ -0,0 +1,98 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit tests for the geohash cells and the two tier address cache
+ */
+public class AddressCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long mNow = 1000;
+
+    private AddressCache newCache(File directory, int memoryEntries, long maxDiskBytes) {
+        return new AddressCache(directory, memoryEntries, 100, maxDiskBytes) {
+            @Override
+            long now() {
+                return mNow;
+            }
+        };
+    }
+
+    @Test
+    public void geohash_matchesKnownCells() {
+        assertEquals("ezs42", Geohash.encode(42.6, -5.6, 5));
+        assertEquals("r3gx2f", Geohash.encode(-33.8688, 151.2093, 6));
+        //nearby points share a cell, the precision decides how near
+        assertEquals(Geohash.encode(-33.86880, 151.20930, 7),
+                Geohash.encode(-33.86885, 151.20935, 7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void geohash_rejectsInvalidLatitude() {
+        Geohash.encode(91, 0, 7);
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() throws Exception {
+        AddressCache cache = newCache(folder.newFolder(), 4, 1024);
+        assertNull(cache.get("r3gx2f9"));
+        cache.put("r3gx2f9", "1 George St");
+        assertEquals("1 George St", cache.get("r3gx2f9"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void get_readsDiskTierAfterRestart() throws Exception {
+        File directory = folder.newFolder();
+        newCache(directory, 4, 1024).put("r3gx2f9", "1 George St");
+
+        AddressCache cache = newCache(directory, 4, 1024);
+        assertEquals("1 George St", cache.get("r3gx2f9"));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    @Test
+    public void get_expiresAfterTimeToLive() throws Exception {
+        AddressCache cache = newCache(folder.newFolder(), 4, 1024);
+        cache.put("r3gx2f9", "1 George St");
+        mNow += 100;
+        assertNull(cache.get("r3gx2f9"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedFromMemory() throws Exception {
+        AddressCache cache = newCache(folder.newFolder(), 2, 1024);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+        //b was least recently used so is now only on disk
+        assertEquals("B", cache.get("b"));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    @Test
+    public void put_trimsDiskTierToSizeLimit() throws Exception {
+        File directory = folder.newFolder();
+        AddressCache cache = newCache(directory, 1, 64);
+        for (int i = 0; i < 20; i++) cache.put("cell" + i, "address " + i);
+
+        long size = 0;
+        File[] files = directory.listFiles();
+        for (File file : files) size += file.length();
+        assertEquals(true, size <= 64);
+    }
+}
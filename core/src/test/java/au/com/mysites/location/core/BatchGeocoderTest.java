@@ -0,0 +1,126 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the batch geocoder, its rate limiter and the track annotator
+ */
+public class BatchGeocoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger mLookups = new AtomicInteger();
+
+    private final AddressLookup mLookup = new AddressLookup() {
+        @Override
+        public String getAddress(double latitude, double longitude) throws IOException {
+            mLookups.incrementAndGet();
+            if (latitude > 80) throw new IOException("no network");
+            return "address " + Math.round(latitude * 1000) / 1000.0;
+        }
+    };
+
+    private long mNow;
+
+    @Test
+    public void tokenBucket_spacesReservationsAfterBurst() {
+        TokenBucket bucket = new TokenBucket(2, 2) {
+            @Override
+            long now() {
+                return mNow;
+            }
+        };
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        //empty, tokens every half second
+        assertEquals(500000000L, bucket.reserve());
+        assertEquals(1000000000L, bucket.reserve());
+        assertFalse(bucket.tryAcquire());
+        mNow += 2000000000L;
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    public void geocode_looksUpEachCellOnce() throws Exception {
+        AddressCache cache = new AddressCache(folder.newFolder(), 16, 60000, 65536);
+        cache.put(Geohash.encode(-33.0, 151.0, 6), "cached");
+        BatchGeocoder geocoder = new BatchGeocoder(mLookup, cache, 6,
+                3, new TokenBucket(1000, 10));
+
+        //three cells, one already cached, one failing, and an invalid point
+        double[] latitudes = {-33.0, -33.000001, 10.0, 10.000001, -33.0, 85.0, 95.0};
+        double[] longitudes = {151.0, 151.000001, 20.0, 20.0, 151.0, 0.0, 0.0};
+        final Set<String> results = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger completed = new AtomicInteger();
+        BatchGeocoder.Batch batch = geocoder.geocode(latitudes, longitudes, latitudes.length,
+                new BatchGeocoder.Listener() {
+                    @Override
+                    public void onResult(BatchGeocoder.Result result) {
+                        StringBuilder sb = new StringBuilder();
+                        for (int index : result.indexes) sb.append(index);
+                        sb.append(' ').append(result.address).append(' ').append(result.cached)
+                                .append(' ').append(result.error);
+                        results.add(sb.toString());
+                    }
+
+                    @Override
+                    public void onComplete(BatchGeocoder.Batch batch) {
+                        completed.incrementAndGet();
+                    }
+                });
+        batch.await();
+        geocoder.shutdown();
+
+        assertEquals(4, batch.getCellCount());
+        assertEquals(2, mLookups.get());
+        assertEquals(1, completed.get());
+        assertTrue(results.contains("014 cached true null"));
+        assertTrue(results.contains("23 address 10.0 false null"));
+        assertTrue(results.contains("5 null false " + GeocodingEngine.ERROR_SERVICE_NOT_AVAILABLE));
+        assertTrue(results.contains("6 null false " + GeocodingEngine.ERROR_INVALID_LAT_LONG));
+    }
+
+    @Test
+    public void annotate_writesCsvInTrackOrder() throws Exception {
+        TrackStore store = TrackStore.open(folder.newFolder(), 4096);
+        Fix fix = new Fix();
+        for (int i = 0; i < 50; i++) {
+            fix.time = 1538300261000L + i * 1000L;
+            fix.latitude = i < 25 ? -33.8688 : -34.9285;
+            fix.longitude = i < 25 ? 151.2093 : 138.6007;
+            store.append(fix);
+        }
+        AddressCache cache = new AddressCache(folder.newFolder(), 16, 60000, 65536);
+        BatchGeocoder geocoder = new BatchGeocoder(mLookup, cache, 7, 2, new TokenBucket(1000, 10));
+        File file = folder.newFile("track.csv");
+        assertEquals(50, new TrackAnnotator(geocoder).annotate(store, file, null));
+        geocoder.shutdown();
+        assertEquals(2, mLookups.get());
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        assertEquals("time,latitude,longitude,address", in.readLine());
+        assertEquals("2018-09-30T09:37:41Z,-33.8688000,151.2093000,\"address -33.869\"", in.readLine());
+        String line = null;
+        for (int i = 1; i < 50; i++) line = in.readLine();
+        assertEquals("2018-09-30T09:38:30Z,-34.9285000,138.6007000,\"address -34.928\"", line);
+        assertNull(in.readLine());
+        in.close();
+    }
+}
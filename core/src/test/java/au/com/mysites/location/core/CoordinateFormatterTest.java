@@ -0,0 +1,50 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the coordinate formatter,
+ * expected values are the output of Location.convert
+ */
+public class CoordinateFormatterTest {
+
+    private static String format(double coordinate, int format) {
+        CoordinateFormatter formatter = new CoordinateFormatter();
+        int length = formatter.format(coordinate, format);
+        return new String(formatter.getChars(), 0, length);
+    }
+
+    @Test
+    public void format_degrees() {
+        assertEquals("-33.8688", format(-33.8688, CoordinateFormatter.FORMAT_DEGREES));
+        assertEquals("151.2093", format(151.2093, CoordinateFormatter.FORMAT_DEGREES));
+        assertEquals("0.5", format(0.5, CoordinateFormatter.FORMAT_DEGREES));
+        assertEquals("12", format(12.000004, CoordinateFormatter.FORMAT_DEGREES));
+        assertEquals("180", format(180, CoordinateFormatter.FORMAT_DEGREES));
+    }
+
+    @Test
+    public void format_minutesAndSeconds() {
+        assertEquals("151:12.558", format(151.2093, CoordinateFormatter.FORMAT_MINUTES));
+        assertEquals("-33:52:7.68", format(-33.8688, CoordinateFormatter.FORMAT_SECONDS));
+        //rounding up does not carry into the minutes
+        assertEquals("10:59:60", format(10.9999999999, CoordinateFormatter.FORMAT_SECONDS));
+    }
+
+    @Test
+    public void format_reusesCharacters() {
+        CoordinateFormatter formatter = new CoordinateFormatter();
+        formatter.format(-151.123456, CoordinateFormatter.FORMAT_SECONDS);
+        char[] chars = formatter.getChars();
+        formatter.format(1, CoordinateFormatter.FORMAT_DEGREES);
+        assertEquals(chars, formatter.getChars());
+        assertEquals("1", formatter.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void format_rejectsOutOfRange() {
+        new CoordinateFormatter().format(180.5, CoordinateFormatter.FORMAT_DEGREES);
+    }
+}
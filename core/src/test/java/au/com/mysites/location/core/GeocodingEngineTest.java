@@ -0,0 +1,243 @@
+package au.com.mysites.location.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for the geocoding engine using a blocking fake lookup
+ */
+public class GeocodingEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private final AtomicInteger mLookups = new AtomicInteger();
+    private GeocodingEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        AddressLookup lookup = new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) throws IOException {
+                mLookups.incrementAndGet();
+                try {
+                    mRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (latitude > 80) throw new IOException("no network");
+                return "address " + latitude;
+            }
+        };
+        AddressCache cache = new AddressCache(folder.newFolder(), 8, 60000, 4096);
+        mEngine = new GeocodingEngine(lookup, cache, 7, 2, 8, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void fetchAddress_sharesLookupForSameCell() throws Exception {
+        GeocodingEngine.Request first = mEngine.fetchAddress(-33.86880, 151.20930, null);
+        GeocodingEngine.Request second = mEngine.fetchAddress(-33.86881, 151.20931, null);
+        assertEquals(1, mEngine.getInFlightCount());
+        mRelease.countDown();
+
+        assertEquals("address -33.8688", first.get(5, TimeUnit.SECONDS));
+        assertEquals("address -33.8688", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mLookups.get());
+    }
+
+    @Test
+    public void fetchAddress_usesCacheForRepeatedCell() throws Exception {
+        mRelease.countDown();
+        mEngine.fetchAddress(-33.86880, 151.20930, null).get(5, TimeUnit.SECONDS);
+        mEngine.fetchAddress(-33.86880, 151.20930, null).get(5, TimeUnit.SECONDS);
+        assertEquals(1, mLookups.get());
+    }
+
+    @Test
+    public void prefetch_isJoinedByFetch() throws Exception {
+        GeocodingEngine.Request prefetch = mEngine.prefetchAddress(-33.86880, 151.20930, null);
+        GeocodingEngine.Request request = mEngine.fetchAddress(-33.86881, 151.20931, null);
+        //the stale prefetch is cancelled, the lookup continues for the request
+        assertTrue(prefetch.cancel(true));
+        assertEquals(1, mEngine.getInFlightCount());
+        mRelease.countDown();
+
+        assertEquals("address -33.8688", request.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mLookups.get());
+    }
+
+    @Test
+    public void prefetch_failingAfterPromotionFails() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AddressLookup lookup = new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) throws IOException {
+                if (latitude > 80) throw new IOException("no network");
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "address " + latitude;
+            }
+        };
+        GeocodingEngine engine = new GeocodingEngine(lookup,
+                new AddressCache(folder.newFolder(), 8, 60000, 4096), 7, 1, 8, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        try {
+            //both lanes busy, so the failing prefetch and its foreground attempt are queued
+            engine.prefetchAddress(-33.86880, 151.20930, null);
+            engine.fetchAddress(-34.86880, 151.20930, null);
+            engine.prefetchAddress(85, 0, null);
+            GeocodingEngine.Request request = engine.fetchAddress(85, 0, null);
+            release.countDown();
+            try {
+                request.get(5, TimeUnit.SECONDS);
+                fail("lookup should fail");
+            } catch (ExecutionException e) {
+                assertEquals(GeocodingEngine.ERROR_SERVICE_NOT_AVAILABLE, e.getCause().getMessage());
+            }
+        } finally {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void cancel_stopsCallbackAndLookup() throws Exception {
+        final AtomicInteger results = new AtomicInteger();
+        GeocodingEngine.Request request = mEngine.fetchAddress(-33.86880, 151.20930,
+                new GeocodingEngine.Callback() {
+                    @Override
+                    public void onAddressResult(int resultCode, String message, int tier) {
+                        results.incrementAndGet();
+                    }
+                });
+        assertTrue(request.cancel(true));
+        assertEquals(0, mEngine.getInFlightCount());
+        mRelease.countDown();
+        assertEquals(0, results.get());
+    }
+
+    @Test
+    public void callback_reportsServiceNotAvailable() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] result = new String[1];
+        mRelease.countDown();
+        GeocodingEngine.Request request = mEngine.fetchAddress(85, 0,
+                new GeocodingEngine.Callback() {
+                    @Override
+                    public void onAddressResult(int resultCode, String message, int tier) {
+                        assertEquals(GeocodingEngine.FAILURE_RESULT, resultCode);
+                        assertEquals(GeocodingEngine.TIER_NONE, tier);
+                        result[0] = message;
+                        done.countDown();
+                    }
+                });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(GeocodingEngine.ERROR_SERVICE_NOT_AVAILABLE, result[0]);
+        try {
+            request.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void deadline_fallsBackToFallbackLookup() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] tier = new int[1];
+        mEngine.setDeadline(100);
+        mEngine.setFallbackLookup(new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) {
+                return "offline";
+            }
+        });
+        GeocodingEngine.Request request = mEngine.fetchAddress(-33.86880, 151.20930,
+                new GeocodingEngine.Callback() {
+                    @Override
+                    public void onAddressResult(int resultCode, String message, int resultTier) {
+                        tier[0] = resultTier;
+                        done.countDown();
+                    }
+                });
+        assertEquals("offline", request.get(5, TimeUnit.SECONDS));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(GeocodingEngine.TIER_FALLBACK, tier[0]);
+        mRelease.countDown();
+    }
+
+    @Test
+    public void hedge_answersWhenFirstAttemptIsSlow() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        AddressLookup lookup = new AddressLookup() {
+            @Override
+            public String getAddress(double latitude, double longitude) throws IOException {
+                if (attempts.incrementAndGet() > 1) return "hedged";
+                try {
+                    mRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "slow";
+            }
+        };
+        GeocodingEngine engine = new GeocodingEngine(lookup,
+                new AddressCache(folder.newFolder(), 8, 60000, 4096), 7, 2, 8, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] tier = new int[1];
+        engine.setHedging(90, 50);
+        try {
+            GeocodingEngine.Request request = engine.fetchAddress(-33.86880, 151.20930,
+                    new GeocodingEngine.Callback() {
+                        @Override
+                        public void onAddressResult(int resultCode, String message, int resultTier) {
+                            tier[0] = resultTier;
+                            done.countDown();
+                        }
+                    });
+            assertEquals("hedged", request.get(5, TimeUnit.SECONDS));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(GeocodingEngine.TIER_HEDGE, tier[0]);
+            assertEquals(2, attempts.get());
+        } finally {
+            mRelease.countDown();
+            engine.shutdown();
+        }
+    }
+}
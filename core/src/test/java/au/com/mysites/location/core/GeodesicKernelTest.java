@@ -0,0 +1,117 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the geodesic calculations over arrays
+ */
+public class GeodesicKernelTest {
+
+    // more than one chunk, so the pool is used
+    private static final int COUNT = 3 * GeodesicKernel.CHUNK + 100;
+
+    private final double[] mLatitudes = new double[COUNT];
+    private final double[] mLongitudes = new double[COUNT];
+
+    public GeodesicKernelTest() {
+        Random random = new Random(7);
+        for (int i = 0; i < COUNT; i++) {
+            mLatitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            mLongitudes[i] = random.nextDouble() * 360 - 180;
+        }
+    }
+
+    @Test
+    public void haversine_matchesGeodesy() {
+        double[] distances = new double[COUNT - 1];
+        double[] bearings = new double[COUNT - 1];
+        double[] latitudes2 = new double[COUNT - 1];
+        double[] longitudes2 = new double[COUNT - 1];
+        System.arraycopy(mLatitudes, 1, latitudes2, 0, COUNT - 1);
+        System.arraycopy(mLongitudes, 1, longitudes2, 0, COUNT - 1);
+        double[] latitudes1 = Arrays.copyOf(mLatitudes, COUNT - 1);
+        double[] longitudes1 = Arrays.copyOf(mLongitudes, COUNT - 1);
+        GeodesicKernel.haversine(latitudes1, longitudes1, latitudes2, longitudes2, distances);
+        GeodesicKernel.bearings(latitudes1, longitudes1, latitudes2, longitudes2, bearings);
+        for (int i = 0; i < COUNT - 1; i++) {
+            assertEquals(Geodesy.distance(mLatitudes[i], mLongitudes[i], mLatitudes[i + 1], mLongitudes[i + 1]),
+                    distances[i], 1e-6);
+            assertEquals(Geodesy.bearing(mLatitudes[i], mLongitudes[i], mLatitudes[i + 1], mLongitudes[i + 1]),
+                    bearings[i], 1e-9);
+        }
+
+        //there and back again
+        double[] outLatitudes = new double[COUNT - 1];
+        double[] outLongitudes = new double[COUNT - 1];
+        GeodesicKernel.destinations(latitudes1, longitudes1, bearings, distances, outLatitudes, outLongitudes);
+        for (int i = 0; i < COUNT - 1; i++) {
+            assertEquals(0, Geodesy.distance(latitudes2[i], longitudes2[i], outLatitudes[i], outLongitudes[i]), 1e-3);
+        }
+
+        //from one point, in micro degrees
+        int[] latitudesE6 = new int[COUNT];
+        int[] longitudesE6 = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            latitudesE6[i] = SavedPlaceIndex.quantize(mLatitudes[i]);
+            longitudesE6[i] = SavedPlaceIndex.quantize(mLongitudes[i]);
+        }
+        distances = new double[COUNT];
+        GeodesicKernel.haversine(-33.8688, 151.2093, latitudesE6, longitudesE6, distances);
+        int nearest = 0;
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(Geodesy.distance(-33.8688, 151.2093, mLatitudes[i], mLongitudes[i]), distances[i], 0.2);
+            if (distances[i] < distances[nearest]) nearest = i;
+        }
+        assertEquals(nearest, GeodesicKernel.nearest(-33.8688, 151.2093, latitudesE6, longitudesE6));
+        assertEquals(-1, GeodesicKernel.nearest(0, 0, new int[0], new int[0]));
+    }
+
+    @Test
+    public void vincenty_matchesTheFlindersPeakExample() {
+        //Vincenty's published example on the Australian National Spheroid, here on WGS 84
+        double latitude1 = -(37 + 57 / 60.0 + 3.72030 / 3600);
+        double longitude1 = 144 + 25 / 60.0 + 29.52440 / 3600;
+        double latitude2 = -(37 + 39 / 60.0 + 10.15610 / 3600);
+        double longitude2 = 143 + 55 / 60.0 + 35.38390 / 3600;
+        assertEquals(54972.271, GeodesicKernel.vincenty(latitude1, longitude1, latitude2, longitude2), 0.01);
+        assertEquals(0, GeodesicKernel.vincenty(10, 20, 10, 20), 0);
+        //along the equator
+        assertEquals(111319.491, GeodesicKernel.vincenty(0, 0, 0, 1), 0.001);
+        assertEquals(Double.NaN, GeodesicKernel.vincenty(0, 0, 0.5, 179.7), 0);
+    }
+
+    @Test
+    public void cumulativeLength_matchesInOrder() {
+        double[] lengths = new double[COUNT];
+        double total = GeodesicKernel.cumulativeLength(mLatitudes, mLongitudes, lengths);
+        double length = 0;
+        for (int i = 1; i < COUNT; i++) {
+            length += Geodesy.distance(mLatitudes[i - 1], mLongitudes[i - 1], mLatitudes[i], mLongitudes[i]);
+            assertEquals(length, lengths[i], 1e-6 * length);
+        }
+        assertEquals(0, lengths[0], 0);
+        assertEquals(length, total, 1e-6 * length);
+        assertEquals(total, GeodesicKernel.pathLength(mLatitudes, mLongitudes), 1e-6);
+
+        //each point's nearest site
+        double[] siteLatitudes = {-33.8688, 51.5074, 40.7128};
+        double[] siteLongitudes = {151.2093, -0.1278, -74.0060};
+        int[] nearest = new int[COUNT];
+        double[] distances = new double[COUNT];
+        GeodesicKernel.nearest(mLatitudes, mLongitudes, siteLatitudes, siteLongitudes, nearest, distances);
+        for (int i = 0; i < COUNT; i += 97) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < siteLatitudes.length; j++) {
+                min = Math.min(min, Geodesy.distance(mLatitudes[i], mLongitudes[i], siteLatitudes[j], siteLongitudes[j]));
+            }
+            assertEquals(min, distances[i], 1e-6);
+            assertEquals(min, Geodesy.distance(mLatitudes[i], mLongitudes[i],
+                    siteLatitudes[nearest[i]], siteLongitudes[nearest[i]]), 1e-6);
+        }
+    }
+}
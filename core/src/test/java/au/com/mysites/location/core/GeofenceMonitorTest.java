@@ -0,0 +1,118 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for geofences, the grid index and the monitor
+ */
+public class GeofenceMonitorTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final List<String> mEvents = new ArrayList<>();
+    private final GeofenceMonitor.Listener mListener = new GeofenceMonitor.Listener() {
+        @Override
+        public void onGeofenceEvent(Geofence fence, int event, Fix fix) {
+            mEvents.add(fence.getId() + " " + event);
+        }
+    };
+
+    @Test
+    public void contains_appliesMargin() {
+        //about 111 m square
+        Geofence square = Geofence.polygon("square", new double[]{0, 0, 0.001, 0.001},
+                new double[]{0, 0.001, 0.001, 0});
+        assertTrue(square.contains(0.0005, 0.0005, 0));
+        assertFalse(square.contains(0.0005, 0.0015, 0));
+        //55 m outside
+        assertTrue(square.contains(0.0005, 0.0015, 60));
+        assertFalse(square.contains(0.0005, 0.0015, 50));
+        //55 m inside
+        assertTrue(square.contains(0.0005, 0.0005, -50));
+        assertFalse(square.contains(0.0005, 0.0005, -60));
+
+        Geofence circle = Geofence.circle("circle", 0, 0, 100);
+        assertTrue(circle.contains(90 / METRES_PER_DEGREE, 0, 0));
+        assertFalse(circle.contains(110 / METRES_PER_DEGREE, 0, 0));
+        assertTrue(circle.contains(110 / METRES_PER_DEGREE, 0, 20));
+    }
+
+    @Test
+    public void candidates_onlyNearbyFences() {
+        List<Geofence> fences = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            fences.add(Geofence.circle("site " + i, -33 - i * 0.05, 151, 100));
+        }
+        fences.add(Geofence.circle("state", -33, 151, 500000));
+        GeofenceIndex index = new GeofenceIndex(fences, 0.01);
+        int[] candidates = new int[index.getMaxCandidates()];
+
+        int count = index.candidates(-33.5, 151, candidates);
+        int[] found = Arrays.copyOf(candidates, count);
+        Arrays.sort(found);
+        //site 10 and the large fence, tested everywhere
+        assertTrue(Arrays.equals(new int[]{10, 1000}, found));
+    }
+
+    @Test
+    public void onFix_reportsEnterDwellExitWithHysteresis() {
+        GeofenceIndex index = new GeofenceIndex(
+                Arrays.asList(Geofence.circle("depot", 0, 0, 100)), 0.01);
+        GeofenceMonitor monitor = new GeofenceMonitor(index, 30, 60000, mListener);
+        Fix fix = new Fix();
+
+        move(monitor, fix, 0, 150);
+        move(monitor, fix, 1000, 90);
+        assertEquals(Arrays.asList("depot " + GeofenceMonitor.EVENT_ENTER), mEvents);
+        //jitter just outside the edge is not an exit
+        move(monitor, fix, 2000, 120);
+        move(monitor, fix, 61000, 80);
+        assertEquals(1, monitor.getInsideCount());
+        move(monitor, fix, 62000, 140);
+        assertEquals(Arrays.asList("depot " + GeofenceMonitor.EVENT_ENTER,
+                "depot " + GeofenceMonitor.EVENT_DWELL,
+                "depot " + GeofenceMonitor.EVENT_EXIT), mEvents);
+        assertEquals(0, monitor.getInsideCount());
+    }
+
+    @Test
+    public void read_parsesCirclesAndPolygons() throws IOException {
+        List<Geofence> fences = GeofenceFile.read(new StringReader("# sites\n"
+                + "depot,circle,-33.8688,151.2093,100\n"
+                + "\n"
+                + "site 12,polygon,-33.8601 151.2001,-33.8702 151.2003,-33.8699 151.2105\n"));
+        assertEquals(2, fences.size());
+        assertEquals("depot", fences.get(0).getId());
+        assertTrue(fences.get(0).isCircle());
+        assertEquals("site 12", fences.get(1).getId());
+        assertFalse(fences.get(1).isCircle());
+
+        try {
+            GeofenceFile.read(new StringReader("depot,circle,-33.8688,151.2093\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Line 1"));
+        }
+    }
+
+    /**
+     * Fix at a distance north of the fence centre
+     */
+    private static void move(GeofenceMonitor monitor, Fix fix, long time, double northM) {
+        fix.time = time;
+        fix.latitude = northM / METRES_PER_DEGREE;
+        fix.longitude = 0;
+        monitor.onFix(fix);
+    }
+}
@@ -0,0 +1,49 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for grid references, checked against published positions
+ */
+public class GridReferenceTest {
+
+    private final GridReference mFormatter = new GridReference();
+
+    private String format(double latitude, double longitude, int format) {
+        int length = mFormatter.format(latitude, longitude, format);
+        return new String(mFormatter.getChars(), 0, length);
+    }
+
+    @Test
+    public void format_utmAndMgrs() {
+        //the origin of zone 31 is 166021.44 m east
+        assertEquals("31N 166021 0", format(0, 0, GridReference.FORMAT_UTM));
+        assertEquals("31N AA 66021 00000", format(0, 0, GridReference.FORMAT_MGRS));
+        assertEquals("56H 334900 6252288", format(-33.8568, 151.2153, GridReference.FORMAT_UTM));
+        assertEquals("56H LH 34900 52288", format(-33.8568, 151.2153, GridReference.FORMAT_MGRS));
+        assertEquals("18T WL 80735 04700", format(40.689247, -74.044502, GridReference.FORMAT_MGRS));
+        //Bergen is in the widened zone 32 and Longyearbyen in the Svalbard zone 33
+        assertEquals("32V 297230 6700510", format(60.39, 5.32, GridReference.FORMAT_UTM));
+        assertEquals("33X WG 14813 83004", format(78.22, 15.65, GridReference.FORMAT_MGRS));
+        //no UTM at the poles
+        assertEquals("", format(-85, 0, GridReference.FORMAT_UTM));
+    }
+
+    @Test
+    public void format_plusCode() {
+        //the example in the Open Location Code specification, with a grid digit
+        assertEquals("8FVC9G8F+6XQ", format(47.36559, 8.524997, GridReference.FORMAT_PLUS_CODE));
+        assertEquals("4RRH46V8+74M", format(-33.8568, 151.2153, GridReference.FORMAT_PLUS_CODE));
+        assertEquals("CFX3X2X2+X2R", format(90, 1, GridReference.FORMAT_PLUS_CODE));
+        assertEquals("C2P22222+222", format(84, 180, GridReference.FORMAT_PLUS_CODE));
+    }
+
+    @Test
+    public void format_degreesAsAPair() {
+        assertEquals("-33.8568, 151.2153", format(-33.8568, 151.2153, CoordinateFormatter.FORMAT_DEGREES));
+        assertEquals("-33:51:24.48, 151:12:55.08",
+                format(-33.8568, 151.2153, CoordinateFormatter.FORMAT_SECONDS));
+    }
+}
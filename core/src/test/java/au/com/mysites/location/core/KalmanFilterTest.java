@@ -0,0 +1,80 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the Kalman filter using noisy fixes around a known path
+ */
+public class KalmanFilterTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    @Test
+    public void onFix_reducesNoiseOfStationaryFixes() {
+        KalmanFilter filter = new KalmanFilter(1, 60000);
+        Random random = new Random(1);
+        Fix fix = new Fix();
+        double rawError = 0;
+        double filteredError = 0;
+        for (int i = 0; i < 200; i++) {
+            fix.time = 1000L * i;
+            fix.accuracy = 20;
+            fix.latitude = -33.8688 + random.nextGaussian() * 20 / METRES_PER_DEGREE;
+            fix.longitude = 151.2093;
+            rawError += Math.abs(fix.latitude + 33.8688);
+            assertTrue(filter.onFix(fix));
+            filteredError += Math.abs(fix.latitude + 33.8688);
+        }
+        assertTrue(filteredError < rawError / 2);
+        assertTrue(fix.accuracy < 20);
+    }
+
+    @Test
+    public void onFix_followsConstantVelocity() {
+        KalmanFilter filter = new KalmanFilter(1, 60000);
+        Random random = new Random(2);
+        Fix fix = new Fix();
+        double rawError = 0;
+        double filteredError = 0;
+        for (int i = 0; i < 120; i++) {
+            //10 m/s north
+            double latitude = -33.8688 + 10.0 * i / METRES_PER_DEGREE;
+            fix.time = 1000L * i;
+            fix.accuracy = 10;
+            fix.latitude = latitude + random.nextGaussian() * 10 / METRES_PER_DEGREE;
+            fix.longitude = 151.2093;
+            rawError += Math.abs(fix.latitude - latitude);
+            filter.onFix(fix);
+            filteredError += Math.abs(fix.latitude - latitude);
+        }
+        //no lag behind the moving position, so less error than the raw fixes
+        assertTrue(filteredError < rawError * 0.75);
+        assertEquals(10, filter.getSpeed(), 3);
+    }
+
+    @Test
+    public void onFix_dropsOutOfOrderFixes() {
+        KalmanFilter filter = new KalmanFilter(1, 60000);
+        Fix fix = new Fix();
+        fix.time = 2000;
+        fix.latitude = -33.8688;
+        fix.longitude = 151.2093;
+        assertTrue(filter.onFix(fix));
+        fix.time = 1000;
+        assertFalse(filter.onFix(fix));
+        assertEquals(1, filter.getDroppedCount());
+
+        //after a long gap the filter starts again at the fix
+        fix.time = 200000;
+        fix.latitude = 0;
+        fix.longitude = 0;
+        assertTrue(filter.onFix(fix));
+        assertEquals(0, fix.latitude, 0);
+    }
+}
@@ -0,0 +1,56 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the saved last fix
+ */
+public class LastFixFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void read_returnsSavedFixAndAddress() throws Exception {
+        LastFixFile file = new LastFixFile(new File(folder.getRoot(), "state/last_fix"));
+        Fix fix = new Fix();
+        fix.time = 1538300261000L;
+        fix.latitude = -33.8688123;
+        fix.longitude = 151.2093456;
+        fix.accuracy = 7.5f;
+        file.write(fix, "1 Macquarie Street, Sydney");
+
+        Fix read = new Fix();
+        read.hasAltitude = true;
+        assertEquals("1 Macquarie Street, Sydney", file.read(read));
+        assertEquals(fix.time, read.time);
+        assertEquals(fix.latitude, read.latitude, 1e-7);
+        assertEquals(fix.longitude, read.longitude, 1e-7);
+        assertEquals(7.5f, read.accuracy, 0);
+        assertEquals(false, read.hasAltitude);
+
+        file.write(fix, null);
+        assertTrue(file.read(read).isEmpty());
+    }
+
+    @Test
+    public void read_returnsNullIfMissingOrCorrupt() throws Exception {
+        File path = new File(folder.getRoot(), "last_fix");
+        LastFixFile file = new LastFixFile(path);
+        assertNull(file.read(new Fix()));
+
+        FileOutputStream out = new FileOutputStream(path);
+        out.write(new byte[]{0x4C, 0x4C, 0x46, 0x58, 1, 0, 0});
+        out.close();
+        assertNull(file.read(new Fix()));
+    }
+}
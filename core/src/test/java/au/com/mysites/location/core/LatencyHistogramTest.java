@@ -0,0 +1,61 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the latency histogram and metrics
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void record_countsInPowerOfTwoBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(500);          //under 1us
+        histogram.record(1500);         //1us
+        histogram.record(3000000);      //3ms, 2048us to 4096us
+        histogram.record(-1);           //ignored
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(12));
+        assertEquals(3000000, histogram.getMaxNanos());
+        assertEquals((500 + 1500 + 3000000) / 3, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void getPercentile_returnsBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 0; i < 90; i++) histogram.record(5000);        //4us to 8us
+        for (int i = 0; i < 10; i++) histogram.record(100000000);   //100ms
+
+        assertEquals(8000, histogram.getPercentileNanos(50));
+        assertEquals(8000, histogram.getPercentileNanos(90));
+        //capped at the largest latency recorded
+        assertEquals(100000000, histogram.getPercentileNanos(99));
+        histogram.reset();
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void metrics_onlyRecordWhenEnabled() {
+        Metrics.reset();
+        Metrics.setEnabled(false);
+        assertEquals(0, Metrics.start());
+        Metrics.increment(Metrics.CACHE_MISS);
+        assertEquals(0, Metrics.getCount(Metrics.CACHE_MISS));
+
+        Metrics.setEnabled(true);
+        long start = Metrics.start();
+        Metrics.record(Metrics.GEOCODER, start);
+        Metrics.increment(Metrics.CACHE_MISS);
+        Metrics.setEnabled(false);
+        assertEquals(1, Metrics.getTimer(Metrics.GEOCODER).getCount());
+        assertEquals(1, Metrics.getCount(Metrics.CACHE_MISS));
+        assertTrue(Metrics.report().contains("cache_miss 1\n"));
+        Metrics.reset();
+    }
+}
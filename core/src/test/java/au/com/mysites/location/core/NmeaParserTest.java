@@ -0,0 +1,98 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for parsing NMEA sentences from a receiver
+ */
+public class NmeaParserTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final String EPOCH = "$GNGGA,093741.20,3352.1280,S,15112.5580,E,2,11,0.9,25.4,M,21.0,M,,*5D\r\n"
+            + "$GNGSA,A,3,04,05,09,12,17,20,,,,,,,1.6,0.9,1.3*2F\r\n"
+            + "$GPGSV,2,1,08,04,40,120,45,05,35,060,42,09,70,300,48,12,15,200,30*74\r\n"
+            + "$GLGSV,1,1,03,65,30,100,40,66,50,150,44,67,10,250,20*57\r\n"
+            + "$GNRMC,093741.20,A,3352.1280,S,15112.5580,E,12.5,271.3,300918,,,D*62\r\n";
+
+    @Test
+    public void next_combinesTheSentencesOfAnEpoch() {
+        NmeaParser parser = new NmeaParser();
+        Fix fix = new Fix();
+        ByteBuffer buffer = ByteBuffer.wrap(EPOCH.getBytes(US_ASCII));
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(0, buffer.remaining());
+        assertEquals(1538300261200L, fix.time);
+        assertEquals(-(33 + 52.128 / 60), fix.latitude, 1e-9);
+        assertEquals(151 + 12.558 / 60, fix.longitude, 1e-9);
+        assertEquals(12.5 * 1852 / 3600, fix.speed, 1e-4);
+        assertEquals(271.3, fix.bearing, 1e-4);
+        assertTrue(fix.hasAltitude);
+        assertEquals(25.4, fix.altitude, 1e-9);
+        assertEquals(4.5, fix.accuracy, 1e-4);
+
+        assertEquals(2, parser.getQuality());
+        assertEquals(3, parser.getFixMode());
+        assertEquals(11, parser.getSatellitesUsed());
+        assertEquals(11, parser.getSatellitesInView());
+        assertEquals(1.6, parser.getPdop(), 1e-9);
+        assertEquals(1.3, parser.getVdop(), 1e-9);
+        assertEquals(5, parser.getSentenceCount());
+        assertEquals(0, parser.getErrorCount());
+    }
+
+    @Test
+    public void next_skipsBadChecksumsAndNoise() {
+        String text = "garbage$GNRMC,093741.20,A,3352.1280,S,15112.5580,E,12.5,271.3,300918,,,D*63\r\n"
+                + "$GNRMC,093741.20,A,3352.1280,S,15112.5580,E,12.5,271.3,300918,,,D\r\n"
+                + "$GNRMC,093741.20,A,3352.1280,S$GNRMC,093742.20,V,,,,,,,300918,,,N*69\r\n"
+                + EPOCH;
+        NmeaParser parser = new NmeaParser();
+        Fix fix = new Fix();
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(US_ASCII));
+        assertTrue(parser.next(buffer, fix));
+        assertEquals(1538300261200L, fix.time);
+        assertFalse(parser.next(buffer, fix));
+        assertEquals(3, parser.getErrorCount());
+        //the void RMC and the epoch
+        assertEquals(6, parser.getSentenceCount());
+    }
+
+    @Test
+    public void read_findsFixesSplitAcrossReads() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) text.append(EPOCH);
+        //without a line end after the last sentence
+        text.setLength(text.length() - 2);
+        final byte[] bytes = text.toString().getBytes(US_ASCII);
+        //a channel giving a few bytes at a time
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        NmeaLocationSource source = new NmeaLocationSource(NmeaLocationSource.stream(in), false);
+        final List<Long> times = new ArrayList<>();
+        source.start(0, 3, 0, new LocationSource.Listener() {
+            @Override
+            public void onFixes(Fix[] fixes, int count) {
+                for (int i = 0; i < count; i++) times.add(fixes[i].time);
+            }
+        });
+        source.await();
+        assertEquals(50, times.size());
+        assertEquals(50, source.getFixCount());
+        assertEquals(0, source.getErrorCount());
+    }
+}
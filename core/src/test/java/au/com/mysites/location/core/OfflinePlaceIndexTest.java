@@ -0,0 +1,72 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Local unit tests for the memory mapped offline place index
+ */
+public class OfflinePlaceIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void nearest_matchesLinearSearch() throws IOException {
+        Random random = new Random(42);
+        int count = 5000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = -44 + random.nextDouble() * 34;
+            longitudes[i] = 113 + random.nextDouble() * 41;
+            names[i] = "Place " + i;
+        }
+        File file = folder.newFile();
+        OfflinePlaceIndexWriter.write(file, latitudes, longitudes, names);
+        OfflinePlaceIndex index = OfflinePlaceIndex.open(file);
+        assertEquals(count, index.size());
+
+        for (int q = 0; q < 500; q++) {
+            double latitude = -44 + random.nextDouble() * 34;
+            double longitude = 113 + random.nextDouble() * 41;
+            int place = index.nearest(latitude, longitude);
+
+            //same metric as the index, equirectangular in micro degrees
+            double scale = Math.cos(Math.toRadians(latitude));
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                double dLat = Math.round(latitudes[i] * 1e6) - Math.round(latitude * 1e6);
+                double dLon = (Math.round(longitudes[i] * 1e6) - Math.round(longitude * 1e6)) * scale;
+                best = Math.min(best, dLat * dLat + dLon * dLon);
+            }
+            double dLat = Math.round(index.getLatitude(place) * 1e6) - Math.round(latitude * 1e6);
+            double dLon = (Math.round(index.getLongitude(place) * 1e6)
+                    - Math.round(longitude * 1e6)) * scale;
+            assertEquals(best, dLat * dLat + dLon * dLon, 1e-6);
+        }
+    }
+
+    @Test
+    public void getAddress_returnsNearbyPlaceOnly() throws IOException {
+        File file = folder.newFile();
+        OfflinePlaceIndexWriter.write(file, new double[]{-33.8688, -37.8136},
+                new double[]{151.2093, 144.9631},
+                new String[]{"Sydney, New South Wales, Australia", "Melbourne, Victoria, Australia"});
+        OfflineAddressLookup lookup = new OfflineAddressLookup(OfflinePlaceIndex.open(file), 20000);
+
+        assertEquals("Sydney, New South Wales, Australia", lookup.getAddress(-33.87, 151.21));
+        assertEquals("Melbourne, Victoria, Australia", lookup.getAddress(-37.80, 144.95));
+        //Canberra is too far from both
+        assertNull(lookup.getAddress(-35.28, 149.13));
+    }
+}
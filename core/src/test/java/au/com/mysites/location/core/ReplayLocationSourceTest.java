@@ -0,0 +1,188 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for reading recorded tracks and replaying them
+ */
+public class ReplayLocationSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String text) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void open_readsExportedGpx() throws Exception {
+        TrackStore store = TrackStore.open(folder.newFolder(), 4096);
+        Fix fix = new Fix();
+        for (int i = 0; i < 3; i++) {
+            fix.time = 1538300261000L + i * 1000L;
+            fix.latitude = -33.8688 - i * 0.001;
+            fix.longitude = 151.2093;
+            fix.hasAltitude = i > 0;
+            fix.altitude = 12.5;
+            store.append(fix);
+        }
+        File file = new File(folder.getRoot(), "track.gpx");
+        new TrackExporter(TrackExporter.FORMAT_GPX).export(store, file, false);
+
+        FixReader reader = TrackFileReader.open(file);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(reader.read(fix));
+            assertEquals(1538300261000L + i * 1000L, fix.time);
+            assertEquals(-33.8688 - i * 0.001, fix.latitude, 1e-7);
+            assertEquals(151.2093, fix.longitude, 1e-7);
+            assertEquals(i > 0, fix.hasAltitude);
+        }
+        assertFalse(reader.read(fix));
+        reader.close();
+    }
+
+    @Test
+    public void open_readsCsvByHeaderOrPosition() throws Exception {
+        Fix fix = new Fix();
+        FixReader reader = TrackFileReader.open(write("annotated.csv",
+                "time,latitude,longitude,address\n"
+                        + "2018-09-30T09:37:41Z,-33.8688000,151.2093000,\"1 Macquarie St, Sydney\"\n"
+                        + "2018-09-30T19:37:42.250+10:00,-33.8689000,151.2094000,\n"));
+        assertTrue(reader.read(fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(-33.8688, fix.latitude, 1e-7);
+        assertFalse(fix.hasAltitude);
+        assertTrue(reader.read(fix));
+        assertEquals(1538300262250L, fix.time);
+        assertFalse(reader.read(fix));
+        reader.close();
+
+        reader = TrackFileReader.open(write("plain.csv", "1538300261000,-33.8688,151.2093\n"));
+        assertTrue(reader.read(fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(151.2093, fix.longitude, 1e-7);
+        reader.close();
+    }
+
+    @Test
+    public void open_readsNmeaRmcWithGgaAltitude() throws Exception {
+        Fix fix = new Fix();
+        FixReader reader = TrackFileReader.open(write("drive.nmea",
+                "$GPGGA,093741.00,3352.1280,S,15112.5580,E,1,08,1.2,25.0,M,21.0,M,,*44\n"
+                        + "$GPGSA,A,3,04,05,09,12,,,,,,,,,2.5,1.2,2.0*3F\n"
+                        + "$GPRMC,093741.00,A,3352.1280,S,15112.5580,E,10.0,90.0,300918,,,A*42\n"
+                        + "$GPRMC,093742.00,V,,,,,,,300918,,,N*75\n"
+                        + "$GPRMC,093743.00,A,3352.1280,S,15112.5690,E,10.0,90.0,300918,,,A*42\n"));
+        assertTrue(reader.read(fix));
+        assertEquals(1538300261000L, fix.time);
+        assertEquals(-(33 + 52.128 / 60), fix.latitude, 1e-9);
+        assertEquals(151 + 12.558 / 60, fix.longitude, 1e-9);
+        assertEquals(10 * 1852.0 / 3600, fix.speed, 1e-4);
+        assertTrue(fix.hasAltitude);
+        assertEquals(25.0, fix.altitude, 0);
+        assertEquals(6, fix.accuracy, 1e-4);
+
+        //the void fix is skipped and there is no altitude without a GGA
+        assertTrue(reader.read(fix));
+        assertEquals(1538300263000L, fix.time);
+        assertFalse(fix.hasAltitude);
+        assertFalse(reader.read(fix));
+        reader.close();
+    }
+
+    @Test
+    public void start_deliversBatchesAtTheInterval() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            csv.append(1538300261000L + i * 1000L).append(",-33.8688,151.2093\n");
+        }
+        ReplayLocationSource source = new ReplayLocationSource(write("track.csv", csv.toString()),
+                ReplayLocationSource.SPEED_MAX);
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> batches = new ArrayList<>();
+        source.start(2000, 2, 0, new LocationSource.Listener() {
+            @Override
+            public void onFixes(Fix[] fixes, int count) {
+                batches.add(count);
+                for (int i = 0; i < count; i++) times.add(fixes[i].time);
+            }
+        });
+        source.await();
+
+        assertNull(source.getError());
+        assertEquals(5, source.getFixCount());
+        assertEquals(3, batches.size());
+        assertEquals(1, (int) batches.get(2));
+        assertEquals(1538300261000L, (long) times.get(0));
+        assertEquals(1538300263000L, (long) times.get(1));
+        assertEquals(1538300269000L, (long) times.get(4));
+    }
+
+    @Test
+    public void start_afterStopReplaysOnOneThread() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            csv.append(1538300261000L + i * 1000L).append(",-33.8688,151.2093\n");
+        }
+        ReplayLocationSource source = new ReplayLocationSource(write("track.csv", csv.toString()),
+                ReplayLocationSource.SPEED_MAX);
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        LocationSource.Listener listener = new LocationSource.Listener() {
+            @Override
+            public void onFixes(Fix[] fixes, int count) {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+                //the first replay is stopped and restarted while it delivers
+                if (delivering.getCount() > 0) {
+                    delivering.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        //stopped
+                    }
+                }
+            }
+        };
+        source.start(0, 1, 0, listener);
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        source.stop();
+        source.start(0, 1, 0, listener);
+        release.countDown();
+        source.await();
+
+        synchronized (threads) {
+            Thread first = threads.get(0);
+            assertEquals(1, Collections.frequency(threads, first));
+            assertEquals(2001, threads.size());
+        }
+        assertEquals(2001, source.getFixCount());
+    }
+}
@@ -0,0 +1,88 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the sampling policy using fixes along a straight line
+ */
+public class SamplingPolicyTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+
+    private final Fix mFix = new Fix();
+    private long mTime;
+    private double mNorth;
+
+    /**
+     * Feed fixes once a second at a speed
+     */
+    private void move(SamplingPolicy policy, double speed, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            mTime += 1000;
+            mNorth += speed;
+            mFix.time = mTime;
+            mFix.latitude = -33.8688 + mNorth / METRES_PER_DEGREE;
+            mFix.longitude = 151.2093;
+            mFix.accuracy = 5;
+            mFix.speed = (float) speed;
+            mFix.hasSpeed = true;
+            policy.onFix(mFix);
+        }
+    }
+
+    @Test
+    public void onFix_switchesWithSpeedAndStillness() {
+        final int[] changes = new int[1];
+        SamplingPolicy policy = new SamplingPolicy(new SamplingPolicy.Listener() {
+            @Override
+            public void onSamplingChanged(SamplingPolicy policy) {
+                changes[0]++;
+            }
+        });
+        assertEquals(SamplingPolicy.STATE_WALKING, policy.getState());
+
+        move(policy, 15, 20);
+        assertEquals(SamplingPolicy.STATE_DRIVING, policy.getState());
+        assertEquals(SamplingPolicy.POWER_HIGH_ACCURACY, policy.getPower());
+        assertEquals(1000, policy.getIntervalMs());
+
+        move(policy, 0, 60);
+        assertEquals(SamplingPolicy.STATE_WALKING, policy.getState());
+        move(policy, 0, 120);
+        assertEquals(SamplingPolicy.STATE_STATIONARY, policy.getState());
+        assertEquals(SamplingPolicy.POWER_LOW, policy.getPower());
+        assertEquals(3, changes[0]);
+        assertEquals(3, policy.getSwitchCount());
+        assertEquals(200, policy.getFixCount());
+    }
+
+    @Test
+    public void onFix_holdsStateBetweenThresholds() {
+        SamplingPolicy policy = new SamplingPolicy(null);
+        move(policy, 7, 10);
+        assertEquals(SamplingPolicy.STATE_DRIVING, policy.getState());
+        //between the down and up thresholds stays driving
+        move(policy, 5, 120);
+        assertEquals(SamplingPolicy.STATE_DRIVING, policy.getState());
+        assertEquals(1, policy.getSwitchCount());
+    }
+
+    @Test
+    public void setBattery_reducesSamplingWhenLow() {
+        SamplingPolicy policy = new SamplingPolicy(null);
+        policy.setBattery(10, false);
+        move(policy, 2, 1);
+        assertEquals(15000, policy.getIntervalMs());
+        assertEquals(SamplingPolicy.POWER_LOW, policy.getPower());
+
+        //not back to normal until above the exit level
+        policy.setBattery(18, false);
+        move(policy, 2, 1);
+        assertEquals(15000, policy.getIntervalMs());
+        policy.setBattery(18, true);
+        move(policy, 2, 1);
+        assertEquals(5000, policy.getIntervalMs());
+    }
+}
@@ -0,0 +1,79 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the in memory index of saved places
+ */
+public class SavedPlaceIndexTest {
+
+    @Test
+    public void nearest_matchesLinearSearch() {
+        Random random = new Random(42);
+        int count = 5000;
+        long[] ids = new long[count];
+        int[] latitudes = new int[count];
+        int[] longitudes = new int[count];
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i + 1;
+            latitudes[i] = SavedPlaceIndex.quantize(-34 + random.nextDouble());
+            longitudes[i] = SavedPlaceIndex.quantize(151 + random.nextDouble());
+            names[i] = "Place " + i;
+        }
+        SavedPlaceIndex index = new SavedPlaceIndex(ids, latitudes, longitudes, names);
+        assertEquals(count, index.size());
+
+        int[] places = new int[5];
+        double[] distances = new double[count];
+        for (int q = 0; q < 200; q++) {
+            double latitude = -34 + random.nextDouble();
+            double longitude = 151 + random.nextDouble();
+            assertEquals(5, index.nearest(latitude, longitude, places));
+            for (int i = 0; i < count; i++) {
+                distances[i] = distance(latitude, longitude, latitudes[i], longitudes[i]);
+            }
+            Arrays.sort(distances);
+            for (int i = 0; i < 5; i++) {
+                double found = distance(latitude, longitude,
+                        SavedPlaceIndex.quantize(index.getLatitude(places[i])),
+                        SavedPlaceIndex.quantize(index.getLongitude(places[i])));
+                assertEquals(distances[i], found, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void plus_replacesPlaceAtSamePosition() {
+        SavedPlaceIndex index = SavedPlaceIndex.empty();
+        int[] places = new int[3];
+        assertEquals(0, index.nearest(-33.8688, 151.2093, places));
+
+        int latitude = SavedPlaceIndex.quantize(-33.8688);
+        int longitude = SavedPlaceIndex.quantize(151.2093);
+        index = index.plus(new long[]{1, 2}, new int[]{latitude, latitude + 1000},
+                new int[]{longitude, longitude}, new String[]{"Office", "Depot"});
+        index = index.plus(new long[]{3}, new int[]{latitude}, new int[]{longitude},
+                new String[]{"Head office"});
+        assertEquals(2, index.size());
+        assertEquals(2, index.nearest(-33.8688, 151.2093, places));
+        assertEquals("Head office", index.getName(places[0]));
+        assertEquals(3, index.getId(places[0]));
+        assertEquals("Depot", index.getName(places[1]));
+    }
+
+    /**
+     * Squared distance as measured by the index, in micro degrees
+     */
+    private static double distance(double latitude, double longitude, int latitudeE6, int longitudeE6) {
+        double deltaLatitude = latitudeE6 - SavedPlaceIndex.quantize(latitude);
+        double deltaLongitude = (longitudeE6 - SavedPlaceIndex.quantize(longitude))
+                * Math.cos(Math.toRadians(latitude));
+        return deltaLatitude * deltaLatitude + deltaLongitude * deltaLongitude;
+    }
+}
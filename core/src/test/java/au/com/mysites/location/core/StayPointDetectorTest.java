@@ -0,0 +1,118 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for finding visits in the fixes
+ */
+public class StayPointDetectorTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+    private static final double LATITUDE = -33.8688;
+    private static final double LONGITUDE = 151.2093;
+    private static final long START = 1538300261000L;
+
+    private final List<Visit> mVisits = new ArrayList<>();
+    private final List<Integer> mEvents = new ArrayList<>();
+    private final StayPointDetector mDetector = new StayPointDetector(50, 5 * 60 * 1000, 60 * 1000,
+            new StayPointDetector.Listener() {
+                @Override
+                public void onVisitEvent(Visit visit, int event) {
+                    mVisits.add(visit);
+                    mEvents.add(event);
+                }
+            });
+    private final Random mRandom = new Random(5);
+    private final Fix mFix = new Fix();
+    private long mTime = START - 1000;
+    private double mEast;
+    private double mNorth;
+
+    /**
+     * Feed fixes once a second with 5 m of jitter, moving at a speed to the east
+     */
+    private void move(double speed, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            mTime += 1000;
+            mEast += speed;
+            fix(mEast + mRandom.nextGaussian() * 5, mNorth + mRandom.nextGaussian() * 5, 10);
+        }
+    }
+
+    private void fix(double east, double north, float accuracy) {
+        mFix.time = mTime;
+        mFix.latitude = LATITUDE + north / METRES_PER_DEGREE;
+        mFix.longitude = LONGITUDE + east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        mFix.accuracy = accuracy;
+        assertTrue(mDetector.onFix(mFix));
+    }
+
+    @Test
+    public void onFix_findsVisitsAndReturns() {
+        move(0, 20 * 60);
+        move(15, 600);
+        long shop = mTime + 1000;
+        move(0, 10 * 60);
+        long left = mTime;
+        move(-15, 600);
+        move(0, 10 * 60);
+        mDetector.flush();
+
+        assertEquals(6, mEvents.size());
+        int[] events = {StayPointDetector.EVENT_ARRIVE, StayPointDetector.EVENT_DEPART};
+        for (int i = 0; i < 6; i++) assertEquals(events[i % 2], (int) mEvents.get(i));
+        //home, the shop and home again
+        assertEquals(0, mVisits.get(1).place);
+        assertEquals(1, mVisits.get(3).place);
+        assertEquals(0, mVisits.get(5).place);
+        assertEquals(2, mDetector.getPlaceCount());
+
+        assertEquals(START, mVisits.get(0).arrival);
+        assertEquals(START + 5 * 60 * 1000, mVisits.get(0).departure);
+        Visit home = mVisits.get(1);
+        assertEquals(START, home.arrival);
+        assertTrue(home.departure + " left", home.departure >= START + 20 * 60 * 1000 - 1000);
+        assertEquals(0, Geodesy.distance(LATITUDE, LONGITUDE, home.latitude, home.longitude), 2);
+
+        //arrival within a few fixes of stopping, while moving the fixes are 15 m apart
+        Visit visit = mVisits.get(3);
+        assertEquals(shop, visit.arrival, 5000);
+        assertEquals(left, visit.departure, 5000);
+        assertEquals(9000, Geodesy.distance(LATITUDE, LONGITUDE, visit.latitude, visit.longitude), 5);
+        assertFalse(mDetector.isVisiting());
+    }
+
+    @Test
+    public void onFix_ignoresShortStopsAndStrayFixes() {
+        move(0, 2 * 60);
+        move(15, 100);
+        move(0, 4 * 60);
+        move(15, 100);
+        assertEquals(0, mEvents.size());
+
+        move(0, 6 * 60);
+        assertEquals(1, mEvents.size());
+        assertTrue(mDetector.isVisiting());
+        //a stray fix far away, and an inaccurate one
+        mTime += 1000;
+        fix(mEast + 500, mNorth, 10);
+        mTime += 1000;
+        fix(mEast + 5000, mNorth, 1000);
+        move(0, 60);
+        assertEquals(1, mEvents.size());
+        assertTrue(mDetector.isVisiting());
+
+        mDetector.flush();
+        assertEquals(2, mEvents.size());
+        assertEquals(StayPointDetector.EVENT_DEPART, (int) mEvents.get(1));
+        assertEquals(mTime, mVisits.get(1).departure);
+    }
+}
@@ -0,0 +1,84 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for exporting the track store
+ */
+public class TrackExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TrackStore newStore() throws Exception {
+        TrackStore store = TrackStore.open(folder.newFolder(), 4096);
+        Fix fix = new Fix();
+        for (int i = 0; i < 3; i++) {
+            fix.time = 1538300261000L + i * 60000L;
+            fix.latitude = -33.8688 - i * 0.001;
+            fix.longitude = 151.2093;
+            fix.hasAltitude = true;
+            fix.altitude = 12.5;
+            fix.accuracy = 4;
+            store.append(fix);
+        }
+        return store;
+    }
+
+    private static String export(TrackExporter exporter, TrackStore store) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(store, Channels.newChannel(out));
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void export_writesGpxTrackPoints() throws Exception {
+        String gpx = export(new TrackExporter(TrackExporter.FORMAT_GPX), newStore());
+        assertTrue(gpx.contains("<trkpt lat=\"-33.8688000\" lon=\"151.2093000\">"
+                + "<ele>12.5</ele><time>2018-09-30T09:37:41Z</time></trkpt>"));
+        assertTrue(gpx.endsWith("</gpx>\n"));
+    }
+
+    @Test
+    public void export_appliesTimeAndBoundsFilters() throws Exception {
+        TrackStore store = newStore();
+        TrackExporter exporter = new TrackExporter(TrackExporter.FORMAT_GEOJSON);
+        exporter.setTimeRange(1538300261000L, 1538300261000L + 120000L);
+        exporter.setBounds(-33.8695, 151, -33.86, 152);
+        String json = export(exporter, store);
+        assertTrue(json.contains("[151.2093000,-33.8688000,12.5]"));
+        assertFalse(json.contains("[151.2093000,-33.8698000,12.5]"));
+        assertTrue(json.contains("\"2018-09-30T09:37:41Z\""));
+    }
+
+    @Test
+    public void export_compressesFile() throws Exception {
+        TrackStore store = newStore();
+        TrackExporter exporter = new TrackExporter(TrackExporter.FORMAT_KML);
+        File file = folder.newFile("track" + exporter.getExtension(true));
+        assertEquals(3, exporter.export(store, file, true));
+
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) out.write(buffer, 0, read);
+        in.close();
+        String kml = out.toString("UTF-8");
+        assertTrue(kml.contains("<when>2018-09-30T09:39:41Z</when>"));
+        assertTrue(kml.contains("<gx:coord>151.2093000 -33.8708000 12.5</gx:coord>"));
+    }
+}
@@ -0,0 +1,98 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for simplifying the track before it is stored
+ */
+public class TrackSimplifierTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+    private static final double LATITUDE = -33.8688;
+    private static final double LONGITUDE = 151.2093;
+
+    private final List<Fix> mKept = new ArrayList<>();
+    private final FixProcessor mStore = new FixProcessor() {
+        @Override
+        public boolean onFix(Fix fix) {
+            Fix copy = new Fix();
+            copy.set(fix);
+            mKept.add(copy);
+            return true;
+        }
+    };
+    private final Fix mFix = new Fix();
+    private long mTime = 1538300261000L;
+
+    private void add(TrackSimplifier simplifier, double east, double north) {
+        mTime += 1000;
+        mFix.time = mTime;
+        mFix.latitude = LATITUDE + north / METRES_PER_DEGREE;
+        mFix.longitude = LONGITUDE + east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        assertTrue(simplifier.onFix(mFix));
+    }
+
+    @Test
+    public void onFix_keepsTheCorners() {
+        TrackSimplifier simplifier = new TrackSimplifier(mStore, 5, 1000);
+        for (int i = 0; i < 100; i++) add(simplifier, 0, i * 10);
+        for (int i = 1; i < 100; i++) add(simplifier, i * 10, 990);
+        simplifier.flush();
+
+        assertEquals(199, simplifier.getFixCount());
+        assertEquals(3, simplifier.getKeptCount());
+        assertEquals(3, mKept.size());
+        assertEquals(LATITUDE + 990 / METRES_PER_DEGREE, mKept.get(1).latitude, 1e-9);
+        assertEquals(LONGITUDE, mKept.get(1).longitude, 1e-9);
+        assertEquals(mTime, mKept.get(2).time);
+        assertEquals(0, simplifier.getMaxDeviation(), 1e-6);
+    }
+
+    @Test
+    public void onFix_dropsJitterWithinTheTolerance() {
+        TrackSimplifier simplifier = new TrackSimplifier(mStore, 5, TrackSimplifier.DEFAULT_WINDOW);
+        Random random = new Random(3);
+        double[] east = new double[1000];
+        double[] north = new double[1000];
+        for (int i = 0; i < east.length; i++) {
+            //a gentle curve with 2 m of jitter
+            east[i] = 3000 * Math.sin(i / 500.0) + random.nextGaussian() * 2;
+            north[i] = i * 8 + random.nextGaussian() * 2;
+            add(simplifier, east[i], north[i]);
+        }
+        simplifier.flush();
+
+        assertEquals(1000, simplifier.getFixCount());
+        assertTrue(mKept.size() + " kept", mKept.size() < 200);
+        assertTrue(simplifier.getMaxDeviation() <= 5);
+        //every fix is within the tolerance of the kept track
+        int segment = 0;
+        for (int i = 0; i < east.length; i++) {
+            long time = 1538300261000L + (i + 1) * 1000L;
+            while (mKept.get(segment + 1).time < time) segment++;
+            Fix a = mKept.get(segment);
+            Fix b = mKept.get(segment + 1);
+            assertTrue("fix " + i, distanceToSegment(east[i], north[i], a, b) <= 5 + 1e-6);
+        }
+    }
+
+    private static double distanceToSegment(double east, double north, Fix a, Fix b) {
+        double metresEast = METRES_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        double ax = (a.longitude - LONGITUDE) * metresEast;
+        double ay = (a.latitude - LATITUDE) * METRES_PER_DEGREE;
+        double bx = (b.longitude - LONGITUDE) * metresEast - ax;
+        double by = (b.latitude - LATITUDE) * METRES_PER_DEGREE - ay;
+        double px = east - ax;
+        double py = north - ay;
+        double lengthSquared = bx * bx + by * by;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * bx + py * by) / lengthSquared));
+        return Math.hypot(px - t * bx, py - t * by);
+    }
+}
@@ -0,0 +1,119 @@
+package au.com.mysites.location.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for the trip statistics and their pyramid
+ */
+public class TrackStatisticsTest {
+
+    private static final double METRES_PER_DEGREE = Geodesy.EARTH_RADIUS_M * Math.PI / 180;
+    // on the hour, so buckets of every level start here
+    private static final long START = 1538298000000L;
+
+    private final Fix mFix = new Fix();
+    private long mTime = START - 1000;
+    private double mNorth;
+    private double mAltitude = 100;
+
+    /**
+     * Feed fixes once a second at a speed and rate of climb
+     */
+    private void move(FixProcessor processor, double speed, double climb, int seconds) {
+        for (int i = 0; i < seconds; i++) {
+            mTime += 1000;
+            mNorth += speed;
+            mAltitude += climb;
+            mFix.time = mTime;
+            mFix.latitude = -33.8688 + mNorth / METRES_PER_DEGREE;
+            mFix.longitude = 151.2093;
+            mFix.accuracy = 5;
+            mFix.speed = (float) speed;
+            mFix.hasSpeed = true;
+            mFix.altitude = mAltitude;
+            mFix.hasAltitude = true;
+            processor.onFix(mFix);
+        }
+    }
+
+    @Test
+    public void onFix_accumulatesWhileMoving() {
+        TrackStatistics statistics = new TrackStatistics();
+        move(statistics, 10, 0.25, 601);
+        move(statistics, 0, 0, 60);
+        //a 10 minute gap is not moving time
+        mTime += 10 * 60 * 1000;
+        move(statistics, 5, -0.5, 11);
+
+        assertEquals(672, statistics.getFixCount());
+        assertEquals(START, statistics.getStartTime());
+        assertEquals(mTime, statistics.getLastTime());
+        assertEquals(6050, statistics.getDistance(), 0.1);
+        assertEquals(610 * 1000, statistics.getMovingTimeMs());
+        assertEquals(6050.0 / 610, statistics.getAverageSpeed(), 1e-3);
+        assertEquals(10, statistics.getMaxSpeed(), 1e-6);
+        assertEquals(0, statistics.getBearing(), 1e-6);
+        //the climb counted in steps of the threshold, the descent not at all
+        assertEquals(150, statistics.getElevationGain(), 1e-9);
+
+        statistics.reset();
+        assertEquals(0, statistics.getFixCount());
+        assertEquals(0, statistics.getDistance(), 0);
+        assertEquals(0, statistics.getPyramid().getBucketCount(0));
+    }
+
+    @Test
+    public void pyramid_summarisesEachLevel() {
+        TrackStatistics statistics = new TrackStatistics();
+        TrackPyramid pyramid = statistics.getPyramid();
+        move(statistics, 10, 0.1, 600);
+        move(statistics, 0, 0, 60);
+
+        assertEquals(66, pyramid.getBucketCount(0));
+        assertEquals(11, pyramid.getBucketCount(1));
+        assertEquals(2, pyramid.getBucketCount(2));
+        assertEquals(0, pyramid.level(START, mTime, 100));
+        assertEquals(1, pyramid.level(START, mTime, 20));
+        assertEquals(pyramid.getLevelCount() - 1, pyramid.level(START, mTime, 0));
+
+        long[] times = new long[20];
+        float[] mins = new float[20];
+        float[] maxes = new float[20];
+        float[] means = new float[20];
+        int count = pyramid.read(1, TrackPyramid.CHANNEL_SPEED, START, mTime, times, mins, maxes, means);
+        assertEquals(11, count);
+        assertEquals(START, times[0]);
+        assertEquals(10, means[0], 1e-6);
+        assertEquals(START + 600 * 1000, times[10]);
+        assertEquals(0, maxes[10], 1e-6);
+
+        count = pyramid.read(2, TrackPyramid.CHANNEL_ALTITUDE, START, mTime, times, mins, maxes, means);
+        assertEquals(2, count);
+        assertEquals(100.1, mins[0], 1e-3);
+        assertEquals(160, maxes[0], 1e-3);
+    }
+
+    @Test
+    public void pyramid_keepsTheLatestBuckets() {
+        TrackPyramid pyramid = new TrackPyramid(4);
+        for (int i = 0; i < 10; i++) pyramid.add(START + i * 10000L, i, Float.NaN);
+        assertEquals(4, pyramid.getBucketCount(0));
+        //an older fix is not added to a level past it
+        pyramid.add(START, 100, Float.NaN);
+
+        long[] times = new long[8];
+        float[] values = new float[8];
+        int count = pyramid.read(0, TrackPyramid.CHANNEL_SPEED, START, START + 100000, times, values,
+                new float[8], new float[8]);
+        assertEquals(4, count);
+        assertEquals(START + 60000, times[0]);
+        assertEquals(6, values[0], 0);
+        assertEquals(9, values[3], 0);
+        assertEquals(0, pyramid.read(0, TrackPyramid.CHANNEL_ALTITUDE, START, START + 100000, times,
+                values, values, values));
+        //the finest level no longer holds the start, the next does
+        assertEquals(1, pyramid.level(START, START + 100000, 20));
+    }
+}
@@ -0,0 +1,175 @@
+package au.com.mysites.location.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for the memory mapped track store
+ */
+public class TrackStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Fix fix(int i) {
+        Fix fix = new Fix();
+        fix.time = 1538300000000L + i * 1000L;
+        fix.latitude = -33.8688 + i * 1e-5;
+        fix.longitude = 151.2093 - i * 2e-5;
+        fix.hasAltitude = i % 3 != 0;
+        fix.altitude = fix.hasAltitude ? 20 + i * 0.1 : 0;
+        fix.accuracy = 5 + (i % 7);
+        return fix;
+    }
+
+    private static void assertFix(Fix expected, Fix actual) {
+        assertEquals(expected.time, actual.time);
+        assertEquals(expected.latitude, actual.latitude, 1e-7);
+        assertEquals(expected.longitude, actual.longitude, 1e-7);
+        assertEquals(expected.hasAltitude, actual.hasAltitude);
+        assertEquals(expected.altitude, actual.altitude, 0.05);
+        assertEquals(expected.accuracy, actual.accuracy, 0.05);
+    }
+
+    @Test
+    public void cursor_readsBackAcrossSegments() throws Exception {
+        File directory = folder.newFolder();
+        TrackStore store = TrackStore.open(directory, 4096);
+        int count = 2000;
+        for (int i = 0; i < count; i++) store.append(fix(i));
+        store.close();
+        assertTrue(directory.list().length > 3);
+
+        TrackStore.Cursor cursor = TrackStore.open(directory, 4096).cursor();
+        Fix fix = new Fix();
+        for (int i = 0; i < count; i++) {
+            assertTrue(cursor.next(fix));
+            assertFix(fix(i), fix);
+        }
+        assertFalse(cursor.next(fix));
+    }
+
+    @Test
+    public void open_continuesAfterLastFix() throws Exception {
+        File directory = folder.newFolder();
+        TrackStore store = TrackStore.open(directory, 4096);
+        for (int i = 0; i < 10; i++) store.append(fix(i));
+        store.close();
+
+        store = TrackStore.open(directory, 4096);
+        for (int i = 10; i < 20; i++) store.append(fix(i));
+
+        TrackStore.Cursor cursor = store.cursor();
+        Fix fix = new Fix();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(cursor.next(fix));
+            assertFix(fix(i), fix);
+        }
+        assertFalse(cursor.next(fix));
+    }
+
+    /**
+     * @return offsets of the records of the first segment, and the end of the last
+     */
+    private static List<Integer> recordStarts(File segment) throws Exception {
+        List<Integer> starts = new ArrayList<>();
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        int position = TrackStore.HEADER_BYTES;
+        while (true) {
+            starts.add(position);
+            file.seek(position);
+            int length = file.read() & 0x3f;
+            if (length == 0) break;
+            position += length + 2;
+        }
+        file.close();
+        return starts;
+    }
+
+    @Test
+    public void open_clearsTornRecordBeforeShorterFix() throws Exception {
+        //where a fix after the first five ends
+        File reference = folder.newFolder();
+        TrackStore store = TrackStore.open(reference, 4096);
+        for (int i = 0; i < 5; i++) store.append(fix(i));
+        store.append(fix(5));
+        store.close();
+        List<Integer> starts = recordStarts(reference.listFiles()[0]);
+        int shortEnd = starts.get(6);
+
+        File directory = folder.newFolder();
+        store = TrackStore.open(directory, 4096);
+        for (int i = 0; i < 5; i++) store.append(fix(i));
+        store.close();
+
+        //a torn record, its length byte not yet written, whose bytes after the shorter
+        //fix look like a complete record
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        byte[] record = new byte[starts.get(2) - starts.get(1)];
+        file.seek(starts.get(1));
+        file.readFully(record);
+        int end = starts.get(5);
+        byte[] torn = new byte[shortEnd - end + record.length];
+        for (int i = 1; i < shortEnd - end; i++) torn[i] = 0x55;
+        System.arraycopy(record, 0, torn, shortEnd - end, record.length);
+        file.seek(end);
+        file.write(torn);
+        file.close();
+
+        store = TrackStore.open(directory, 4096);
+        store.append(fix(5));
+        store.close();
+        store = TrackStore.open(directory, 4096);
+        TrackStore.Cursor cursor = store.cursor();
+        Fix fix = new Fix();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(cursor.next(fix));
+            assertFix(fix(i), fix);
+        }
+        assertFalse(cursor.next(fix));
+        store.close();
+    }
+
+    @Test
+    public void open_ignoresTornRecord() throws Exception {
+        File directory = folder.newFolder();
+        TrackStore store = TrackStore.open(directory, 4096);
+        for (int i = 0; i < 5; i++) store.append(fix(i));
+        store.close();
+
+        //a crash part way through a record leaves bytes without a matching checksum
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long end = TrackStore.HEADER_BYTES;
+        while (file.length() > end) {
+            file.seek(end);
+            int length = file.read() & 0x3f;
+            if (length == 0) break;
+            end += length + 2;
+        }
+        file.seek(end);
+        file.write(new byte[]{12, 1, 2, 3});
+        file.close();
+
+        store = TrackStore.open(directory, 4096);
+        store.append(fix(5));
+        TrackStore.Cursor cursor = store.cursor();
+        Fix fix = new Fix();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(cursor.next(fix));
+            assertFix(fix(i), fix);
+        }
+        assertFalse(cursor.next(fix));
+    }
+}